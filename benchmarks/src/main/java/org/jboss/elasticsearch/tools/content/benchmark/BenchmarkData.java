@@ -0,0 +1,196 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.jboss.elasticsearch.tools.content.ValueUtils;
+
+/**
+ * Synthetic JIRA issue like documents and configuration loading used by benchmarks. Documents are generated from fixed
+ * random seed, so they are same for each benchmark run.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class BenchmarkData {
+
+	/**
+	 * Size of generated document.
+	 */
+	public static enum DocumentSize {
+		/** issue with 2 comments and short description */
+		SMALL(2, 2, 200),
+		/** issue with 10 comments and longer description */
+		MEDIUM(10, 5, 2000),
+		/** issue with 50 comments and long description */
+		LARGE(50, 10, 10000);
+
+		final int comments;
+		final int components;
+		final int descriptionLength;
+
+		private DocumentSize(int comments, int components, int descriptionLength) {
+			this.comments = comments;
+			this.components = components;
+			this.descriptionLength = descriptionLength;
+		}
+	}
+
+	/**
+	 * Count of distinct projects used in generated documents, see {@link #createProject(int)}.
+	 */
+	public static final int PROJECTS_COUNT = 50;
+
+	private static final long BASE_TIME = 1400000000000L;
+
+	private static final String[] WORDS = new String[] { "elasticsearch", "index", "river", "document", "search",
+			"content", "&amp;", "mapping", "cluster", "node", "failure", "update", "with", "the", "and", "when", "is",
+			"not", "working", "<b>bold</b>", "<a href=\"http://jira.jboss.org\">link</a>", "&lt;tag&gt;" };
+
+	private static final String[] STATUSES = new String[] { "Open", "In Progress", "Resolved", "Closed", "Reopened" };
+
+	private static final String[] TYPES = new String[] { "Bug", "Feature Request", "Task", "Enhancement" };
+
+	/**
+	 * Create synthetic JIRA issue like document.
+	 *
+	 * @param size of document
+	 * @param seed for random generator, same seed gives same document
+	 * @return document
+	 */
+	public static Map<String, Object> createDocument(DocumentSize size, long seed) {
+		Random random = new Random(seed);
+		Map<String, Object> doc = new LinkedHashMap<String, Object>();
+		int projectNum = random.nextInt(PROJECTS_COUNT);
+		String projectCode = "PRJ" + projectNum;
+		doc.put("key", projectCode + "-" + (seed + 1));
+		doc.put("id", Long.toString(10000 + seed));
+
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		doc.put("fields", fields);
+		fields.put("projectcode", projectCode);
+		fields.put("summary", "  " + createText(random, 80) + "  ");
+		fields.put("description", "<p>" + createText(random, size.descriptionLength) + "</p>");
+		fields.put("status", createNamed(STATUSES[random.nextInt(STATUSES.length)]));
+		fields.put("issuetype", createNamed(TYPES[random.nextInt(TYPES.length)]));
+		fields.put("priority", createNamed("Major"));
+		long created = BASE_TIME + random.nextInt(1000000) * 1000L;
+		fields.put("created", ValueUtils.formatISODateTime(new Date(created)));
+		fields.put("updated", ValueUtils.formatISODateTime(new Date(created + random.nextInt(100000) * 1000L)));
+		fields.put("updated_ts", created + random.nextInt(100000) * 1000L);
+		fields.put("reporter", createUser(random));
+		fields.put("assignee", createUser(random));
+
+		List<Object> components = new ArrayList<Object>();
+		for (int i = 0; i < size.components; i++)
+			components.add(createNamed("Component " + random.nextInt(20)));
+		fields.put("components", components);
+		List<Object> labels = new ArrayList<Object>();
+		for (int i = 0; i < size.components; i++)
+			labels.add(WORDS[random.nextInt(WORDS.length)]);
+		fields.put("labels", labels);
+
+		List<Object> comments = new ArrayList<Object>();
+		for (int i = 0; i < size.comments; i++) {
+			Map<String, Object> comment = new LinkedHashMap<String, Object>();
+			comment.put("id", Integer.toString(i));
+			comment.put("author", createUser(random));
+			comment.put("body", "<div>" + createText(random, 100 + random.nextInt(400)) + "</div>");
+			comment.put("created", ValueUtils.formatISODateTime(new Date(created + i * 3600000L)));
+			comment.put("created_ts", created + i * 3600000L);
+			comments.add(comment);
+		}
+		fields.put("comments", comments);
+		return doc;
+	}
+
+	/**
+	 * Create batch of documents.
+	 *
+	 * @param size of documents
+	 * @param count of documents in batch
+	 * @return list of documents
+	 */
+	public static List<Map<String, Object>> createBatch(DocumentSize size, int count) {
+		List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>(count);
+		for (int i = 0; i < count; i++)
+			ret.add(createDocument(size, i));
+		return ret;
+	}
+
+	/**
+	 * Create project document used for lookups.
+	 *
+	 * @param projectNum number of project
+	 * @return project document
+	 */
+	public static Map<String, Object> createProject(int projectNum) {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("code", "PRJ" + projectNum);
+		ret.put("name", "Project number " + projectNum);
+		ret.put("jira_project", "PRJ" + projectNum);
+		return ret;
+	}
+
+	private static Map<String, Object> createNamed(String name) {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("name", name);
+		return ret;
+	}
+
+	private static Map<String, Object> createUser(Random random) {
+		int num = random.nextInt(200);
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("name", "user" + num);
+		ret.put("displayName", "User Number " + num);
+		ret.put("emailAddress", "user" + num + "@example.org");
+		return ret;
+	}
+
+	private static String createText(Random random, int length) {
+		StringBuilder sb = new StringBuilder(length + 20);
+		while (sb.length() < length) {
+			if (sb.length() > 0)
+				sb.append(' ');
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Load JSON configuration from classpath.
+	 *
+	 * @param path of resource
+	 * @return configuration
+	 * @throws IOException if resource can't be read
+	 */
+	public static Map<String, Object> loadJSONFromClasspath(String path) throws IOException {
+		InputStream is = BenchmarkData.class.getResourceAsStream(path);
+		if (is == null)
+			throw new IOException("Resource " + path + " not found on classpath");
+		try {
+			XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(is);
+			try {
+				return parser.mapOrdered();
+			} finally {
+				parser.close();
+			}
+		} finally {
+			is.close();
+		}
+	}
+
+}
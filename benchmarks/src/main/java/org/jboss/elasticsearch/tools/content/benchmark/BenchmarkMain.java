@@ -0,0 +1,32 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Runs benchmarks with JMH command line options, GC profiler (<code>-prof gc</code>) is enabled by default so allocation
+ * rate (<code>gc.alloc.rate.norm</code>) is reported for each benchmark. Pass <code>-prof</code> option explicitly to
+ * use other profiler.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+		List<String> a = new ArrayList<String>(Arrays.asList(args));
+		if (!a.contains("-prof") && !a.contains("-h") && !a.contains("-l")) {
+			a.add("-prof");
+			a.add("gc");
+		}
+		Main.main(a.toArray(new String[a.size()]));
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.jboss.elasticsearch.tools.content.ESLookupValuePreprocessor;
+import org.jboss.elasticsearch.tools.content.PreprocessChainContextImpl;
+import org.jboss.elasticsearch.tools.content.StructureUtils;
+import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessorFactory;
+import org.jboss.elasticsearch.tools.content.benchmark.BenchmarkData.DocumentSize;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link ESLookupValuePreprocessor} against in-JVM local ElasticSearch node with in-memory index of
+ * {@link BenchmarkData#PROJECTS_COUNT} projects. Project is looked up for one document, or for whole batch of
+ * {@link PreprocessorChainBenchmark#BATCH_SIZE} documents. Lookup cache is disabled if <code>cacheSize</code> parameter
+ * is 0.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ESLookupValueBenchmark {
+
+	private static final String INDEX_NAME = "projects";
+	private static final String INDEX_TYPE = "project";
+
+	@Param({ "SMALL", "MEDIUM" })
+	public DocumentSize size;
+
+	@Param({ "0", "1000" })
+	public int cacheSize;
+
+	private File tempFolder;
+
+	private Node node;
+
+	private Client client;
+
+	private ESLookupValuePreprocessor tested;
+
+	private Map<String, Object> document;
+
+	private List<Map<String, Object>> batch;
+
+	@Setup
+	public void setup() throws Exception {
+		tempFolder = File.createTempFile("sct-benchmark", "");
+		if (!tempFolder.delete() || !tempFolder.mkdir())
+			throw new IOException("Could not create a temporary folder [" + tempFolder + "]");
+
+		Settings settings = ImmutableSettings.settingsBuilder().put("index.store.type", "memory")
+				.put("gateway.type", "none").put("http.enabled", "false").put("path.data", tempFolder.getCanonicalPath())
+				.build();
+		node = NodeBuilder.nodeBuilder().settings(settings).local(true).node();
+		client = node.client();
+
+		for (int i = 0; i < BenchmarkData.PROJECTS_COUNT; i++) {
+			client.prepareIndex(INDEX_NAME, INDEX_TYPE, Integer.toString(i)).setSource(BenchmarkData.createProject(i))
+					.execute().actionGet();
+		}
+		client.admin().indices().prepareRefresh(INDEX_NAME).execute().actionGet();
+
+		tested = (ESLookupValuePreprocessor) StructuredContentPreprocessorFactory.createPreprocessor(createConfig(),
+				client);
+		document = BenchmarkData.createDocument(size, 1);
+		batch = BenchmarkData.createBatch(size, PreprocessorChainBenchmark.BATCH_SIZE);
+	}
+
+	private Map<String, Object> createConfig() {
+		Map<String, Object> settings = new LinkedHashMap<String, Object>();
+		settings.put("index_name", INDEX_NAME);
+		settings.put("index_type", INDEX_TYPE);
+		settings.put("source_field", "fields.projectcode");
+		settings.put("idx_search_field", "jira_project");
+		List<Map<String, String>> mapping = new ArrayList<Map<String, String>>();
+		mapping.add(createMapping("code", "sys_project", null));
+		mapping.add(createMapping("name", "sys_project_name", "Unknown {__original}"));
+		settings.put("result_mapping", mapping);
+		settings.put("lookup_cache_size", Integer.toString(cacheSize));
+
+		Map<String, Object> config = new HashMap<String, Object>();
+		config.put(StructuredContentPreprocessorFactory.CFG_NAME, "Project lookup");
+		config.put(StructuredContentPreprocessorFactory.CFG_CLASS, ESLookupValuePreprocessor.class.getName());
+		config.put(StructuredContentPreprocessorFactory.CFG_SETTINGS, settings);
+		return config;
+	}
+
+	private static Map<String, String> createMapping(String idxResultField, String targetField, String valueDefault) {
+		Map<String, String> ret = new HashMap<String, String>();
+		ret.put("idx_result_field", idxResultField);
+		ret.put("target_field", targetField);
+		if (valueDefault != null)
+			ret.put("value_default", valueDefault);
+		return ret;
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (client != null)
+			client.close();
+		if (node != null)
+			node.close();
+		deleteRecursively(tempFolder);
+	}
+
+	private static void deleteRecursively(File file) {
+		if (file == null)
+			return;
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				deleteRecursively(child);
+		}
+		file.delete();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Benchmark
+	public Map<String, Object> preprocessData() {
+		Map<String, Object> data = (Map<String, Object>) StructureUtils.getADeepStructureCopy(document);
+		return tested.preprocessData(data, new PreprocessChainContextImpl());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Benchmark
+	public List<Map<String, Object>> preprocessBatch() {
+		List<Map<String, Object>> data = new ArrayList<Map<String, Object>>(batch.size());
+		for (Map<String, Object> item : batch)
+			data.add((Map<String, Object>) StructureUtils.getADeepStructureCopy(item));
+		return tested.preprocessBatch(data, null);
+	}
+
+}
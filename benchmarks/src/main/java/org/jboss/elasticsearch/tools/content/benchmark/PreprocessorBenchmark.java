@@ -0,0 +1,77 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.elasticsearch.tools.content.PreprocessChainContextImpl;
+import org.jboss.elasticsearch.tools.content.StructureUtils;
+import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessor;
+import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessorFactory;
+import org.jboss.elasticsearch.tools.content.benchmark.BenchmarkData.DocumentSize;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of each shipped preprocessor over one document. Preprocessors change processed data, so each invocation
+ * works with deep copy of the document. Cost of this copy is measured by
+ * {@link StructureUtilsBenchmark#getADeepStructureCopy()} and has to be subtracted from results.
+ * <p>
+ * Preprocessor configurations are in <code>benchmark/preprocessors.json</code>. {@link ESLookupValueBenchmark} covers
+ * <code>ESLookupValuePreprocessor</code> as it needs running ElasticSearch node.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PreprocessorBenchmark {
+
+	@Param({ "AddCurrentTimestamp", "AddMultipleValues", "AddValue", "IsDateInRange", "LongToTimestampValue",
+			"MaxTimestamp", "RegExpCapturingGroup", "RemoveMultipleFields", "RequiredValidator", "Scripting",
+			"SimpleValueMapMapper", "StripHtml", "StripHtmlStreaming", "StripHtmlComments", "TrimStringValue",
+			"ValuesCollecting" })
+	public String preprocessor;
+
+	@Param({ "SMALL", "MEDIUM", "LARGE" })
+	public DocumentSize size;
+
+	private StructuredContentPreprocessor tested;
+
+	private Map<String, Object> document;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() throws Exception {
+		Map<String, Object> configs = BenchmarkData.loadJSONFromClasspath("/benchmark/preprocessors.json");
+		Map<String, Object> config = (Map<String, Object>) configs.get(preprocessor);
+		if (config == null)
+			throw new IllegalArgumentException("No configuration for preprocessor " + preprocessor);
+		tested = StructuredContentPreprocessorFactory.createPreprocessor(config, null);
+		document = BenchmarkData.createDocument(size, 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Benchmark
+	public Map<String, Object> preprocessData() {
+		Map<String, Object> data = (Map<String, Object>) StructureUtils.getADeepStructureCopy(document);
+		return tested.preprocessData(data, new PreprocessChainContextImpl());
+	}
+
+}
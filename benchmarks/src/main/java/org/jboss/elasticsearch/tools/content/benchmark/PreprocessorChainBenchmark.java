@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.elasticsearch.tools.content.PreprocessChainContextImpl;
+import org.jboss.elasticsearch.tools.content.PreprocessorChain;
+import org.jboss.elasticsearch.tools.content.StructureUtils;
+import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessorFactory;
+import org.jboss.elasticsearch.tools.content.benchmark.BenchmarkData.DocumentSize;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of full {@link PreprocessorChain} loaded from JSON configuration <code>benchmark/{chain}.json</code>, for
+ * one document and for batch of {@link #BATCH_SIZE} documents. Batch is processed by calling thread if
+ * <code>threads</code> parameter is 0, or in parallel by {@link ForkJoinPool} with given parallelism. Each invocation
+ * works with deep copy of the data, see {@link StructureUtilsBenchmark}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PreprocessorChainBenchmark {
+
+	public static final int BATCH_SIZE = 100;
+
+	@Param({ "chain-jira" })
+	public String chain;
+
+	@Param({ "SMALL", "MEDIUM", "LARGE" })
+	public DocumentSize size;
+
+	@Param({ "0", "4" })
+	public int threads;
+
+	private PreprocessorChain tested;
+
+	private ForkJoinPool pool;
+
+	private Map<String, Object> document;
+
+	private List<Map<String, Object>> batch;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() throws Exception {
+		Map<String, Object> config = BenchmarkData.loadJSONFromClasspath("/benchmark/" + chain + ".json");
+		tested = StructuredContentPreprocessorFactory.createPreprocessorChain(
+				(List<Map<String, Object>>) config.get("preprocessors"), null);
+		if (threads > 0) {
+			pool = new ForkJoinPool(threads);
+			tested.setExecutor(pool);
+		}
+		document = BenchmarkData.createDocument(size, 1);
+		batch = BenchmarkData.createBatch(size, BATCH_SIZE);
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Benchmark
+	public Map<String, Object> preprocessData() {
+		Map<String, Object> data = (Map<String, Object>) StructureUtils.getADeepStructureCopy(document);
+		return tested.preprocessData(data, new PreprocessChainContextImpl());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Benchmark
+	public List<Map<String, Object>> processBatch() {
+		List<Map<String, Object>> data = new ArrayList<Map<String, Object>>(batch.size());
+		for (Map<String, Object> item : batch)
+			data.add((Map<String, Object>) StructureUtils.getADeepStructureCopy(item));
+		return tested.processBatch(data);
+	}
+
+}
@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.elasticsearch.tools.content.StructureUtils;
+import org.jboss.elasticsearch.tools.content.benchmark.BenchmarkData.DocumentSize;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link StructureUtils} operations.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StructureUtilsBenchmark {
+
+	@Param({ "SMALL", "MEDIUM", "LARGE" })
+	public DocumentSize size;
+
+	private Map<String, Object> document;
+
+	@Setup
+	public void setup() {
+		document = BenchmarkData.createDocument(size, 1);
+	}
+
+	@Benchmark
+	public Object getADeepStructureCopy() {
+		return StructureUtils.getADeepStructureCopy(document);
+	}
+
+}
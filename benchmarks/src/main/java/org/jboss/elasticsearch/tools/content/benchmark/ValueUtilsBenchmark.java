@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.elasticsearch.tools.content.CompiledTemplate;
+import org.jboss.elasticsearch.tools.content.ValueUtils;
+import org.jboss.elasticsearch.tools.content.benchmark.BenchmarkData.DocumentSize;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of value pattern replacement, both parsed for each call by
+ * {@link ValueUtils#processStringValuePatternReplacement(String, Map, Object)} and precompiled by
+ * {@link CompiledTemplate}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValueUtilsBenchmark {
+
+	@Param({ "https://issues.jboss.org/browse/{key}", "{key} - {fields.summary} ({fields.status.name}, {__original})",
+			"constant value without keys" })
+	public String pattern;
+
+	private Map<String, Object> document;
+
+	private CompiledTemplate template;
+
+	@Setup
+	public void setup() {
+		document = BenchmarkData.createDocument(DocumentSize.SMALL, 1);
+		template = CompiledTemplate.compile(pattern);
+	}
+
+	@Benchmark
+	public String processStringValuePatternReplacement() {
+		return ValueUtils.processStringValuePatternReplacement(pattern, document, "original");
+	}
+
+	@Benchmark
+	public String compiledTemplateRender() {
+		return template.render(document, "original");
+	}
+
+}
@@ -5,6 +5,9 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.common.joda.time.format.ISODateTimeFormat;
@@ -30,16 +33,21 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * <li><code>field</code> - target field in data to store current timestamp into. Value is String with ISO formated
  * current date time value, eg. <code>2012-09-17T15:56:52.383+02:00</code>
  * </ul>
+ * Same timestamp is used for all data items if batch is processed over
+ * {@link #preprocessBatch(List, List)}.
  * 
  * @author Vlastimil Elias (velias at redhat dot com)
  * @see StructuredContentPreprocessorFactory
  */
-public class AddCurrentTimestampPreprocessor extends StructuredContentPreprocessorBase {
+public class AddCurrentTimestampPreprocessor extends StructuredContentPreprocessorBase implements
+		ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_FIELD = "field";
 
 	protected String field;
 
+	private FieldPath fieldPath;
+
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
 		if (settings == null) {
@@ -47,18 +55,43 @@ public class AddCurrentTimestampPreprocessor extends StructuredContentPreprocess
 		}
 		field = XContentMapValues.nodeStringValue(settings.get(CFG_FIELD), null);
 		validateConfigurationStringNotEmpty(field, CFG_FIELD);
+		fieldPath = FieldPath.compile(field);
 	}
 
 	@Override
 	public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext context) {
 		if (data == null)
 			return null;
-		StructureUtils.putValueIntoMapOfMaps(data, field, ISODateTimeFormat.dateTime().print(System.currentTimeMillis()));
+		fieldPath.put(data, ISODateTimeFormat.dateTime().print(System.currentTimeMillis()));
 		return data;
 	}
 
+	@Override
+	public List<Map<String, Object>> preprocessBatch(List<Map<String, Object>> batch,
+			List<? extends PreprocessChainContext> chainContexts) {
+		if (batch == null)
+			return null;
+		String timestamp = ISODateTimeFormat.dateTime().print(System.currentTimeMillis());
+		FieldPath path = fieldPath;
+		for (Map<String, Object> data : batch) {
+			if (data != null)
+				path.put(data, timestamp);
+		}
+		return batch;
+	}
+
 	public String getField() {
 		return field;
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return Collections.singletonList(field);
+	}
+
 }
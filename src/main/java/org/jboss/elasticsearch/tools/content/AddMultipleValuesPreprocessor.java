@@ -5,6 +5,9 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.common.settings.SettingsException;
@@ -39,28 +42,43 @@ import org.elasticsearch.common.settings.SettingsException;
  * @author Vlastimil Elias (velias at redhat dot com)
  * @see StructuredContentPreprocessorFactory
  */
-public class AddMultipleValuesPreprocessor extends StructuredContentPreprocessorBase {
+public class AddMultipleValuesPreprocessor extends StructuredContentPreprocessorBase implements
+		ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected Map<String, Object> fields;
 
+	private FieldPath[] fieldPaths;
+	private CompiledTemplate[] valueTemplates;
+
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
 		if (settings == null) {
 			throw new SettingsException("'settings' section is not defined for preprocessor " + name);
 		}
 		fields = settings;
+		fieldPaths = FieldPath.compile(fields.keySet());
+		valueTemplates = new CompiledTemplate[fields.size()];
+		int i = 0;
+		for (Object value : fields.values()) {
+			if (value instanceof String)
+				valueTemplates[i] = CompiledTemplate.compile((String) value);
+			i++;
+		}
 	}
 
 	@Override
 	public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext context) {
 		if (data == null)
 			return null;
-		for (String key : fields.keySet()) {
-			Object value = fields.get(key);
-			if (value != null && (value instanceof String) && ((String) value).contains("{")) {
-				value = ValueUtils.processStringValuePatternReplacement((String) value, data, null);
+		int i = 0;
+		for (Object value : fields.values()) {
+			CompiledTemplate template = valueTemplates[i];
+			if (template != null && ((String) value).contains("{")) {
+				value = template.render(data, null);
 			}
-			StructureUtils.putValueIntoMapOfMaps(data, key, value);
+			FieldPath path = fieldPaths[i++];
+			if (path != null)
+				path.put(data, value);
 		}
 		return data;
 	}
@@ -69,4 +87,19 @@ public class AddMultipleValuesPreprocessor extends StructuredContentPreprocessor
 		return fields;
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		List<String> ret = new ArrayList<String>();
+		for (CompiledTemplate template : valueTemplates) {
+			if (template != null)
+				ret.addAll(template.getKeys());
+		}
+		return ret;
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return new ArrayList<String>(fields.keySet());
+	}
+
 }
@@ -5,6 +5,8 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 
 import org.elasticsearch.common.settings.SettingsException;
@@ -41,7 +43,8 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * @see StructuredContentPreprocessorFactory
  * @see ValueUtils#processStringValuePatternReplacement(String, Map, Object)
  */
-public class AddValuePreprocessor extends StructuredContentPreprocessorBase {
+public class AddValuePreprocessor extends StructuredContentPreprocessorBase implements
+		ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_FIELD = "field";
 	protected static final String CFG_VALUE = "value";
@@ -49,6 +52,9 @@ public class AddValuePreprocessor extends StructuredContentPreprocessorBase {
 	protected String field;
 	protected Object value = null;
 
+	private FieldPath fieldPath;
+	private CompiledTemplate valueTemplate;
+
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
 		if (settings == null) {
@@ -56,17 +62,20 @@ public class AddValuePreprocessor extends StructuredContentPreprocessorBase {
 		}
 		field = XContentMapValues.nodeStringValue(settings.get(CFG_FIELD), null);
 		validateConfigurationStringNotEmpty(field, CFG_FIELD);
+		fieldPath = FieldPath.compile(field);
 		value = settings.get(CFG_VALUE);
+		valueTemplate = value instanceof String ? CompiledTemplate.compile((String) value) : null;
 	}
 
 	@Override
 	public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext context) {
 		if (data == null)
 			return null;
-		if (value != null && (value instanceof String) && ((String) value).contains("{")) {
-			value = ValueUtils.processStringValuePatternReplacement((String) value, data, null);
+		Object v = value;
+		if (valueTemplate != null && ((String) v).contains("{")) {
+			v = valueTemplate.render(data, null);
 		}
-		StructureUtils.putValueIntoMapOfMaps(data, field, value);
+		fieldPath.put(data, v);
 		return data;
 	}
 
@@ -78,4 +87,16 @@ public class AddValuePreprocessor extends StructuredContentPreprocessorBase {
 		return value;
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		if (valueTemplate != null)
+			return valueTemplate.getKeys();
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return Collections.singletonList(field);
+	}
+
 }
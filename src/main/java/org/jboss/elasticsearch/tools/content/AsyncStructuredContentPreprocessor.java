@@ -0,0 +1,35 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.Map;
+
+import org.elasticsearch.common.util.concurrent.ListenableFuture;
+
+/**
+ * Interface for preprocessors which wait for some remote resource (eg. Elasticsearch lookup) during preprocessing, and
+ * are able to do it without blocking of calling thread. {@link PreprocessorChain} uses it in
+ * {@link PreprocessorChain#preprocessDataAsync(Map, PreprocessChainContext)}, so calling thread can continue with other
+ * documents while remote requests are in flight.
+ *
+ * @since 1.3.10
+ */
+public interface AsyncStructuredContentPreprocessor extends StructuredContentPreprocessor {
+
+	/**
+	 * Start preprocessing of data item. Preprocessing is finished by some other thread typically, data item must not be
+	 * changed by caller until returned future is done.
+	 *
+	 * @param data to be preprocessed - may be changed during processing!
+	 * @param chainContext context of data preprocessing, may be null.
+	 * @return future with preprocessed data, same as returned from
+	 *         {@link #preprocessData(Map, PreprocessChainContext)}. It fails with {@link InvalidDataException} or other
+	 *         exception thrown by preprocessing.
+	 */
+	ListenableFuture<Map<String, Object>> preprocessDataAsync(Map<String, Object> data,
+			PreprocessChainContext chainContext);
+
+}
@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Thread safe date format with {@link SimpleDateFormat} pattern syntax and semantics. Pattern is validated and compiled
+ * once in {@link #compile(String)}. Each format or parse call borrows an idle clone of compiled {@link SimpleDateFormat}
+ * and returns it back after use, so clones are created only up to number of concurrent callers and are released
+ * together with this object. Keep instance in field of its owner (eg. preprocessor) and reuse it.
+ *
+ * @see IsDateInRangePreprocessor
+ * @see ValueUtils#formatISODateTime(Date)
+ * @since 1.3.10
+ */
+public final class CompiledDateFormat {
+
+	/**
+	 * ISO 8601 full datetime format in UTC timezone, eg. <code>2012-08-14T12:00:00.000+0000</code>.
+	 */
+	public static final CompiledDateFormat ISO_DATE_TIME = new CompiledDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXX",
+			TimeZone.getTimeZone("UTC"));
+
+	private final String pattern;
+	private final TimeZone timeZone;
+	private final SimpleDateFormat prototype;
+	private final Queue<SimpleDateFormat> idleFormats = new ConcurrentLinkedQueue<SimpleDateFormat>();
+
+	private CompiledDateFormat(String pattern, TimeZone timeZone) {
+		this.pattern = pattern;
+		this.timeZone = timeZone;
+		prototype = new SimpleDateFormat(pattern);
+		if (timeZone != null)
+			prototype.setTimeZone(timeZone);
+	}
+
+	/**
+	 * Compile format for pattern using default timezone and locale.
+	 *
+	 * @param pattern in {@link SimpleDateFormat} syntax
+	 * @return compiled format
+	 * @throws IllegalArgumentException if pattern is null or invalid
+	 */
+	public static CompiledDateFormat compile(String pattern) throws IllegalArgumentException {
+		if (pattern == null)
+			throw new IllegalArgumentException("pattern must be defined");
+		return new CompiledDateFormat(pattern, null);
+	}
+
+	private SimpleDateFormat borrowFormat() {
+		SimpleDateFormat ret = idleFormats.poll();
+		if (ret == null) {
+			synchronized (prototype) {
+				ret = (SimpleDateFormat) prototype.clone();
+			}
+		}
+		return ret;
+	}
+
+	private void returnFormat(SimpleDateFormat format) {
+		idleFormats.offer(format);
+	}
+
+	/**
+	 * Format date.
+	 *
+	 * @param date to format
+	 * @return formatted date, null if date is null
+	 */
+	public String format(Date date) {
+		if (date == null)
+			return null;
+		SimpleDateFormat f = borrowFormat();
+		try {
+			return f.format(date);
+		} finally {
+			returnFormat(f);
+		}
+	}
+
+	/**
+	 * Parse date, same way as {@link SimpleDateFormat#parse(String)}.
+	 *
+	 * @param value to parse
+	 * @return parsed date
+	 * @throws ParseException if value can't be parsed
+	 */
+	public Date parse(String value) throws ParseException {
+		SimpleDateFormat f = borrowFormat();
+		try {
+			return f.parse(value);
+		} finally {
+			returnFormat(f);
+		}
+	}
+
+	/**
+	 * @return pattern this format is compiled from
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return timezone used by format, null means default timezone
+	 */
+	public TimeZone getTimeZone() {
+		return timeZone;
+	}
+
+	@Override
+	public String toString() {
+		return "CompiledDateFormat [" + pattern + "]";
+	}
+
+}
@@ -0,0 +1,188 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precompiled pattern with keys to be replaced by values from data structure, see
+ * {@link ValueUtils#processStringValuePatternReplacement(String, Map, Object)} for pattern syntax. Pattern is parsed only
+ * once into literal and key segments, so rendering is a single append pass over them. It is immutable so can be shared
+ * by more threads.
+ *
+ * @since 1.3.10
+ */
+public final class CompiledTemplate {
+
+	/**
+	 * Marker of segment for {@link ValueUtils#PATTERN_KEY_ORIGINAL_VALUE} key.
+	 */
+	private static final Object ORIGINAL_VALUE_SEGMENT = new Object();
+
+	private final String pattern;
+
+	/**
+	 * Segments of pattern - literal text is {@link String}, key without dot is {@link Key}, key with dot is
+	 * {@link FieldPath}, original value key is {@link #ORIGINAL_VALUE_SEGMENT}.
+	 */
+	private final Object[] segments;
+
+	/**
+	 * Result of rendering if pattern contains no keys.
+	 */
+	private final String constantValue;
+
+	private final int literalLength;
+
+	private CompiledTemplate(String pattern) {
+		this.pattern = pattern;
+		List<Object> segs = new ArrayList<Object>();
+		StringBuilder literal = new StringBuilder();
+		int litLength = 0;
+		boolean hasKeys = false;
+
+		boolean inBraces = false;
+		StringBuilder bracesContent = null;
+		for (int idx = 0; idx < pattern.length(); idx++) {
+			char ch = pattern.charAt(idx);
+			if (!inBraces && ch == '{') {
+				inBraces = true;
+				bracesContent = new StringBuilder();
+			} else if (inBraces && ch == '}') {
+				inBraces = false;
+				String key = bracesContent.toString();
+				if (key.length() > 0) {
+					if (literal.length() > 0) {
+						segs.add(literal.toString());
+						litLength += literal.length();
+						literal.setLength(0);
+					}
+					hasKeys = true;
+					if (ValueUtils.PATTERN_KEY_ORIGINAL_VALUE.equals(key)) {
+						segs.add(ORIGINAL_VALUE_SEGMENT);
+					} else if (key.indexOf('.') >= 0) {
+						segs.add(FieldPath.compile(key));
+					} else {
+						segs.add(new Key(key));
+					}
+				}
+			} else if (inBraces) {
+				bracesContent.append(ch);
+			} else {
+				literal.append(ch);
+			}
+		}
+		// handle not closed brace
+		if (inBraces) {
+			literal.append("{").append(bracesContent);
+		}
+		if (literal.length() > 0) {
+			segs.add(literal.toString());
+			litLength += literal.length();
+		}
+		segments = segs.toArray();
+		literalLength = litLength;
+		if (!hasKeys) {
+			constantValue = segments.length > 0 ? (String) segments[0] : "";
+		} else {
+			constantValue = null;
+		}
+	}
+
+	/**
+	 * Compile pattern.
+	 *
+	 * @param pattern to compile, not null
+	 * @return compiled pattern
+	 */
+	public static CompiledTemplate compile(String pattern) {
+		if (pattern == null)
+			throw new IllegalArgumentException("pattern must be defined");
+		return new CompiledTemplate(pattern);
+	}
+
+	/**
+	 * @return pattern this object is compiled for
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return true if pattern contains some keys to be replaced, so result of rendering depends on data.
+	 */
+	public boolean hasKeys() {
+		return constantValue == null;
+	}
+
+	/**
+	 * Get keys used in pattern, {@value ValueUtils#PATTERN_KEY_ORIGINAL_VALUE} key is not included.
+	 *
+	 * @return list of keys in order of use in pattern, never null
+	 */
+	public List<String> getKeys() {
+		List<String> ret = new ArrayList<String>();
+		for (Object seg : segments) {
+			if (seg instanceof Key)
+				ret.add(((Key) seg).key);
+			else if (seg instanceof FieldPath)
+				ret.add(((FieldPath) seg).getPath());
+		}
+		return ret;
+	}
+
+	/**
+	 * Render pattern with keys replaced by values from data.
+	 *
+	 * @param data to get replacement values from, can be <code>null</code>
+	 * @param originalValue used in pattern if {@value ValueUtils#PATTERN_KEY_ORIGINAL_VALUE} is used as key
+	 * @return rendered value
+	 * @see ValueUtils#processStringValuePatternReplacement(String, Map, Object)
+	 */
+	public String render(Map<String, Object> data, Object originalValue) {
+		if (constantValue != null)
+			return constantValue;
+		StringBuilder sb = new StringBuilder(literalLength + 16 * segments.length);
+		for (Object seg : segments) {
+			if (seg instanceof String) {
+				sb.append((String) seg);
+			} else {
+				Object v = null;
+				if (seg == ORIGINAL_VALUE_SEGMENT) {
+					v = originalValue;
+				} else if (data != null) {
+					if (seg instanceof Key) {
+						v = data.get(((Key) seg).key);
+					} else {
+						v = ((FieldPath) seg).get(data);
+					}
+				}
+				if (v != null)
+					sb.append(v.toString());
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+	/**
+	 * Key without dot, so taken directly from top level of data.
+	 */
+	private static final class Key {
+		final String key;
+
+		Key(String key) {
+			this.key = key;
+		}
+	}
+
+}
@@ -0,0 +1,38 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+/**
+ * Node of copy-on-write structure of Maps and Lists with structural sharing. Copy of the node is created in constant
+ * time, node and copy share data until one of them is changed. Changed node then clones its own level only (shallow
+ * copy), nested nodes are shared the same way so they are cloned only if they are changed. Level is cloned also when
+ * nested node is read from shared level, because returned nested node may be changed by caller.
+ * <p>
+ * Map and List values put into the structure are stored by reference, so they must not be changed through another
+ * reference after structure is copied. Nodes are not thread safe, and even reading changes them: reading nested node
+ * from shared level replaces backing data of the node and marks nested nodes as shared, {@link #copy()} marks the
+ * copied node as shared. So structure and all copies made from it must be accessed by one thread at a time (eg. by
+ * thread processing the data item) or synchronized externally.
+ * <p>
+ * Only copy of structure which is already made of these nodes is created in constant time. Creating such structure
+ * from plain Maps and Lists by {@link StructureUtils#getADeepStructureCopy(Object)} is still O(n), as whole input is
+ * traversed.
+ *
+ * @see StructureUtils#getADeepStructureCopy(Object)
+ * @see CopyOnWriteStructureMap
+ * @see CopyOnWriteStructureList
+ * @since 1.3.10
+ */
+public interface CopyOnWriteStructure {
+
+	/**
+	 * Create copy of this node in constant time.
+	 *
+	 * @return copy sharing data with this node
+	 */
+	CopyOnWriteStructure copy();
+
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * List node of {@link CopyOnWriteStructure}, backed by {@link ArrayList}.
+ *
+ * @since 1.3.10
+ */
+public final class CopyOnWriteStructureList extends AbstractList<Object> implements CopyOnWriteStructure, RandomAccess {
+
+	private List<Object> backing;
+
+	/**
+	 * true if {@link #backing} and structures nested in it are shared with other node so must not be changed
+	 */
+	private boolean shared;
+
+	/**
+	 * Create new empty list.
+	 */
+	public CopyOnWriteStructureList() {
+		this(new ArrayList<Object>(), false);
+	}
+
+	/**
+	 * @param backing list with data
+	 * @param shared true if backing list is shared so must not be changed
+	 */
+	CopyOnWriteStructureList(List<Object> backing, boolean shared) {
+		this.backing = backing;
+		this.shared = shared;
+	}
+
+	@Override
+	public CopyOnWriteStructureList copy() {
+		shared = true;
+		return new CopyOnWriteStructureList(backing, true);
+	}
+
+	/**
+	 * Get backing list which can be changed, clone it if it is shared.
+	 */
+	private List<Object> own() {
+		if (shared) {
+			List<Object> l = new ArrayList<Object>(Math.max(10, backing.size()));
+			for (Object v : backing) {
+				l.add(StructureUtils.unshareStructureNode(v));
+			}
+			backing = l;
+			shared = false;
+		}
+		return backing;
+	}
+
+	@Override
+	public Object get(int index) {
+		if (!(backing instanceof RandomAccess))
+			own();
+		Object v = backing.get(index);
+		if (shared && StructureUtils.isStructure(v))
+			v = own().get(index);
+		return v;
+	}
+
+	@Override
+	public int size() {
+		return backing.size();
+	}
+
+	@Override
+	public Object set(int index, Object element) {
+		return own().set(index, element);
+	}
+
+	@Override
+	public void add(int index, Object element) {
+		own().add(index, element);
+		modCount++;
+	}
+
+	@Override
+	public Object remove(int index) {
+		Object ret = own().remove(index);
+		modCount++;
+		return ret;
+	}
+
+	@Override
+	public void clear() {
+		if (shared) {
+			backing = new ArrayList<Object>();
+			shared = false;
+		} else {
+			backing.clear();
+		}
+		modCount++;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof CopyOnWriteStructureList)
+			return backing.equals(((CopyOnWriteStructureList) o).backing);
+		return backing.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return backing.hashCode();
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Map node of {@link CopyOnWriteStructure}. Keeps insertion order of keys same as {@link LinkedHashMap}.
+ *
+ * @since 1.3.10
+ */
+public final class CopyOnWriteStructureMap extends AbstractMap<String, Object> implements CopyOnWriteStructure {
+
+	private Map<String, Object> backing;
+
+	/**
+	 * true if {@link #backing} and structures nested in it are shared with other node so must not be changed
+	 */
+	private boolean shared;
+
+	private Set<Entry<String, Object>> entrySet;
+
+	/**
+	 * Create new empty map.
+	 */
+	public CopyOnWriteStructureMap() {
+		this(new LinkedHashMap<String, Object>(), false);
+	}
+
+	/**
+	 * @param backing map with data
+	 * @param shared true if backing map is shared so must not be changed
+	 */
+	CopyOnWriteStructureMap(Map<String, Object> backing, boolean shared) {
+		this.backing = backing;
+		this.shared = shared;
+	}
+
+	@Override
+	public CopyOnWriteStructureMap copy() {
+		shared = true;
+		return new CopyOnWriteStructureMap(backing, true);
+	}
+
+	/**
+	 * Get backing map which can be changed, clone it if it is shared.
+	 */
+	private Map<String, Object> own() {
+		if (shared) {
+			Map<String, Object> m = new LinkedHashMap<String, Object>(Math.max(16, (int) (backing.size() / .75f) + 1));
+			for (Entry<String, Object> e : backing.entrySet()) {
+				m.put(e.getKey(), StructureUtils.unshareStructureNode(e.getValue()));
+			}
+			backing = m;
+			shared = false;
+		}
+		return backing;
+	}
+
+	@Override
+	public Object get(Object key) {
+		Object v = backing.get(key);
+		if (shared && StructureUtils.isStructure(v))
+			v = own().get(key);
+		return v;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return backing.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return backing.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return backing.isEmpty();
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		return own().put(key, value);
+	}
+
+	@Override
+	public Object remove(Object key) {
+		if (!backing.containsKey(key))
+			return null;
+		return own().remove(key);
+	}
+
+	@Override
+	public void clear() {
+		if (shared) {
+			backing = new LinkedHashMap<String, Object>();
+			shared = false;
+		} else {
+			backing.clear();
+		}
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Entry<String, Object>>() {
+
+				@Override
+				public Iterator<Entry<String, Object>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return backing.size();
+				}
+
+				@Override
+				public void clear() {
+					CopyOnWriteStructureMap.this.clear();
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof CopyOnWriteStructureMap)
+			return backing.equals(((CopyOnWriteStructureMap) o).backing);
+		return backing.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return backing.hashCode();
+	}
+
+	/**
+	 * Iterator over backing map valid at the time of creation. Changes of shared map are passed to the node, so they
+	 * don't break iteration.
+	 */
+	private final class EntryIterator implements Iterator<Entry<String, Object>> {
+
+		private final Map<String, Object> iteratedBacking = backing;
+		private final Iterator<Entry<String, Object>> iterator = backing.entrySet().iterator();
+		private Entry<String, Object> last;
+
+		private boolean isDirect() {
+			return iteratedBacking == backing && !shared;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public Entry<String, Object> next() {
+			final Entry<String, Object> e = iterator.next();
+			last = e;
+			return new Entry<String, Object>() {
+
+				@Override
+				public String getKey() {
+					return e.getKey();
+				}
+
+				@Override
+				public Object getValue() {
+					if (isDirect())
+						return e.getValue();
+					return get(e.getKey());
+				}
+
+				@Override
+				public Object setValue(Object value) {
+					if (isDirect())
+						return e.setValue(value);
+					return put(e.getKey(), value);
+				}
+
+				@Override
+				public boolean equals(Object o) {
+					if (!(o instanceof Entry))
+						return false;
+					Entry<?, ?> oe = (Entry<?, ?>) o;
+					Object v = e.getValue();
+					return e.getKey().equals(oe.getKey()) && (v == null ? oe.getValue() == null : v.equals(oe.getValue()));
+				}
+
+				@Override
+				public int hashCode() {
+					return e.hashCode();
+				}
+
+				@Override
+				public String toString() {
+					return e.getKey() + "=" + getValue();
+				}
+			};
+		}
+
+		@Override
+		public void remove() {
+			if (last == null)
+				throw new IllegalStateException();
+			if (isDirect())
+				iterator.remove();
+			else
+				CopyOnWriteStructureMap.this.remove(last.getKey());
+			last = null;
+		}
+	}
+
+}
@@ -0,0 +1,438 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.util.concurrent.ListenableFuture;
+import org.elasticsearch.common.util.concurrent.SettableFuture;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.indices.IndexMissingException;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
+
+/**
+ * {@link LookupBackend} finding documents in Elasticsearch search index, default backend of
+ * {@link ESLookupValuePreprocessor}. The cheapest request shape is used for each lookup:
+ * <ul>
+ * <li>documents are get by id using get request (multi get request for more values) if search field is
+ * <code>_id</code> and index name resolves to one concrete index where get finds the same documents as search (alias
+ * without filter, no routing derived from document fields). Otherwise one search with <code>ids</code> filter is used
+ * for all values.
+ * <li>otherwise non scoring filter is used against search field in search request (multi search request for more
+ * values), with size 2 which is enough to detect multiple results
+ * <li>only result fields are returned using source filtering, whole <code>_source</code> is returned only if it is one
+ * of result fields. So document <code>_source</code> must be enabled in lookup index.
+ * </ul>
+ * Settings are:
+ * <ul>
+ * <li><code>index_name<code> - name of search index to lookup values in
+ * <li><code>index_type<code> - name of type in search index to lookup values in
+ * <li><code>lookup_query<code> - optional type of filter used against search field. <code>match</code> (default)
+ * analyzes looked up value by search field analyzer, <code>term</code> is cheaper and should be used for not analyzed
+ * (or <code>keyword</code> analyzed) fields.
+ * </ul>
+ *
+ * @since 1.3.10
+ */
+public class ESLookupBackend extends LookupBackendBase {
+
+	protected static final String CFG_lookup_query = "lookup_query";
+
+	protected static final String QUERY_TERM = "term";
+	protected static final String QUERY_MATCH = "match";
+
+	/**
+	 * Search field used to get documents by id.
+	 */
+	public static final String ID_FIELD = "_id";
+
+	/**
+	 * Number of documents requested by search, enough to detect multiple results.
+	 */
+	protected static final int SEARCH_SIZE = 2;
+
+	protected String indexName;
+	protected String indexType;
+	protected boolean matchQuery;
+
+	/**
+	 * Source filtering for requests, so only result fields are returned. No includes means whole source.
+	 */
+	protected FetchSourceContext fetchSourceContext;
+
+	/**
+	 * Result of {@link #isGetUsable()}, <code>null</code> if not resolved yet or if get request failed.
+	 */
+	protected volatile Boolean getUsable;
+
+	@Override
+	public void init(String preprocessorName, Client client, Map<String, Object> settings, List<String> resultFields)
+			throws SettingsException {
+		super.init(preprocessorName, client, settings, resultFields);
+		if (client == null) {
+			throw new SettingsException("ElasticSearch client is required for preprocessor " + name);
+		}
+		indexName = readStringSetting(settings, ESLookupValuePreprocessor.CFG_index_name, true);
+		indexType = readStringSetting(settings, ESLookupValuePreprocessor.CFG_index_type, true);
+		String query = readStringSetting(settings, CFG_lookup_query, false);
+		if (query != null && !QUERY_TERM.equals(query) && !QUERY_MATCH.equals(query)) {
+			throw new SettingsException("Invalid 'settings/" + CFG_lookup_query + "' configuration value for '" + name
+					+ "' preprocessor: " + query);
+		}
+		matchQuery = !QUERY_TERM.equals(query);
+		if (query == null) {
+			logger.info("'settings/{}' is not set for '{}' preprocessor so analyzed '{}' filter is used, '{}' is cheaper "
+					+ "for not analyzed search fields", CFG_lookup_query, name, QUERY_MATCH, QUERY_TERM);
+		}
+		getUsable = null;
+		if (resultFields.contains("_source"))
+			fetchSourceContext = new FetchSourceContext(true);
+		else
+			fetchSourceContext = new FetchSourceContext(resultFields.toArray(new String[resultFields.size()]), null);
+	}
+
+	@Override
+	public Map<Object, List<Map<String, Object>>> lookup(String searchField, List<Object> values)
+			throws ElasticsearchException {
+		if (ID_FIELD.equals(searchField)) {
+			if (!isGetUsable())
+				return processIdsSearchResponse(values, prepareIdsLookupRequest(values).execute().actionGet());
+			try {
+				if (values.size() == 1) {
+					Map<Object, List<Map<String, Object>>> ret = new HashMap<Object, List<Map<String, Object>>>();
+					GetResponse resp = client.prepareGet(indexName, indexType, values.get(0).toString())
+							.setFetchSource(fetchSourceContext.includes(), null).execute().actionGet();
+					ret.put(values.get(0), getDocuments(resp));
+					return ret;
+				}
+				return processMultiGetResponse(values, prepareMultiGetRequest(values).execute().actionGet());
+			} catch (ElasticsearchException e) {
+				getUsable = null;
+				throw e;
+			}
+		}
+		if (values.size() == 1) {
+			Map<Object, List<Map<String, Object>>> ret = new HashMap<Object, List<Map<String, Object>>>();
+			SearchResponse resp = prepareLookupRequest(searchField, values.get(0)).execute().actionGet();
+			ret.put(values.get(0), getHits(resp));
+			return ret;
+		}
+		return processMultiSearchResponse(values, prepareMultiSearchRequest(searchField, values).execute().actionGet());
+	}
+
+	/**
+	 * Response is processed by thread from Elasticsearch client's listener thread pool.
+	 */
+	@Override
+	public ListenableFuture<Map<Object, List<Map<String, Object>>>> lookupAsync(String searchField,
+			final List<Object> values) {
+		final SettableFuture<Map<Object, List<Map<String, Object>>>> ret = SettableFuture.create();
+		boolean getById = false;
+		if (ID_FIELD.equals(searchField)) {
+			try {
+				getById = isGetUsable();
+			} catch (RuntimeException e) {
+				ret.setException(e);
+				return ret;
+			}
+		}
+		if (getById) {
+			ActionListener<MultiGetResponse> listener = new ActionListener<MultiGetResponse>() {
+				@Override
+				public void onResponse(MultiGetResponse resp) {
+					try {
+						ret.set(processMultiGetResponse(values, resp));
+					} catch (Throwable e) {
+						onFailure(e);
+					}
+				}
+
+				@Override
+				public void onFailure(Throwable e) {
+					getUsable = null;
+					ret.setException(e);
+				}
+			};
+			try {
+				prepareMultiGetRequest(values).setListenerThreaded(true).execute(listener);
+			} catch (RuntimeException e) {
+				listener.onFailure(e);
+			}
+			return ret;
+		}
+		if (ID_FIELD.equals(searchField)) {
+			ActionListener<SearchResponse> listener = new ActionListener<SearchResponse>() {
+				@Override
+				public void onResponse(SearchResponse resp) {
+					try {
+						ret.set(processIdsSearchResponse(values, resp));
+					} catch (Throwable e) {
+						ret.setException(e);
+					}
+				}
+
+				@Override
+				public void onFailure(Throwable e) {
+					ret.setException(e);
+				}
+			};
+			try {
+				prepareIdsLookupRequest(values).setListenerThreaded(true).execute(listener);
+			} catch (RuntimeException e) {
+				listener.onFailure(e);
+			}
+			return ret;
+		}
+		ActionListener<MultiSearchResponse> listener = new ActionListener<MultiSearchResponse>() {
+			@Override
+			public void onResponse(MultiSearchResponse resp) {
+				try {
+					ret.set(processMultiSearchResponse(values, resp));
+				} catch (Throwable e) {
+					ret.setException(e);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				ret.setException(e);
+			}
+		};
+		try {
+			prepareMultiSearchRequest(searchField, values).setListenerThreaded(true).execute(listener);
+		} catch (RuntimeException e) {
+			listener.onFailure(e);
+		}
+		return ret;
+	}
+
+	/**
+	 * Prepare search request to lookup one value in one index field.
+	 *
+	 * @param searchField index field to search value in
+	 * @param value to be looked up
+	 * @return search request builder
+	 */
+	protected SearchRequestBuilder prepareLookupRequest(String searchField, Object value) {
+		FilterBuilder filter;
+		if (matchQuery)
+			filter = FilterBuilders.queryFilter(QueryBuilders.matchQuery(searchField, value));
+		else
+			filter = FilterBuilders.termFilter(searchField, value);
+		return client.prepareSearch(indexName).setTypes(indexType).setQuery(QueryBuilders.constantScoreQuery(filter))
+				.setSize(SEARCH_SIZE).setTerminateAfter(SEARCH_SIZE)
+				.setFetchSource(fetchSourceContext.includes(), null);
+	}
+
+	/**
+	 * Check if documents can be get by id using get requests. It is possible only if index name resolves to one concrete
+	 * index (alias over more indices can't be used by get) and get finds the same documents as search, so alias must not
+	 * have filter and routing must not be derived from document fields or parent. Alias routing is used by get itself.
+	 * Result is remembered until some get request fails, as alias may point to other indices then.
+	 *
+	 * @return true if get requests can be used, false if search with <code>ids</code> filter must be used
+	 */
+	protected boolean isGetUsable() {
+		Boolean ret = getUsable;
+		if (ret != null)
+			return ret;
+		String[] indices;
+		MetaData metaData;
+		try {
+			metaData = client.admin().cluster().prepareState().clear().setMetaData(true).setIndices(indexName).execute()
+					.actionGet().getState().getMetaData();
+			indices = metaData.concreteIndices(IndicesOptions.lenientExpandOpen(), indexName);
+		} catch (IndexMissingException e) {
+			indices = new String[0];
+			metaData = null;
+		}
+		if (indices.length == 0) {
+			// not remembered, index may be created later
+			return false;
+		}
+		ret = indices.length == 1 && isGetUsable(metaData.index(indices[0]));
+		if (!ret) {
+			logger.debug("Search with ids filter is used by '{}' preprocessor as get can't be used for '{}' index", name,
+					indexName);
+		}
+		getUsable = ret;
+		return ret;
+	}
+
+	private boolean isGetUsable(IndexMetaData index) {
+		AliasMetaData alias = index.aliases().get(indexName);
+		if (alias != null && alias.filter() != null)
+			return false;
+		MappingMetaData mapping = index.mapping(indexType);
+		if (mapping == null)
+			return true;
+		if (mapping.hasParentField() || mapping.routing().hasPath())
+			return false;
+		return !mapping.routing().required() || (alias != null && alias.indexRouting() != null);
+	}
+
+	/**
+	 * Prepare search request with <code>ids</code> filter to lookup more documents by id in one request.
+	 *
+	 * @param ids of documents
+	 * @return search request builder
+	 */
+	protected SearchRequestBuilder prepareIdsLookupRequest(List<Object> ids) {
+		String[] idValues = new String[ids.size()];
+		for (int i = 0; i < idValues.length; i++) {
+			idValues[i] = ids.get(i).toString();
+		}
+		return client.prepareSearch(indexName).setTypes(indexType)
+				.setQuery(QueryBuilders.constantScoreQuery(FilterBuilders.idsFilter(indexType).ids(idValues)))
+				.setSize(idValues.length * SEARCH_SIZE).setFetchSource(fetchSourceContext.includes(), null);
+	}
+
+	/**
+	 * Prepare multi get request to get documents for more ids.
+	 *
+	 * @param ids of documents
+	 * @return multi get request builder, with item for each id in this order
+	 */
+	protected MultiGetRequestBuilder prepareMultiGetRequest(List<Object> ids) {
+		MultiGetRequestBuilder req = client.prepareMultiGet();
+		for (Object id : ids) {
+			req.add(new MultiGetRequest.Item(indexName, indexType, id.toString()).fetchSourceContext(fetchSourceContext));
+		}
+		return req;
+	}
+
+	/**
+	 * Prepare multi search request to lookup more values in one index field.
+	 *
+	 * @param searchField index field to search values in
+	 * @param values to be looked up
+	 * @return multi search request builder, with request for each value in this order
+	 */
+	protected MultiSearchRequestBuilder prepareMultiSearchRequest(String searchField, List<Object> values) {
+		MultiSearchRequestBuilder req = client.prepareMultiSearch();
+		for (Object value : values) {
+			req.add(prepareLookupRequest(searchField, value));
+		}
+		return req;
+	}
+
+	/**
+	 * Process response of request prepared by {@link #prepareMultiSearchRequest(String, List)}.
+	 *
+	 * @throws ElasticsearchException if some of searches failed
+	 */
+	private Map<Object, List<Map<String, Object>>> processMultiSearchResponse(List<Object> values,
+			MultiSearchResponse resp) throws ElasticsearchException {
+		Map<Object, List<Map<String, Object>>> ret = new HashMap<Object, List<Map<String, Object>>>();
+		MultiSearchResponse.Item[] items = resp.getResponses();
+		for (int i = 0; i < values.size(); i++) {
+			if (items[i].isFailure())
+				throw new ElasticsearchException(items[i].getFailureMessage());
+			ret.put(values.get(i), getHits(items[i].getResponse()));
+		}
+		return ret;
+	}
+
+	/**
+	 * Process response of request prepared by {@link #prepareIdsLookupRequest(List)}.
+	 */
+	private Map<Object, List<Map<String, Object>>> processIdsSearchResponse(List<Object> ids, SearchResponse resp) {
+		Map<String, List<Map<String, Object>>> hitsById = new HashMap<String, List<Map<String, Object>>>();
+		for (SearchHit hit : resp.getHits().hits()) {
+			List<Map<String, Object>> docs = hitsById.get(hit.getId());
+			if (docs == null) {
+				docs = new ArrayList<Map<String, Object>>(1);
+				hitsById.put(hit.getId(), docs);
+			}
+			docs.add(getResultFields(hit.getSource()));
+		}
+		Map<Object, List<Map<String, Object>>> ret = new HashMap<Object, List<Map<String, Object>>>();
+		for (Object id : ids) {
+			List<Map<String, Object>> docs = hitsById.get(id.toString());
+			ret.put(id, docs != null ? docs : new ArrayList<Map<String, Object>>(0));
+		}
+		return ret;
+	}
+
+	/**
+	 * Process response of request prepared by {@link #prepareMultiGetRequest(List)}.
+	 *
+	 * @throws ElasticsearchException if some of gets failed
+	 */
+	private Map<Object, List<Map<String, Object>>> processMultiGetResponse(List<Object> ids, MultiGetResponse resp)
+			throws ElasticsearchException {
+		Map<Object, List<Map<String, Object>>> ret = new HashMap<Object, List<Map<String, Object>>>();
+		MultiGetItemResponse[] items = resp.getResponses();
+		for (int i = 0; i < ids.size(); i++) {
+			if (items[i].isFailed())
+				throw new ElasticsearchException(items[i].getFailure().getMessage());
+			ret.put(ids.get(i), getDocuments(items[i].getResponse()));
+		}
+		return ret;
+	}
+
+	private List<Map<String, Object>> getDocuments(GetResponse resp) {
+		if (!resp.isExists())
+			return new ArrayList<Map<String, Object>>(0);
+		List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>(1);
+		ret.add(getResultFields(resp.getSource()));
+		return ret;
+	}
+
+	private List<Map<String, Object>> getHits(SearchResponse resp) {
+		SearchHit[] hits = resp.getHits().hits();
+		List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>(hits.length);
+		for (SearchHit hit : hits)
+			ret.add(getResultFields(hit.getSource()));
+		return ret;
+	}
+
+	/**
+	 * Get values of result fields from (filtered) source of found document.
+	 *
+	 * @param source of document, may be <code>null</code> if no result field is present in document
+	 * @return map with values, result field is key. Fields not present in document are not in map.
+	 */
+	@Override
+	protected Map<String, Object> getResultFields(Map<String, Object> source) {
+		if (source == null)
+			return new HashMap<String, Object>();
+		return super.getResultFields(source);
+	}
+
+	public String getIndexName() {
+		return indexName;
+	}
+
+	public String getIndexType() {
+		return indexType;
+	}
+
+}
@@ -5,27 +5,56 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.action.admin.indices.stats.CommonStats;
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheStats;
 import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.FutureCallback;
+import org.elasticsearch.common.util.concurrent.Futures;
+import org.elasticsearch.common.util.concurrent.ListenableFuture;
+import org.elasticsearch.common.util.concurrent.SettableFuture;
+import org.elasticsearch.common.util.concurrent.Uninterruptibles;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
-import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
-import org.elasticsearch.search.SearchHitField;
 
 /**
  * Content preprocessor which allows to Look up value over Elasticsearch search request containing some value from data
  * structure. This preprocessor requires Elasticsearch client to be passed into
- * {@link #init(String, org.elasticsearch.client.Client, Map)}! Example of configuration for this preprocessor for
- * single value lookup:
+ * {@link #init(String, org.elasticsearch.client.Client, Map)}, if default Elasticsearch lookup backend is used! Example
+ * of configuration for this preprocessor for single value lookup:
  * 
  * <pre>
  * { 
@@ -51,8 +80,8 @@ import org.elasticsearch.search.SearchHitField;
  * <li><code>source_field<code> - source field in input data to be used as 'lookup key'. Dot notation for nested values can be used here.
  * <li><code>source_value<code> - value to be used as 'lookup key'. Can be used as alternative instead of <code>source_field<code>. 
  * You can use pattern for keys replacement with values from input data here. Keys are enclosed in curly braces, dot notation for deeper nesting may be used in keys.  
- * <li><code>idx_search_field<code> - field in search index document to be asked for 'lookup key' obtained from source field. Elasticsearch <code>text</code>
- * filter is used against this field. Search is not performed if 'lookup key' is empty. This configuration can contain
+ * <li><code>idx_search_field<code> - field in search index document to be asked for 'lookup key' obtained from source field. Elasticsearch <code>match</code>
+ * filter (or <code>term</code> filter if configured) is used against this field, or documents are get by id for <code>_id</code>, see {@link ESLookupBackend}. Search is not performed if 'lookup key' is empty. This configuration can contain
  * array of lookup field's names also. They are looked up in sequence then, if previous one do not provide any concrete
  * value - so it is sort of fallback mechanism.
  * <li><code>result_multiple_ignore</code> - defines what to do if lookup returns multiple value. If `false` (default
@@ -73,7 +102,62 @@ import org.elasticsearch.search.SearchHitField;
  * <li><code>source_bases</code> - list of fields in source data which are used as bases for lookups evaluation. If
  * defined then lookup is performed for each of this fields, <code>source_field</code>, <code>target_field</code> and
  * keys in <code>value_default</code> and<code>source_value</code> are resolved relatively against this base. Base must
- * provide object or list of objects. See example later. </ul>
+ * provide object or list of objects. See example later.
+ * <li><code>lookup_cache_size</code> - optional maximal number of looked up values kept in lookup cache shared across
+ * all processed documents. Least recently used values are evicted from full cache. Cache is not used if not set or 0.
+ * Lookup failures are never cached.
+ * <li><code>lookup_cache_ttl</code> - optional time after which value is expired from shared lookup cache, so changes
+ * in lookup index are visible after this time. Elasticsearch time value format is used, eg. <code>10m</code>, number
+ * means milliseconds. Values are kept in cache until evicted if not set. Hit, miss and eviction counters of the cache
+ * are available over {@link #getLookupCacheStats()}.
+ * <li><code>lookup_cache_negative_ttl</code> - optional time after which value which was not found in lookup index is
+ * expired from separate negative lookup cache enabled by <code>lookup_cache_size</code>. Same as
+ * <code>lookup_cache_ttl</code> if not set, <code>0</code> means that not found values are not cached.
+ * <li><code>lookup_circuit_breaker_failures</code> - optional number of consecutive lookup failures after which no
+ * lookups are performed and default value handling is used directly. Circuit breaker is not used if not set or 0.
+ * <li><code>lookup_circuit_breaker_retry</code> - optional time after which lookup index is probed again by one lookup
+ * when circuit breaker is open, <code>30s</code> by default.
+ * <li><code>lookup_max_concurrent</code> - optional maximal number of asynchronous lookup requests (see
+ * {@link #preprocessDataAsync(Map, PreprocessChainContext)}) sent by this preprocessor concurrently, to protect the
+ * cluster. Next requests are queued and sent when some running one is finished, calling thread is never blocked.
+ * Synchronous lookups are limited by number of threads calling preprocessor. Not limited if not set or 0.
+ * <li><code>lookup_mirror</code> - optional, if <code>true</code> then whole lookup index is loaded into memory when
+ * preprocessor is initialized, using scan search. It is indexed by values of all <code>idx_search_field</code>s then, so
+ * lookups are only local hash probes without any Elasticsearch request. Values are matched exactly (compared as
+ * strings), so this mode is intended for small reference indices with <code>keyword</code> analyzed search fields.
+ * Document <code>_source</code> must be enabled in lookup index. Shared lookup cache is not used in this mode. If
+ * mirror can't be loaded, lookups are performed in index until next successful refresh. Memory use and load duration
+ * are available over {@link #getLookupMirror()}.
+ * <li><code>lookup_mirror_refresh</code> - optional time after which version of lookup index (document count and
+ * indexing statistics) is checked and mirror is loaded again if it has been changed, <code>5m</code> by default,
+ * <code>0</code> means never. Check and load is performed in background by shared pool of daemon threads, data are
+ * processed with previous mirror meanwhile. Mirror can be refreshed explicitly by {@link #refreshLookupMirror(boolean)} also.
+ * <li><code>lookup_backend</code> - optional source of looked up documents, see {@link LookupBackend}.
+ * <code>elasticsearch</code> (default) means search index defined by <code>index_name</code> and
+ * <code>index_type</code>, {@link ESLookupBackend}. <code>memory</code> means documents from
+ * <code>lookup_documents</code> setting, {@link MemoryLookupBackend}. <code>file</code> means documents from JSON lines
+ * or CSV file, {@link FileLookupBackend}. <code>jdbc</code> means rows of table in relational database,
+ * {@link JdbcLookupBackend}. Name of class implementing {@link LookupBackend} can be used also. Backend specific
+ * settings are described in backend class. <code>index_name</code>, <code>index_type</code> and Elasticsearch client
+ * are not required for other backends, and lookup mirror can't be used with them. Other backends perform lookups by
+ * calling thread also if document is processed asynchronously.
+ * <li><code>lookup_batch_size</code> - optional max number of values from concurrently processed documents looked up
+ * at once by one multi search request. Value is looked up immediately if no other batch is being looked up, otherwise
+ * thread processing document waits until batch is full, running batch lookup finishes or <code>lookup_batch_wait</code>
+ * time elapses, then batch is looked up by one of waiting threads. Current batch size adapts to observed lookup
+ * latency, see {@link LookupBatcher}. Not used if not set, 0 or 1.
+ * <li><code>lookup_batch_wait</code> - optional max time value waits for running batch lookup to finish,
+ * <code>2ms</code> by default.</ul>
+ * 
+ * If more distinct values have to be looked up for one document (or for whole batch of documents processed by
+ * {@link #preprocessBatch(List, List)}), they are all looked up at once using multi search request. If the same single
+ * value is looked up by more threads concurrently, only one request is performed and others wait for its result.
+ * Number of such coalesced lookups is available over {@link #getCoalescedLookupCount()}.
+ * <p>
+ * Document can be processed without blocking of calling thread by
+ * {@link #preprocessDataAsync(Map, PreprocessChainContext)}, values are looked up using multi search request then and
+ * document is processed by thread receiving the response. Values which can't be looked up due Elasticsearch failure are
+ * not looked up again, default value handling is used for them directly.
  * 
  * 
  * Example of configuration for this preprocessor for lookup of multiple values of same structure:
@@ -188,7 +272,8 @@ import org.elasticsearch.search.SearchHitField;
  * @see StructuredContentPreprocessorFactory
  */
 public class ESLookupValuePreprocessor extends
-		StructuredContentPreprocessorWithSourceBasesBase<ESLookupValuePreprocessor.LookupContenxt> {
+		StructuredContentPreprocessorWithSourceBasesBase<ESLookupValuePreprocessor.LookupContenxt> implements
+		ThreadSafePreprocessor, FieldAccessAwarePreprocessor, AsyncStructuredContentPreprocessor, Closeable {
 
 	protected static final String CFG_index_name = "index_name";
 	protected static final String CFG_index_type = "index_type";
@@ -200,6 +285,37 @@ public class ESLookupValuePreprocessor extends
 	protected static final String CFG_ignore_multiple_results = "result_multiple_ignore";
 	protected static final String CFG_target_field = "target_field";
 	protected static final String CFG_value_default = "value_default";
+	protected static final String CFG_lookup_cache_size = "lookup_cache_size";
+	protected static final String CFG_lookup_cache_ttl = "lookup_cache_ttl";
+	protected static final String CFG_lookup_cache_negative_ttl = "lookup_cache_negative_ttl";
+	protected static final String CFG_lookup_circuit_breaker_failures = "lookup_circuit_breaker_failures";
+	protected static final String CFG_lookup_circuit_breaker_retry = "lookup_circuit_breaker_retry";
+	protected static final String CFG_lookup_max_concurrent = "lookup_max_concurrent";
+	protected static final String CFG_lookup_mirror = "lookup_mirror";
+	protected static final String CFG_lookup_mirror_refresh = "lookup_mirror_refresh";
+	protected static final String CFG_lookup_backend = "lookup_backend";
+	protected static final String CFG_lookup_batch_size = "lookup_batch_size";
+	protected static final String CFG_lookup_batch_wait = "lookup_batch_wait";
+
+	protected static final String BACKEND_ELASTICSEARCH = "elasticsearch";
+	protected static final String BACKEND_MEMORY = "memory";
+	protected static final String BACKEND_FILE = "file";
+	protected static final String BACKEND_JDBC = "jdbc";
+
+	/**
+	 * Max number of values looked up by one multi search request.
+	 */
+	protected static final int MULTI_SEARCH_MAX_VALUES = 100;
+
+	/**
+	 * Number of documents read by one scroll request when lookup mirror is loaded.
+	 */
+	protected static final int MIRROR_SCROLL_SIZE = 500;
+
+	/**
+	 * Keep alive time of scroll used to load lookup mirror.
+	 */
+	protected static final TimeValue MIRROR_SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
 
 	protected String indexName;
 	protected String indexType;
@@ -209,18 +325,99 @@ public class ESLookupValuePreprocessor extends
 	protected List<Map<String, String>> resultMapping;
 	protected boolean ignoreMultipleResults = false;
 
+	/**
+	 * Distinct <code>idx_result_field</code>s from {@link #resultMapping}.
+	 */
+	protected List<String> idxResultFields;
+
+	/**
+	 * Backend to lookup values in.
+	 */
+	protected LookupBackend lookupBackend;
+
+	private FieldPath sourceFieldPath;
+
+	/**
+	 * Compiled target fields from {@link #resultMapping}.
+	 */
+	private Map<String, FieldPath> targetFieldPaths;
+
+	private CompiledTemplate sourceValueTemplate;
+
+	/**
+	 * Compiled <code>value_default</code> patterns from {@link #resultMapping}, pattern is key.
+	 */
+	private Map<String, CompiledTemplate> defaultValueTemplates;
+
+	/**
+	 * Lookup cache shared across processed documents, <code>null</code> if not enabled.
+	 */
+	protected Cache<Object, LookupResult> lookupCache;
+
+	/**
+	 * Cache of lookups which found nothing, shared across processed documents, <code>null</code> if not enabled.
+	 */
+	protected Cache<Object, LookupResult> negativeLookupCache;
+
+	/**
+	 * Circuit breaker for lookups in index, <code>null</code> if not enabled.
+	 */
+	protected CircuitBreaker circuitBreaker;
+
+	/**
+	 * Queue of asynchronous lookup requests limiting number of them running concurrently, <code>null</code> if not
+	 * limited.
+	 */
+	protected LookupRequestQueue lookupRequestQueue;
+
+	/**
+	 * true if lookup mirror is enabled by <code>lookup_mirror</code> setting.
+	 */
+	protected boolean mirrorEnabled;
+
+	/**
+	 * Time between checks of lookup index version in millis, 0 if mirror is not refreshed automatically.
+	 */
+	protected long mirrorRefreshMillis;
+
+	/**
+	 * Current lookup mirror, <code>null</code> if not enabled or not loaded yet.
+	 */
+	protected volatile LookupMirror lookupMirror;
+
+	/**
+	 * Timestamp of next check of lookup index version.
+	 */
+	private final AtomicLong mirrorNextCheck = new AtomicLong();
+
+	/**
+	 * true if refresh of lookup mirror is running in background, so next one is not started.
+	 */
+	private final AtomicBoolean mirrorRefreshing = new AtomicBoolean();
+
+	/**
+	 * Batcher of lookups from concurrently processed documents, <code>null</code> if not enabled by
+	 * <code>lookup_batch_size</code> setting.
+	 */
+	protected LookupBatcher lookupBatcher;
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
 		super.init(settings);
-		if (client == null) {
+		closeLookupBackend();
+		lookupBackend = createLookupBackend(XContentMapValues.nodeStringValue(settings.get(CFG_lookup_backend), null));
+		boolean esBackend = lookupBackend instanceof ESLookupBackend;
+		if (esBackend && client == null) {
 			throw new SettingsException("ElasticSearch client is required for preprocessor " + name);
 		}
 
 		indexName = XContentMapValues.nodeStringValue(settings.get(CFG_index_name), null);
-		validateConfigurationStringNotEmpty(indexName, CFG_index_name);
 		indexType = XContentMapValues.nodeStringValue(settings.get(CFG_index_type), null);
-		validateConfigurationStringNotEmpty(indexType, CFG_index_type);
+		if (esBackend) {
+			validateConfigurationStringNotEmpty(indexName, CFG_index_name);
+			validateConfigurationStringNotEmpty(indexType, CFG_index_type);
+		}
 		sourceField = XContentMapValues.nodeStringValue(settings.get(CFG_source_field), null);
 		if (ValueUtils.isEmpty(sourceField)) {
 			sourceField = null;
@@ -232,9 +429,157 @@ public class ESLookupValuePreprocessor extends
 		}
 		resultMapping = (List<Map<String, String>>) settings.get(CFG_result_mapping);
 		validateResultMappingConfiguration(resultMapping, CFG_result_mapping);
+		targetFieldPaths = new HashMap<String, FieldPath>();
+		defaultValueTemplates = new HashMap<String, CompiledTemplate>();
+		Set<String> resultFields = new LinkedHashSet<String>();
+		for (Map<String, String> mappingRecord : resultMapping) {
+			resultFields.add(mappingRecord.get(CFG_idx_result_field));
+			String targetField = mappingRecord.get(CFG_target_field);
+			targetFieldPaths.put(targetField, FieldPath.compile(targetField));
+			String valueDefault = mappingRecord.get(CFG_value_default);
+			if (valueDefault != null)
+				defaultValueTemplates.put(valueDefault, CompiledTemplate.compile(valueDefault));
+		}
+		sourceFieldPath = sourceField != null ? FieldPath.compile(sourceField) : null;
+		sourceValueTemplate = sourceValuePattern != null ? CompiledTemplate.compile(sourceValuePattern) : null;
+		idxResultFields = new ArrayList<String>(resultFields);
 		idxSearchField = StructureUtils.getListOfStringValues(settings, CFG_idx_search_field);
 		validateConfigurationObjectNotEmpty(idxSearchField, CFG_idx_search_field);
 		ignoreMultipleResults = XContentMapValues.nodeBooleanValue(settings.get(CFG_ignore_multiple_results), false);
+		lookupBackend.init(name, client, settings, idxResultFields);
+		lookupIdentity = createLookupIdentity();
+		initLookupCache(settings);
+		int maxConcurrent = readNonNegativeInt(settings, CFG_lookup_max_concurrent);
+		lookupRequestQueue = maxConcurrent > 0 ? new LookupRequestQueue(maxConcurrent) : null;
+		initLookupMirror(settings);
+		int batchSize = readNonNegativeInt(settings, CFG_lookup_batch_size);
+		lookupBatcher = null;
+		if (batchSize > 1) {
+			lookupBatcher = new LookupBatcher(batchSize, readTimeValue(settings, CFG_lookup_batch_wait,
+					TimeValue.timeValueMillis(2)).nanos());
+		}
+	}
+
+	/**
+	 * Release resources held by lookup backend, eg. database connections of {@link JdbcLookupBackend}. It is called by
+	 * {@link PreprocessorChain#close()}, or must be called by owner of preprocessor used out of chain when it is not
+	 * needed anymore.
+	 */
+	@Override
+	public void close() {
+		closeLookupBackend();
+	}
+
+	private void closeLookupBackend() {
+		if (lookupBackend instanceof Closeable) {
+			try {
+				((Closeable) lookupBackend).close();
+			} catch (IOException e) {
+				logger.warn("Lookup backend close failed due {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Create lookup backend configured by <code>lookup_backend</code> setting.
+	 * 
+	 * @param backend name of backend or class implementing {@link LookupBackend}, <code>null</code> for default
+	 *          Elasticsearch backend
+	 * @return created backend, not initialized yet
+	 * @throws SettingsException if backend can't be created
+	 */
+	protected LookupBackend createLookupBackend(String backend) throws SettingsException {
+		backend = ValueUtils.trimToNull(backend);
+		if (backend == null || BACKEND_ELASTICSEARCH.equals(backend))
+			return new ESLookupBackend();
+		if (BACKEND_MEMORY.equals(backend))
+			return new MemoryLookupBackend();
+		if (BACKEND_FILE.equals(backend))
+			return new FileLookupBackend();
+		if (BACKEND_JDBC.equals(backend))
+			return new JdbcLookupBackend();
+		try {
+			return (LookupBackend) Class.forName(backend).newInstance();
+		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+			throw new SettingsException("Invalid 'settings/" + CFG_lookup_backend + "' configuration value for '" + name
+					+ "' preprocessor: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Init lookup mirror from settings, and load it if enabled.
+	 * 
+	 * @param settings to read configuration from
+	 * @throws SettingsException if configuration is invalid
+	 */
+	protected void initLookupMirror(Map<String, Object> settings) throws SettingsException {
+		lookupMirror = null;
+		mirrorEnabled = XContentMapValues.nodeBooleanValue(settings.get(CFG_lookup_mirror), false);
+		mirrorRefreshMillis = readTimeValue(settings, CFG_lookup_mirror_refresh, TimeValue.timeValueMinutes(5)).millis();
+		if (mirrorEnabled && !(lookupBackend instanceof ESLookupBackend)) {
+			throw new SettingsException("Invalid 'settings/" + CFG_lookup_mirror + "' configuration value for '" + name
+					+ "' preprocessor: mirror can be used with '" + BACKEND_ELASTICSEARCH + "' lookup backend only");
+		}
+		if (mirrorEnabled)
+			refreshLookupMirror(true);
+	}
+
+	/**
+	 * Init shared lookup caches and circuit breaker from settings.
+	 * 
+	 * @param settings to read configuration from
+	 * @throws SettingsException if configuration is invalid
+	 */
+	protected void initLookupCache(Map<String, Object> settings) throws SettingsException {
+		lookupCache = null;
+		negativeLookupCache = null;
+		circuitBreaker = null;
+		int cacheSize = readNonNegativeInt(settings, CFG_lookup_cache_size);
+		TimeValue ttl = readTimeValue(settings, CFG_lookup_cache_ttl, null);
+		TimeValue negativeTtl = readTimeValue(settings, CFG_lookup_cache_negative_ttl, ttl);
+		if (cacheSize > 0) {
+			lookupCache = buildLookupCache(cacheSize, ttl);
+			if (negativeTtl == null || negativeTtl.millis() > 0)
+				negativeLookupCache = buildLookupCache(cacheSize, negativeTtl);
+		}
+		int failures = readNonNegativeInt(settings, CFG_lookup_circuit_breaker_failures);
+		if (failures > 0) {
+			circuitBreaker = new CircuitBreaker(failures, readTimeValue(settings, CFG_lookup_circuit_breaker_retry,
+					TimeValue.timeValueSeconds(30)).millis());
+		}
+	}
+
+	private Cache<Object, LookupResult> buildLookupCache(int cacheSize, TimeValue ttl) {
+		CacheBuilder<Object, Object> cb = CacheBuilder.newBuilder().maximumSize(cacheSize).recordStats();
+		if (ttl != null && ttl.millis() > 0)
+			cb.expireAfterWrite(ttl.millis(), TimeUnit.MILLISECONDS);
+		return cb.build();
+	}
+
+	private int readNonNegativeInt(Map<String, Object> settings, String cfgName) throws SettingsException {
+		int value = 0;
+		try {
+			value = XContentMapValues.nodeIntegerValue(settings.get(cfgName), 0);
+		} catch (NumberFormatException e) {
+			value = -1;
+		}
+		if (value < 0) {
+			throw new SettingsException("Invalid 'settings/" + cfgName + "' configuration value for '" + name
+					+ "' preprocessor, must be positive number");
+		}
+		return value;
+	}
+
+	private TimeValue readTimeValue(Map<String, Object> settings, String cfgName, TimeValue defaultValue)
+			throws SettingsException {
+		if (settings.get(cfgName) == null)
+			return defaultValue;
+		try {
+			return TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(settings.get(cfgName), null), defaultValue);
+		} catch (ElasticsearchParseException e) {
+			throw new SettingsException("Invalid 'settings/" + cfgName + "' configuration value for '" + name
+					+ "' preprocessor: " + e.getMessage());
+		}
 	}
 
 	/**
@@ -262,25 +607,111 @@ public class ESLookupValuePreprocessor extends
 		}
 	}
 
+	/**
+	 * Lookups for all source base values are prefetched by {@link #preprocessData(Map, PreprocessChainContext)}.
+	 */
+	@Override
+	protected boolean isSourceBasesTraversalShareable() {
+		return false;
+	}
+
 	@Override
 	protected LookupContenxt createContext(Map<String, Object> data) {
-		return new LookupContenxt();
+		LookupContenxt ret = new LookupContenxt();
+		ret.mirror = getCurrentLookupMirror();
+		return ret;
+	}
+
+	@Override
+	public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext chainContext) {
+		if (data == null)
+			return null;
+		LookupContenxt context = createContext(data);
+		if (context.mirror == null) {
+			Set<Object> sourceValues = new LinkedHashSet<Object>();
+			collectSourceValues(data, sourceValues);
+			// one value is looked up by simple search during processing
+			if (sourceValues.size() > 1)
+				context.prefetchedResults = prefetchLookupResults(sourceValues);
+		}
+		return preprocessData(data, context, chainContext);
+	}
+
+	/**
+	 * Values from all data items of batch are looked up at once using multi search requests, and results are shared for
+	 * all items.
+	 */
+	@Override
+	public List<Map<String, Object>> preprocessBatch(List<Map<String, Object>> batch,
+			List<? extends PreprocessChainContext> chainContexts) {
+		if (batch == null)
+			return null;
+		Map<Object, LookupResult> prefetchedResults = null;
+		if (getCurrentLookupMirror() == null) {
+			Set<Object> sourceValues = new LinkedHashSet<Object>();
+			for (Map<String, Object> data : batch) {
+				if (data != null)
+					collectSourceValues(data, sourceValues);
+			}
+			if (sourceValues.size() > 1)
+				prefetchedResults = prefetchLookupResults(sourceValues);
+		}
+		for (int i = 0; i < batch.size(); i++) {
+			Map<String, Object> data = batch.get(i);
+			if (data != null) {
+				LookupContenxt context = createContext(data);
+				context.prefetchedResults = prefetchedResults;
+				batch.set(i, preprocessData(data, context, getChainContext(chainContexts, i)));
+			}
+		}
+		return batch;
+	}
+
+	@Override
+	public ListenableFuture<Map<String, Object>> preprocessDataAsync(final Map<String, Object> data,
+			final PreprocessChainContext chainContext) {
+		if (data == null)
+			return Futures.immediateFuture(null);
+		if (getCurrentLookupMirror() != null) {
+			// lookups in mirror don't wait for anything
+			try {
+				return Futures.immediateFuture(preprocessData(data, chainContext));
+			} catch (Throwable e) {
+				return Futures.immediateFailedFuture(e);
+			}
+		}
+		final SettableFuture<Map<String, Object>> ret = SettableFuture.create();
+		Set<Object> sourceValues = new LinkedHashSet<Object>();
+		collectSourceValues(data, sourceValues);
+		Futures.addCallback(prefetchLookupResultsAsync(sourceValues), new FutureCallback<Map<Object, LookupResult>>() {
+			@Override
+			public void onSuccess(Map<Object, LookupResult> prefetchedResults) {
+				try {
+					LookupContenxt context = createContext(data);
+					context.prefetchedResults = prefetchedResults;
+					ret.set(preprocessData(data, context, chainContext));
+				} catch (Throwable e) {
+					ret.setException(e);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				ret.setException(e);
+			}
+		});
+		return ret;
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	protected void processOneSourceValue(Map<String, Object> data, LookupContenxt context, String base,
 			PreprocessChainContext chainContext) {
-		Object sourceValue = null;
-		if (sourceField != null) {
-			sourceValue = XContentMapValues.extractValue(sourceField, data);
-		} else {
-			sourceValue = ValueUtils.processStringValuePatternReplacement(sourceValuePattern, data, null);
-		}
+		Object sourceValue = getSourceValue(data);
 		Map<String, Object> targetValues = null;
 		if (sourceValue instanceof Collection) {
 			if (context == null)
-				context = new LookupContenxt();
+				context = createContext(data);
 			Collection<Object> sourceCollection = (Collection<Object>) sourceValue;
 			targetValues = new HashMap<String, Object>();
 			for (Object sourceObject : sourceCollection) {
@@ -304,11 +735,46 @@ public class ESLookupValuePreprocessor extends
 		}
 		if (targetValues != null) {
 			for (String targetField : targetValues.keySet())
-				StructureUtils.putValueIntoMapOfMaps(data, targetField, targetValues.get(targetField));
+				targetFieldPaths.get(targetField).put(data, targetValues.get(targetField));
+		}
+	}
+
+	/**
+	 * Get value to be looked up from data.
+	 * 
+	 * @param data to get value from
+	 * @return value to be looked up, can be null or Collection of values
+	 */
+	protected Object getSourceValue(Map<String, Object> data) {
+		if (sourceField != null) {
+			return sourceFieldPath.get(data);
+		} else {
+			return sourceValueTemplate.render(data, null);
 		}
 	}
 
-	private boolean esExceptionWarned = false;
+	private Object renderDefaultValue(String valueDefault, Map<String, Object> data, Object sourceValue) {
+		return defaultValueTemplates.get(valueDefault).render(data, sourceValue);
+	}
+
+	private final AtomicBoolean esExceptionWarned = new AtomicBoolean(false);
+
+	/**
+	 * Lookups running in backends, shared by all preprocessors so concurrent lookups of the same value in the same
+	 * lookup index are coalesced even if they are performed by different preprocessors.
+	 */
+	private static final ConcurrentMap<InFlightLookupKey, SettableFuture<LookupResult>> inFlightLookups =
+			new ConcurrentHashMap<InFlightLookupKey, SettableFuture<LookupResult>>();
+
+	/**
+	 * Identity of lookups performed by this preprocessor, see {@link #createLookupIdentity()}.
+	 */
+	protected Object lookupIdentity;
+
+	/**
+	 * Number of lookups which waited for the same lookup running in other thread instead of own request.
+	 */
+	private final AtomicLong coalescedLookupCount = new AtomicLong();
 
 	/**
 	 * Perform lookup for one value in ES with default handling.
@@ -328,81 +794,23 @@ public class ESLookupValuePreprocessor extends
 			if (context != null && context.lookupCache.containsKey(sourceValue))
 				return context.lookupCache.get(sourceValue);
 
-			boolean found = false;
-			for (String idxSf : idxSearchField) {
-
-				try {
-					SearchRequestBuilder req = client.prepareSearch(indexName).setTypes(indexType)
-							.setQuery(QueryBuilders.matchAllQuery())
-							.setPostFilter(FilterBuilders.queryFilter(QueryBuilders.matchQuery(idxSf, sourceValue)));
-					for (Map<String, String> mappingRecord : resultMapping) {
-						String idx_resultField = mappingRecord.get(CFG_idx_result_field);
-						if (idx_resultField != null && !"_source".equals(idx_resultField)) {
-							req.addField(mappingRecord.get(CFG_idx_result_field));
-						}
-					}
-
-					SearchResponse resp = req.execute().actionGet();
-
-					if (resp.getHits().getTotalHits() > 0) {
-						if (resp.getHits().getTotalHits() > 1) {
-							String message = "More results found during lookup for value '" + sourceValue + "' using index field '"
-									+ idxSf;
-							if (ignoreMultipleResults)
-								message += "', so we ignore them.";
-							else
-								message += "', so first one is used.";
-
-							addDataWarning(chainContext, message);
-							logger.debug(message);
-							if (ignoreMultipleResults) {
-								continue;
-							}
-						}
-						SearchHit hit = resp.getHits().hits()[0];
-						for (Map<String, String> mappingRecord : resultMapping) {
-							String idx_resultField = mappingRecord.get(CFG_idx_result_field);
-							Object v = null;
-							SearchHitField shf = null;
-							if ("_source".equals(idx_resultField)) {
-								v = hit.getSource();
-							} else {
-								shf = hit.field(idx_resultField);
-								if (shf != null) {
-									v = shf.getValue();
-								}
-							}
-							if (shf != null || v != null) {
-								if (v == null && mappingRecord.get(CFG_value_default) != null) {
-									v = ValueUtils.processStringValuePatternReplacement(mappingRecord.get(CFG_value_default), data,
-											sourceValue);
-								}
-								value.put(mappingRecord.get(CFG_target_field), v);
-							} else {
-								String message = "Result found during lookup for value '" + sourceValue + "' using index field '"
-										+ idxSf + ", but result field '" + mappingRecord.get(CFG_idx_result_field)
-										+ "' is not present there";
-								addDataWarning(chainContext, message);
-								logger.debug(message);
-							}
+			LookupResult result = getLookupResult(sourceValue, context, chainContext);
+			if (result.found) {
+				for (Map<String, String> mappingRecord : resultMapping) {
+					String targetField = mappingRecord.get(CFG_target_field);
+					if (result.values.containsKey(targetField)) {
+						Object v = result.values.get(targetField);
+						if (v == null && mappingRecord.get(CFG_value_default) != null) {
+							v = renderDefaultValue(mappingRecord.get(CFG_value_default), data, sourceValue);
+						} else if (v instanceof Map || v instanceof List) {
+							// result may be shared between documents (caches, prefetched or coalesced lookups), so structure
+							// must not be changed by next preprocessors
+							v = StructureUtils.getADeepStructureCopy(v);
 						}
-						found = true;
-					} else {
-						addDataWarning(chainContext, "No result found during lookup for value '" + sourceValue + "'.");
-					}
-
-					esExceptionWarned = false;
-				} catch (ElasticsearchException e) {
-					if (!esExceptionWarned) {
-						esExceptionWarned = true;
-						String message = "Lookup failed due '" + e.getClass().getName() + ":" + e.getMessage()
-								+ "', so default value handling is used.";
-						addDataWarning(chainContext, message);
-						logger.warn(message);
+						value.put(targetField, v);
 					}
 				}
-			}
-			if (!found) {
+			} else {
 				processDefaultValues(sourceValue, data, value, chainContext);
 			}
 		}
@@ -413,50 +821,1398 @@ public class ESLookupValuePreprocessor extends
 		return value;
 	}
 
-	private void processDefaultValues(Object sourceValue, Map<String, Object> data, Map<String, Object> value,
+	/**
+	 * Get result of lookup for one value, from lookup mirror if loaded, from results prefetched for processed data, from
+	 * shared lookup cache if enabled and value is there, or from ES. Warnings produced by the lookup are written into
+	 * <code>chainContext</code> in all cases.
+	 * 
+	 * @param sourceValue to be looked up, not null
+	 * @param context of lookup, can be null
+	 * @param chainContext to write warnings into
+	 * @return result of lookup, never null
+	 */
+	protected LookupResult getLookupResult(Object sourceValue, LookupContenxt context,
 			PreprocessChainContext chainContext) {
+		if (context != null && context.mirror != null)
+			return lookupValueInMirror(context.mirror, sourceValue, chainContext);
+		LookupResult result = null;
+		if (context != null && context.prefetchedResults != null)
+			result = context.prefetchedResults.get(sourceValue);
+		if (result == null)
+			result = getCachedLookupResult(sourceValue);
+		if (result != null) {
+			for (String message : result.warnings) {
+				addDataWarning(chainContext, message);
+			}
+			return result;
+		}
+		return lookupValueCoalesced(sourceValue, chainContext);
+	}
 
-		for (Map<String, String> mappingRecord : resultMapping) {
-			if (mappingRecord.get(CFG_value_default) != null) {
-				Object v = ValueUtils.processStringValuePatternReplacement(mappingRecord.get(CFG_value_default), data,
-						sourceValue);
-				value.put(mappingRecord.get(CFG_target_field), v);
-			} else {
-				value.put(mappingRecord.get(CFG_target_field), null);
+	/**
+	 * Perform lookup for one value using lookup backend, but only once for concurrent lookups of the same value. First
+	 * thread performs lookup, others wait for its result and replay its warnings. Result is put into shared caches before
+	 * it is available to others, so there is no gap for next lookups.
+	 * 
+	 * @param sourceValue to be looked up, not null
+	 * @param chainContext to write warnings into
+	 * @return result of lookup, never null
+	 * @see #getCoalescedLookupCount()
+	 */
+	protected LookupResult lookupValueCoalesced(Object sourceValue, PreprocessChainContext chainContext) {
+		InFlightLookupKey key = new InFlightLookupKey(lookupIdentity, sourceValue);
+		SettableFuture<LookupResult> future = SettableFuture.create();
+		SettableFuture<LookupResult> running = inFlightLookups.putIfAbsent(key, future);
+		if (running != null) {
+			coalescedLookupCount.incrementAndGet();
+			try {
+				LookupResult result = Uninterruptibles.getUninterruptibly(running);
+				for (String message : result.warnings) {
+					addDataWarning(chainContext, message);
+				}
+				// result may come from other preprocessor with own cache
+				putCachedLookupResult(sourceValue, result);
+				return result;
+			} catch (ExecutionException e) {
+				// lookup failed by unexpected exception in other thread, so try it in this one also
+				LookupResult result = lookupValueInIndex(sourceValue, chainContext);
+				putCachedLookupResult(sourceValue, result);
+				return result;
+			}
+		}
+		try {
+			LookupResult result = null;
+			if (lookupBatcher != null) {
+				result = lookupBatcher.lookup(sourceValue);
+				if (result != null) {
+					for (String message : result.warnings) {
+						addDataWarning(chainContext, message);
+					}
+				}
 			}
+			// value is looked up alone if batch lookup failed, with full error handling
+			if (result == null) {
+				result = lookupValueInIndex(sourceValue, chainContext);
+				putCachedLookupResult(sourceValue, result);
+			}
+			future.set(result);
+			return result;
+		} catch (RuntimeException | Error e) {
+			future.setException(e);
+			throw e;
+		} finally {
+			inFlightLookups.remove(key, future);
 		}
 	}
 
-	protected class LookupContenxt {
-		Map<Object, Map<String, Object>> lookupCache = new HashMap<Object, Map<String, Object>>();
+	/**
+	 * Create identity of lookups performed by this preprocessor. Preprocessors with equal identity get the same lookup
+	 * result for the same value, so their concurrent lookups may be coalesced. Elasticsearch lookups are identified by
+	 * client, index, type and query, lookups in other backends by backend instance. Search fields and result mapping
+	 * are part of identity in both cases.
+	 * 
+	 * @return identity with equals and hashCode
+	 */
+	protected Object createLookupIdentity() {
+		List<Object> ret = new ArrayList<Object>();
+		if (lookupBackend instanceof ESLookupBackend) {
+			ESLookupBackend esBackend = (ESLookupBackend) lookupBackend;
+			ret.add(new IdentityKey(client));
+			ret.add(esBackend.indexName);
+			ret.add(esBackend.indexType);
+			ret.add(esBackend.matchQuery);
+		} else {
+			ret.add(new IdentityKey(lookupBackend));
+		}
+		ret.add(new ArrayList<String>(idxSearchField));
+		ret.add(String.valueOf(resultMapping));
+		ret.add(ignoreMultipleResults);
+		return ret;
 	}
 
-	public List<String> getSourceBases() {
-		return sourceBases;
+	/**
+	 * Wrapper comparing object by identity.
+	 */
+	private static final class IdentityKey {
+
+		private final Object object;
+
+		IdentityKey(Object object) {
+			this.object = object;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IdentityKey && ((IdentityKey) obj).object == object;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(object);
+		}
 	}
 
-	public String getIndexName() {
-		return indexName;
+	/**
+	 * Key of lookup in {@link ESLookupValuePreprocessor#inFlightLookups}, composed from lookup identity and looked up
+	 * value.
+	 */
+	private static final class InFlightLookupKey {
+
+		private final Object lookupIdentity;
+		private final Object value;
+
+		InFlightLookupKey(Object lookupIdentity, Object value) {
+			this.lookupIdentity = lookupIdentity;
+			this.value = value;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof InFlightLookupKey))
+				return false;
+			InFlightLookupKey other = (InFlightLookupKey) obj;
+			return value.equals(other.value) && lookupIdentity.equals(other.lookupIdentity);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * lookupIdentity.hashCode() + value.hashCode();
+		}
 	}
 
-	public String getIndexType() {
-		return indexType;
+	/**
+	 * Get lookup result from shared caches.
+	 * 
+	 * @param sourceValue to get result for
+	 * @return cached result or <code>null</code> if not available
+	 */
+	protected LookupResult getCachedLookupResult(Object sourceValue) {
+		LookupResult result = null;
+		if (lookupCache != null)
+			result = lookupCache.getIfPresent(sourceValue);
+		if (result == null && negativeLookupCache != null)
+			result = negativeLookupCache.getIfPresent(sourceValue);
+		return result;
 	}
 
-	public String getSourceField() {
-		return sourceField;
+	/**
+	 * Put lookup result into shared caches if enabled. Results of failed lookups are never cached, results which found
+	 * nothing are cached in negative lookup cache.
+	 * 
+	 * @param sourceValue result is for
+	 * @param result to put into cache
+	 */
+	protected void putCachedLookupResult(Object sourceValue, LookupResult result) {
+		if (result.failed)
+			return;
+		if (result.found) {
+			if (lookupCache != null)
+				lookupCache.put(sourceValue, result);
+		} else if (negativeLookupCache != null) {
+			negativeLookupCache.put(sourceValue, result);
+		}
 	}
 
-	public String getSourceValuePattern() {
-		return sourceValuePattern;
+	/**
+	 * Perform lookup for one value using lookup backend. Result contains raw values found by backend, so it doesn't
+	 * depend on processed data and can be shared between them.
+	 * 
+	 * @param sourceValue to be looked up, not null
+	 * @param chainContext to write warnings into
+	 * @return result of lookup, never null
+	 */
+	protected LookupResult lookupValueInIndex(Object sourceValue, PreprocessChainContext chainContext) {
+		LookupResult result = new LookupResult();
+		for (String idxSf : idxSearchField) {
+
+			if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+				logger.debug("Lookup for value '{}' skipped as circuit breaker is open", sourceValue);
+				result.failed = true;
+				continue;
+			}
+			try {
+				Map<Object, List<Map<String, Object>>> found = lookupBackend.lookup(idxSf,
+						Collections.singletonList(sourceValue));
+				processFoundDocuments(result, found.get(sourceValue), idxSf, sourceValue, chainContext);
+				lookupSucceeded();
+			} catch (ElasticsearchException e) {
+				result.failed = true;
+				lookupFailed();
+				String message = getLookupFailureWarning(e);
+				// stored in result also, so it is replayed for coalesced lookups
+				if (message != null)
+					result.addWarning(chainContext, message);
+			}
+		}
+		return result;
 	}
 
-	public List<String> getIdxSearchField() {
-		return idxSearchField;
+	/**
+	 * Get warning about failed lookup, only first one from sequence of failures is warned.
+	 * 
+	 * @param e lookup failed due
+	 * @return warning message to be written into chain context, <code>null</code> if it has been warned already
+	 */
+	private String getLookupFailureWarning(Throwable e) {
+		if (esExceptionWarned.compareAndSet(false, true)) {
+			String message = "Lookup failed due '" + e.getClass().getName() + ":" + e.getMessage()
+					+ "', so default value handling is used.";
+			logger.warn(message);
+			return message;
+		}
+		return null;
 	}
 
-	public List<Map<String, String>> getResultMapping() {
-		return resultMapping;
+	private void lookupSucceeded() {
+		esExceptionWarned.set(false);
+		if (circuitBreaker != null)
+			circuitBreaker.recordSuccess();
+	}
+
+	private void lookupFailed() {
+		if (circuitBreaker != null && circuitBreaker.recordFailure()) {
+			logger.warn("Lookups for '{}' preprocessor suspended for {} ms after {} consecutive failures", name,
+					circuitBreaker.retryMillis, circuitBreaker.failureThreshold);
+		}
+	}
+
+	/**
+	 * Process documents found by lookup backend into lookup result.
+	 * 
+	 * @param result to store values and warnings into
+	 * @param documents found for value, <code>null</code> if nothing found
+	 * @param idxSf index field value was searched in
+	 * @param sourceValue looked up
+	 * @param chainContext to write warnings into, can be null
+	 */
+	protected void processFoundDocuments(LookupResult result, List<Map<String, Object>> documents, String idxSf,
+			Object sourceValue, PreprocessChainContext chainContext) {
+		if (documents == null || documents.isEmpty())
+			processLookupHits(result, 0, null, idxSf, sourceValue, chainContext);
+		else
+			processLookupHits(result, documents.size(), documents.get(0), idxSf, sourceValue, chainContext);
+	}
+
+	/**
+	 * Process documents found by lookup into lookup result.
+	 * 
+	 * @param result to store values and warnings into
+	 * @param totalHits number of found documents
+	 * @param firstHitFields values of result fields from first found document as returned by {@link LookupBackend},
+	 *          <code>null</code> if nothing found
+	 * @param idxSf index field value was searched in
+	 * @param sourceValue looked up
+	 * @param chainContext to write warnings into, can be null
+	 */
+	protected void processLookupHits(LookupResult result, long totalHits, Map<String, Object> firstHitFields,
+			String idxSf, Object sourceValue, PreprocessChainContext chainContext) {
+		if (totalHits > 0) {
+			if (totalHits > 1) {
+				String message = "More results found during lookup for value '" + sourceValue + "' using index field '"
+						+ idxSf;
+				if (ignoreMultipleResults)
+					message += "', so we ignore them.";
+				else
+					message += "', so first one is used.";
+
+				result.addWarning(chainContext, message);
+				logger.debug(message);
+				if (ignoreMultipleResults) {
+					return;
+				}
+			}
+			for (Map<String, String> mappingRecord : resultMapping) {
+				String idx_resultField = mappingRecord.get(CFG_idx_result_field);
+				if (firstHitFields.containsKey(idx_resultField)) {
+					result.values.put(mappingRecord.get(CFG_target_field), firstHitFields.get(idx_resultField));
+				} else {
+					String message = "Result found during lookup for value '" + sourceValue + "' using index field '" + idxSf
+							+ ", but result field '" + idx_resultField + "' is not present there";
+					result.addWarning(chainContext, message);
+					logger.debug(message);
+				}
+			}
+			result.found = true;
+		} else {
+			result.addWarning(chainContext, "No result found during lookup for value '" + sourceValue + "'.");
+		}
+	}
+
+	/**
+	 * Perform lookup for one value in lookup mirror, with same result as lookup in index.
+	 * 
+	 * @param mirror to lookup value in
+	 * @param sourceValue to be looked up, not null
+	 * @param chainContext to write warnings into
+	 * @return result of lookup, never null
+	 */
+	protected LookupResult lookupValueInMirror(LookupMirror mirror, Object sourceValue,
+			PreprocessChainContext chainContext) {
+		LookupResult result = new LookupResult();
+		for (String idxSf : idxSearchField) {
+			List<Map<String, Object>> docs = mirror.get(idxSf, sourceValue);
+			processLookupHits(result, docs.size(), docs.isEmpty() ? null : docs.get(0), idxSf, sourceValue, chainContext);
+		}
+		return result;
+	}
+
+	/**
+	 * Lookup more values at once using one lookup backend call (multi search request for Elasticsearch backend) for
+	 * each {@link #MULTI_SEARCH_MAX_VALUES} of them and each index field. Values already present in shared lookup cache
+	 * are not searched again. Warnings are not written into chain context
+	 * but only stored in results to be replayed for each data item using them.
+	 * 
+	 * @param sourceValues distinct values to be looked up
+	 * @return map with lookup results for values, values which couldn't be looked up due failure have failed result.
+	 *         Values not looked up due open circuit breaker are not contained.
+	 */
+	protected Map<Object, LookupResult> prefetchLookupResults(Collection<Object> sourceValues) {
+		Map<Object, LookupResult> ret = new HashMap<Object, LookupResult>();
+		List<Object> toSearch = new ArrayList<Object>();
+		for (Object sourceValue : sourceValues) {
+			LookupResult result = getCachedLookupResult(sourceValue);
+			if (result != null)
+				ret.put(sourceValue, result);
+			else
+				toSearch.add(sourceValue);
+		}
+		for (int from = 0; from < toSearch.size(); from += MULTI_SEARCH_MAX_VALUES) {
+			List<Object> chunk = toSearch.subList(from, Math.min(from + MULTI_SEARCH_MAX_VALUES, toSearch.size()));
+			if (circuitBreaker != null && !circuitBreaker.allowRequest())
+				break;
+			List<Map<Object, List<Map<String, Object>>>> found = new ArrayList<Map<Object, List<Map<String, Object>>>>();
+			try {
+				for (String idxSf : idxSearchField) {
+					found.add(lookupBackend.lookup(idxSf, chunk));
+				}
+			} catch (ElasticsearchException e) {
+				// not retried one by one, it would fail the same way for each value
+				lookupFailed();
+				putFailedLookupResults(chunk, e, ret);
+				continue;
+			}
+			processPrefetchedDocuments(chunk, found, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Lookup more values at once without blocking of calling thread, using one asynchronous lookup backend call for
+	 * each {@link #MULTI_SEARCH_MAX_VALUES} of them and each index field. If <code>lookup_max_concurrent</code> requests
+	 * are running already then next ones are queued and sent later. Backends other than Elasticsearch one perform
+	 * lookup by calling thread. Values already present in shared lookup cache are not searched again. Warnings are not
+	 * written into chain context but only stored in results to be replayed for each data item using them.
+	 * 
+	 * @param sourceValues distinct values to be looked up
+	 * @return future with map containing lookup results for all values, values which couldn't be looked up due failure
+	 *         have failed result. It is completed by calling thread if there is nothing to search in index, by thread
+	 *         receiving the last response otherwise.
+	 * @since 1.3.10
+	 */
+	protected ListenableFuture<Map<Object, LookupResult>> prefetchLookupResultsAsync(Collection<Object> sourceValues) {
+		final SettableFuture<Map<Object, LookupResult>> future = SettableFuture.create();
+		final Map<Object, LookupResult> ret = new ConcurrentHashMap<Object, LookupResult>();
+		List<Object> toSearch = new ArrayList<Object>();
+		for (Object sourceValue : sourceValues) {
+			LookupResult result = getCachedLookupResult(sourceValue);
+			if (result != null)
+				ret.put(sourceValue, result);
+			else
+				toSearch.add(sourceValue);
+		}
+		int chunks = (toSearch.size() + MULTI_SEARCH_MAX_VALUES - 1) / MULTI_SEARCH_MAX_VALUES;
+		// one more for this thread, so future is not completed before all requests are sent
+		final AtomicInteger pending = new AtomicInteger(chunks + 1);
+		final Runnable chunkDone = new Runnable() {
+			@Override
+			public void run() {
+				if (pending.decrementAndGet() == 0)
+					future.set(ret);
+			}
+		};
+		for (int from = 0; from < toSearch.size(); from += MULTI_SEARCH_MAX_VALUES) {
+			final List<Object> chunk = toSearch.subList(from, Math.min(from + MULTI_SEARCH_MAX_VALUES, toSearch.size()));
+			if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+				putFailedLookupResults(chunk, null, ret);
+				chunkDone.run();
+				continue;
+			}
+			Runnable request = new Runnable() {
+				@Override
+				public void run() {
+					sendPrefetchRequest(chunk, ret, chunkDone);
+				}
+			};
+			if (lookupRequestQueue != null)
+				lookupRequestQueue.submit(request);
+			else
+				request.run();
+		}
+		chunkDone.run();
+		return future;
+	}
+
+	/**
+	 * Send asynchronous lookup requests for chunk of values, one for each index field.
+	 * 
+	 * @param chunk of values to look up
+	 * @param ret to put lookup results into
+	 * @param chunkDone called when results for chunk are available
+	 */
+	private void sendPrefetchRequest(final List<Object> chunk, final Map<Object, LookupResult> ret,
+			final Runnable chunkDone) {
+		List<ListenableFuture<Map<Object, List<Map<String, Object>>>>> futures =
+				new ArrayList<ListenableFuture<Map<Object, List<Map<String, Object>>>>>();
+		try {
+			for (String idxSf : idxSearchField) {
+				futures.add(lookupBackend.lookupAsync(idxSf, chunk));
+			}
+		} catch (RuntimeException e) {
+			futures.add(Futures.<Map<Object, List<Map<String, Object>>>> immediateFailedFuture(e));
+		}
+		Futures.addCallback(Futures.allAsList(futures), new FutureCallback<List<Map<Object, List<Map<String, Object>>>>>() {
+			@Override
+			public void onSuccess(List<Map<Object, List<Map<String, Object>>>> found) {
+				try {
+					processPrefetchedDocuments(chunk, found, ret);
+				} finally {
+					requestFinished();
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				try {
+					lookupFailed();
+					putFailedLookupResults(chunk, e, ret);
+				} finally {
+					requestFinished();
+				}
+			}
+
+			private void requestFinished() {
+				try {
+					if (lookupRequestQueue != null)
+						lookupRequestQueue.requestFinished();
+				} finally {
+					chunkDone.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Process documents found by lookup backend for more values into lookup results.
+	 * 
+	 * @param sourceValues looked up
+	 * @param found documents found by backend for each index field, in order of {@link #idxSearchField}
+	 * @param results to put results into
+	 */
+	private void processPrefetchedDocuments(List<Object> sourceValues, List<Map<Object, List<Map<String, Object>>>> found,
+			Map<Object, LookupResult> results) {
+		for (Object sourceValue : sourceValues) {
+			LookupResult result = new LookupResult();
+			for (int i = 0; i < idxSearchField.size(); i++) {
+				processFoundDocuments(result, found.get(i).get(sourceValue), idxSearchField.get(i), sourceValue, null);
+			}
+			results.put(sourceValue, result);
+			putCachedLookupResult(sourceValue, result);
+		}
+		lookupSucceeded();
+	}
+
+	/**
+	 * Put failed results for values which have no result yet.
+	 * 
+	 * @param sourceValues to put results for
+	 * @param e lookup failed due, <code>null</code> if lookup has not been performed due open circuit breaker
+	 * @param results to put failed results into
+	 */
+	private void putFailedLookupResults(List<Object> sourceValues, Throwable e, Map<Object, LookupResult> results) {
+		String message = e != null ? getLookupFailureWarning(e) : null;
+		for (Object sourceValue : sourceValues) {
+			if (!results.containsKey(sourceValue)) {
+				LookupResult result = new LookupResult();
+				result.failed = true;
+				if (message != null) {
+					result.warnings.add(message);
+					// warned only once as for lookups one by one
+					message = null;
+				}
+				results.put(sourceValue, result);
+			}
+		}
+	}
+
+	/**
+	 * Collect distinct values to be looked up from data. Values are collected the same way as they are processed then,
+	 * so respecting "source_bases" and collections in source field.
+	 * 
+	 * @param data to collect values from
+	 * @param sourceValues collection to add values into
+	 */
+	@SuppressWarnings("unchecked")
+	protected void collectSourceValues(Map<String, Object> data, Collection<Object> sourceValues) {
+		if (sourceBases == null) {
+			collectOneSourceValue(data, sourceValues);
+		} else {
+			for (FieldPath basePath : getSourceBasesPaths()) {
+				Object obj = basePath != null ? basePath.get(data) : null;
+				if (obj instanceof Map) {
+					collectOneSourceValue((Map<String, Object>) obj, sourceValues);
+				} else if (obj instanceof Collection) {
+					for (Object o : (Collection<Object>) obj) {
+						if (o instanceof Map)
+							collectOneSourceValue((Map<String, Object>) o, sourceValues);
+					}
+				}
+			}
+		}
+	}
+
+	private void collectOneSourceValue(Map<String, Object> data, Collection<Object> sourceValues) {
+		Object sourceValue = getSourceValue(data);
+		if (sourceValue instanceof Collection) {
+			for (Object o : (Collection<?>) sourceValue) {
+				if (o != null)
+					sourceValues.add(o);
+			}
+		} else if (sourceValue != null) {
+			sourceValues.add(sourceValue);
+		}
+	}
+
+	private void processDefaultValues(Object sourceValue, Map<String, Object> data, Map<String, Object> value,
+			PreprocessChainContext chainContext) {
+
+		for (Map<String, String> mappingRecord : resultMapping) {
+			if (mappingRecord.get(CFG_value_default) != null) {
+				Object v = renderDefaultValue(mappingRecord.get(CFG_value_default), data, sourceValue);
+				value.put(mappingRecord.get(CFG_target_field), v);
+			} else {
+				value.put(mappingRecord.get(CFG_target_field), null);
+			}
+		}
+	}
+
+	protected class LookupContenxt {
+		Map<Object, Map<String, Object>> lookupCache = new HashMap<Object, Map<String, Object>>();
+
+		/**
+		 * Results looked up at once for all values from processed data, can be null.
+		 */
+		Map<Object, LookupResult> prefetchedResults;
+
+		/**
+		 * Lookup mirror used for whole processed data, can be null.
+		 */
+		LookupMirror mirror;
+	}
+
+	/**
+	 * Result of lookup for one value in ES index, independent on processed data so may be stored in shared lookup cache.
+	 */
+	protected class LookupResult {
+
+		/**
+		 * Values found in index, target_field names are keys. Key with <code>null</code> value means that result field is
+		 * present in found document but without value, so default value should be used.
+		 */
+		Map<String, Object> values = new HashMap<String, Object>();
+
+		/**
+		 * Warnings produced during lookup, replayed when result is obtained from shared cache.
+		 */
+		List<String> warnings = new ArrayList<String>();
+
+		/**
+		 * true if document was found in index
+		 */
+		boolean found = false;
+
+		/**
+		 * true if lookup failed due ES exception, so result must not be cached
+		 */
+		boolean failed = false;
+
+		void addWarning(PreprocessChainContext chainContext, String message) {
+			warnings.add(message);
+			addDataWarning(chainContext, message);
+		}
+	}
+
+	/**
+	 * Get number of lookups suppressed because the same value was being looked up by other thread at that time, so
+	 * they waited for its result instead of own request.
+	 * 
+	 * @return number of coalesced lookups since preprocessor creation
+	 * @since 1.3.10
+	 */
+	public long getCoalescedLookupCount() {
+		return coalescedLookupCount.get();
+	}
+
+	/**
+	 * Get number of lookups running in lookup backend at this moment, concurrent lookups of the same value are counted
+	 * once. Lookups started by other preprocessors with the same lookup identity are counted also.
+	 * 
+	 * @return number of running lookups
+	 * @since 1.3.10
+	 */
+	public int getInFlightLookupCount() {
+		int ret = 0;
+		for (InFlightLookupKey key : inFlightLookups.keySet()) {
+			if (key.lookupIdentity.equals(lookupIdentity))
+				ret++;
+		}
+		return ret;
+	}
+
+	/**
+	 * Get statistics of shared lookup cache.
+	 * 
+	 * @return statistics or <code>null</code> if shared lookup cache is not enabled by <code>lookup_cache_size</code>
+	 *         setting.
+	 * @since 1.3.10
+	 */
+	public CacheStats getLookupCacheStats() {
+		if (lookupCache == null)
+			return null;
+		return lookupCache.stats();
+	}
+
+	/**
+	 * Get statistics of shared cache for lookups which found nothing.
+	 * 
+	 * @return statistics or <code>null</code> if negative lookup cache is not enabled.
+	 * @since 1.3.10
+	 */
+	public CacheStats getNegativeLookupCacheStats() {
+		if (negativeLookupCache == null)
+			return null;
+		return negativeLookupCache.stats();
+	}
+
+	/**
+	 * Discard all entries in shared lookup caches, eg. when lookup index is changed.
+	 * 
+	 * @since 1.3.10
+	 */
+	public void invalidateLookupCache() {
+		if (lookupCache != null)
+			lookupCache.invalidateAll();
+		if (negativeLookupCache != null)
+			negativeLookupCache.invalidateAll();
+	}
+
+	/**
+	 * Get current lookup mirror with its statistics.
+	 * 
+	 * @return mirror or <code>null</code> if it is not enabled by <code>lookup_mirror</code> setting or can't be loaded
+	 * @since 1.3.10
+	 */
+	public LookupMirror getLookupMirror() {
+		return lookupMirror;
+	}
+
+	/**
+	 * Get lookup mirror to be used for lookups. If refresh time elapsed then check of lookup index version and eventual
+	 * load is started in background, current mirror is used meanwhile. Calling thread never waits for Elasticsearch.
+	 * 
+	 * @return mirror or <code>null</code> if it is not enabled or loaded, so lookups must be performed in index
+	 */
+	private LookupMirror getCurrentLookupMirror() {
+		if (!mirrorEnabled)
+			return null;
+		if (mirrorRefreshMillis > 0) {
+			long next = mirrorNextCheck.get();
+			long now = System.currentTimeMillis();
+			if (now >= next && mirrorNextCheck.compareAndSet(next, now + mirrorRefreshMillis))
+				startLookupMirrorRefresh();
+		}
+		return lookupMirror;
+	}
+
+	/**
+	 * Start refresh of lookup mirror in background, see {@link #refreshLookupMirror(boolean)}.
+	 */
+	private void startLookupMirrorRefresh() {
+		if (!mirrorRefreshing.compareAndSet(false, true))
+			return;
+		try {
+			MirrorRefreshExecutorHolder.EXECUTOR.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						refreshLookupMirror(false);
+					} finally {
+						mirrorRefreshing.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			mirrorRefreshing.set(false);
+			logger.warn("Lookup mirror refresh for '{}' preprocessor can't be started due {}", name, e.getMessage());
+		}
+	}
+
+	/**
+	 * Holder of executor shared by all preprocessors to refresh lookup mirrors in background. Created lazily, threads
+	 * are daemons and finish when idle.
+	 */
+	private static final class MirrorRefreshExecutorHolder {
+
+		static final Executor EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "lookup-mirror-refresh-" + counter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Load lookup mirror from lookup index again, if it is enabled by <code>lookup_mirror</code> setting. Current mirror
+	 * is used until load is finished, and kept if load fails.
+	 * 
+	 * @param force if true then mirror is loaded even if version of lookup index is not changed
+	 * @return true if mirror has been loaded
+	 * @since 1.3.10
+	 */
+	public boolean refreshLookupMirror(boolean force) {
+		if (!mirrorEnabled)
+			return false;
+		mirrorNextCheck.set(System.currentTimeMillis() + mirrorRefreshMillis);
+		LookupMirror current = lookupMirror;
+		try {
+			String version = readLookupIndexVersion();
+			if (!force && current != null && version.equals(current.version))
+				return false;
+			LookupMirror mirror = loadLookupMirror(version);
+			lookupMirror = mirror;
+			logger.info("Lookup mirror for '{}' preprocessor loaded with {} documents and {} keys in {} ms, approx. {} bytes",
+					name, mirror.documentCount, mirror.keyCount, mirror.loadDurationMillis, mirror.estimatedSizeInBytes);
+			return true;
+		} catch (ElasticsearchException e) {
+			logger.warn("Lookup mirror for '{}' preprocessor can't be loaded due {}, {}", name, e.getMessage(),
+					current != null ? "previous mirror is used" : "lookups are performed in index");
+			return false;
+		}
+	}
+
+	/**
+	 * Read version of lookup index used to decide if lookup mirror must be loaded again. It is composed from names of
+	 * indices (index name may be alias), count of documents, and indexing and delete operations counts.
+	 * 
+	 * @return version of lookup index
+	 */
+	protected String readLookupIndexVersion() {
+		IndicesStatsResponse resp = client.admin().indices().prepareStats(indexName).clear().setDocs(true)
+				.setIndexing(true).execute().actionGet();
+		CommonStats stats = resp.getPrimaries();
+		StringBuilder sb = new StringBuilder();
+		sb.append(new TreeSet<String>(resp.getIndices().keySet()));
+		if (stats.getDocs() != null)
+			sb.append(":").append(stats.getDocs().getCount());
+		if (stats.getIndexing() != null)
+			sb.append(":").append(stats.getIndexing().getTotal().getIndexCount()).append(":")
+					.append(stats.getIndexing().getTotal().getDeleteCount());
+		return sb.toString();
+	}
+
+	/**
+	 * Load all documents from lookup index using scan search into new lookup mirror.
+	 * 
+	 * @param version of lookup index
+	 * @return loaded mirror
+	 */
+	protected LookupMirror loadLookupMirror(String version) {
+		long start = System.currentTimeMillis();
+		LookupMirror mirror = new LookupMirror(version, idxSearchField);
+		SearchResponse resp = client.prepareSearch(indexName).setTypes(indexType).setSearchType(SearchType.SCAN)
+				.setScroll(MIRROR_SCROLL_KEEP_ALIVE).setQuery(QueryBuilders.matchAllQuery()).setSize(MIRROR_SCROLL_SIZE)
+				.execute().actionGet();
+		String scrollId = resp.getScrollId();
+		try {
+			while (true) {
+				resp = client.prepareSearchScroll(scrollId).setScroll(MIRROR_SCROLL_KEEP_ALIVE).execute().actionGet();
+				scrollId = resp.getScrollId();
+				SearchHit[] hits = resp.getHits().hits();
+				if (hits.length == 0)
+					break;
+				for (SearchHit hit : hits) {
+					Map<String, Object> source = hit.getSource();
+					if (source != null)
+						mirror.add(source, getResultFields(source));
+				}
+			}
+		} finally {
+			// also if load fails, so scroll is not kept open until it times out
+			if (scrollId != null)
+				client.prepareClearScroll().addScrollId(scrollId).execute();
+		}
+		mirror.loadTimestamp = System.currentTimeMillis();
+		mirror.loadDurationMillis = mirror.loadTimestamp - start;
+		return mirror;
+	}
+
+	/**
+	 * Get values of <code>idx_result_field</code>s from source of document, same as {@link LookupBackend} returns them.
+	 * 
+	 * @param source of document
+	 * @return map with values, <code>idx_result_field</code> is key. Fields not present in document are not in map.
+	 */
+	protected Map<String, Object> getResultFields(Map<String, Object> source) {
+		return LookupBackendBase.getResultFields(source, idxResultFields);
+	}
+
+	/**
+	 * In-memory copy of lookup index, indexed by values of all <code>idx_search_field</code>s. It is not changed after
+	 * load so can be shared by more threads.
+	 */
+	public static class LookupMirror {
+
+		final String version;
+
+		/**
+		 * Result fields of documents for each <code>idx_search_field</code> and its value (as String).
+		 */
+		final Map<String, Map<String, List<Map<String, Object>>>> index =
+				new HashMap<String, Map<String, List<Map<String, Object>>>>();
+
+		int documentCount;
+
+		int keyCount;
+
+		long estimatedSizeInBytes;
+
+		long loadDurationMillis;
+
+		long loadTimestamp;
+
+		LookupMirror(String version, List<String> idxSearchFields) {
+			this.version = version;
+			for (String idxSf : idxSearchFields)
+				index.put(idxSf, new HashMap<String, List<Map<String, Object>>>());
+		}
+
+		/**
+		 * Add document into mirror.
+		 * 
+		 * @param source of document to get values of search fields from
+		 * @param resultFields values of result fields of document
+		 */
+		void add(Map<String, Object> source, Map<String, Object> resultFields) {
+			documentCount++;
+			estimatedSizeInBytes += estimateSize(resultFields);
+			for (Map.Entry<String, Map<String, List<Map<String, Object>>>> e : index.entrySet()) {
+				Object value = XContentMapValues.extractValue(e.getKey(), source);
+				if (value instanceof Collection) {
+					for (Object o : (Collection<?>) value) {
+						if (o != null)
+							addKey(e.getValue(), o.toString(), resultFields);
+					}
+				} else if (value != null) {
+					addKey(e.getValue(), value.toString(), resultFields);
+				}
+			}
+		}
+
+		private void addKey(Map<String, List<Map<String, Object>>> fieldIndex, String key,
+				Map<String, Object> resultFields) {
+			List<Map<String, Object>> docs = fieldIndex.get(key);
+			if (docs == null) {
+				docs = new ArrayList<Map<String, Object>>(1);
+				fieldIndex.put(key, docs);
+				keyCount++;
+				estimatedSizeInBytes += estimateSize(key) + 64;
+			}
+			docs.add(resultFields);
+			estimatedSizeInBytes += 8;
+		}
+
+		/**
+		 * Get documents found for value.
+		 * 
+		 * @param idxSf search field
+		 * @param value to search for
+		 * @return result fields of found documents, never null
+		 */
+		List<Map<String, Object>> get(String idxSf, Object value) {
+			Map<String, List<Map<String, Object>>> fieldIndex = index.get(idxSf);
+			List<Map<String, Object>> ret = fieldIndex != null ? fieldIndex.get(value.toString()) : null;
+			if (ret == null)
+				return Collections.emptyList();
+			return ret;
+		}
+
+		/**
+		 * Rough estimation of memory used by value, in bytes.
+		 */
+		static long estimateSize(Object value) {
+			if (value == null)
+				return 0;
+			if (value instanceof String)
+				return 40 + 2 * ((String) value).length();
+			if (value instanceof Map) {
+				long ret = 48;
+				for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet())
+					ret += 32 + estimateSize(e.getKey()) + estimateSize(e.getValue());
+				return ret;
+			}
+			if (value instanceof Collection) {
+				long ret = 40;
+				for (Object o : (Collection<?>) value)
+					ret += 8 + estimateSize(o);
+				return ret;
+			}
+			return 16;
+		}
+
+		/**
+		 * @return version of lookup index mirror has been loaded from
+		 */
+		public String getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return number of documents in mirror
+		 */
+		public int getDocumentCount() {
+			return documentCount;
+		}
+
+		/**
+		 * @return number of distinct values of all search fields in mirror
+		 */
+		public int getKeyCount() {
+			return keyCount;
+		}
+
+		/**
+		 * @return rough estimation of memory used by mirror, in bytes
+		 */
+		public long getEstimatedSizeInBytes() {
+			return estimatedSizeInBytes;
+		}
+
+		/**
+		 * @return duration of mirror load in millis
+		 */
+		public long getLoadDurationMillis() {
+			return loadDurationMillis;
+		}
+
+		/**
+		 * @return timestamp when mirror has been loaded
+		 */
+		public long getLoadTimestamp() {
+			return loadTimestamp;
+		}
+
+		@Override
+		public String toString() {
+			return "LookupMirror [version=" + version + ", documentCount=" + documentCount + ", keyCount=" + keyCount
+					+ ", estimatedSizeInBytes=" + estimatedSizeInBytes + ", loadDurationMillis=" + loadDurationMillis + "]";
+		}
+	}
+
+	/**
+	 * Get batcher of lookups from concurrently processed documents, with its statistics.
+	 * 
+	 * @return batcher or <code>null</code> if it is not enabled by <code>lookup_batch_size</code> setting
+	 * @since 1.3.10
+	 */
+	public LookupBatcher getLookupBatcher() {
+		return lookupBatcher;
+	}
+
+	/**
+	 * Batcher of single value lookups from concurrently processed documents. Values are collected into batch which is
+	 * looked up by one multi value lookup (see {@link ESLookupValuePreprocessor#prefetchLookupResults(Collection)}).
+	 * Values are collected only while other batch lookup is running, so value is looked up immediately if there is no
+	 * concurrent lookup. Batch is looked up when current batch size is reached, by thread adding the last value, or when
+	 * running batch lookup finishes or max wait time elapses, by the first thread waiting for it. So there is no
+	 * background thread and calling threads are blocked as for lookup one by one.
+	 * <p>
+	 * Batch size adapts to observed lookup latency by additive increase and multiplicative decrease. It starts at max
+	 * batch size, and is halved when latency of batch lookup is more than twice the lowest latency observed (which is
+	 * slowly aged, so it follows changes of cluster). It grows by one for each full batch looked up with good latency.
+	 */
+	public class LookupBatcher {
+
+		final int maxBatchSize;
+
+		final long maxWaitNanos;
+
+		/**
+		 * Values waiting for lookup, guarded by this batcher.
+		 */
+		private List<PendingLookup> pending = new ArrayList<PendingLookup>();
+
+		private int batchSize;
+
+		private long minLatencyNanos = Long.MAX_VALUE;
+
+		private long latencyNanos;
+
+		private final AtomicLong batchCount = new AtomicLong();
+
+		private final AtomicLong valueCount = new AtomicLong();
+
+		/**
+		 * Number of batches being looked up, guarded by this batcher.
+		 */
+		private int inFlight;
+
+		LookupBatcher(int maxBatchSize, long maxWaitNanos) {
+			this.maxBatchSize = maxBatchSize;
+			this.maxWaitNanos = maxWaitNanos;
+			this.batchSize = maxBatchSize;
+		}
+
+		/**
+		 * Lookup value in batch with values from other threads. Warnings are not written into chain context but only
+		 * stored in result.
+		 * 
+		 * @param sourceValue to be looked up, not null
+		 * @return result of lookup, <code>null</code> if batch lookup failed so value must be looked up alone
+		 */
+		LookupResult lookup(Object sourceValue) {
+			PendingLookup p = new PendingLookup(sourceValue);
+			List<PendingLookup> batch = null;
+			boolean full = false;
+			synchronized (this) {
+				p.batch = pending;
+				pending.add(p);
+				if (pending.size() >= batchSize) {
+					batch = takePending();
+					full = true;
+				} else {
+					awaitBatchLookups(p);
+					if (pending == p.batch)
+						batch = takePending();
+				}
+				if (batch != null)
+					inFlight++;
+			}
+			if (batch != null)
+				flush(batch, full);
+			try {
+				return Uninterruptibles.getUninterruptibly(p.future);
+			} catch (ExecutionException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Wait while other batch is looked up, max wait time at most. Caller must hold lock of this batcher.
+		 * 
+		 * @param p lookup waiting for its batch to be looked up
+		 */
+		private void awaitBatchLookups(PendingLookup p) {
+			long remaining = maxWaitNanos;
+			long deadline = System.nanoTime() + remaining;
+			boolean interrupted = false;
+			while (inFlight > 0 && pending == p.batch && remaining > 0) {
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+				remaining = deadline - System.nanoTime();
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		private List<PendingLookup> takePending() {
+			List<PendingLookup> ret = pending;
+			pending = new ArrayList<PendingLookup>();
+			return ret;
+		}
+
+		private void flush(List<PendingLookup> batch, boolean full) {
+			try {
+				List<Object> values = new ArrayList<Object>(batch.size());
+				for (PendingLookup p : batch)
+					values.add(p.sourceValue);
+				long start = System.nanoTime();
+				Map<Object, LookupResult> results = prefetchLookupResults(values);
+				adapt(System.nanoTime() - start, full);
+				batchCount.incrementAndGet();
+				valueCount.addAndGet(values.size());
+				for (PendingLookup p : batch)
+					p.future.set(results.get(p.sourceValue));
+			} catch (RuntimeException | Error e) {
+				for (PendingLookup p : batch)
+					p.future.setException(e);
+				throw e;
+			} finally {
+				synchronized (this) {
+					inFlight--;
+					notifyAll();
+				}
+			}
+		}
+
+		private synchronized void adapt(long latency, boolean full) {
+			latencyNanos = latencyNanos == 0 ? latency : (latencyNanos * 7 + latency) / 8;
+			// lowest latency is aged by 1% for each batch
+			if (minLatencyNanos == Long.MAX_VALUE || latency < minLatencyNanos + minLatencyNanos / 100)
+				minLatencyNanos = latency;
+			else
+				minLatencyNanos += minLatencyNanos / 100;
+			if (latency > 2 * minLatencyNanos) {
+				batchSize = Math.max(1, batchSize / 2);
+			} else if (full && batchSize < maxBatchSize) {
+				batchSize++;
+			}
+		}
+
+		/**
+		 * @return current batch size adapted to lookup latency
+		 */
+		public synchronized int getBatchSize() {
+			return batchSize;
+		}
+
+		/**
+		 * @return max batch size configured by <code>lookup_batch_size</code> setting
+		 */
+		public int getMaxBatchSize() {
+			return maxBatchSize;
+		}
+
+		/**
+		 * @return average latency of batch lookups in nanoseconds (exponentially weighted)
+		 */
+		public synchronized long getLatencyNanos() {
+			return latencyNanos;
+		}
+
+		/**
+		 * @return number of values waiting for lookup
+		 */
+		public synchronized int getPendingCount() {
+			return pending.size();
+		}
+
+		/**
+		 * @return number of batches looked up
+		 */
+		public long getBatchCount() {
+			return batchCount.get();
+		}
+
+		/**
+		 * @return number of values looked up in batches
+		 */
+		public long getValueCount() {
+			return valueCount.get();
+		}
+
+		@Override
+		public String toString() {
+			return "LookupBatcher [batchSize=" + getBatchSize() + ", maxBatchSize=" + maxBatchSize + ", batchCount="
+					+ getBatchCount() + ", valueCount=" + getValueCount() + ", latencyNanos=" + getLatencyNanos() + "]";
+		}
+	}
+
+	private class PendingLookup {
+
+		final Object sourceValue;
+
+		final SettableFuture<LookupResult> future = SettableFuture.create();
+
+		/**
+		 * Batch this lookup is added to.
+		 */
+		List<PendingLookup> batch;
+
+		PendingLookup(Object sourceValue) {
+			this.sourceValue = sourceValue;
+		}
+	}
+
+	/**
+	 * Queue of asynchronous lookup requests. At most defined number of requests is running at once, next ones wait in
+	 * queue and are sent by thread finishing some running request. Submitting thread is never blocked.
+	 */
+	protected static class LookupRequestQueue {
+
+		final int maxConcurrent;
+
+		private final AtomicInteger running = new AtomicInteger();
+
+		private final Queue<Runnable> queued = new ConcurrentLinkedQueue<Runnable>();
+
+		LookupRequestQueue(int maxConcurrent) {
+			this.maxConcurrent = maxConcurrent;
+		}
+
+		/**
+		 * Send request now if limit is not reached, queue it otherwise.
+		 * 
+		 * @param request to send, must call {@link #requestFinished()} when response is received
+		 */
+		void submit(Runnable request) {
+			queued.offer(request);
+			sendQueued();
+		}
+
+		/**
+		 * Called when response for request is received, so next queued request can be sent.
+		 */
+		void requestFinished() {
+			running.decrementAndGet();
+			sendQueued();
+		}
+
+		private void sendQueued() {
+			while (!queued.isEmpty()) {
+				int r = running.get();
+				if (r >= maxConcurrent)
+					return;
+				if (!running.compareAndSet(r, r + 1))
+					continue;
+				Runnable request = queued.poll();
+				if (request == null) {
+					running.decrementAndGet();
+					continue;
+				}
+				request.run();
+			}
+		}
+
+		/**
+		 * @return number of requests running now
+		 */
+		int getRunningCount() {
+			return running.get();
+		}
+
+		/**
+		 * @return number of requests waiting in queue
+		 */
+		int getQueuedCount() {
+			return queued.size();
+		}
+	}
+
+	/**
+	 * Simple circuit breaker for lookups. It is opened after defined number of consecutive failures, so no lookup is
+	 * performed then. After retry time one lookup is allowed to probe index again, breaker is closed if it succeeds or
+	 * opened for next retry time if it fails.
+	 */
+	protected static class CircuitBreaker {
+
+		final int failureThreshold;
+
+		final long retryMillis;
+
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+		final AtomicLong openUntil = new AtomicLong();
+
+		CircuitBreaker(int failureThreshold, long retryMillis) {
+			this.failureThreshold = failureThreshold;
+			this.retryMillis = retryMillis;
+		}
+
+		/**
+		 * Check if request may be performed.
+		 * 
+		 * @return true if breaker is closed or if this request is the probe after retry time
+		 */
+		boolean allowRequest() {
+			if (consecutiveFailures.get() < failureThreshold)
+				return true;
+			long until = openUntil.get();
+			long now = System.currentTimeMillis();
+			// only one probe is allowed for each retry time
+			return now >= until && openUntil.compareAndSet(until, now + retryMillis);
+		}
+
+		void recordSuccess() {
+			consecutiveFailures.set(0);
+		}
+
+		/**
+		 * @return true if breaker has been opened by this failure
+		 */
+		boolean recordFailure() {
+			int failures = consecutiveFailures.incrementAndGet();
+			if (failures >= failureThreshold) {
+				openUntil.set(System.currentTimeMillis() + retryMillis);
+				return failures == failureThreshold;
+			}
+			return false;
+		}
+
+		/**
+		 * @return true if breaker is open so requests are not allowed except probes
+		 */
+		public boolean isOpen() {
+			return consecutiveFailures.get() >= failureThreshold;
+		}
+	}
+
+	public List<String> getSourceBases() {
+		return sourceBases;
+	}
+
+	public String getIndexName() {
+		return indexName;
+	}
+
+	public String getIndexType() {
+		return indexType;
+	}
+
+	public String getSourceField() {
+		return sourceField;
+	}
+
+	public String getSourceValuePattern() {
+		return sourceValuePattern;
+	}
+
+	public List<String> getIdxSearchField() {
+		return idxSearchField;
+	}
+
+	public List<Map<String, String>> getResultMapping() {
+		return resultMapping;
+	}
+
+	@Override
+	public Collection<String> getReadFields() {
+		List<String> ret = new ArrayList<String>();
+		if (!ValueUtils.isEmpty(sourceField))
+			ret.add(sourceField);
+		else
+			ret.addAll(sourceValueTemplate.getKeys());
+		for (Map<String, String> mappingRecord : resultMapping) {
+			String valueDefault = mappingRecord.get(CFG_value_default);
+			if (valueDefault != null)
+				ret.addAll(defaultValueTemplates.get(valueDefault).getKeys());
+		}
+		return resolveAccessedFields(ret);
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		List<String> ret = new ArrayList<String>();
+		for (Map<String, String> mappingRecord : resultMapping) {
+			ret.add(mappingRecord.get(CFG_target_field));
+		}
+		return resolveAccessedFields(ret);
 	}
 
 }
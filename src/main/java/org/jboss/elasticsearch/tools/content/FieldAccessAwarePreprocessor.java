@@ -0,0 +1,40 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Interface for {@link StructuredContentPreprocessor} implementations which are able to declare fields of data they
+ * read or write in {@link StructuredContentPreprocessor#preprocessData(Map, PreprocessChainContext)}. It allows
+ * {@link PreprocessorChain} to process document in streaming mode, where only declared fields are materialized into
+ * data structure and all other fields are copied from input to output without parsing, see
+ * {@link PreprocessorChain#preprocessData(org.elasticsearch.common.xcontent.XContentParser, org.elasticsearch.common.xcontent.XContentBuilder, PreprocessChainContext)}.
+ * Declared fields are also used to optimize chain, see {@link PreprocessorChain#optimize()}.
+ * <p>
+ * Whole subtree of declared field is accessible for preprocessor. Field is written if its value may be set, changed or
+ * removed by preprocessor. Preprocessor must not change data other way than by writing declared fields.
+ *
+ * @since 1.3.10
+ */
+public interface FieldAccessAwarePreprocessor extends StructuredContentPreprocessor {
+
+	/**
+	 * Get fields of data read by this preprocessor. Available after preprocessor is initialized.
+	 *
+	 * @return paths of fields in dot notation, <code>null</code> if preprocessor may read any field of data.
+	 */
+	Collection<String> getReadFields();
+
+	/**
+	 * Get fields of data written by this preprocessor. Available after preprocessor is initialized.
+	 *
+	 * @return paths of fields in dot notation, <code>null</code> if preprocessor may write any field of data.
+	 */
+	Collection<String> getWrittenFields();
+
+}
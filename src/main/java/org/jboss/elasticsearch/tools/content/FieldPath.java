@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+/**
+ * Precompiled path to field in Map of Maps structure, dot notation is used for deeper level of nesting. Path is parsed
+ * only once when compiled, so get, put and remove operations do not need to split it for each processed data. It is
+ * immutable so can be shared by more threads.
+ * <p>
+ * {@link #get(Map)} works same way as {@link XContentMapValues#extractValue(String, Map)}, so lists can be in path and
+ * keys containing dots are supported. {@link #put(Map, Object)} and {@link #remove(Map)} work same way as
+ * {@link StructureUtils#putValueIntoMapOfMaps(Map, String, Object)} and
+ * {@link StructureUtils#removeValueFromMapOfMaps(Map, String)}.
+ *
+ * @since 1.3.10
+ */
+public final class FieldPath {
+
+	private final String path;
+
+	/**
+	 * Path elements used for put and remove, same as <code>path.split("\\.")</code>.
+	 */
+	private final String[] elements;
+
+	/**
+	 * Path elements used for get, without empty ones.
+	 */
+	private final String[] getElements;
+
+	/**
+	 * <code>getElementsJoined[i][j]</code> contains elements from <code>i</code> to <code>i+j+1</code> joined by dot. Used
+	 * for keys containing dots.
+	 */
+	private final String[][] getElementsJoined;
+
+	private FieldPath(String path) {
+		this.path = path;
+		this.elements = split(path, true);
+		this.getElements = split(path, false);
+		int n = getElements.length;
+		getElementsJoined = new String[n][];
+		for (int i = 0; i < n; i++) {
+			getElementsJoined[i] = new String[n - i - 1];
+			String key = getElements[i];
+			for (int j = i + 1; j < n; j++) {
+				key = key + "." + getElements[j];
+				getElementsJoined[i][j - i - 1] = key;
+			}
+		}
+	}
+
+	/**
+	 * Compile path.
+	 *
+	 * @param path to compile, dot notation used for nesting
+	 * @return compiled path
+	 * @throws IllegalArgumentException if path is empty
+	 */
+	public static FieldPath compile(String path) throws IllegalArgumentException {
+		if (ValueUtils.isEmpty(path)) {
+			throw new IllegalArgumentException("field argument must be defined");
+		}
+		return new FieldPath(path);
+	}
+
+	/**
+	 * Compile collection of paths.
+	 *
+	 * @param paths to compile, in iteration order of collection
+	 * @return compiled paths, <code>null</code> is on positions of empty paths
+	 */
+	public static FieldPath[] compile(Collection<String> paths) {
+		FieldPath[] ret = new FieldPath[paths.size()];
+		int i = 0;
+		for (String path : paths) {
+			ret[i++] = ValueUtils.isEmpty(path) ? null : compile(path);
+		}
+		return ret;
+	}
+
+	private static String[] split(String path, boolean keepEmpty) {
+		List<String> ret = new ArrayList<String>();
+		int start = 0;
+		int idx;
+		while ((idx = path.indexOf('.', start)) >= 0) {
+			if (keepEmpty || idx > start)
+				ret.add(path.substring(start, idx));
+			start = idx + 1;
+		}
+		if (start < path.length())
+			ret.add(path.substring(start));
+		if (keepEmpty) {
+			// trailing empty elements are removed same as String.split() does
+			while (!ret.isEmpty() && ret.get(ret.size() - 1).isEmpty())
+				ret.remove(ret.size() - 1);
+		}
+		return ret.toArray(new String[ret.size()]);
+	}
+
+	/**
+	 * @return path this object is compiled for
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Get value from data structure.
+	 *
+	 * @param data to get value from, can be <code>null</code>
+	 * @return value or <code>null</code>. List of values if there is list in the path.
+	 * @see XContentMapValues#extractValue(String, Map)
+	 */
+	public Object get(Map<String, Object> data) {
+		if (data == null || getElements.length == 0)
+			return null;
+		return get(0, data);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object get(int index, Object currentValue) {
+		if (index == getElements.length)
+			return currentValue;
+		if (currentValue instanceof Map) {
+			Map<String, Object> map = (Map<String, Object>) currentValue;
+			Object mapValue = map.get(getElements[index]);
+			int nextIndex = index + 1;
+			while (mapValue == null && nextIndex != getElements.length) {
+				mapValue = map.get(getElementsJoined[index][nextIndex - index - 1]);
+				nextIndex++;
+			}
+			return get(nextIndex, mapValue);
+		}
+		if (currentValue instanceof List) {
+			List<Object> valueList = (List<Object>) currentValue;
+			List<Object> newList = new ArrayList<Object>(valueList.size());
+			for (Object o : valueList) {
+				Object listValue = get(index, o);
+				if (listValue != null)
+					newList.add(listValue);
+			}
+			return newList;
+		}
+		return null;
+	}
+
+	/**
+	 * Put value into data structure. Missing Maps in the path are created.
+	 *
+	 * @param data Map to put value into, nothing is done if <code>null</code>
+	 * @param value to be put
+	 * @throws IllegalArgumentException if value can't be put due something wrong in data structure
+	 * @see StructureUtils#putValueIntoMapOfMaps(Map, String, Object)
+	 */
+	@SuppressWarnings("unchecked")
+	public void put(Map<String, Object> data, Object value) throws IllegalArgumentException {
+		if (data == null)
+			return;
+		Map<String, Object> levelData = data;
+		int last = elements.length - 1;
+		for (int i = 0; i < last; i++) {
+			Object o = levelData.get(elements[i]);
+			if (o == null) {
+				Map<String, Object> lv = new LinkedHashMap<String, Object>();
+				levelData.put(elements[i], lv);
+				levelData = lv;
+			} else if (o instanceof Map) {
+				levelData = (Map<String, Object>) o;
+			} else {
+				throw new IllegalArgumentException("Cant put value for field '" + path
+						+ "' because some element in the path is not Map");
+			}
+		}
+		if (last >= 0)
+			levelData.put(elements[last], value);
+	}
+
+	/**
+	 * Remove value from data structure.
+	 *
+	 * @param data Map to remove value from, can be <code>null</code>
+	 * @return object removed from structure if any
+	 * @throws IllegalArgumentException if value can't be removed due something wrong in data structure
+	 * @see StructureUtils#removeValueFromMapOfMaps(Map, String)
+	 */
+	@SuppressWarnings("unchecked")
+	public Object remove(Map<String, Object> data) throws IllegalArgumentException {
+		if (data == null)
+			return null;
+		Map<String, Object> levelData = data;
+		int last = elements.length - 1;
+		for (int i = 0; i < last; i++) {
+			Object o = levelData.get(elements[i]);
+			if (o == null) {
+				return null;
+			} else if (o instanceof Map) {
+				levelData = (Map<String, Object>) o;
+			} else {
+				throw new IllegalArgumentException("Cant remove value for field '" + path
+						+ "' because some element in the path is not Map");
+			}
+		}
+		if (last >= 0)
+			return levelData.remove(elements[last]);
+		return null;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof FieldPath))
+			return false;
+		return path.equals(((FieldPath) obj).path);
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+
+}
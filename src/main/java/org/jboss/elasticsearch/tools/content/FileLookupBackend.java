@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+/**
+ * {@link LookupBackend} finding documents loaded from local file into memory during initialization, see
+ * {@link MemoryLookupBackend}. Settings are:
+ * <ul>
+ * <li><code>lookup_file<code> - path to the file with documents, UTF-8 encoding is used
+ * <li><code>lookup_file_format<code> - optional format of the file. <code>jsonl</code> means one JSON document per
+ * line, <code>csv</code> means comma separated values with header line containing field names, values may be quoted
+ * by double quotes. Empty CSV value means field is not present in document. Format is taken from file extension if
+ * not set, <code>jsonl</code> is default.
+ * </ul>
+ *
+ * @since 1.3.10
+ */
+public class FileLookupBackend extends MemoryLookupBackend {
+
+	protected static final String CFG_lookup_file = "lookup_file";
+	protected static final String CFG_lookup_file_format = "lookup_file_format";
+
+	protected static final String FORMAT_JSONL = "jsonl";
+	protected static final String FORMAT_CSV = "csv";
+
+	protected File file;
+	protected String format;
+
+	@Override
+	public void init(String preprocessorName, Client client, Map<String, Object> settings, List<String> resultFields)
+			throws SettingsException {
+		super.init(preprocessorName, client, settings, resultFields);
+		String path = readStringSetting(settings, CFG_lookup_file, true);
+		file = new File(path);
+		format = readStringSetting(settings, CFG_lookup_file_format, false);
+		if (format == null) {
+			format = path.toLowerCase().endsWith("." + FORMAT_CSV) ? FORMAT_CSV : FORMAT_JSONL;
+		} else if (!FORMAT_JSONL.equals(format) && !FORMAT_CSV.equals(format)) {
+			throw new SettingsException("Invalid 'settings/" + CFG_lookup_file_format + "' configuration value for '"
+					+ name + "' preprocessor: " + format);
+		}
+		try {
+			setDocuments(FORMAT_CSV.equals(format) ? readCsv(file) : readJsonl(file));
+		} catch (IOException | ElasticsearchParseException e) {
+			throw new SettingsException("Invalid 'settings/" + CFG_lookup_file + "' configuration value for '" + name
+					+ "' preprocessor: " + e.getMessage(), e);
+		}
+		logger.debug("{} documents loaded from lookup file {}", getDocuments().size(), file);
+	}
+
+	protected static List<Map<String, Object>> readJsonl(File file) throws IOException {
+		List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+		BufferedReader reader = openReader(file);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+				ret.add(XContentHelper.convertToMap(new BytesArray(line), false).v2());
+			}
+		} finally {
+			reader.close();
+		}
+		return ret;
+	}
+
+	protected static List<Map<String, Object>> readCsv(File file) throws IOException {
+		List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+		BufferedReader reader = openReader(file);
+		try {
+			String line = reader.readLine();
+			if (line == null)
+				return ret;
+			List<String> header = parseCsvLine(line);
+			int lineNumber = 1;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty())
+					continue;
+				List<String> values = parseCsvLine(line);
+				if (values.size() > header.size())
+					throw new IOException("Line " + lineNumber + " of file " + file + " has more values than header");
+				Map<String, Object> doc = new HashMap<String, Object>();
+				for (int i = 0; i < values.size(); i++) {
+					if (!values.get(i).isEmpty())
+						doc.put(header.get(i), values.get(i));
+				}
+				ret.add(doc);
+			}
+		} finally {
+			reader.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * Parse one CSV line. Values may be quoted by double quotes, double quote inside quoted value is escaped by another
+	 * double quote.
+	 */
+	protected static List<String> parseCsvLine(String line) {
+		List<String> ret = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"') {
+					if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+						sb.append(c);
+						i++;
+					} else {
+						quoted = false;
+					}
+				} else {
+					sb.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				ret.add(sb.toString());
+				sb.setLength(0);
+			} else {
+				sb.append(c);
+			}
+		}
+		ret.add(sb.toString());
+		return ret;
+	}
+
+	private static BufferedReader openReader(File file) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+}
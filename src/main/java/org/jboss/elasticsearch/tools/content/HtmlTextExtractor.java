@@ -0,0 +1,310 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.jsoup.parser.Parser;
+
+/**
+ * Single pass HTML to text converter. Tokenizes HTML and emits text with decoded entities directly, no DOM is built.
+ * Output follows same rules as jsoup DOM based conversion used by {@link StripHtmlPreprocessor}, where text is cleaned
+ * by {@link org.jsoup.safety.Whitelist#relaxed()} first:
+ * <ul>
+ * <li>text between two tags from relaxed whitelist is one text node. Tags out of whitelist and comments are removed
+ * without splitting text around them.
+ * <li>whitespaces in text node are collapsed into one space, non breaking spaces are converted to spaces and text node
+ * is trimmed. Non empty text nodes are joined by one space.
+ * <li>content of <code>script</code>, <code>style</code> and other raw text elements is removed.
+ * </ul>
+ * Tree building rules of HTML parser are not applied, so output may differ for heavily malformed HTML (text placed
+ * directly into table, misnested end tags).
+ *
+ * @see StripHtmlPreprocessor
+ * @since 1.3.10
+ */
+public final class HtmlTextExtractor {
+
+	private static final char NBSP = '\u00A0';
+
+	/**
+	 * Tags kept by {@link org.jsoup.safety.Whitelist#relaxed()}, so they split text nodes.
+	 */
+	private static final Set<String> TEXT_SPLITTING_TAGS = new HashSet<String>(Arrays.asList("a", "b", "blockquote",
+			"br", "caption", "cite", "code", "col", "colgroup", "dd", "div", "dl", "dt", "em", "h1", "h2", "h3", "h4", "h5",
+			"h6", "i", "img", "image", "li", "ol", "p", "pre", "q", "small", "strike", "strong", "sub", "sup", "table",
+			"tbody", "td", "tfoot", "th", "thead", "tr", "u", "ul"));
+
+	/**
+	 * Tags with raw text content which is removed.
+	 */
+	private static final Set<String> RAW_TEXT_TAGS = new HashSet<String>(Arrays.asList("script", "style", "xmp",
+			"iframe", "noembed", "noframes"));
+
+	/**
+	 * Tags with text content where only entities are decoded.
+	 */
+	private static final Set<String> RCDATA_TAGS = new HashSet<String>(Arrays.asList("title", "textarea"));
+
+	private HtmlTextExtractor() {
+	}
+
+	/**
+	 * Convert HTML to text.
+	 *
+	 * @param html to convert
+	 * @return text. Same instance is returned if no conversion is necessary (null or blank value, or value without
+	 *         <code>&lt;</code> and <code>&amp;</code> which is already normalized).
+	 */
+	public static String extractText(String html) {
+		if (html == null || html.trim().isEmpty())
+			return html;
+		if (html.indexOf('<') < 0 && html.indexOf('&') < 0) {
+			if (isNormalizedText(html))
+				return html;
+			StringBuilder out = new StringBuilder(html.length());
+			appendTextNode(out, html);
+			return finish(out);
+		}
+
+		final int n = html.length();
+		StringBuilder out = new StringBuilder(n);
+		StringBuilder textNode = new StringBuilder();
+		int i = 0;
+		while (i < n) {
+			char c = html.charAt(i);
+			if (c != '<') {
+				int end = html.indexOf('<', i + 1);
+				if (end < 0)
+					end = n;
+				appendText(textNode, html, i, end);
+				i = end;
+				continue;
+			}
+			if (i + 1 >= n) {
+				textNode.append(c);
+				break;
+			}
+			char next = html.charAt(i + 1);
+			if (isAsciiLetter(next)) {
+				int nameEnd = tagNameEnd(html, i + 1);
+				String tagName = html.substring(i + 1, nameEnd).toLowerCase(Locale.ENGLISH);
+				int tagEnd = tagEnd(html, nameEnd);
+				if (tagEnd < 0)
+					break;
+				i = tagEnd + 1;
+				if (TEXT_SPLITTING_TAGS.contains(tagName)) {
+					appendTextNode(out, textNode);
+				} else if (RAW_TEXT_TAGS.contains(tagName)) {
+					i = endTagStart(html, i, tagName);
+				} else if (RCDATA_TAGS.contains(tagName)) {
+					int contentEnd = endTagStart(html, i, tagName);
+					appendText(textNode, html, i, contentEnd);
+					i = contentEnd;
+				} else if ("plaintext".equals(tagName)) {
+					textNode.append(html, i, n);
+					i = n;
+				}
+			} else if (next == '/') {
+				if (i + 2 >= n) {
+					textNode.append("</");
+					break;
+				}
+				if (isAsciiLetter(html.charAt(i + 2))) {
+					int nameEnd = tagNameEnd(html, i + 2);
+					String tagName = html.substring(i + 2, nameEnd).toLowerCase(Locale.ENGLISH);
+					int tagEnd = tagEnd(html, nameEnd);
+					if (tagEnd < 0)
+						break;
+					i = tagEnd + 1;
+					if (TEXT_SPLITTING_TAGS.contains(tagName))
+						appendTextNode(out, textNode);
+				} else {
+					i = bogusCommentEnd(html, i + 2);
+				}
+			} else if (next == '!') {
+				if (html.startsWith("<!--", i)) {
+					i = commentEnd(html, i + 4);
+				} else {
+					i = bogusCommentEnd(html, i + 2);
+				}
+			} else if (next == '?') {
+				i = bogusCommentEnd(html, i + 1);
+			} else {
+				textNode.append(c);
+				i++;
+			}
+		}
+		appendTextNode(out, textNode);
+		return finish(out);
+	}
+
+	private static boolean isAsciiLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Check if text is not changed by whitespace normalization and trimming.
+	 */
+	private static boolean isNormalizedText(String text) {
+		final int n = text.length();
+		if (text.charAt(0) <= ' ' || text.charAt(n - 1) <= ' ')
+			return false;
+		boolean lastWasSpace = false;
+		for (int i = 0; i < n; i++) {
+			char c = text.charAt(i);
+			if (c == NBSP)
+				return false;
+			if (isWhitespace(c)) {
+				if (lastWasSpace || c != ' ')
+					return false;
+				lastWasSpace = true;
+			} else {
+				lastWasSpace = false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Append text from html to text node, entities are decoded.
+	 */
+	private static void appendText(StringBuilder textNode, String html, int start, int end) {
+		int amp = html.indexOf('&', start);
+		if (amp < 0 || amp >= end) {
+			textNode.append(html, start, end);
+		} else {
+			textNode.append(html, start, amp);
+			textNode.append(Parser.unescapeEntities(html.substring(amp, end), false));
+		}
+	}
+
+	/**
+	 * Append normalized text node to output and clear it. Whitespaces are collapsed, non breaking spaces converted to
+	 * spaces and text is trimmed. Space is appended after non empty text.
+	 */
+	private static void appendTextNode(StringBuilder out, CharSequence textNode) {
+		int start = 0;
+		int end = textNode.length();
+		while (start < end && isTrimmed(textNode.charAt(start)))
+			start++;
+		while (end > start && isTrimmed(textNode.charAt(end - 1)))
+			end--;
+		if (start < end) {
+			boolean lastWasWhite = false;
+			for (int i = start; i < end; i++) {
+				char c = textNode.charAt(i);
+				if (isWhitespace(c)) {
+					if (!lastWasWhite)
+						out.append(' ');
+					lastWasWhite = true;
+				} else {
+					out.append(c == NBSP ? ' ' : c);
+					lastWasWhite = false;
+				}
+			}
+			out.append(' ');
+		}
+		if (textNode instanceof StringBuilder)
+			((StringBuilder) textNode).setLength(0);
+	}
+
+	private static boolean isTrimmed(char c) {
+		return c <= ' ' || c == NBSP;
+	}
+
+	private static String finish(StringBuilder out) {
+		if (out.length() > 0)
+			out.setLength(out.length() - 1);
+		return out.toString();
+	}
+
+	/**
+	 * @return index of first character after tag name starting at start
+	 */
+	private static int tagNameEnd(String html, int start) {
+		final int n = html.length();
+		int i = start;
+		while (i < n) {
+			char c = html.charAt(i);
+			if (c == '>' || c == '/' || isWhitespace(c))
+				break;
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return index of <code>&gt;</code> closing tag, quoted attribute values are skipped. -1 if tag is not closed.
+	 */
+	private static int tagEnd(String html, int start) {
+		final int n = html.length();
+		int i = start;
+		while (i < n) {
+			char c = html.charAt(i);
+			if (c == '>')
+				return i;
+			i++;
+			if (c == '=') {
+				while (i < n && isWhitespace(html.charAt(i)))
+					i++;
+				if (i < n && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+					int close = html.indexOf(html.charAt(i), i + 1);
+					if (close < 0)
+						return -1;
+					i = close + 1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return index of end tag for given name (case insensitive), or length of html if there is no end tag
+	 */
+	private static int endTagStart(String html, int start, String tagName) {
+		final int n = html.length();
+		int i = start;
+		while ((i = html.indexOf("</", i)) >= 0) {
+			int nameEnd = i + 2 + tagName.length();
+			if (html.regionMatches(true, i + 2, tagName, 0, tagName.length())
+					&& (nameEnd == n || html.charAt(nameEnd) == '>' || html.charAt(nameEnd) == '/' || isWhitespace(html
+							.charAt(nameEnd)))) {
+				return i;
+			}
+			i += 2;
+		}
+		return n;
+	}
+
+	/**
+	 * @return index after end of comment started before start
+	 */
+	private static int commentEnd(String html, int start) {
+		if (html.startsWith(">", start))
+			return start + 1;
+		if (html.startsWith("->", start))
+			return start + 2;
+		int end = html.indexOf("-->", start);
+		return end < 0 ? html.length() : end + 3;
+	}
+
+	/**
+	 * @return index after <code>&gt;</code> ending bogus comment or doctype
+	 */
+	private static int bogusCommentEnd(String html, int start) {
+		int end = html.indexOf('>', start);
+		return end < 0 ? html.length() : end + 1;
+	}
+
+}
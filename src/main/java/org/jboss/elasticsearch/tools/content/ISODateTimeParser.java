@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import org.elasticsearch.common.joda.time.DateTimeZone;
+import org.elasticsearch.common.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Parser of ISO 8601 datetime strings into epoch millis. Accepts same values as
+ * {@link ISODateTimeFormat#dateTimeParser()}. Common layouts (<code>yyyy[-MM[-dd]][T[HH[:mm[:ss[.S...]]]][offset]]</code>
+ * where offset is <code>Z</code>, <code>&#177;HH</code>, <code>&#177;HHmm</code> or <code>&#177;HH:mm</code>) are parsed
+ * directly without any allocation, other layouts (ordinal and week dates, one digit fields etc.) are delegated to Joda
+ * parser. Invalid values are reported by {@link #INVALID} return value instead of exception. Values without offset are
+ * interpreted in default timezone. Thread safe.
+ *
+ * @see MaxTimestampPreprocessor
+ * @since 1.3.10
+ */
+public final class ISODateTimeParser {
+
+	/**
+	 * Value returned by {@link #parseMillis(String)} for invalid timestamp.
+	 */
+	public static final long INVALID = Long.MIN_VALUE;
+
+	/**
+	 * Internal marker of layout not supported by fast parser.
+	 */
+	private static final long UNSUPPORTED = Long.MIN_VALUE + 1;
+
+	private static final int[] DAYS_IN_MONTH = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+	private ISODateTimeParser() {
+	}
+
+	/**
+	 * Parse ISO 8601 datetime string.
+	 *
+	 * @param value to parse, must be trimmed
+	 * @return epoch millis or {@link #INVALID} if value is null or not valid ISO 8601 datetime.
+	 */
+	public static long parseMillis(String value) {
+		if (value == null || value.isEmpty())
+			return INVALID;
+		long ret = parseFast(value);
+		if (ret != UNSUPPORTED)
+			return ret;
+		char c = value.charAt(0);
+		if (!isDigit(c) && c != 'T' && c != 't' && c != '+' && c != '-')
+			return INVALID;
+		try {
+			return ISODateTimeFormat.dateTimeParser().parseMillis(value);
+		} catch (IllegalArgumentException e) {
+			return INVALID;
+		}
+	}
+
+	/**
+	 * Check if two valid ISO 8601 UTC timestamps have same layout, so they can be compared lexicographically instead of
+	 * parsing. Layout is same if values have same length, digits and separators are on the same positions, year has 4
+	 * digits and both values end with <code>Z</code>.
+	 *
+	 * @param value1 to check
+	 * @param value2 to check
+	 * @return true if both values have same UTC layout, so <code>value1.compareTo(value2)</code> gives same result as
+	 *         comparison of parsed values.
+	 */
+	public static boolean isSameUtcLayout(String value1, String value2) {
+		final int n = value1.length();
+		if (n != value2.length() || n < 5 || value1.charAt(n - 1) != 'Z' || value2.charAt(n - 1) != 'Z')
+			return false;
+		for (int i = 0; i < n - 1; i++) {
+			char c1 = value1.charAt(i);
+			char c2 = value2.charAt(i);
+			if (isDigit(c1)) {
+				if (!isDigit(c2))
+					return false;
+			} else if (c1 != c2 || i < 4) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long parseFast(String value) {
+		final int n = value.length();
+		int year = parse2Digits(value, 0);
+		int yearLow = parse2Digits(value, 2);
+		if (year < 0 || yearLow < 0)
+			return UNSUPPORTED;
+		year = year * 100 + yearLow;
+		int month = 1;
+		int day = 1;
+		int i = 4;
+		if (i < n && value.charAt(i) == '-') {
+			month = parse2Digits(value, i + 1);
+			i += 3;
+			if (month < 0 || !isDateElementEnd(value, i))
+				return UNSUPPORTED;
+			if (i < n && value.charAt(i) == '-') {
+				day = parse2Digits(value, i + 1);
+				i += 3;
+				if (day < 0)
+					return UNSUPPORTED;
+			}
+		}
+
+		int hour = 0;
+		int minute = 0;
+		int second = 0;
+		int millis = 0;
+		boolean hasOffset = false;
+		int offsetMillis = 0;
+		if (i < n) {
+			if (value.charAt(i) != 'T')
+				return UNSUPPORTED;
+			i++;
+			if (i < n && isDigit(value.charAt(i))) {
+				hour = parse2Digits(value, i);
+				i += 2;
+				if (hour < 0)
+					return UNSUPPORTED;
+				if (i < n && value.charAt(i) == ':') {
+					minute = parse2Digits(value, i + 1);
+					i += 3;
+					if (minute < 0)
+						return UNSUPPORTED;
+					if (i < n && value.charAt(i) == ':') {
+						second = parse2Digits(value, i + 1);
+						i += 3;
+						if (second < 0)
+							return UNSUPPORTED;
+						if (i < n && (value.charAt(i) == '.' || value.charAt(i) == ',')) {
+							i++;
+							int start = i;
+							while (i < n && isDigit(value.charAt(i)))
+								i++;
+							int digits = i - start;
+							if (digits == 0 || digits > 9)
+								return UNSUPPORTED;
+							for (int d = 0; d < 3; d++) {
+								millis = millis * 10 + (d < digits ? value.charAt(start + d) - '0' : 0);
+							}
+						}
+					}
+				}
+			}
+			if (i < n) {
+				char c = value.charAt(i);
+				if (c == 'Z') {
+					i++;
+				} else if (c == '+' || c == '-') {
+					int offsetHours = parse2Digits(value, i + 1);
+					i += 3;
+					if (offsetHours < 0 || offsetHours > 23)
+						return UNSUPPORTED;
+					int offsetMinutes = 0;
+					if (i < n) {
+						if (value.charAt(i) == ':')
+							i++;
+						offsetMinutes = parse2Digits(value, i);
+						i += 2;
+						if (offsetMinutes < 0 || offsetMinutes > 59)
+							return UNSUPPORTED;
+					}
+					offsetMillis = (offsetHours * 60 + offsetMinutes) * 60000;
+					if (c == '-')
+						offsetMillis = -offsetMillis;
+				} else {
+					return UNSUPPORTED;
+				}
+				hasOffset = true;
+			}
+			if (i != n)
+				return UNSUPPORTED;
+		}
+
+		if (month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1] || hour > 23 || minute > 59
+				|| second > 59)
+			return INVALID;
+		if (month == 2 && day == 29 && !isLeapYear(year))
+			return INVALID;
+
+		long local = daysFromEpoch(year, month, day) * 86400000L + ((hour * 60 + minute) * 60 + second) * 1000L + millis;
+		if (hasOffset)
+			return local - offsetMillis;
+		DateTimeZone zone = DateTimeZone.getDefault();
+		int offset = zone.getOffsetFromLocal(local);
+		long ret = local - offset;
+		if (offset != zone.getOffset(ret))
+			return INVALID; // local time in offset transition gap
+		return ret;
+	}
+
+	private static boolean isDateElementEnd(String value, int i) {
+		return i >= value.length() || value.charAt(i) == '-' || value.charAt(i) == 'T';
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * @return value of two digits at position, -1 if there are not two digits
+	 */
+	private static int parse2Digits(String value, int i) {
+		if (i + 1 >= value.length())
+			return -1;
+		char c1 = value.charAt(i);
+		char c2 = value.charAt(i + 1);
+		if (!isDigit(c1) || !isDigit(c2))
+			return -1;
+		return (c1 - '0') * 10 + (c2 - '0');
+	}
+
+	private static boolean isLeapYear(int year) {
+		return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	/**
+	 * Days from 1970-01-01 in proleptic Gregorian calendar.
+	 */
+	private static long daysFromEpoch(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = y / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+}
@@ -0,0 +1,210 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.util.concurrent.FutureCallback;
+import org.elasticsearch.common.util.concurrent.Futures;
+import org.elasticsearch.common.util.concurrent.ListenableFuture;
+
+/**
+ * Wrapper of {@link StructuredContentPreprocessor} which records invocation count, latency, warnings and exceptions of
+ * wrapped preprocessor into {@link PreprocessorMetrics}. Batch invocations are passed to the wrapped preprocessor if it
+ * implements {@link StructuredContentBatchPreprocessor}, asynchronous invocations if it implements
+ * {@link AsyncStructuredContentPreprocessor}. Thread safety is same as of wrapped preprocessor.
+ *
+ * @see StructuredContentPreprocessorFactory#createPreprocessorChain(List, Client, boolean)
+ * @since 1.3.10
+ */
+public class InstrumentedPreprocessor implements StructuredContentBatchPreprocessor,
+		AsyncStructuredContentPreprocessor {
+
+	private final StructuredContentPreprocessor delegate;
+
+	private final PreprocessorMetrics metrics;
+
+	/**
+	 * Create wrapper with new metrics.
+	 *
+	 * @param delegate preprocessor to be wrapped
+	 */
+	public InstrumentedPreprocessor(StructuredContentPreprocessor delegate) {
+		this(delegate, new PreprocessorMetrics(delegate.getName()));
+	}
+
+	/**
+	 * Create wrapper recording into given metrics, so metrics may be shared by more preprocessors.
+	 *
+	 * @param delegate preprocessor to be wrapped
+	 * @param metrics to record into
+	 */
+	public InstrumentedPreprocessor(StructuredContentPreprocessor delegate, PreprocessorMetrics metrics) {
+		if (delegate == null)
+			throw new IllegalArgumentException("delegate must be defined");
+		if (metrics == null)
+			throw new IllegalArgumentException("metrics must be defined");
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void init(String name, Client client, Map<String, Object> settings) {
+		delegate.init(name, client, settings);
+	}
+
+	@Override
+	public String getName() {
+		return delegate.getName();
+	}
+
+	@Override
+	public Map<String, Object> preprocessData(Map<String, Object> data) {
+		return preprocessData(data, null);
+	}
+
+	@Override
+	public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext chainContext) {
+		if (chainContext != null)
+			chainContext = new CountingChainContext(chainContext, metrics);
+		long start = System.nanoTime();
+		try {
+			return delegate.preprocessData(data, chainContext);
+		} catch (RuntimeException e) {
+			metrics.recordException();
+			throw e;
+		} finally {
+			metrics.recordInvocation(System.nanoTime() - start, 1);
+		}
+	}
+
+	@Override
+	public List<Map<String, Object>> preprocessBatch(List<Map<String, Object>> batch,
+			List<? extends PreprocessChainContext> chainContexts) {
+		if (batch == null)
+			return null;
+		int documents = 0;
+		for (Map<String, Object> data : batch) {
+			if (data != null)
+				documents++;
+		}
+		List<PreprocessChainContext> countingContexts = null;
+		if (chainContexts != null) {
+			countingContexts = new ArrayList<PreprocessChainContext>(chainContexts.size());
+			for (PreprocessChainContext c : chainContexts)
+				countingContexts.add(c != null ? new CountingChainContext(c, metrics) : null);
+		}
+		long start = System.nanoTime();
+		try {
+			if (delegate instanceof StructuredContentBatchPreprocessor) {
+				return ((StructuredContentBatchPreprocessor) delegate).preprocessBatch(batch, countingContexts);
+			}
+			for (int i = 0; i < batch.size(); i++) {
+				Map<String, Object> data = batch.get(i);
+				if (data != null) {
+					PreprocessChainContext chainContext = StructuredContentPreprocessorBase.getChainContext(countingContexts,
+							i);
+					try {
+						batch.set(i, delegate.preprocessData(data, chainContext));
+					} catch (InvalidDataException e) {
+						batch.set(i, null);
+						if (chainContext != null)
+							chainContext.addDataWarning(delegate.getName(), String.valueOf(e.getMessage()));
+					}
+				}
+			}
+			return batch;
+		} catch (RuntimeException e) {
+			metrics.recordException();
+			throw e;
+		} finally {
+			metrics.recordInvocation(System.nanoTime() - start, documents);
+		}
+	}
+
+	/**
+	 * Invocation is recorded when returned future is done, so its time contains waiting for remote resources. Wrapped
+	 * preprocessor is invoked synchronously if it doesn't implement {@link AsyncStructuredContentPreprocessor}.
+	 */
+	@Override
+	public ListenableFuture<Map<String, Object>> preprocessDataAsync(Map<String, Object> data,
+			PreprocessChainContext chainContext) {
+		if (!(delegate instanceof AsyncStructuredContentPreprocessor)) {
+			try {
+				return Futures.immediateFuture(preprocessData(data, chainContext));
+			} catch (RuntimeException e) {
+				return Futures.immediateFailedFuture(e);
+			}
+		}
+		if (chainContext != null)
+			chainContext = new CountingChainContext(chainContext, metrics);
+		final long start = System.nanoTime();
+		ListenableFuture<Map<String, Object>> ret;
+		try {
+			ret = ((AsyncStructuredContentPreprocessor) delegate).preprocessDataAsync(data, chainContext);
+		} catch (RuntimeException e) {
+			metrics.recordException();
+			metrics.recordInvocation(System.nanoTime() - start, 1);
+			throw e;
+		}
+		Futures.addCallback(ret, new FutureCallback<Map<String, Object>>() {
+			@Override
+			public void onSuccess(Map<String, Object> result) {
+				metrics.recordInvocation(System.nanoTime() - start, 1);
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				metrics.recordException();
+				metrics.recordInvocation(System.nanoTime() - start, 1);
+			}
+		});
+		return ret;
+	}
+
+	/**
+	 * @return wrapped preprocessor
+	 */
+	public StructuredContentPreprocessor getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * @return metrics recorded by this wrapper
+	 */
+	public PreprocessorMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public String toString() {
+		return "InstrumentedPreprocessor [" + delegate + "]";
+	}
+
+	/**
+	 * Chain context counting warnings into metrics.
+	 */
+	private static final class CountingChainContext implements PreprocessChainContext {
+
+		private final PreprocessChainContext delegate;
+		private final PreprocessorMetrics metrics;
+
+		CountingChainContext(PreprocessChainContext delegate, PreprocessorMetrics metrics) {
+			this.delegate = delegate;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public void addDataWarning(String preprocessorName, String warningMessage) throws IllegalArgumentException {
+			delegate.addDataWarning(preprocessorName, warningMessage);
+			metrics.recordWarning();
+		}
+	}
+
+}
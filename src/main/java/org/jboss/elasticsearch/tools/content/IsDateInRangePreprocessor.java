@@ -6,7 +6,10 @@
 package org.jboss.elasticsearch.tools.content;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -62,7 +65,8 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * @author Ryszard Kozmik (rkozmik at redhat dot com)
  * 
  */
-public class IsDateInRangePreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Map<String, Object>> {
+public class IsDateInRangePreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Map<String, Object>>
+		implements ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_LEFT_DATE = "left_date";
 	protected static final String CFG_RIGHT_DATE = "right_date";
@@ -74,8 +78,6 @@ public class IsDateInRangePreprocessor extends StructuredContentPreprocessorWith
 	protected static final String CFG_RESULT_FIELD = "result_field";
 	protected static final String CFG_DEFAULT_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSXX";
 
-	protected SimpleDateFormat dateFormatter = new SimpleDateFormat();
-
 	protected String leftDateField;
 	protected String rightDateField;
 	protected String checkedDateField;
@@ -85,6 +87,14 @@ public class IsDateInRangePreprocessor extends StructuredContentPreprocessorWith
 	protected String checkedDateFormat;
 	protected boolean checkedDateRelative;
 
+	private FieldPath leftDatePath;
+	private FieldPath rightDatePath;
+	private FieldPath checkedDatePath;
+	private FieldPath resultPath;
+	private CompiledDateFormat leftDateFormatter;
+	private CompiledDateFormat rightDateFormatter;
+	private CompiledDateFormat checkedDateFormatter;
+
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
 
@@ -113,6 +123,30 @@ public class IsDateInRangePreprocessor extends StructuredContentPreprocessorWith
 			throw new SettingsException("At least one of dates defining range, settings/" + CFG_LEFT_DATE + " or settings/"
 					+ CFG_RIGHT_DATE + " need to be provided.");
 		}
+		leftDateFormatter = compileDateFormat(leftDateFormat, CFG_LEFT_DATE_FORMAT);
+		rightDateFormatter = compileDateFormat(rightDateFormat, CFG_RIGHT_DATE_FORMAT);
+		checkedDateFormatter = compileDateFormat(checkedDateFormat, CFG_CHECKED_DATE_FORMAT);
+		leftDatePath = leftDateField != null ? FieldPath.compile(leftDateField) : null;
+		rightDatePath = rightDateField != null ? FieldPath.compile(rightDateField) : null;
+		checkedDatePath = FieldPath.compile(checkedDateField);
+		resultPath = FieldPath.compile(resultField);
+	}
+
+	private CompiledDateFormat compileDateFormat(String pattern, String cfgName) throws SettingsException {
+		try {
+			return CompiledDateFormat.compile(pattern);
+		} catch (IllegalArgumentException e) {
+			throw new SettingsException("Invalid 'settings/" + cfgName + "' configuration value for '" + name
+					+ "' preprocessor: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Checked date is read from whole data if it is not relative to source base.
+	 */
+	@Override
+	protected boolean isSourceBasesTraversalShareable() {
+		return checkedDateRelative;
 	}
 
 	@Override
@@ -133,14 +167,14 @@ public class IsDateInRangePreprocessor extends StructuredContentPreprocessorWith
 		Date checkedDate = null;
 
 		try {
-			leftDate = handleDateExtractionAndParsing(leftDateField, leftDateFormat, data, base, chainContext);
-			rightDate = handleDateExtractionAndParsing(rightDateField, rightDateFormat, data, base, chainContext);
+			leftDate = handleDateExtractionAndParsing(leftDatePath, leftDateFormatter, data, base, chainContext);
+			rightDate = handleDateExtractionAndParsing(rightDatePath, rightDateFormatter, data, base, chainContext);
 			
 			if(checkedDateRelative) {
-			    checkedDate = handleDateExtractionAndParsing(checkedDateField, checkedDateFormat,
+			    checkedDate = handleDateExtractionAndParsing(checkedDatePath, checkedDateFormatter,
 	                    data, base, chainContext);
 			} else {
-			    checkedDate = handleDateExtractionAndParsing(checkedDateField, checkedDateFormat,
+			    checkedDate = handleDateExtractionAndParsing(checkedDatePath, checkedDateFormatter,
 					(base != null ? context : data), null, chainContext);
 			}
 			
@@ -165,7 +199,7 @@ public class IsDateInRangePreprocessor extends StructuredContentPreprocessorWith
 			result = false;
 		}
 
-		StructureUtils.putValueIntoMapOfMaps(data, resultField, result);
+		resultPath.put(data, result);
 	}
 
 	@Override
@@ -183,18 +217,56 @@ public class IsDateInRangePreprocessor extends StructuredContentPreprocessorWith
 	 */
 	protected Date handleDateExtractionAndParsing(String dateField, String dateFormat, Map<String, Object> data,
 			String base, PreprocessChainContext chainContext) throws DataProblemException {
+		return handleDateExtractionAndParsing(getCompiledPath(dateField), getCompiledDateFormat(dateFormat), data, base,
+				chainContext);
+	}
 
-		if (dateField == null)
+	/**
+	 * Get path compiled in {@link #init(Map)} if field is one of configured ones, compile it otherwise.
+	 */
+	private FieldPath getCompiledPath(String field) {
+		if (field == null)
 			return null;
+		for (FieldPath path : new FieldPath[] { leftDatePath, rightDatePath, checkedDatePath }) {
+			if (path != null && path.getPath().equals(field))
+				return path;
+		}
+		return FieldPath.compile(field);
+	}
 
+	/**
+	 * Get format compiled in {@link #init(Map)} if pattern is one of configured ones, compile it otherwise.
+	 */
+	private CompiledDateFormat getCompiledDateFormat(String pattern) {
+		for (CompiledDateFormat format : new CompiledDateFormat[] { leftDateFormatter, rightDateFormatter,
+				checkedDateFormatter }) {
+			if (format != null && format.getPattern().equals(pattern))
+				return format;
+		}
+		return CompiledDateFormat.compile(pattern);
+	}
+
+	/**
+	 * An util method to extract date value out from the field and parse it using the given date format.
+	 * 
+	 * @param datePath compiled path to the field with date, can be null
+	 * @param dateFormat compiled format to parse date with
+	 * @param data to get date from
+	 * @param base
+	 * @param chainContext
+	 * @return parsed date object
+	 * @since 1.3.10
+	 */
+	protected Date handleDateExtractionAndParsing(FieldPath datePath, CompiledDateFormat dateFormat,
+			Map<String, Object> data, String base, PreprocessChainContext chainContext) throws DataProblemException {
+
+		if (datePath == null)
+			return null;
+
+		String dateField = datePath.getPath();
 		Date resultDate = null;
 
-		Object dateFieldData = null;
-		if (dateField.contains(".")) {
-			dateFieldData = XContentMapValues.extractValue(dateField, data);
-		} else {
-			dateFieldData = data.get(dateField);
-		}
+		Object dateFieldData = datePath.get(data);
 
 		if (dateFieldData != null) {
 			if (!(dateFieldData instanceof String)) {
@@ -204,17 +276,14 @@ public class IsDateInRangePreprocessor extends StructuredContentPreprocessorWith
 			} else {
 				String dateStr = dateFieldData.toString();
 				if (dateStr != null && !dateStr.isEmpty()) {
-				    synchronized(dateFormatter) {
-    					dateFormatter.applyPattern(dateFormat);
-    					try {
-    						resultDate = dateFormatter.parse(dateStr);
-    					} catch (ParseException e) {
-    						String msg = dateField + " parameter value of " + dateStr + " could not be parsed using " + dateFormat
-    								+ " format.";
-    						addDataWarning(chainContext, msg);
-    						throw new DataProblemException();
-    					}
-				    }
+					try {
+						resultDate = dateFormat.parse(dateStr);
+					} catch (ParseException e) {
+						String msg = dateField + " parameter value of " + dateStr + " could not be parsed using "
+								+ dateFormat.getPattern() + " format.";
+						addDataWarning(chainContext, msg);
+						throw new DataProblemException();
+					}
 				}
 			}
 		}
@@ -231,6 +300,20 @@ public class IsDateInRangePreprocessor extends StructuredContentPreprocessorWith
 		logger.debug(message);
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		List<String> ret = new ArrayList<String>(resolveAccessedFields(Arrays.asList(leftDateField, rightDateField,
+				checkedDateField)));
+		if (sourceBases != null && !checkedDateRelative)
+			ret.add(checkedDateField);
+		return ret;
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return resolveAccessedFields(Collections.singletonList(resultField));
+	}
+
 	/**
 	 * An utility exception to handle data exceptions navigation nicely in this preprocessor.
 	 */
@@ -0,0 +1,246 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.SettingsException;
+
+/**
+ * {@link LookupBackend} finding documents as rows of table in relational database (eg. embedded one) over JDBC. All
+ * values for one search field are looked up by one <code>SELECT field, result fields FROM table WHERE field IN (...)</code>
+ * query, all columns are selected only if <code>_source</code> is requested. Rows are converted to documents with lower
+ * case column names as field names, so <code>idx_search_field</code> and <code>idx_result_field</code> should be lower
+ * case column names. Values are matched by database (compared as strings). JDBC driver must be on classpath.
+ * Connections are opened once and kept for next lookups, one for each concurrently running lookup, and closed by
+ * {@link #close()}. Settings are:
+ * <ul>
+ * <li><code>lookup_jdbc_url<code> - JDBC URL of database
+ * <li><code>lookup_jdbc_user<code> - optional name of database user
+ * <li><code>lookup_jdbc_password<code> - optional password of database user
+ * <li><code>lookup_jdbc_table<code> - name of table (or view) to lookup values in
+ * </ul>
+ *
+ * @since 1.3.10
+ */
+public class JdbcLookupBackend extends LookupBackendBase implements Closeable {
+
+	protected static final String CFG_lookup_jdbc_url = "lookup_jdbc_url";
+	protected static final String CFG_lookup_jdbc_user = "lookup_jdbc_user";
+	protected static final String CFG_lookup_jdbc_password = "lookup_jdbc_password";
+	protected static final String CFG_lookup_jdbc_table = "lookup_jdbc_table";
+
+	/**
+	 * Table and column names are put into SQL directly, so they are restricted to plain identifiers.
+	 */
+	private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+
+	protected String url;
+	protected String user;
+	protected String password;
+	protected String table;
+
+	/**
+	 * Columns selected besides search field, <code>null</code> if all columns are selected.
+	 */
+	protected List<String> resultColumns;
+
+	/**
+	 * Open connections not used by any lookup now.
+	 */
+	private final Queue<Connection> idleConnections = new ConcurrentLinkedQueue<Connection>();
+
+	@Override
+	public void init(String preprocessorName, Client client, Map<String, Object> settings, List<String> resultFields)
+			throws SettingsException {
+		super.init(preprocessorName, client, settings, resultFields);
+		url = readStringSetting(settings, CFG_lookup_jdbc_url, true);
+		user = readStringSetting(settings, CFG_lookup_jdbc_user, false);
+		password = readStringSetting(settings, CFG_lookup_jdbc_password, false);
+		table = readStringSetting(settings, CFG_lookup_jdbc_table, true);
+		if (!IDENTIFIER.matcher(table).matches()) {
+			throw new SettingsException("Invalid 'settings/" + CFG_lookup_jdbc_table + "' configuration value for '" + name
+					+ "' preprocessor: " + table);
+		}
+		resultColumns = new ArrayList<String>();
+		for (String resultField : resultFields) {
+			if ("_source".equals(resultField) || !IDENTIFIER.matcher(resultField).matches()) {
+				resultColumns = null;
+				break;
+			}
+			if (!resultColumns.contains(resultField))
+				resultColumns.add(resultField);
+		}
+	}
+
+	@Override
+	public Map<Object, List<Map<String, Object>>> lookup(String searchField, List<Object> values)
+			throws ElasticsearchException {
+		if (!IDENTIFIER.matcher(searchField).matches())
+			throw new ElasticsearchException("Invalid search field name for JDBC lookup: " + searchField);
+		Map<Object, List<Map<String, Object>>> ret = new HashMap<Object, List<Map<String, Object>>>();
+		if (values.isEmpty())
+			return ret;
+		Map<String, Object> valuesByKey = new HashMap<String, Object>();
+		StringBuilder sql = new StringBuilder("SELECT ");
+		if (resultColumns != null) {
+			sql.append(searchField);
+			for (String column : resultColumns) {
+				if (!column.equalsIgnoreCase(searchField))
+					sql.append(", ").append(column);
+			}
+		} else {
+			sql.append("*");
+		}
+		sql.append(" FROM ").append(table).append(" WHERE ").append(searchField).append(" IN (");
+		for (int i = 0; i < values.size(); i++) {
+			valuesByKey.put(values.get(i).toString(), values.get(i));
+			sql.append(i > 0 ? ",?" : "?");
+		}
+		sql.append(")");
+		try {
+			Connection conn = getConnection();
+			boolean failed = true;
+			try {
+				PreparedStatement ps = conn.prepareStatement(sql.toString());
+				try {
+					for (int i = 0; i < values.size(); i++) {
+						ps.setString(i + 1, values.get(i).toString());
+					}
+					ResultSet rs = ps.executeQuery();
+					try {
+						readResults(rs, searchField.toLowerCase(Locale.ENGLISH), valuesByKey, ret);
+					} finally {
+						rs.close();
+					}
+				} finally {
+					ps.close();
+				}
+				failed = false;
+			} finally {
+				releaseConnection(conn, failed);
+			}
+		} catch (SQLException e) {
+			throw new ElasticsearchException("JDBC lookup failed due " + e.getMessage(), e);
+		}
+		return ret;
+	}
+
+	private void readResults(ResultSet rs, String searchField, Map<String, Object> valuesByKey,
+			Map<Object, List<Map<String, Object>>> ret) throws SQLException {
+		ResultSetMetaData md = rs.getMetaData();
+		String[] columns = new String[md.getColumnCount()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = md.getColumnLabel(i + 1).toLowerCase(Locale.ENGLISH);
+		}
+		while (rs.next()) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			for (int i = 0; i < columns.length; i++) {
+				Object v = rs.getObject(i + 1);
+				if (v != null)
+					row.put(columns[i], v);
+			}
+			Object key = row.get(searchField);
+			Object value = key != null ? valuesByKey.get(key.toString()) : null;
+			if (value == null)
+				continue;
+			List<Map<String, Object>> docs = ret.get(value);
+			if (docs == null) {
+				docs = new ArrayList<Map<String, Object>>(1);
+				ret.put(value, docs);
+			}
+			docs.add(getResultFields(row));
+		}
+	}
+
+	/**
+	 * Get connection to database for one lookup. Idle connection opened for previous lookup is used if available.
+	 *
+	 * @return connection, must be released by {@link #releaseConnection(Connection, boolean)} after lookup
+	 * @throws SQLException if connection can't be opened
+	 */
+	protected Connection getConnection() throws SQLException {
+		Connection conn = idleConnections.poll();
+		return conn != null ? conn : openConnection();
+	}
+
+	/**
+	 * Release connection after lookup, so it can be used for next lookup.
+	 *
+	 * @param conn to release
+	 * @param failed true if lookup failed, connection is closed then as it may be broken
+	 */
+	protected void releaseConnection(Connection conn, boolean failed) {
+		if (failed) {
+			closeConnection(conn);
+		} else {
+			idleConnections.offer(conn);
+		}
+	}
+
+	/**
+	 * Open new connection to database.
+	 *
+	 * @return connection
+	 * @throws SQLException if connection can't be opened
+	 */
+	protected Connection openConnection() throws SQLException {
+		if (user != null)
+			return DriverManager.getConnection(url, user, password != null ? password : "");
+		return DriverManager.getConnection(url);
+	}
+
+	private void closeConnection(Connection conn) {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			logger.debug("JDBC connection close failed due {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Close all idle connections. Backend can be used after close, new connections are opened then.
+	 */
+	@Override
+	public void close() {
+		Connection conn;
+		while ((conn = idleConnections.poll()) != null) {
+			closeConnection(conn);
+		}
+	}
+
+	/**
+	 * @return number of open connections not used by any lookup now
+	 */
+	protected int getIdleConnectionCount() {
+		return idleConnections.size();
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+}
@@ -0,0 +1,439 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.jackson.core.JsonFactory;
+import org.elasticsearch.common.jackson.core.JsonParser;
+import org.elasticsearch.common.jackson.core.JsonToken;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+/**
+ * {@link Map} backed by raw bytes of document object (JSON or Smile), which is parsed lazily on demand. It can be used
+ * as data for {@link StructuredContentPreprocessor}s instead of fully parsed document, so documents where preprocessors
+ * use only few fields do not pay for full parsing.
+ * <p>
+ * Top level of object is scanned when map is accessed first time. Nested objects and arrays are kept as raw bytes then
+ * (for JSON as slices of source without any decoding), and are decoded when they are read by {@link #get(Object)} or
+ * iteration. Nested object is decoded into {@link LazyDocumentMap} again, so
+ * {@link XContentMapValues#extractValue(String, Map)} decodes only objects on the path.
+ * <p>
+ * Use {@link #bytes()} or {@link #toXContent(XContentBuilder, Params)} to serialize document. Raw bytes of objects and
+ * arrays which are not decoded, and of objects which are not changed, are written back without parsing. Map is not
+ * thread safe.
+ *
+ * @since 1.3.10
+ */
+public final class LazyDocumentMap extends AbstractMap<String, Object> implements ToXContent {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final BytesReference source;
+
+	private final XContentType contentType;
+
+	/**
+	 * Fields of object, not decoded values are {@link RawValue}. <code>null</code> until object is scanned.
+	 */
+	private Map<String, Object> fields;
+
+	/**
+	 * true if fields of this object were changed
+	 */
+	private boolean changed;
+
+	private Set<Entry<String, Object>> entrySet;
+
+	/**
+	 * Create map for document object, content type is detected from bytes.
+	 *
+	 * @param source bytes of document object
+	 * @throws IllegalArgumentException if source is not defined or its content type is unknown
+	 */
+	public LazyDocumentMap(BytesReference source) throws IllegalArgumentException {
+		this(source, source != null ? XContentFactory.xContentType(source) : null);
+	}
+
+	/**
+	 * Create map for document object.
+	 *
+	 * @param source bytes of document object
+	 * @param contentType of source
+	 * @throws IllegalArgumentException if source or content type is not defined
+	 */
+	public LazyDocumentMap(BytesReference source, XContentType contentType) throws IllegalArgumentException {
+		if (source == null)
+			throw new IllegalArgumentException("source must be defined");
+		if (contentType == null)
+			throw new IllegalArgumentException("Unknown content type of source");
+		this.source = source;
+		this.contentType = contentType;
+	}
+
+	/**
+	 * @return content type of source bytes
+	 */
+	public XContentType getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Get fields of object, scan it if not scanned yet.
+	 *
+	 * @throws ElasticsearchParseException if source bytes can't be parsed
+	 */
+	private Map<String, Object> fields() {
+		if (fields == null) {
+			try {
+				fields = contentType == XContentType.JSON ? scanJson() : scanXContent();
+			} catch (IOException e) {
+				throw new ElasticsearchParseException("Failed to parse document: " + e.getMessage(), e);
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * Scan JSON object. Nested objects and arrays are skipped by tokenizer only, and kept as slices of source.
+	 */
+	private Map<String, Object> scanJson() throws IOException {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		JsonParser parser = JSON_FACTORY.createParser(source.streamInput());
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+				throw new IOException("Document must be an object");
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				switch (token) {
+				case START_OBJECT:
+				case START_ARRAY:
+					// token location is not exact for value after field name, but bracket is the last byte read
+					int start = (int) parser.getCurrentLocation().getByteOffset() - 1;
+					parser.skipChildren();
+					int end = (int) parser.getCurrentLocation().getByteOffset();
+					ret.put(name, new RawValue(source.slice(start, end - start), token == JsonToken.START_ARRAY));
+					break;
+				case VALUE_STRING:
+					ret.put(name, parser.getText());
+					break;
+				case VALUE_NUMBER_INT:
+				case VALUE_NUMBER_FLOAT:
+					ret.put(name, parser.getNumberValue());
+					break;
+				case VALUE_TRUE:
+					ret.put(name, Boolean.TRUE);
+					break;
+				case VALUE_FALSE:
+					ret.put(name, Boolean.FALSE);
+					break;
+				case VALUE_NULL:
+					ret.put(name, null);
+					break;
+				default:
+					ret.put(name, parser.getEmbeddedObject());
+				}
+			}
+		} finally {
+			parser.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * Scan object in other content type. Nested objects and arrays are copied into raw bytes as their parts can't be
+	 * used separately (eg. Smile shares field names over whole document).
+	 */
+	private Map<String, Object> scanXContent() throws IOException {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		XContentParser parser = XContentFactory.xContent(contentType).createParser(source);
+		try {
+			if (parser.nextToken() != XContentParser.Token.START_OBJECT)
+				throw new IOException("Document must be an object");
+			XContentParser.Token token;
+			while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+				String name = parser.currentName();
+				token = parser.nextToken();
+				if (token == XContentParser.Token.START_OBJECT || token == XContentParser.Token.START_ARRAY) {
+					XContentBuilder raw = XContentBuilder.builder(contentType.xContent());
+					raw.copyCurrentStructure(parser);
+					ret.put(name, new RawValue(raw.bytes(), token == XContentParser.Token.START_ARRAY));
+				} else {
+					ret.put(name, StreamingDocumentProcessor.readValue(parser, token));
+				}
+			}
+		} finally {
+			parser.close();
+		}
+		return ret;
+	}
+
+	private Object decode(RawValue raw) {
+		if (!raw.array)
+			return new LazyDocumentMap(raw.bytes, contentType);
+		try {
+			XContentParser parser = XContentFactory.xContent(contentType).createParser(raw.bytes);
+			try {
+				return StreamingDocumentProcessor.readValue(parser, parser.nextToken());
+			} finally {
+				parser.close();
+			}
+		} catch (IOException e) {
+			throw new ElasticsearchParseException("Failed to parse document: " + e.getMessage(), e);
+		}
+	}
+
+	private Object decodeIfRaw(Object value) {
+		if (value instanceof RawValue)
+			return decode((RawValue) value);
+		return value;
+	}
+
+	@Override
+	public Object get(Object key) {
+		Map<String, Object> f = fields();
+		Object v = f.get(key);
+		if (v instanceof RawValue) {
+			v = decode((RawValue) v);
+			f.put((String) key, v);
+		}
+		return v;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return fields().containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return fields().size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return fields().isEmpty();
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		changed = true;
+		return decodeIfRaw(fields().put(key, value));
+	}
+
+	@Override
+	public Object remove(Object key) {
+		Map<String, Object> f = fields();
+		if (!f.containsKey(key))
+			return null;
+		changed = true;
+		return decodeIfRaw(f.remove(key));
+	}
+
+	@Override
+	public void clear() {
+		changed = true;
+		fields = new LinkedHashMap<String, Object>();
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Entry<String, Object>>() {
+
+				@Override
+				public Iterator<Entry<String, Object>> iterator() {
+					return new EntryIterator(fields().entrySet().iterator());
+				}
+
+				@Override
+				public int size() {
+					return fields().size();
+				}
+
+				@Override
+				public void clear() {
+					LazyDocumentMap.this.clear();
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	/**
+	 * Check if document was changed since it was created from source bytes.
+	 *
+	 * @return true if some field of document or nested object was changed, or some array was decoded so it might be
+	 *         changed.
+	 */
+	public boolean isChanged() {
+		if (changed)
+			return true;
+		if (fields == null)
+			return false;
+		for (Object v : fields.values()) {
+			if (v instanceof LazyDocumentMap) {
+				if (((LazyDocumentMap) v).isChanged())
+					return true;
+			} else if (v instanceof Iterable || v instanceof Map) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get bytes of document in content type of source. Source bytes are returned if document is not changed.
+	 *
+	 * @return bytes of document
+	 * @throws IOException if document can't be serialized
+	 */
+	public BytesReference bytes() throws IOException {
+		if (!isChanged())
+			return source;
+		XContentBuilder builder = XContentBuilder.builder(contentType.xContent());
+		toXContent(builder, EMPTY_PARAMS);
+		return builder.bytes();
+	}
+
+	/**
+	 * Write document object into builder. Not changed parts of document are written as raw bytes if builder has same
+	 * content type as source.
+	 */
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+		boolean rawWritable = builder.contentType() == contentType
+				&& (contentType == XContentType.JSON || contentType == XContentType.SMILE);
+		builder.startObject();
+		for (Entry<String, Object> e : fields().entrySet()) {
+			String name = e.getKey();
+			Object v = e.getValue();
+			if (v instanceof RawValue) {
+				RawValue raw = (RawValue) v;
+				if (rawWritable) {
+					// raw field with BytesReference is supported for objects only
+					if (raw.array)
+						builder.rawField(name, raw.bytes.toBytes());
+					else
+						builder.rawField(name, raw.bytes);
+					continue;
+				}
+				v = decode(raw);
+			}
+			if (v instanceof LazyDocumentMap) {
+				LazyDocumentMap m = (LazyDocumentMap) v;
+				if (rawWritable && !m.isChanged()) {
+					builder.rawField(name, m.source);
+				} else {
+					builder.field(name);
+					m.toXContent(builder, params);
+				}
+			} else {
+				builder.field(name, v);
+			}
+		}
+		return builder.endObject();
+	}
+
+	/**
+	 * Not decoded nested object or array.
+	 */
+	private static final class RawValue {
+		final BytesReference bytes;
+		final boolean array;
+
+		RawValue(BytesReference bytes, boolean array) {
+			this.bytes = bytes;
+			this.array = array;
+		}
+	}
+
+	/**
+	 * Iterator decoding values on demand.
+	 */
+	private final class EntryIterator implements Iterator<Entry<String, Object>> {
+
+		private final Iterator<Entry<String, Object>> iterator;
+
+		EntryIterator(Iterator<Entry<String, Object>> iterator) {
+			this.iterator = iterator;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public Entry<String, Object> next() {
+			final Entry<String, Object> e = iterator.next();
+			return new Entry<String, Object>() {
+
+				@Override
+				public String getKey() {
+					return e.getKey();
+				}
+
+				@Override
+				public Object getValue() {
+					Object v = e.getValue();
+					if (v instanceof RawValue) {
+						v = decode((RawValue) v);
+						e.setValue(v);
+					}
+					return v;
+				}
+
+				@Override
+				public Object setValue(Object value) {
+					changed = true;
+					return decodeIfRaw(e.setValue(value));
+				}
+
+				@Override
+				public boolean equals(Object o) {
+					if (!(o instanceof Entry))
+						return false;
+					Entry<?, ?> oe = (Entry<?, ?>) o;
+					Object v = getValue();
+					return e.getKey().equals(oe.getKey()) && (v == null ? oe.getValue() == null : v.equals(oe.getValue()));
+				}
+
+				@Override
+				public int hashCode() {
+					Object v = getValue();
+					return e.getKey().hashCode() ^ (v == null ? 0 : v.hashCode());
+				}
+
+				@Override
+				public String toString() {
+					return e.getKey() + "=" + getValue();
+				}
+			};
+		}
+
+		@Override
+		public void remove() {
+			iterator.remove();
+			changed = true;
+		}
+	}
+
+}
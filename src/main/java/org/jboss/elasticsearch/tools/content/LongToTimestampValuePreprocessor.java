@@ -5,6 +5,8 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
 
@@ -41,7 +43,8 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * @author Vlastimil Elias (velias at redhat dot com)
  * @see StructuredContentPreprocessorFactory
  */
-public class LongToTimestampValuePreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Object> {
+public class LongToTimestampValuePreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Object>
+		implements ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_SOURCE_FIELD = "source_field";
 	protected static final String CFG_TARGET_FIELD = "target_field";
@@ -49,6 +52,9 @@ public class LongToTimestampValuePreprocessor extends StructuredContentPreproces
 	protected String fieldSource;
 	protected String fieldTarget;
 
+	private FieldPath fieldSourcePath;
+	private FieldPath fieldTargetPath;
+
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
 		super.init(settings);
@@ -56,28 +62,25 @@ public class LongToTimestampValuePreprocessor extends StructuredContentPreproces
 		validateConfigurationStringNotEmpty(fieldSource, CFG_SOURCE_FIELD);
 		fieldTarget = XContentMapValues.nodeStringValue(settings.get(CFG_TARGET_FIELD), null);
 		validateConfigurationStringNotEmpty(fieldTarget, CFG_TARGET_FIELD);
+		fieldSourcePath = FieldPath.compile(fieldSource);
+		fieldTargetPath = FieldPath.compile(fieldTarget);
 	}
 
 	@Override
 	protected void processOneSourceValue(Map<String, Object> data, Object context, String base,
 			PreprocessChainContext chainContext) {
-		Object v = null;
-		if (fieldSource.contains(".")) {
-			v = XContentMapValues.extractValue(fieldSource, data);
-		} else {
-			v = data.get(fieldSource);
-		}
+		Object v = fieldSourcePath.get(data);
 
 		if (v != null) {
 			if (v instanceof Integer) {
-				putTargetValue(data, ValueUtils.formatISODateTime(new Date(((Integer) v).longValue())));
+				putTargetValue(data, CompiledDateFormat.ISO_DATE_TIME.format(new Date(((Integer) v).longValue())));
 			} else if (v instanceof Long) {
-				putTargetValue(data, ValueUtils.formatISODateTime(new Date((Long) v)));
+				putTargetValue(data, CompiledDateFormat.ISO_DATE_TIME.format(new Date((Long) v)));
 			} else if (v instanceof String) {
 				String vs = ValueUtils.trimToNull((String) v);
 				if (vs != null) {
 					try {
-						putTargetValue(data, ValueUtils.formatISODateTime(new Date(new Long(vs))));
+						putTargetValue(data, CompiledDateFormat.ISO_DATE_TIME.format(new Date(Long.parseLong(vs))));
 					} catch (NumberFormatException e) {
 						String warningMessage = "value '" + vs + "' for field '" + fieldSource
 								+ "' is not number, so can't be converted to timestamp";
@@ -100,7 +103,7 @@ public class LongToTimestampValuePreprocessor extends StructuredContentPreproces
 	}
 
 	protected void putTargetValue(Map<String, Object> data, Object value) {
-		StructureUtils.putValueIntoMapOfMaps(data, fieldTarget, value);
+		fieldTargetPath.put(data, value);
 	}
 
 	public String getFieldSource() {
@@ -111,4 +114,14 @@ public class LongToTimestampValuePreprocessor extends StructuredContentPreproces
 		return fieldTarget;
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		return resolveAccessedFields(Collections.singletonList(fieldSource));
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return resolveAccessedFields(Collections.singletonList(fieldTarget));
+	}
+
 }
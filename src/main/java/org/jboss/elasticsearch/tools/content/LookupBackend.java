@@ -0,0 +1,62 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.util.concurrent.ListenableFuture;
+
+/**
+ * Backend used by {@link ESLookupValuePreprocessor} to find documents for looked up values. Preprocessor does all
+ * lookup logic (caching, default values, warnings etc.), backend only gets documents for more values at once. Backend
+ * is selected by <code>lookup_backend</code> setting of preprocessor, implementations shipped with this library are
+ * {@link ESLookupBackend} (default), {@link MemoryLookupBackend}, {@link FileLookupBackend} and
+ * {@link JdbcLookupBackend}. Implementation must be thread safe.
+ *
+ * @see LookupBackendBase
+ * @since 1.3.10
+ */
+public interface LookupBackend {
+
+	/**
+	 * Initialize backend. Called once by {@link ESLookupValuePreprocessor} during its initialization.
+	 *
+	 * @param preprocessorName name of preprocessor backend is used by, for error messages
+	 * @param client Elasticsearch client, may be <code>null</code>
+	 * @param settings of preprocessor, backend specific settings are read from it
+	 * @param resultFields names of fields to be returned for found documents (<code>idx_result_field</code>s), may
+	 *          contain <code>_source</code> for whole document
+	 * @throws SettingsException if settings are invalid
+	 */
+	void init(String preprocessorName, Client client, Map<String, Object> settings, List<String> resultFields)
+			throws SettingsException;
+
+	/**
+	 * Find documents for more values at once.
+	 *
+	 * @param searchField name of field in documents to be matched against values (<code>idx_search_field</code>)
+	 * @param values distinct values to find documents for, not <code>null</code>
+	 * @return found documents for each value, value may be missing in map if nothing is found for it. Each document
+	 *         is map with values of result fields, name of result field is key. Field not present in document is not
+	 *         present in map, <code>_source</code> key contains whole document.
+	 * @throws ElasticsearchException if lookup fails, exceptions of other backends are wrapped into it
+	 */
+	Map<Object, List<Map<String, Object>>> lookup(String searchField, List<Object> values) throws ElasticsearchException;
+
+	/**
+	 * Find documents for more values at once without blocking of calling thread, if supported by backend.
+	 *
+	 * @param searchField name of field in documents to be matched against values
+	 * @param values distinct values to find documents for, not <code>null</code>
+	 * @return future with same result as {@link #lookup(String, List)}, it fails with exception thrown by lookup
+	 */
+	ListenableFuture<Map<Object, List<Map<String, Object>>>> lookupAsync(String searchField, List<Object> values);
+
+}
@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.util.concurrent.Futures;
+import org.elasticsearch.common.util.concurrent.ListenableFuture;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+/**
+ * Abstract base for {@link LookupBackend} implementations. Asynchronous lookup is performed synchronously by calling
+ * thread here.
+ *
+ * @since 1.3.10
+ */
+public abstract class LookupBackendBase implements LookupBackend {
+
+	protected ESLogger logger = null;
+
+	protected String name;
+
+	protected Client client;
+
+	protected List<String> resultFields;
+
+	@Override
+	public void init(String preprocessorName, Client client, Map<String, Object> settings, List<String> resultFields)
+			throws SettingsException {
+		this.name = preprocessorName;
+		logger = Loggers.getLogger(getClass(), preprocessorName);
+		this.client = client;
+		this.resultFields = resultFields;
+	}
+
+	@Override
+	public ListenableFuture<Map<Object, List<Map<String, Object>>>> lookupAsync(String searchField, List<Object> values) {
+		try {
+			return Futures.immediateFuture(lookup(searchField, values));
+		} catch (Throwable e) {
+			return Futures.immediateFailedFuture(e);
+		}
+	}
+
+	/**
+	 * Get values of result fields from document.
+	 *
+	 * @param document to get values from
+	 * @return map with values, result field is key. Fields not present in document are not in map.
+	 */
+	protected Map<String, Object> getResultFields(Map<String, Object> document) {
+		return getResultFields(document, resultFields);
+	}
+
+	/**
+	 * Get values of result fields from document. First value is used for fields with List of values, same as for
+	 * Elasticsearch search hit fields.
+	 *
+	 * @param document to get values from
+	 * @param resultFields names of fields to get, dot notation for nested values can be used, <code>_source</code>
+	 *          means whole document
+	 * @return map with values, result field is key. Fields not present in document are not in map.
+	 */
+	public static Map<String, Object> getResultFields(Map<String, Object> document, List<String> resultFields) {
+		Map<String, Object> ret = new HashMap<String, Object>();
+		for (String resultField : resultFields) {
+			Object v;
+			if ("_source".equals(resultField)) {
+				v = document;
+			} else {
+				v = XContentMapValues.extractValue(resultField, document);
+				if (v instanceof List)
+					v = ((List<?>) v).isEmpty() ? null : ((List<?>) v).get(0);
+			}
+			if (v != null)
+				ret.put(resultField, v);
+		}
+		return ret;
+	}
+
+	/**
+	 * Get String value from settings.
+	 *
+	 * @param settings to get value from
+	 * @param configFieldName name of field in settings
+	 * @param mandatory if true then exception is thrown if value is empty
+	 * @return value, <code>null</code> if empty
+	 * @throws SettingsException if mandatory value is empty
+	 */
+	protected String readStringSetting(Map<String, Object> settings, String configFieldName, boolean mandatory)
+			throws SettingsException {
+		String value = ValueUtils.trimToNull(XContentMapValues.nodeStringValue(settings.get(configFieldName), null));
+		if (value == null && mandatory) {
+			throw new SettingsException("Missing or empty 'settings/" + configFieldName + "' configuration value for '"
+					+ name + "' preprocessor");
+		}
+		return value;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<String> getResultFields() {
+		return resultFields;
+	}
+
+}
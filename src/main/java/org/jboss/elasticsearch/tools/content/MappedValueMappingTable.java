@@ -0,0 +1,312 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Read only String to String value mapping table stored in file in compact binary form sorted by keys. File is memory
+ * mapped, so entries are kept off heap in OS page cache, which is shared by all tables opened for the same file, and
+ * also by JVM restarts. Lookup is binary search comparing looked up key directly against mapped bytes, so only found
+ * value is allocated on heap.
+ * <p>
+ * Table is compiled from text mapping file, where each line contains key and value separated by tab character, UTF-8
+ * encoding is used. Empty lines are ignored, last value is used for duplicate keys. Compiled table is stored next to
+ * the text file with {@value #TABLE_FILE_SUFFIX} suffix, and compiled again only if text file is newer. Text file may
+ * be omitted if compiled table exists. Keys and values can be at most 65535 bytes long in UTF-8, compiled table can be
+ * at most 2GB large.
+ * <p>
+ * Binary format of compiled table is: magic number, format version, number of entries (all <code>int</code>), then
+ * offset of each entry (<code>int</code>) and then entries. Each entry contains key length (unsigned
+ * <code>short</code>), key bytes, value length (unsigned <code>short</code>) and value bytes.
+ *
+ * @see SimpleValueMapMapperPreprocessor
+ * @since 1.3.10
+ */
+public final class MappedValueMappingTable {
+
+	/**
+	 * Suffix of compiled table file name.
+	 */
+	public static final String TABLE_FILE_SUFFIX = ".svmt";
+
+	private static final int MAGIC = 0x53564D54;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+	private static final int MAX_LENGTH = 0xFFFF;
+
+	/**
+	 * Tables opened in this JVM, canonical path of compiled table file is key.
+	 */
+	private static final ConcurrentMap<String, MappedValueMappingTable> tables =
+			new ConcurrentHashMap<String, MappedValueMappingTable>();
+
+	private final ByteBuffer buffer;
+
+	private final int size;
+
+	private final int dataStart;
+
+	private final long lastModified;
+
+	private MappedValueMappingTable(File tableFile) throws IOException {
+		lastModified = tableFile.lastModified();
+		RandomAccessFile raf = new RandomAccessFile(tableFile, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Value mapping table " + tableFile + " is larger than 2GB");
+			// mapping is valid after channel is closed
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION)
+			throw new IOException("Invalid format of value mapping table " + tableFile);
+		size = buffer.getInt(8);
+		dataStart = HEADER_SIZE + 4 * size;
+		if (size < 0 || dataStart > buffer.limit())
+			throw new IOException("Invalid format of value mapping table " + tableFile);
+	}
+
+	/**
+	 * Open table for text mapping file. Table is compiled if it doesn't exist yet or text file is newer. Table already
+	 * opened in this JVM is returned if not changed meanwhile.
+	 *
+	 * @param mappingFile text mapping file, may not exist if compiled table exists
+	 * @return opened table
+	 * @throws IOException if table can't be compiled or opened
+	 */
+	public static MappedValueMappingTable open(File mappingFile) throws IOException {
+		File tableFile = new File(mappingFile.getPath() + TABLE_FILE_SUFFIX);
+		synchronized (tables) {
+			String key = tableFile.getCanonicalPath();
+			if (mappingFile.exists()) {
+				if (!tableFile.exists() || tableFile.lastModified() < mappingFile.lastModified()) {
+					compile(mappingFile, tableFile);
+					// last modification time may have low resolution, so it is not enough to detect the change
+					tables.remove(key);
+				}
+			} else if (!tableFile.exists()) {
+				throw new FileNotFoundException("Value mapping file " + mappingFile + " doesn't exist");
+			}
+			MappedValueMappingTable ret = tables.get(key);
+			if (ret == null || ret.lastModified != tableFile.lastModified()) {
+				ret = new MappedValueMappingTable(tableFile);
+				tables.put(key, ret);
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Compile text mapping file into binary table.
+	 *
+	 * @param mappingFile text mapping file to read
+	 * @param tableFile to write compiled table into, it is replaced atomically
+	 * @return number of entries in compiled table
+	 * @throws IOException if mapping file can't be read or is invalid, or table can't be written
+	 */
+	public static int compile(File mappingFile, File tableFile) throws IOException {
+		List<byte[][]> entries = readMappingFile(mappingFile);
+		// stable sort, so last one of duplicate keys is the last one in sorted list also
+		Collections.sort(entries, ENTRY_COMPARATOR);
+		List<byte[][]> unique = new ArrayList<byte[][]>(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			if (i + 1 < entries.size() && ENTRY_COMPARATOR.compare(entries.get(i), entries.get(i + 1)) == 0)
+				continue;
+			unique.add(entries.get(i));
+		}
+		long tableSize = HEADER_SIZE + 4L * unique.size();
+		for (byte[][] entry : unique)
+			tableSize += 4 + entry[0].length + entry[1].length;
+		if (tableSize > Integer.MAX_VALUE)
+			throw new IOException("Value mapping table compiled from " + mappingFile + " would be larger than 2GB");
+
+		File dir = tableFile.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(tableFile.getName(), ".tmp", dir);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(unique.size());
+				int offset = 0;
+				for (byte[][] entry : unique) {
+					out.writeInt(offset);
+					offset += 4 + entry[0].length + entry[1].length;
+				}
+				for (byte[][] entry : unique) {
+					out.writeShort(entry[0].length);
+					out.write(entry[0]);
+					out.writeShort(entry[1].length);
+					out.write(entry[1]);
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), tableFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();
+		}
+		return unique.size();
+	}
+
+	private static List<byte[][]> readMappingFile(File mappingFile) throws IOException {
+		List<byte[][]> ret = new ArrayList<byte[][]>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mappingFile),
+				StandardCharsets.UTF_8));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.isEmpty())
+					continue;
+				int idx = line.indexOf('\t');
+				if (idx < 0)
+					throw new IOException("Invalid line " + lineNumber + " in value mapping file " + mappingFile
+							+ ", key and value must be separated by tab");
+				byte[] key = line.substring(0, idx).getBytes(StandardCharsets.UTF_8);
+				byte[] value = line.substring(idx + 1).getBytes(StandardCharsets.UTF_8);
+				if (key.length > MAX_LENGTH || value.length > MAX_LENGTH)
+					throw new IOException("Invalid line " + lineNumber + " in value mapping file " + mappingFile
+							+ ", key or value is too long");
+				ret.add(new byte[][] { key, value });
+			}
+		} finally {
+			reader.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * Compares entries by unsigned bytes of UTF-8 encoded key, which is the same order as order of Unicode code points.
+	 */
+	private static final Comparator<byte[][]> ENTRY_COMPARATOR = new Comparator<byte[][]>() {
+		@Override
+		public int compare(byte[][] o1, byte[][] o2) {
+			byte[] k1 = o1[0];
+			byte[] k2 = o2[0];
+			for (int i = 0; i < k1.length && i < k2.length; i++) {
+				int c = (k1[i] & 0xFF) - (k2[i] & 0xFF);
+				if (c != 0)
+					return c;
+			}
+			return k1.length - k2.length;
+		}
+	};
+
+	/**
+	 * Get value mapped to key.
+	 *
+	 * @param key to get value for
+	 * @return mapped value or <code>null</code> if key is not in table
+	 */
+	public String get(String key) {
+		if (key == null)
+			return null;
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int pos = dataStart + buffer.getInt(HEADER_SIZE + 4 * mid);
+			int keyLength = buffer.getShort(pos) & MAX_LENGTH;
+			int c = compareKey(key, pos + 2, keyLength);
+			if (c > 0) {
+				low = mid + 1;
+			} else if (c < 0) {
+				high = mid - 1;
+			} else {
+				pos += 2 + keyLength;
+				return readString(pos + 2, buffer.getShort(pos) & MAX_LENGTH);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compare key with UTF-8 encoded key stored in table, by Unicode code points without decoding of stored key.
+	 */
+	private int compareKey(String key, int pos, int length) {
+		int end = pos + length;
+		int i = 0;
+		while (i < key.length() && pos < end) {
+			int c = key.codePointAt(i);
+			i += Character.charCount(c);
+			int b = buffer.get(pos) & 0xFF;
+			int stored;
+			if (b < 0x80) {
+				stored = b;
+				pos += 1;
+			} else if (b < 0xE0) {
+				stored = ((b & 0x1F) << 6) | (buffer.get(pos + 1) & 0x3F);
+				pos += 2;
+			} else if (b < 0xF0) {
+				stored = ((b & 0x0F) << 12) | ((buffer.get(pos + 1) & 0x3F) << 6) | (buffer.get(pos + 2) & 0x3F);
+				pos += 3;
+			} else {
+				stored = ((b & 0x07) << 18) | ((buffer.get(pos + 1) & 0x3F) << 12) | ((buffer.get(pos + 2) & 0x3F) << 6)
+						| (buffer.get(pos + 3) & 0x3F);
+				pos += 4;
+			}
+			if (c != stored)
+				return c < stored ? -1 : 1;
+		}
+		if (i < key.length())
+			return 1;
+		return pos < end ? -1 : 0;
+	}
+
+	private String readString(int pos, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = buffer.get(pos + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return number of entries in table
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return size of mapped table file in bytes
+	 */
+	public long getSizeInBytes() {
+		return buffer.capacity();
+	}
+
+	@Override
+	public String toString() {
+		return "MappedValueMappingTable [size=" + size + ", sizeInBytes=" + getSizeInBytes() + "]";
+	}
+
+}
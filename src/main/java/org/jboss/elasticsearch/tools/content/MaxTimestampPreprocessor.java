@@ -5,10 +5,10 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 
-import org.elasticsearch.common.joda.time.format.DateTimeFormatter;
-import org.elasticsearch.common.joda.time.format.ISODateTimeFormat;
 import org.elasticsearch.common.settings.SettingsException;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 
@@ -31,7 +31,9 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * <ul>
  * <li><code>source_field</code> - source field in data. Value is JSON array of Strings with ISO formated date time
  * value, eg. <code>2012-09-17T15:56:52.383+02:00</code>. Values with bad date format are ignored. If value is String
- * with valid date format it's copied to target field too.
+ * with valid date format it's copied to target field too. Values are parsed by {@link ISODateTimeParser}, UTC values
+ * with same layout as current maximum are compared lexicographically without parsing, so invalid value of such layout
+ * (eg. with month 13) which is lower than current maximum is ignored without warning.
  * <li><code>target_field</code> - target field in data to store biggest timestamp into. Value is String with ISO
  * formated date time value, eg. <code>2012-09-17T15:56:52.383+02:00</code>. <code>null</code> is given here if source
  * field is empty or do not contains any valid timestamp.
@@ -40,7 +42,8 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * @author Vlastimil Elias (velias at redhat dot com)
  * @see StructuredContentPreprocessorFactory
  */
-public class MaxTimestampPreprocessor extends StructuredContentPreprocessorBase {
+public class MaxTimestampPreprocessor extends StructuredContentPreprocessorBase implements
+		ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_TARGET_FIELD = "target_field";
 	protected static final String CFG_SOURCE_FIELD = "source_field";
@@ -48,6 +51,9 @@ public class MaxTimestampPreprocessor extends StructuredContentPreprocessorBase
 	protected String fieldTarget;
 	protected String fieldSource;
 
+	private FieldPath fieldSourcePath;
+	private FieldPath fieldTargetPath;
+
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
 		if (settings == null) {
@@ -57,6 +63,8 @@ public class MaxTimestampPreprocessor extends StructuredContentPreprocessorBase
 		fieldSource = XContentMapValues.nodeStringValue(settings.get(CFG_SOURCE_FIELD), null);
 		validateConfigurationStringNotEmpty(fieldSource, CFG_SOURCE_FIELD);
 		validateConfigurationStringNotEmpty(fieldTarget, CFG_TARGET_FIELD);
+		fieldSourcePath = FieldPath.compile(fieldSource);
+		fieldTargetPath = FieldPath.compile(fieldTarget);
 	}
 
 	@Override
@@ -67,25 +75,28 @@ public class MaxTimestampPreprocessor extends StructuredContentPreprocessorBase
 		String maxTimestamp = null;
 		long maxTimestampParsed = 0;
 
-		Object sourceData = XContentMapValues.extractValue(fieldSource, data);
+		Object sourceData = fieldSourcePath.get(data);
 		if (sourceData != null) {
-			DateTimeFormatter dateParser = ISODateTimeFormat.dateTimeParser();
 			if (sourceData instanceof Iterable) {
+				String maxTimestampTrimmed = null;
 				for (Object o : (Iterable<?>) sourceData) {
 					if (o instanceof String) {
-						try {
-							String timestamp = (String) o;
-							if (timestamp != null && !timestamp.trim().isEmpty()) {
-								long timestampParsed = dateParser.parseMillis(timestamp.trim());
-								if (timestampParsed > maxTimestampParsed) {
-									maxTimestampParsed = timestampParsed;
-									maxTimestamp = timestamp;
-								}
-							}
-						} catch (Exception e) {
+						String timestamp = ((String) o).trim();
+						if (timestamp.isEmpty())
+							continue;
+						// UTC timestamps with same layout as current max may be compared without parsing
+						if (maxTimestampTrimmed != null && ISODateTimeParser.isSameUtcLayout(timestamp, maxTimestampTrimmed)
+								&& timestamp.compareTo(maxTimestampTrimmed) <= 0)
+							continue;
+						long timestampParsed = ISODateTimeParser.parseMillis(timestamp);
+						if (timestampParsed == ISODateTimeParser.INVALID) {
 							String msg = "Value '" + o + "' in filed '" + fieldSource + "'is not valid timestamp";
 							addDataWarning(chainContext, msg);
 							logger.debug(msg);
+						} else if (timestampParsed > maxTimestampParsed) {
+							maxTimestampParsed = timestampParsed;
+							maxTimestamp = (String) o;
+							maxTimestampTrimmed = timestamp;
 						}
 					} else {
 						String msg = "Value for field '" + fieldSource + "' is not String but is "
@@ -95,18 +106,16 @@ public class MaxTimestampPreprocessor extends StructuredContentPreprocessorBase
 					}
 				}
 			} else if (sourceData instanceof String) {
-				try {
-					String timestamp = (String) sourceData;
-					if (timestamp != null && !timestamp.trim().isEmpty()) {
-						timestamp = timestamp.trim();
-						// parse it to check format
-						dateParser.parseMillis(timestamp);
+				String timestamp = ((String) sourceData).trim();
+				if (!timestamp.isEmpty()) {
+					// parse it to check format
+					if (ISODateTimeParser.parseMillis(timestamp) == ISODateTimeParser.INVALID) {
+						String msg = "Value '" + sourceData + "' in filed '" + fieldSource + "'is not valid timestamp";
+						addDataWarning(chainContext, msg);
+						logger.debug(msg);
+					} else {
 						maxTimestamp = timestamp;
 					}
-				} catch (Exception e) {
-					String msg = "Value '" + sourceData + "' in filed '" + fieldSource + "'is not valid timestamp";
-					addDataWarning(chainContext, msg);
-					logger.debug(msg);
 				}
 			} else {
 				String msg = "Value for field '" + fieldSource + "' is not Iterable nor String but is "
@@ -120,7 +129,7 @@ public class MaxTimestampPreprocessor extends StructuredContentPreprocessorBase
 
 		logger.debug("Max timestamp found in {} is {}", fieldSource, maxTimestamp);
 
-		StructureUtils.putValueIntoMapOfMaps(data, fieldTarget, maxTimestamp);
+		fieldTargetPath.put(data, maxTimestamp);
 		return data;
 	}
 
@@ -132,4 +141,14 @@ public class MaxTimestampPreprocessor extends StructuredContentPreprocessorBase
 		return fieldSource;
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		return Collections.singletonList(fieldSource);
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return Collections.singletonList(fieldTarget);
+	}
+
 }
@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+/**
+ * {@link LookupBackend} finding documents in List of documents kept in memory. Documents are taken from
+ * <code>lookup_documents</code> setting (List of Maps), or set by {@link #setDocuments(List)}, so it can be used as
+ * local stand-in of lookup index in tests also. Hash index is built for each search field when it is used first time.
+ * Values are matched exactly (compared as strings), each value of search field containing List is matched.
+ *
+ * @since 1.3.10
+ */
+public class MemoryLookupBackend extends LookupBackendBase {
+
+	protected static final String CFG_lookup_documents = "lookup_documents";
+
+	private volatile Documents documents = new Documents(Collections.<Map<String, Object>> emptyList());
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void init(String preprocessorName, Client client, Map<String, Object> settings, List<String> resultFields)
+			throws SettingsException {
+		super.init(preprocessorName, client, settings, resultFields);
+		Object docs = settings.get(CFG_lookup_documents);
+		if (docs != null) {
+			if (!(docs instanceof List))
+				throw new SettingsException("'settings/" + CFG_lookup_documents + "' configuration value for '" + name
+						+ "' preprocessor must be List of documents");
+			for (Object doc : (List<Object>) docs) {
+				if (!(doc instanceof Map))
+					throw new SettingsException("'settings/" + CFG_lookup_documents + "' configuration value for '" + name
+							+ "' preprocessor must be List of documents");
+			}
+			setDocuments((List<Map<String, Object>>) docs);
+		}
+	}
+
+	/**
+	 * Set documents to lookup values in.
+	 *
+	 * @param documents to set, must not be changed then
+	 */
+	public void setDocuments(List<Map<String, Object>> documents) {
+		this.documents = new Documents(documents != null ? documents : Collections.<Map<String, Object>> emptyList());
+	}
+
+	public List<Map<String, Object>> getDocuments() {
+		return documents.list;
+	}
+
+	@Override
+	public Map<Object, List<Map<String, Object>>> lookup(String searchField, List<Object> values) {
+		Map<String, List<Map<String, Object>>> index = documents.getIndex(searchField);
+		Map<Object, List<Map<String, Object>>> ret = new HashMap<Object, List<Map<String, Object>>>();
+		for (Object value : values) {
+			List<Map<String, Object>> docs = index.get(value.toString());
+			if (docs != null)
+				ret.put(value, docs);
+		}
+		return ret;
+	}
+
+	/**
+	 * Documents with hash indices built for them, replaced as a whole when documents are set.
+	 */
+	private class Documents {
+
+		final List<Map<String, Object>> list;
+
+		/**
+		 * Result fields of documents for each search field and its value (as String).
+		 */
+		final ConcurrentMap<String, Map<String, List<Map<String, Object>>>> indices =
+				new ConcurrentHashMap<String, Map<String, List<Map<String, Object>>>>();
+
+		Documents(List<Map<String, Object>> list) {
+			this.list = list;
+		}
+
+		Map<String, List<Map<String, Object>>> getIndex(String searchField) {
+			Map<String, List<Map<String, Object>>> ret = indices.get(searchField);
+			if (ret == null) {
+				ret = buildIndex(list, searchField);
+				indices.putIfAbsent(searchField, ret);
+			}
+			return ret;
+		}
+	}
+
+	private Map<String, List<Map<String, Object>>> buildIndex(List<Map<String, Object>> documents, String searchField) {
+		Map<String, List<Map<String, Object>>> ret = new HashMap<String, List<Map<String, Object>>>();
+		for (Map<String, Object> document : documents) {
+			Map<String, Object> resultFields = getResultFields(document);
+			Object value = XContentMapValues.extractValue(searchField, document);
+			if (value instanceof Collection) {
+				for (Object o : (Collection<?>) value) {
+					if (o != null)
+						addToIndex(ret, o.toString(), resultFields);
+				}
+			} else if (value != null) {
+				addToIndex(ret, value.toString(), resultFields);
+			}
+		}
+		return ret;
+	}
+
+	private static void addToIndex(Map<String, List<Map<String, Object>>> index, String key,
+			Map<String, Object> resultFields) {
+		List<Map<String, Object>> docs = index.get(key);
+		if (docs == null) {
+			docs = new ArrayList<Map<String, Object>>(1);
+			index.put(key, docs);
+		}
+		docs.add(resultFields);
+	}
+
+}
@@ -0,0 +1,903 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.util.concurrent.FutureCallback;
+import org.elasticsearch.common.util.concurrent.Futures;
+import org.elasticsearch.common.util.concurrent.ListenableFuture;
+import org.elasticsearch.common.util.concurrent.SettableFuture;
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+/**
+ * Chain of {@link StructuredContentPreprocessor}s used to preprocess data. Chain can be created from configuration
+ * using {@link StructuredContentPreprocessorFactory#createPreprocessorChain(List, Client)}, so you do not need to write
+ * loop over preprocessors in your application.
+ * <p>
+ * Chain can process one data item using {@link #preprocessData(Map, PreprocessChainContext)} or whole batch of data
+ * items using {@link #processBatch(List, List)}. Batch is processed by running each preprocessor over all items of
+ * batch before next preprocessor is used. Preprocessors implementing {@link StructuredContentBatchPreprocessor} get
+ * whole batch in one call, so they can do some work only once per batch.
+ * <p>
+ * Batch may be processed in parallel by more threads if {@link ExecutorService} is set over
+ * {@link #setExecutor(ExecutorService)}. Batch is split into chunks of independent data items then, and each chunk is
+ * processed by whole chain in one task. Order of data items in result is kept. Preprocessors implementing
+ * {@link ThreadSafePreprocessor} are shared by all threads. Copies of other preprocessors are created from their
+ * configuration if chain is created by {@link StructuredContentPreprocessorFactory}, or calls of them are serialized if
+ * configuration is not known. Copies are kept by chain and reused by any thread, new one is created only if more
+ * threads process data concurrently than copies exist. Note that <code>init</code> of such preprocessor (with its side
+ * effects, eg. loading of files) runs for each copy then.
+ * <p>
+ * Data item may be also processed without blocking of calling thread by preprocessors implementing
+ * {@link AsyncStructuredContentPreprocessor} (eg. Elasticsearch lookups) using
+ * {@link #preprocessDataAsync(Map, PreprocessChainContext)}, so calling thread can continue with other data items while
+ * remote requests are in flight. Preprocessors following the asynchronous one are run by executor then, never by thread
+ * which completed the asynchronous preprocessing (eg. Elasticsearch client thread).
+ * <p>
+ * Document may be also processed in streaming mode using
+ * {@link #preprocessData(XContentParser, XContentBuilder, PreprocessChainContext)}. Only fields accessed by
+ * preprocessors are materialized into data structure then, other fields are copied from parser to builder. Fields are
+ * declared by preprocessors implementing {@link FieldAccessAwarePreprocessor}, whole document is materialized if some
+ * preprocessor in chain doesn't declare them.
+ * <p>
+ * Preprocessor is invoked only for data items matching its {@link PreprocessorCondition} if it is configured in
+ * <code>when</code> element of preprocessor configuration. Numbers of skipped data items are available over
+ * {@link #getSkippedCounts()}.
+ * <p>
+ * Preprocessors wrapped by {@link InstrumentedPreprocessor} record their metrics, which are available over
+ * {@link #getMetrics()} and may be registered into JMX over {@link #registerMetricsMBeans(String)}.
+ * <p>
+ * Chain must be closed by {@link #close()} when it is not used anymore, so preprocessors holding resources (eg.
+ * database connections) release them.
+ *
+ * @see StructuredContentPreprocessorFactory#createPreprocessorChain(List, Client)
+ * @since 1.3.10
+ */
+public class PreprocessorChain implements Closeable {
+
+	protected final List<StructuredContentPreprocessor> preprocessors;
+
+	/**
+	 * Preprocessors from {@link #preprocessors} list resolved into array, for fast iteration.
+	 */
+	protected final StructuredContentPreprocessor[] stages;
+
+	/**
+	 * Preprocessors from {@link #stages} array which implement {@link StructuredContentBatchPreprocessor}, same index.
+	 * <code>null</code> for others.
+	 */
+	protected final StructuredContentBatchPreprocessor[] batchStages;
+
+	/**
+	 * Preprocessors from {@link #stages} array which implement {@link AsyncStructuredContentPreprocessor} and
+	 * {@link ThreadSafePreprocessor}, same index. <code>null</code> for others, they are used synchronously.
+	 */
+	protected final AsyncStructuredContentPreprocessor[] asyncStages;
+
+	/**
+	 * Configurations of preprocessors from {@link #stages} array, same index. <code>null</code> if not known.
+	 */
+	protected final List<Map<String, Object>> preprocessorConfigs;
+
+	/**
+	 * Conditions of preprocessors from {@link #stages} array compiled from their configurations, same index.
+	 * <code>null</code> for preprocessors without condition, whole array is <code>null</code> if there is no condition
+	 * in chain.
+	 */
+	protected final PreprocessorCondition[] conditions;
+
+	/**
+	 * Counters of data items skipped due to {@link #conditions}, same index. Shared with chains used by threads of
+	 * {@link #executor}.
+	 */
+	private final LongAdder[] skippedCounters;
+
+	/**
+	 * ES client used to create preprocessors from {@link #preprocessorConfigs}.
+	 */
+	protected final Client client;
+
+	/**
+	 * Default value for {@link #setMinChunkSize(int)}.
+	 */
+	public static final int DEFAULT_MIN_CHUNK_SIZE = 10;
+
+	protected ExecutorService executor;
+
+	protected int minChunkSize = DEFAULT_MIN_CHUNK_SIZE;
+
+	/**
+	 * Chains with copies of stages not used by any thread now, see {@link #borrowThreadStages()}.
+	 */
+	private final Queue<PreprocessorChain> idleThreadStages = new ConcurrentLinkedQueue<PreprocessorChain>();
+
+	private final List<ObjectName> registeredMBeans = new ArrayList<ObjectName>();
+
+	/**
+	 * Engine of streaming mode, created lazily.
+	 */
+	private volatile StreamingDocumentProcessor streamingProcessor;
+
+	/**
+	 * Create chain.
+	 *
+	 * @param preprocessors to be used in chain, in order of use. Can be null.
+	 */
+	public PreprocessorChain(List<StructuredContentPreprocessor> preprocessors) {
+		this(preprocessors, null, null);
+	}
+
+	/**
+	 * Create chain with known configurations of preprocessors, so preprocessors not implementing
+	 * {@link ThreadSafePreprocessor} may be created for each thread in parallel mode.
+	 *
+	 * @param preprocessors to be used in chain, in order of use. Can be null.
+	 * @param preprocessorConfigs configurations the <code>preprocessors</code> were created from over
+	 *          {@link StructuredContentPreprocessorFactory#createPreprocessor(Map, Client)}, in same order. Can be null.
+	 * @param client ES client the <code>preprocessors</code> were created with
+	 * @throws IllegalArgumentException if size of <code>preprocessorConfigs</code> doesn't match size of
+	 *           <code>preprocessors</code>, or if condition in <code>preprocessorConfigs</code> is invalid
+	 */
+	public PreprocessorChain(List<StructuredContentPreprocessor> preprocessors,
+			List<Map<String, Object>> preprocessorConfigs, Client client) throws IllegalArgumentException {
+		if (preprocessors == null)
+			preprocessors = Collections.emptyList();
+		if (preprocessorConfigs != null && preprocessorConfigs.size() != preprocessors.size()) {
+			throw new IllegalArgumentException("preprocessorConfigs must have same size as preprocessors");
+		}
+		this.preprocessors = Collections.unmodifiableList(new ArrayList<StructuredContentPreprocessor>(preprocessors));
+		this.preprocessorConfigs = preprocessorConfigs != null ? new ArrayList<Map<String, Object>>(preprocessorConfigs)
+				: null;
+		this.client = client;
+		stages = this.preprocessors.toArray(new StructuredContentPreprocessor[this.preprocessors.size()]);
+		batchStages = resolveBatchStages(stages);
+		asyncStages = resolveAsyncStages(stages);
+		conditions = compileConditions(stages, this.preprocessorConfigs);
+		if (conditions != null) {
+			skippedCounters = new LongAdder[conditions.length];
+			for (int i = 0; i < conditions.length; i++) {
+				if (conditions[i] != null)
+					skippedCounters[i] = new LongAdder();
+			}
+		} else {
+			skippedCounters = null;
+		}
+	}
+
+	private static AsyncStructuredContentPreprocessor[] resolveAsyncStages(StructuredContentPreprocessor[] stages) {
+		AsyncStructuredContentPreprocessor[] ret = new AsyncStructuredContentPreprocessor[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			StructuredContentPreprocessor p = stages[i];
+			if (p instanceof InstrumentedPreprocessor)
+				p = ((InstrumentedPreprocessor) p).getDelegate();
+			// shared by all data items in flight, so must be thread safe
+			if (p instanceof AsyncStructuredContentPreprocessor && p instanceof ThreadSafePreprocessor
+					&& stages[i] instanceof AsyncStructuredContentPreprocessor)
+				ret[i] = (AsyncStructuredContentPreprocessor) stages[i];
+		}
+		return ret;
+	}
+
+	private static PreprocessorCondition[] compileConditions(StructuredContentPreprocessor[] stages,
+			List<Map<String, Object>> preprocessorConfigs) throws IllegalArgumentException {
+		if (preprocessorConfigs == null)
+			return null;
+		PreprocessorCondition[] ret = null;
+		for (int i = 0; i < stages.length; i++) {
+			Map<String, Object> config = preprocessorConfigs.get(i);
+			if (config == null || config.get(StructuredContentPreprocessorFactory.CFG_WHEN) == null)
+				continue;
+			if (ret == null)
+				ret = new PreprocessorCondition[stages.length];
+			try {
+				ret[i] = PreprocessorCondition.compile(config.get(StructuredContentPreprocessorFactory.CFG_WHEN));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException(e.getMessage() + " for preprocessor " + stages[i].getName(), e);
+			}
+		}
+		return ret;
+	}
+
+	private static StructuredContentBatchPreprocessor[] resolveBatchStages(StructuredContentPreprocessor[] stages) {
+		StructuredContentBatchPreprocessor[] ret = new StructuredContentBatchPreprocessor[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			if (stages[i] instanceof StructuredContentBatchPreprocessor)
+				ret[i] = (StructuredContentBatchPreprocessor) stages[i];
+		}
+		return ret;
+	}
+
+	/**
+	 * Create chain with copies of stages, used by one thread at a time.
+	 *
+	 * @param parent chain
+	 */
+	private PreprocessorChain(PreprocessorChain parent) {
+		this.preprocessors = parent.preprocessors;
+		this.preprocessorConfigs = null;
+		this.client = null;
+		this.conditions = parent.conditions;
+		this.skippedCounters = parent.skippedCounters;
+		stages = new StructuredContentPreprocessor[parent.stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			StructuredContentPreprocessor p = parent.stages[i];
+			PreprocessorMetrics metrics = null;
+			if (p instanceof InstrumentedPreprocessor) {
+				metrics = ((InstrumentedPreprocessor) p).getMetrics();
+				p = ((InstrumentedPreprocessor) p).getDelegate();
+			}
+			if (p instanceof ThreadSafePreprocessor) {
+				stages[i] = parent.stages[i];
+			} else if (parent.preprocessorConfigs != null) {
+				p = StructuredContentPreprocessorFactory.createPreprocessor(parent.preprocessorConfigs.get(i), parent.client);
+				stages[i] = metrics != null ? new InstrumentedPreprocessor(p, metrics) : p;
+			} else {
+				stages[i] = new SynchronizedPreprocessor(parent.stages[i]);
+			}
+		}
+		batchStages = resolveBatchStages(stages);
+		asyncStages = resolveAsyncStages(stages);
+	}
+
+	/**
+	 * Preprocess one data item by all preprocessors in chain. {@link InvalidDataException} thrown by some preprocessor
+	 * is propagated to the caller.
+	 *
+	 * @param data to be preprocessed - may be changed during call!
+	 * @param chainContext context of data preprocessing, may be null.
+	 * @return preprocessed data - typically same object as <code>data</code> parameter, but with changed structure.
+	 */
+	public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext chainContext) {
+		for (int s = 0; s < stages.length; s++) {
+			if (conditions != null && conditions[s] != null && data != null && !conditions[s].matches(data)) {
+				recordSkipped(s, 1);
+				continue;
+			}
+			data = stages[s].preprocessData(data, chainContext);
+		}
+		return data;
+	}
+
+	/**
+	 * Preprocess one data item by all preprocessors in chain without blocking of calling thread by preprocessors
+	 * implementing {@link AsyncStructuredContentPreprocessor} and {@link ThreadSafePreprocessor}. Preprocessors are
+	 * invoked in the same order as by {@link #preprocessData(Map, PreprocessChainContext)}, but preprocessors following
+	 * the asynchronous one are run by executor set over {@link #setExecutor(ExecutorService)}, or by shared pool of
+	 * daemon threads if it is not set. Copies of preprocessors not implementing {@link ThreadSafePreprocessor} are used
+	 * then, same as in parallel batch processing, or their calls are serialized and so synchronous. Calling thread
+	 * returns when first asynchronous preprocessor is started, so it can continue with other data items while eg.
+	 * lookups are in flight.
+	 *
+	 * @param data to be preprocessed - may be changed during processing, so must not be accessed until returned future
+	 *          is done!
+	 * @param chainContext context of data preprocessing, may be null. It may be called by more threads, but not
+	 *          concurrently.
+	 * @return future with preprocessed data. It fails with {@link InvalidDataException} thrown by some preprocessor.
+	 * @since 1.3.10
+	 * @see #preprocessDataAsync(Map, PreprocessChainContext, Executor)
+	 */
+	public ListenableFuture<Map<String, Object>> preprocessDataAsync(Map<String, Object> data,
+			PreprocessChainContext chainContext) {
+		return preprocessDataAsync(data, chainContext, null);
+	}
+
+	/**
+	 * Preprocess one data item by all preprocessors in chain without blocking of calling thread, same as
+	 * {@link #preprocessDataAsync(Map, PreprocessChainContext)}, but preprocessors following the asynchronous one are
+	 * run by given executor.
+	 *
+	 * @param data to be preprocessed - may be changed during processing, so must not be accessed until returned future
+	 *          is done!
+	 * @param chainContext context of data preprocessing, may be null. It may be called by more threads, but not
+	 *          concurrently.
+	 * @param executor to run preprocessors following the asynchronous one. Executor of chain or shared pool of daemon
+	 *          threads is used if <code>null</code>.
+	 * @return future with preprocessed data. It fails with {@link InvalidDataException} thrown by some preprocessor, or
+	 *         with {@link RejectedExecutionException} if executor rejects the continuation.
+	 * @since 1.3.10
+	 */
+	public ListenableFuture<Map<String, Object>> preprocessDataAsync(Map<String, Object> data,
+			PreprocessChainContext chainContext, Executor executor) {
+		if (executor == null)
+			executor = this.executor != null ? this.executor : DefaultAsyncExecutorHolder.EXECUTOR;
+		SettableFuture<Map<String, Object>> ret = SettableFuture.create();
+		runStagesAsync(0, data, chainContext, ret, executor);
+		return ret;
+	}
+
+	/**
+	 * Run stages over data item from given index until asynchronous stage is found, which continues by this method run
+	 * by <code>executor</code> when done.
+	 */
+	private void runStagesAsync(int from, Map<String, Object> data, final PreprocessChainContext chainContext,
+			final SettableFuture<Map<String, Object>> ret, final Executor executor) {
+		PreprocessorChain local = null;
+		try {
+			for (int s = from; s < stages.length; s++) {
+				if (conditions != null && conditions[s] != null && data != null && !conditions[s].matches(data)) {
+					recordSkipped(s, 1);
+					continue;
+				}
+				if (asyncStages[s] != null && data != null) {
+					// copies are not needed while waiting
+					if (local != null) {
+						returnThreadStages(local);
+						local = null;
+					}
+					final int next = s + 1;
+					Futures.addCallback(asyncStages[s].preprocessDataAsync(data, chainContext),
+							new FutureCallback<Map<String, Object>>() {
+								@Override
+								public void onSuccess(final Map<String, Object> result) {
+									// never continue by thread which completed the future, it may be eg. ES client thread
+									try {
+										executor.execute(new Runnable() {
+											@Override
+											public void run() {
+												runStagesAsync(next, result, chainContext, ret, executor);
+											}
+										});
+									} catch (RejectedExecutionException e) {
+										ret.setException(e);
+									}
+								}
+
+								@Override
+								public void onFailure(Throwable e) {
+									ret.setException(e);
+								}
+							});
+					return;
+				}
+				if (local == null)
+					local = borrowThreadStages();
+				data = local.stages[s].preprocessData(data, chainContext);
+			}
+			ret.set(data);
+		} catch (Throwable e) {
+			ret.setException(e);
+		} finally {
+			if (local != null)
+				returnThreadStages(local);
+		}
+	}
+
+	/**
+	 * Holder of shared executor used for {@link PreprocessorChain#preprocessDataAsync(Map, PreprocessChainContext)} if
+	 * no other is available. Created lazily, threads are daemons and finish when idle.
+	 */
+	private static final class DefaultAsyncExecutorHolder {
+
+		static final Executor EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "preprocessor-chain-async-" + counter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	private void recordSkipped(int stage, int count) {
+		skippedCounters[stage].add(count);
+		if (stages[stage] instanceof InstrumentedPreprocessor)
+			((InstrumentedPreprocessor) stages[stage]).getMetrics().recordSkipped(count);
+	}
+
+	/**
+	 * Preprocess one document by all preprocessors in chain in streaming mode. Document is read from parser and
+	 * preprocessed document is written into builder. Only fields from {@link #getAccessedFields()} are materialized
+	 * into data structure passed to preprocessors, other fields are copied from parser to builder without
+	 * materialization.
+	 * Copied fields are written before materialized ones, so order of fields may differ from input document.
+	 * <p>
+	 * {@link InvalidDataException} thrown by some preprocessor is propagated to the caller, content of builder must be
+	 * discarded then.
+	 *
+	 * @param parser to read document from, positioned before or at start of document object. It is positioned at end of
+	 *          document object after call.
+	 * @param builder to write preprocessed document into
+	 * @param chainContext context of data preprocessing, may be null.
+	 * @return false if document was filtered out by some preprocessor (<code>null</code> returned), content of builder
+	 *         must be discarded then
+	 * @throws IOException if document reading or writing fails
+	 */
+	public boolean preprocessData(XContentParser parser, XContentBuilder builder, PreprocessChainContext chainContext)
+			throws IOException {
+		StreamingDocumentProcessor sp = streamingProcessor;
+		if (sp == null)
+			streamingProcessor = sp = new StreamingDocumentProcessor(getAccessedFields());
+		return sp.process(parser, builder, this, chainContext);
+	}
+
+	/**
+	 * Get fields read or written by preprocessors in chain, as declared by preprocessors implementing
+	 * {@link FieldAccessAwarePreprocessor}, and fields checked by their conditions.
+	 *
+	 * @return paths of accessed fields in dot notation, <code>null</code> if some preprocessor may access any field.
+	 */
+	public Set<String> getAccessedFields() {
+		Set<String> ret = new LinkedHashSet<String>();
+		for (int i = 0; i < stages.length; i++) {
+			StructuredContentPreprocessor p = stages[i];
+			if (conditions != null && conditions[i] != null)
+				ret.addAll(conditions[i].getFields());
+			if (p instanceof InstrumentedPreprocessor)
+				p = ((InstrumentedPreprocessor) p).getDelegate();
+			if (!(p instanceof FieldAccessAwarePreprocessor))
+				return null;
+			Collection<String> read = ((FieldAccessAwarePreprocessor) p).getReadFields();
+			Collection<String> written = ((FieldAccessAwarePreprocessor) p).getWrittenFields();
+			if (read == null || written == null)
+				return null;
+			ret.addAll(read);
+			ret.addAll(written);
+		}
+		return ret;
+	}
+
+	/**
+	 * Create optimized chain with same preprocessors. Fields read and written by preprocessors, as declared by
+	 * {@link FieldAccessAwarePreprocessor} implementations, are used to:
+	 * <ul>
+	 * <li>drop preprocessors writing only fields which are removed by later {@link RemoveMultipleFieldsPreprocessor}
+	 * without being read before (dead stores)
+	 * <li>move {@link RequiredValidatorPreprocessor}s ahead of preceding preprocessors which don't write validated
+	 * field, so invalid data are rejected before expensive preprocessing
+	 * <li>merge adjacent preprocessors with same "source_bases" into {@link SourceBasesGroupPreprocessor}, so source
+	 * bases are traversed only once. Preprocessors wrapped by {@link InstrumentedPreprocessor} are not merged to keep
+	 * their metrics.
+	 * </ul>
+	 * Preprocessors which don't declare fields are kept on their positions and nothing is moved over them. Data warnings
+	 * from dropped preprocessors, and from preprocessors after failed validation, are not reported anymore.
+	 *
+	 * @return new optimized chain with same executor and minimal chunk size
+	 * @since 1.3.10
+	 */
+	public PreprocessorChain optimize() {
+		PreprocessorChainOptimizer optimizer = new PreprocessorChainOptimizer(preprocessors, preprocessorConfigs,
+				conditions);
+		optimizer.optimize();
+		PreprocessorChain ret = new PreprocessorChain(optimizer.getPreprocessors(), optimizer.getPreprocessorConfigs(),
+				client);
+		ret.executor = executor;
+		ret.minChunkSize = minChunkSize;
+		return ret;
+	}
+
+	/**
+	 * Preprocess batch of data items without chain contexts.
+	 *
+	 * @param batch to be preprocessed
+	 * @return preprocessed data
+	 * @see #processBatch(List, List)
+	 */
+	public List<Map<String, Object>> processBatch(List<Map<String, Object>> batch) {
+		return processBatch(batch, null);
+	}
+
+	/**
+	 * Preprocess batch of data items by all preprocessors in chain. Each preprocessor is run over all data items of the
+	 * batch (or chunk of batch in parallel mode) before next preprocessor is used. Data item rejected by some preprocessor with {@link InvalidDataException}
+	 * is not processed by next preprocessors, it is replaced by <code>null</code> in returned list and exception message
+	 * is written into the chain context of this item as warning from the rejecting preprocessor.
+	 *
+	 * @param batch data items to be preprocessed - items may be changed during call! List itself is not changed.
+	 * @param chainContexts list of chain contexts for data items, with same size as <code>batch</code>. May be
+	 *          <code>null</code> or may contain <code>null</code> items.
+	 * @return new list with preprocessed data items in same order as in <code>batch</code>, <code>null</code> for
+	 *         rejected items.
+	 * @throws IllegalArgumentException if size of <code>chainContexts</code> doesn't match size of <code>batch</code>
+	 */
+	public List<Map<String, Object>> processBatch(List<Map<String, Object>> batch,
+			List<? extends PreprocessChainContext> chainContexts) throws IllegalArgumentException {
+		if (batch == null)
+			return null;
+		if (chainContexts != null && chainContexts.size() != batch.size()) {
+			throw new IllegalArgumentException("chainContexts must have same size as batch");
+		}
+		List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>(batch);
+		ExecutorService executor = this.executor;
+		int chunkSize = executor != null ? getChunkSize(executor, ret.size()) : ret.size();
+		if (chunkSize >= ret.size()) {
+			return runStages(ret, chainContexts);
+		}
+
+		List<Future<List<Map<String, Object>>>> futures = new ArrayList<Future<List<Map<String, Object>>>>();
+		for (int from = 0; from < ret.size(); from += chunkSize) {
+			int to = Math.min(from + chunkSize, ret.size());
+			final List<Map<String, Object>> chunk = new ArrayList<Map<String, Object>>(ret.subList(from, to));
+			final List<? extends PreprocessChainContext> chunkContexts = chainContexts != null ? chainContexts.subList(
+					from, to) : null;
+			futures.add(executor.submit(new Callable<List<Map<String, Object>>>() {
+				@Override
+				public List<Map<String, Object>> call() throws Exception {
+					PreprocessorChain local = borrowThreadStages();
+					try {
+						return local.runStages(chunk, chunkContexts);
+					} finally {
+						returnThreadStages(local);
+					}
+				}
+			}));
+		}
+		int i = 0;
+		for (Future<List<Map<String, Object>>> future : futures) {
+			for (Map<String, Object> data : waitForChunk(future)) {
+				ret.set(i++, data);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Run all stages over batch.
+	 *
+	 * @param batch to run stages over, is changed during call
+	 * @param chainContexts for batch, can be null
+	 * @return preprocessed batch
+	 */
+	protected List<Map<String, Object>> runStages(List<Map<String, Object>> batch,
+			List<? extends PreprocessChainContext> chainContexts) {
+		for (int s = 0; s < stages.length; s++) {
+			if (conditions != null && conditions[s] != null)
+				batch = runConditionalStage(s, batch, chainContexts);
+			else
+				batch = runStage(s, batch, chainContexts);
+		}
+		return batch;
+	}
+
+	/**
+	 * Run stage with condition over data items of batch matching the condition only.
+	 */
+	private List<Map<String, Object>> runConditionalStage(int s, List<Map<String, Object>> batch,
+			List<? extends PreprocessChainContext> chainContexts) {
+		List<Map<String, Object>> selected = new ArrayList<Map<String, Object>>(batch.size());
+		List<PreprocessChainContext> selectedContexts = chainContexts != null ? new ArrayList<PreprocessChainContext>(
+				batch.size()) : null;
+		int[] selectedIndexes = new int[batch.size()];
+		int skipped = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			Map<String, Object> data = batch.get(i);
+			if (data == null)
+				continue;
+			if (conditions[s].matches(data)) {
+				selectedIndexes[selected.size()] = i;
+				selected.add(data);
+				if (selectedContexts != null)
+					selectedContexts.add(StructuredContentPreprocessorBase.getChainContext(chainContexts, i));
+			} else {
+				skipped++;
+			}
+		}
+		if (skipped == 0)
+			return runStage(s, batch, chainContexts);
+		recordSkipped(s, skipped);
+		if (!selected.isEmpty()) {
+			selected = runStage(s, selected, selectedContexts);
+			for (int j = 0; j < selected.size(); j++) {
+				batch.set(selectedIndexes[j], selected.get(j));
+			}
+		}
+		return batch;
+	}
+
+	/**
+	 * Run one stage over batch.
+	 *
+	 * @param s index of stage
+	 * @param batch to run stage over, is changed during call
+	 * @param chainContexts for batch, can be null
+	 * @return preprocessed batch
+	 */
+	private List<Map<String, Object>> runStage(int s, List<Map<String, Object>> batch,
+			List<? extends PreprocessChainContext> chainContexts) {
+		if (batchStages[s] != null) {
+			List<Map<String, Object>> r = batchStages[s].preprocessBatch(batch, chainContexts);
+			if (r != batch) {
+				if (r == null || r.size() != batch.size())
+					throw new IllegalStateException("Preprocessor " + stages[s].getName()
+							+ " returned batch with different size");
+				batch = r;
+			}
+		} else {
+			StructuredContentPreprocessor preprocessor = stages[s];
+			for (int i = 0; i < batch.size(); i++) {
+				Map<String, Object> data = batch.get(i);
+				if (data != null) {
+					PreprocessChainContext chainContext = StructuredContentPreprocessorBase
+							.getChainContext(chainContexts, i);
+					try {
+						batch.set(i, preprocessor.preprocessData(data, chainContext));
+					} catch (InvalidDataException e) {
+						batch.set(i, null);
+						if (chainContext != null)
+							chainContext.addDataWarning(preprocessor.getName(), String.valueOf(e.getMessage()));
+					}
+				}
+			}
+		}
+		return batch;
+	}
+
+	/**
+	 * Get chain with copies of stages for exclusive use by calling thread. It must be returned by
+	 * {@link #returnThreadStages(PreprocessorChain)} when thread is done with it.
+	 */
+	private PreprocessorChain borrowThreadStages() {
+		PreprocessorChain ret = idleThreadStages.poll();
+		return ret != null ? ret : new PreprocessorChain(this);
+	}
+
+	private void returnThreadStages(PreprocessorChain local) {
+		idleThreadStages.offer(local);
+	}
+
+	/**
+	 * Close preprocessors implementing {@link Closeable}, including their copies created for threads in parallel mode.
+	 * Call it when no data are processed by chain. Failure of one preprocessor doesn't prevent others from being closed.
+	 *
+	 * @throws IOException first failure thrown by preprocessor
+	 */
+	@Override
+	public void close() throws IOException {
+		IOException failure = closeStages(null);
+		PreprocessorChain local;
+		while ((local = idleThreadStages.poll()) != null) {
+			IOException e = local.closeStages(stages);
+			if (failure == null)
+				failure = e;
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Close stages implementing {@link Closeable}.
+	 *
+	 * @param sharedStages stages of parent chain, they are not closed by chain with copies. <code>null</code> for parent
+	 *          chain.
+	 * @return first failure, <code>null</code> if all stages are closed
+	 */
+	private IOException closeStages(StructuredContentPreprocessor[] sharedStages) {
+		IOException failure = null;
+		for (int i = 0; i < stages.length; i++) {
+			if (sharedStages != null && stages[i] == sharedStages[i])
+				continue;
+			StructuredContentPreprocessor p = stages[i];
+			if (p instanceof InstrumentedPreprocessor)
+				p = ((InstrumentedPreprocessor) p).getDelegate();
+			if (p instanceof Closeable) {
+				try {
+					((Closeable) p).close();
+				} catch (IOException e) {
+					if (failure == null)
+						failure = e;
+				}
+			}
+		}
+		return failure;
+	}
+
+	private int getChunkSize(ExecutorService executor, int batchSize) {
+		int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism() : Runtime
+				.getRuntime().availableProcessors();
+		int chunkSize = (batchSize + parallelism - 1) / parallelism;
+		return Math.max(chunkSize, minChunkSize);
+	}
+
+	private static List<Map<String, Object>> waitForChunk(Future<List<Map<String, Object>>> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted during parallel batch processing", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException("Parallel batch processing failed: " + cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Set executor used to process batches in parallel by {@link #processBatch(List, List)}. It also runs preprocessors
+	 * following the asynchronous one in {@link #preprocessDataAsync(Map, PreprocessChainContext)}.
+	 *
+	 * @param executor to be used, <code>null</code> means batches are processed by calling thread only.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Get executor used to process batches in parallel.
+	 *
+	 * @return executor or <code>null</code> if parallel processing is not used
+	 */
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Set minimal number of data items processed in one task in parallel mode. Batches smaller than this number are
+	 * processed by calling thread. Default is {@value #DEFAULT_MIN_CHUNK_SIZE}.
+	 *
+	 * @param minChunkSize to set, must be positive
+	 * @throws IllegalArgumentException if value is not positive
+	 */
+	public void setMinChunkSize(int minChunkSize) throws IllegalArgumentException {
+		if (minChunkSize < 1)
+			throw new IllegalArgumentException("minChunkSize must be positive");
+		this.minChunkSize = minChunkSize;
+	}
+
+	public int getMinChunkSize() {
+		return minChunkSize;
+	}
+
+	/**
+	 * Get preprocessors used in this chain.
+	 *
+	 * @return unmodifiable list of preprocessors in order of use, never null
+	 */
+	public List<StructuredContentPreprocessor> getPreprocessors() {
+		return preprocessors;
+	}
+
+	/**
+	 * Get metrics of preprocessors wrapped by {@link InstrumentedPreprocessor} in this chain.
+	 *
+	 * @return map with preprocessor name as key and metrics as value, in order of use. Never null.
+	 * @see StructuredContentPreprocessorFactory#createPreprocessorChain(List, Client, boolean)
+	 */
+	public Map<String, PreprocessorMetrics> getMetrics() {
+		Map<String, PreprocessorMetrics> ret = new LinkedHashMap<String, PreprocessorMetrics>();
+		for (StructuredContentPreprocessor p : stages) {
+			if (p instanceof InstrumentedPreprocessor) {
+				PreprocessorMetrics metrics = ((InstrumentedPreprocessor) p).getMetrics();
+				ret.put(metrics.getName(), metrics);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Get numbers of data items preprocessors in this chain were not invoked for because their condition didn't match.
+	 *
+	 * @return map with preprocessor name as key and number of skipped data items as value, in order of use. Only
+	 *         preprocessors with condition are present. Never null.
+	 * @see PreprocessorCondition
+	 */
+	public Map<String, Long> getSkippedCounts() {
+		Map<String, Long> ret = new LinkedHashMap<String, Long>();
+		if (conditions == null)
+			return ret;
+		for (int i = 0; i < stages.length; i++) {
+			if (conditions[i] != null) {
+				Long count = ret.get(stages[i].getName());
+				ret.put(stages[i].getName(), (count != null ? count : 0) + skippedCounters[i].sum());
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Register metrics from {@link #getMetrics()} into platform MBean server. Object names are
+	 * <code>jmxDomain:type=PreprocessorMetrics,name=preprocessor name</code>.
+	 *
+	 * @param jmxDomain domain of object names
+	 * @return registered object names
+	 * @throws IllegalStateException if registration fails, eg. because metrics with same object name are registered
+	 *           already
+	 * @see #unregisterMetricsMBeans()
+	 */
+	public synchronized List<ObjectName> registerMetricsMBeans(String jmxDomain) throws IllegalStateException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		List<ObjectName> ret = new ArrayList<ObjectName>();
+		try {
+			for (PreprocessorMetrics metrics : getMetrics().values()) {
+				ObjectName on = new ObjectName(jmxDomain + ":type=PreprocessorMetrics,name="
+						+ ObjectName.quote(metrics.getName()));
+				server.registerMBean(metrics, on);
+				ret.add(on);
+				registeredMBeans.add(on);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException("Preprocessor metrics MBean registration failed: " + e.getMessage(), e);
+		}
+		return ret;
+	}
+
+	/**
+	 * Unregister all metrics registered by {@link #registerMetricsMBeans(String)} from platform MBean server.
+	 */
+	public synchronized void unregisterMetricsMBeans() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName on : registeredMBeans) {
+			try {
+				server.unregisterMBean(on);
+			} catch (JMException e) {
+				// already unregistered
+			}
+		}
+		registeredMBeans.clear();
+	}
+
+	/**
+	 * Wrapper used in parallel mode to serialize calls of preprocessor which is not {@link ThreadSafePreprocessor} and
+	 * can't be created for each thread.
+	 */
+	protected static final class SynchronizedPreprocessor implements StructuredContentPreprocessor {
+
+		private final StructuredContentPreprocessor delegate;
+
+		protected SynchronizedPreprocessor(StructuredContentPreprocessor delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void init(String name, Client client, Map<String, Object> settings) {
+			synchronized (delegate) {
+				delegate.init(name, client, settings);
+			}
+		}
+
+		@Override
+		public String getName() {
+			return delegate.getName();
+		}
+
+		@Override
+		public Map<String, Object> preprocessData(Map<String, Object> data) {
+			return preprocessData(data, null);
+		}
+
+		@Override
+		public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext chainContext) {
+			synchronized (delegate) {
+				return delegate.preprocessData(data, chainContext);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,262 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static analyzer and optimizer of preprocessors in chain based on fields they read and write, see
+ * {@link PreprocessorChain#optimize()} for description of optimizations.
+ *
+ * @since 1.3.10
+ */
+final class PreprocessorChainOptimizer {
+
+	private final List<StructuredContentPreprocessor> stages;
+
+	/**
+	 * Configurations of {@link #stages}, same index. <code>null</code> if not known.
+	 */
+	private final List<Map<String, Object>> configs;
+
+	/**
+	 * Conditions of {@link #stages}, same index. <code>null</code> for preprocessors without condition.
+	 */
+	private final List<PreprocessorCondition> conditions;
+
+	/**
+	 * @param preprocessors to optimize
+	 * @param configs of preprocessors, same size. Can be null.
+	 * @param conditions of preprocessors compiled from configs, same size. Can be null if there is no condition.
+	 */
+	PreprocessorChainOptimizer(List<StructuredContentPreprocessor> preprocessors, List<Map<String, Object>> configs,
+			PreprocessorCondition[] conditions) {
+		this.stages = new ArrayList<StructuredContentPreprocessor>(preprocessors);
+		this.configs = configs != null ? new ArrayList<Map<String, Object>>(configs) : null;
+		this.conditions = conditions != null ? new ArrayList<PreprocessorCondition>(Arrays.asList(conditions))
+				: new ArrayList<PreprocessorCondition>(Arrays.asList(new PreprocessorCondition[stages.size()]));
+	}
+
+	/**
+	 * Run all optimizations.
+	 */
+	void optimize() {
+		removeDeadStores();
+		hoistValidators();
+		mergeSourceBasesTraversals();
+	}
+
+	/**
+	 * @return optimized preprocessors
+	 */
+	List<StructuredContentPreprocessor> getPreprocessors() {
+		return stages;
+	}
+
+	/**
+	 * @return configurations of optimized preprocessors, <code>null</code> for merged ones. <code>null</code> if
+	 *         configurations are not known.
+	 */
+	List<Map<String, Object>> getPreprocessorConfigs() {
+		return configs;
+	}
+
+	/**
+	 * Drop preprocessors which write only fields removed by later {@link RemoveMultipleFieldsPreprocessor} without being
+	 * read before. Remover with condition is not taken into account as it may not be invoked.
+	 */
+	void removeDeadStores() {
+		for (int i = 0; i < stages.size();) {
+			if (isDeadStore(i))
+				removeStage(i);
+			else
+				i++;
+		}
+	}
+
+	private boolean isDeadStore(int index) {
+		StructuredContentPreprocessor stage = stages.get(index);
+		Collection<String> written = getWrittenFields(stage);
+		if (written == null || written.isEmpty() || unwrap(stage) instanceof RemoveMultipleFieldsPreprocessor)
+			return false;
+		List<String> live = new ArrayList<String>(written);
+		for (int j = index + 1; j < stages.size(); j++) {
+			Collection<String> read = getReadFields(j);
+			if (read == null || overlapsAny(read, live))
+				return false;
+			Collection<String> removed = conditions.get(j) == null ? getRemovedFields(stages.get(j)) : null;
+			if (removed != null) {
+				for (Iterator<String> it = live.iterator(); it.hasNext();) {
+					if (isCovered(it.next(), removed))
+						it.remove();
+				}
+				if (live.isEmpty())
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Move {@link RequiredValidatorPreprocessor}s ahead of preceding preprocessors which don't write validated field.
+	 * Validators are not moved over each other.
+	 */
+	void hoistValidators() {
+		for (int j = 0; j < stages.size(); j++) {
+			StructuredContentPreprocessor validator = stages.get(j);
+			if (!(unwrap(validator) instanceof RequiredValidatorPreprocessor))
+				continue;
+			Collection<String> read = getReadFields(j);
+			int i = j;
+			while (i > 0 && isValidatorMovableOver(stages.get(i - 1), read))
+				i--;
+			if (i < j) {
+				stages.add(i, stages.remove(j));
+				conditions.add(i, conditions.remove(j));
+				if (configs != null)
+					configs.add(i, configs.remove(j));
+			}
+		}
+	}
+
+	private static boolean isValidatorMovableOver(StructuredContentPreprocessor stage, Collection<String> read) {
+		if (read == null || unwrap(stage) instanceof RequiredValidatorPreprocessor)
+			return false;
+		Collection<String> written = getWrittenFields(stage);
+		return written != null && !overlapsAny(written, read);
+	}
+
+	/**
+	 * Merge adjacent preprocessors with same source bases into {@link SourceBasesGroupPreprocessor}. Preprocessors with
+	 * condition are not merged.
+	 */
+	void mergeSourceBasesTraversals() {
+		for (int i = 0; i < stages.size(); i++) {
+			if (!isSourceBasesTraversalShareable(i))
+				continue;
+			List<StructuredContentPreprocessorWithSourceBasesBase<?>> group =
+					new ArrayList<StructuredContentPreprocessorWithSourceBasesBase<?>>();
+			group.add((StructuredContentPreprocessorWithSourceBasesBase<?>) stages.get(i));
+			List<String> bases = group.get(0).getSourceBases();
+			int end = i + 1;
+			while (end < stages.size() && isSourceBasesTraversalShareable(end)) {
+				StructuredContentPreprocessorWithSourceBasesBase<?> p =
+						(StructuredContentPreprocessorWithSourceBasesBase<?>) stages.get(end);
+				if (!bases.equals(p.getSourceBases()))
+					break;
+				group.add(p);
+				end++;
+			}
+			if (group.size() > 1) {
+				for (int j = end - 1; j > i; j--) {
+					removeStage(j);
+				}
+				stages.set(i, new SourceBasesGroupPreprocessor(group));
+				if (configs != null)
+					configs.set(i, null);
+			}
+		}
+	}
+
+	/**
+	 * Check if preprocessor can be merged into {@link SourceBasesGroupPreprocessor}. Preprocessors wrapped by
+	 * {@link InstrumentedPreprocessor} are not merged to keep their metrics.
+	 */
+	private boolean isSourceBasesTraversalShareable(int index) {
+		StructuredContentPreprocessor stage = stages.get(index);
+		if (conditions.get(index) != null || !(stage instanceof StructuredContentPreprocessorWithSourceBasesBase)
+				|| !(stage instanceof ThreadSafePreprocessor) || !(stage instanceof FieldAccessAwarePreprocessor))
+			return false;
+		StructuredContentPreprocessorWithSourceBasesBase<?> p =
+				(StructuredContentPreprocessorWithSourceBasesBase<?>) stage;
+		return p.getSourceBases() != null && !p.getSourceBases().isEmpty() && p.isSourceBasesTraversalShareable();
+	}
+
+	private void removeStage(int index) {
+		stages.remove(index);
+		conditions.remove(index);
+		if (configs != null)
+			configs.remove(index);
+	}
+
+	private static StructuredContentPreprocessor unwrap(StructuredContentPreprocessor stage) {
+		if (stage instanceof InstrumentedPreprocessor)
+			return ((InstrumentedPreprocessor) stage).getDelegate();
+		return stage;
+	}
+
+	/**
+	 * @param index of preprocessor
+	 * @return fields read by preprocessor including fields checked by its condition, <code>null</code> if not known
+	 */
+	private Collection<String> getReadFields(int index) {
+		StructuredContentPreprocessor stage = unwrap(stages.get(index));
+		if (!(stage instanceof FieldAccessAwarePreprocessor))
+			return null;
+		Collection<String> read = ((FieldAccessAwarePreprocessor) stage).getReadFields();
+		if (read == null || conditions.get(index) == null)
+			return read;
+		Collection<String> ret = new ArrayList<String>(read);
+		ret.addAll(conditions.get(index).getFields());
+		return ret;
+	}
+
+	/**
+	 * @return fields written by preprocessor, <code>null</code> if not known
+	 */
+	private static Collection<String> getWrittenFields(StructuredContentPreprocessor stage) {
+		stage = unwrap(stage);
+		if (stage instanceof FieldAccessAwarePreprocessor)
+			return ((FieldAccessAwarePreprocessor) stage).getWrittenFields();
+		return null;
+	}
+
+	/**
+	 * @return fields always removed from data by preprocessor, <code>null</code> if it doesn't remove fields
+	 */
+	private static Collection<String> getRemovedFields(StructuredContentPreprocessor stage) {
+		stage = unwrap(stage);
+		if (stage instanceof RemoveMultipleFieldsPreprocessor
+				&& ((RemoveMultipleFieldsPreprocessor) stage).getSourceBases() == null)
+			return ((RemoveMultipleFieldsPreprocessor) stage).getFields();
+		return null;
+	}
+
+	/**
+	 * Check if fields overlap, so one of them is same or nested in other one.
+	 */
+	static boolean overlaps(String field1, String field2) {
+		return field1.equals(field2) || isNested(field1, field2) || isNested(field2, field1);
+	}
+
+	private static boolean isNested(String field, String parent) {
+		return field.length() > parent.length() && field.startsWith(parent) && field.charAt(parent.length()) == '.';
+	}
+
+	private static boolean overlapsAny(Collection<String> fields1, Collection<String> fields2) {
+		for (String f1 : fields1) {
+			for (String f2 : fields2) {
+				if (f1 != null && f2 != null && overlaps(f1, f2))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isCovered(String field, Collection<String> removed) {
+		for (String r : removed) {
+			if (field != null && r != null && (field.equals(r) || isNested(field, r)))
+				return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,240 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Condition deciding if preprocessor in {@link PreprocessorChain} is invoked for data item, compiled from
+ * <code>when</code> element of preprocessor configuration (see {@link StructuredContentPreprocessorFactory}). It is
+ * compiled only once, so evaluation doesn't parse anything and is cheap. It is immutable so can be shared by more
+ * threads.
+ * <p>
+ * Configuration is one Map or List of Maps, all of them must match then. Each Map contains <code>field</code> with
+ * path to the checked field in dot notation, and some of next checks (all of them must match):
+ * <ul>
+ * <li><code>exists</code> - <code>true</code> if field must exist, <code>false</code> if it must not exist. Field
+ * with <code>null</code> value or empty list doesn't exist. This check is used if no other is defined.
+ * <li><code>value</code> - field must be equal to this value, or contain it if it is list
+ * <li><code>values</code> - list of values, field must be equal to some of them, or contain some of them if it is list
+ * <li><code>type</code> - type of field value, one of <code>string</code>, <code>number</code>, <code>boolean</code>,
+ * <code>object</code>, <code>list</code>
+ * </ul>
+ * Example:
+ *
+ * <pre>
+ * "when" : [
+ *     { "field" : "fields.comments", "exists" : true },
+ *     { "field" : "type", "values" : ["bug", "feature"] }
+ * ]
+ * </pre>
+ *
+ * @since 1.3.10
+ */
+public final class PreprocessorCondition {
+
+	public static final String CFG_FIELD = "field";
+	public static final String CFG_EXISTS = "exists";
+	public static final String CFG_VALUE = "value";
+	public static final String CFG_VALUES = "values";
+	public static final String CFG_TYPE = "type";
+
+	/**
+	 * Supported values of {@link #CFG_TYPE}.
+	 */
+	private static final List<String> TYPES = Arrays.asList("string", "number", "boolean", "object", "list");
+
+	private final FieldPath[] paths;
+
+	/**
+	 * Required existence of field, same index as {@link #paths}. <code>null</code> if not checked.
+	 */
+	private final Boolean[] exists;
+
+	/**
+	 * Allowed values of field, same index as {@link #paths}. <code>null</code> if not checked.
+	 */
+	private final Object[][] values;
+
+	/**
+	 * Required type of field value, same index as {@link #paths}. <code>null</code> if not checked.
+	 */
+	private final String[] types;
+
+	private PreprocessorCondition(int size) {
+		paths = new FieldPath[size];
+		exists = new Boolean[size];
+		values = new Object[size][];
+		types = new String[size];
+	}
+
+	/**
+	 * Compile condition from configuration described in this class's javadoc.
+	 *
+	 * @param config to compile, Map or List of Maps. Can be <code>null</code>.
+	 * @return compiled condition, <code>null</code> if <code>config</code> is <code>null</code>
+	 * @throws IllegalArgumentException if configuration is invalid
+	 */
+	@SuppressWarnings("unchecked")
+	public static PreprocessorCondition compile(Object config) throws IllegalArgumentException {
+		if (config == null)
+			return null;
+		List<Object> items;
+		if (config instanceof Map) {
+			items = Collections.singletonList(config);
+		} else if (config instanceof List && !((List<Object>) config).isEmpty()) {
+			items = (List<Object>) config;
+		} else {
+			throw new IllegalArgumentException("'when' element must be Map or non empty List of Maps");
+		}
+		PreprocessorCondition ret = new PreprocessorCondition(items.size());
+		for (int i = 0; i < items.size(); i++) {
+			if (!(items.get(i) instanceof Map))
+				throw new IllegalArgumentException("'when' element must be Map or non empty List of Maps");
+			ret.compileItem(i, (Map<String, Object>) items.get(i));
+		}
+		return ret;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void compileItem(int i, Map<String, Object> item) {
+		String field = StructureUtils.getStringValue(item, CFG_FIELD);
+		if (ValueUtils.isEmpty(field))
+			throw new IllegalArgumentException("'when/" + CFG_FIELD + "' element must be defined");
+		paths[i] = FieldPath.compile(field);
+
+		Object e = item.get(CFG_EXISTS);
+		if (e != null) {
+			if (!(e instanceof Boolean))
+				throw new IllegalArgumentException("'when/" + CFG_EXISTS + "' element must be boolean for field " + field);
+			exists[i] = (Boolean) e;
+		}
+		if (item.get(CFG_VALUE) != null) {
+			values[i] = new Object[] { item.get(CFG_VALUE) };
+		} else if (item.get(CFG_VALUES) != null) {
+			if (!(item.get(CFG_VALUES) instanceof Collection))
+				throw new IllegalArgumentException("'when/" + CFG_VALUES + "' element must be List for field " + field);
+			values[i] = ((Collection<Object>) item.get(CFG_VALUES)).toArray();
+			for (Object v : values[i]) {
+				if (v == null)
+					throw new IllegalArgumentException("'when/" + CFG_VALUES + "' element must not contain null for field "
+							+ field + ", use '" + CFG_EXISTS + "' to check missing value");
+			}
+		}
+		String type = StructureUtils.getStringValue(item, CFG_TYPE);
+		if (type != null) {
+			if (!TYPES.contains(type))
+				throw new IllegalArgumentException("'when/" + CFG_TYPE + "' element must be one of " + TYPES + " for field "
+						+ field);
+			types[i] = type;
+		}
+		if (exists[i] == null && values[i] == null && types[i] == null)
+			exists[i] = Boolean.TRUE;
+	}
+
+	/**
+	 * Evaluate condition.
+	 *
+	 * @param data to evaluate condition for, can be <code>null</code>
+	 * @return true if condition matches
+	 */
+	public boolean matches(Map<String, Object> data) {
+		for (int i = 0; i < paths.length; i++) {
+			Object value = paths[i].get(data);
+			if (exists[i] != null && exists[i].booleanValue() == isEmpty(value))
+				return false;
+			if (types[i] != null && !isType(value, types[i]))
+				return false;
+			if (values[i] != null && !containsValue(value, values[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return paths of fields checked by condition, in dot notation
+	 */
+	public Set<String> getFields() {
+		Set<String> ret = new LinkedHashSet<String>();
+		for (FieldPath path : paths)
+			ret.add(path.getPath());
+		return ret;
+	}
+
+	private static boolean isEmpty(Object value) {
+		return value == null || (value instanceof Collection && ((Collection<?>) value).isEmpty());
+	}
+
+	private static boolean isType(Object value, String type) {
+		if (value == null)
+			return false;
+		switch (type) {
+		case "string":
+			return value instanceof String;
+		case "number":
+			return value instanceof Number;
+		case "boolean":
+			return value instanceof Boolean;
+		case "object":
+			return value instanceof Map;
+		default:
+			return value instanceof Collection;
+		}
+	}
+
+	private static boolean containsValue(Object value, Object[] expected) {
+		if (value instanceof Collection) {
+			for (Object o : (Collection<?>) value) {
+				if (containsValue(o, expected))
+					return true;
+			}
+			return false;
+		}
+		for (Object e : expected) {
+			if (valueEquals(e, value))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Compare configured value with value from data. Numbers are compared by value, so eg. <code>Integer</code> from
+	 * configuration is equal to <code>Long</code> from data.
+	 */
+	private static boolean valueEquals(Object expected, Object value) {
+		if (expected.equals(value))
+			return true;
+		if (expected instanceof Number && value instanceof Number) {
+			if (isIntegral(expected) && isIntegral(value))
+				return ((Number) expected).longValue() == ((Number) value).longValue();
+			return ((Number) expected).doubleValue() == ((Number) value).doubleValue();
+		}
+		return false;
+	}
+
+	private static boolean isIntegral(Object value) {
+		return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+	}
+
+	@Override
+	public String toString() {
+		List<String> ret = new ArrayList<String>();
+		for (int i = 0; i < paths.length; i++) {
+			ret.add("[" + CFG_FIELD + "=" + paths[i].getPath() + (exists[i] != null ? ", " + CFG_EXISTS + "=" + exists[i] : "")
+					+ (values[i] != null ? ", " + CFG_VALUES + "=" + Arrays.toString(values[i]) : "")
+					+ (types[i] != null ? ", " + CFG_TYPE + "=" + types[i] : "") + "]");
+		}
+		return "PreprocessorCondition " + ret;
+	}
+
+}
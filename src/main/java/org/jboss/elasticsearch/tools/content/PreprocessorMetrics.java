@@ -0,0 +1,330 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+
+/**
+ * Metrics of one preprocessor recorded by {@link InstrumentedPreprocessor}. Recording is cheap and can be done from
+ * more threads concurrently, counters are striped {@link LongAdder}s and latencies are counted in histogram buckets
+ * with logarithmic size (four linear sub-buckets per power of two), so percentiles are reported with precision
+ * approximately 25%. Use {@link #getSnapshot()} to read consistent-enough copy of recorded values.
+ *
+ * @see PreprocessorChain#getMetrics()
+ * @since 1.3.10
+ */
+public class PreprocessorMetrics implements PreprocessorMetricsMBean {
+
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+	private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final String name;
+
+	private final LongAdder invocationCount = new LongAdder();
+	private final LongAdder documentCount = new LongAdder();
+	private final LongAdder warningCount = new LongAdder();
+	private final LongAdder exceptionCount = new LongAdder();
+	private final LongAdder skippedCount = new LongAdder();
+	private final LongAdder totalTimeNanos = new LongAdder();
+	private final AtomicLong maxTimeNanos = new AtomicLong();
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Create metrics.
+	 *
+	 * @param name of preprocessor metrics are recorded for
+	 */
+	public PreprocessorMetrics(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Record one invocation of preprocessor.
+	 *
+	 * @param nanos duration of invocation in nanoseconds
+	 * @param documents number of processed documents, more than one for batch invocation
+	 */
+	public void recordInvocation(long nanos, int documents) {
+		if (nanos < 0)
+			nanos = 0;
+		invocationCount.increment();
+		documentCount.add(documents);
+		totalTimeNanos.add(nanos);
+		buckets.incrementAndGet(bucketIndex(nanos));
+		long max = maxTimeNanos.get();
+		while (nanos > max && !maxTimeNanos.compareAndSet(max, nanos)) {
+			max = maxTimeNanos.get();
+		}
+	}
+
+	/**
+	 * Record warning emitted by preprocessor.
+	 */
+	public void recordWarning() {
+		warningCount.increment();
+	}
+
+	/**
+	 * Record exception thrown by preprocessor.
+	 */
+	public void recordException() {
+		exceptionCount.increment();
+	}
+
+	/**
+	 * Record documents preprocessor was not invoked for because its condition didn't match.
+	 *
+	 * @param documents number of skipped documents
+	 * @see PreprocessorCondition
+	 */
+	public void recordSkipped(int documents) {
+		skippedCount.add(documents);
+	}
+
+	static int bucketIndex(long value) {
+		if (value < LINEAR_LIMIT)
+			return (int) value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_LIMIT + (exp - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @param index of bucket
+	 * @return highest value counted in bucket
+	 */
+	static long bucketUpperBound(int index) {
+		if (index < LINEAR_LIMIT)
+			return index;
+		int exp = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		int sub = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+		if (exp == 62 && sub == SUB_BUCKETS - 1)
+			return Long.MAX_VALUE;
+		return ((long) (SUB_BUCKETS + sub + 1) << (exp - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Get snapshot of recorded values. Values recorded concurrently with this call may be partially visible only.
+	 *
+	 * @return snapshot
+	 */
+	public Snapshot getSnapshot() {
+		long[] b = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			b[i] = buckets.get(i);
+		return new Snapshot(name, invocationCount.sum(), documentCount.sum(), warningCount.sum(), exceptionCount.sum(),
+				skippedCount.sum(), totalTimeNanos.sum(), maxTimeNanos.get(), b);
+	}
+
+	@Override
+	public void reset() {
+		invocationCount.reset();
+		documentCount.reset();
+		warningCount.reset();
+		exceptionCount.reset();
+		skippedCount.reset();
+		totalTimeNanos.reset();
+		maxTimeNanos.set(0);
+		for (int i = 0; i < BUCKETS; i++)
+			buckets.set(i, 0);
+	}
+
+	@Override
+	public long getInvocationCount() {
+		return invocationCount.sum();
+	}
+
+	@Override
+	public long getDocumentCount() {
+		return documentCount.sum();
+	}
+
+	@Override
+	public long getWarningCount() {
+		return warningCount.sum();
+	}
+
+	@Override
+	public long getExceptionCount() {
+		return exceptionCount.sum();
+	}
+
+	@Override
+	public long getSkippedCount() {
+		return skippedCount.sum();
+	}
+
+	@Override
+	public double getTotalTimeMillis() {
+		return toMillis(totalTimeNanos.sum());
+	}
+
+	@Override
+	public double getMeanTimeMillis() {
+		return toMillis(getSnapshot().getMeanTimeNanos());
+	}
+
+	@Override
+	public double getMaxTimeMillis() {
+		return toMillis(maxTimeNanos.get());
+	}
+
+	@Override
+	public double getMedianTimeMillis() {
+		return toMillis(getSnapshot().getPercentileTimeNanos(50));
+	}
+
+	@Override
+	public double get95thPercentileTimeMillis() {
+		return toMillis(getSnapshot().getPercentileTimeNanos(95));
+	}
+
+	@Override
+	public double get99thPercentileTimeMillis() {
+		return toMillis(getSnapshot().getPercentileTimeNanos(99));
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1000000d;
+	}
+
+	@Override
+	public String toString() {
+		return getSnapshot().toString();
+	}
+
+	/**
+	 * Immutable snapshot of {@link PreprocessorMetrics}. Times are in nanoseconds.
+	 */
+	public static final class Snapshot {
+
+		private final String name;
+		private final long invocationCount;
+		private final long documentCount;
+		private final long warningCount;
+		private final long exceptionCount;
+		private final long skippedCount;
+		private final long totalTimeNanos;
+		private final long maxTimeNanos;
+		private final long[] buckets;
+
+		private Snapshot(String name, long invocationCount, long documentCount, long warningCount, long exceptionCount,
+				long skippedCount, long totalTimeNanos, long maxTimeNanos, long[] buckets) {
+			this.name = name;
+			this.invocationCount = invocationCount;
+			this.documentCount = documentCount;
+			this.warningCount = warningCount;
+			this.exceptionCount = exceptionCount;
+			this.skippedCount = skippedCount;
+			this.totalTimeNanos = totalTimeNanos;
+			this.maxTimeNanos = maxTimeNanos;
+			this.buckets = buckets;
+		}
+
+		/**
+		 * @return name of preprocessor
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return number of invocations, batch invocation is counted as one
+		 */
+		public long getInvocationCount() {
+			return invocationCount;
+		}
+
+		/**
+		 * @return number of processed documents
+		 */
+		public long getDocumentCount() {
+			return documentCount;
+		}
+
+		/**
+		 * @return number of emitted warnings
+		 */
+		public long getWarningCount() {
+			return warningCount;
+		}
+
+		/**
+		 * @return number of thrown exceptions
+		 */
+		public long getExceptionCount() {
+			return exceptionCount;
+		}
+
+		/**
+		 * @return number of documents skipped because condition of preprocessor didn't match
+		 */
+		public long getSkippedCount() {
+			return skippedCount;
+		}
+
+		public long getTotalTimeNanos() {
+			return totalTimeNanos;
+		}
+
+		public long getMaxTimeNanos() {
+			return maxTimeNanos;
+		}
+
+		/**
+		 * @return mean time of invocation, 0 if there was no invocation
+		 */
+		public long getMeanTimeNanos() {
+			if (invocationCount == 0)
+				return 0;
+			return totalTimeNanos / invocationCount;
+		}
+
+		/**
+		 * Get time of invocation which is not exceeded by given percentage of invocations.
+		 *
+		 * @param percentile to get, from 0 to 100
+		 * @return time, upper bound of histogram bucket limited by max time. 0 if there was no invocation.
+		 * @throws IllegalArgumentException if percentile is out of range
+		 */
+		public long getPercentileTimeNanos(double percentile) throws IllegalArgumentException {
+			if (percentile < 0 || percentile > 100)
+				throw new IllegalArgumentException("percentile must be from 0 to 100");
+			long count = 0;
+			for (long b : buckets)
+				count += b;
+			if (count == 0)
+				return 0;
+			long threshold = Math.max(1, (long) Math.ceil(count * percentile / 100d));
+			long cumulative = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				cumulative += buckets[i];
+				if (cumulative >= threshold)
+					return Math.min(bucketUpperBound(i), maxTimeNanos);
+			}
+			return maxTimeNanos;
+		}
+
+		@Override
+		public String toString() {
+			return "Snapshot [name=" + name + ", invocationCount=" + invocationCount + ", documentCount=" + documentCount
+					+ ", warningCount=" + warningCount + ", exceptionCount=" + exceptionCount + ", skippedCount="
+					+ skippedCount + ", totalTimeNanos=" + totalTimeNanos + ", maxTimeNanos=" + maxTimeNanos + ", p50="
+					+ getPercentileTimeNanos(50) + ", p99=" + getPercentileTimeNanos(99) + "]";
+		}
+	}
+
+}
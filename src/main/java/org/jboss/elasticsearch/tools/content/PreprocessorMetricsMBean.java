@@ -0,0 +1,45 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+/**
+ * JMX management interface of {@link PreprocessorMetrics}. Times are in milliseconds.
+ *
+ * @see PreprocessorChain#registerMetricsMBeans(String)
+ * @since 1.3.10
+ */
+public interface PreprocessorMetricsMBean {
+
+	String getName();
+
+	long getInvocationCount();
+
+	long getDocumentCount();
+
+	long getWarningCount();
+
+	long getExceptionCount();
+
+	long getSkippedCount();
+
+	double getTotalTimeMillis();
+
+	double getMeanTimeMillis();
+
+	double getMaxTimeMillis();
+
+	double getMedianTimeMillis();
+
+	double get95thPercentileTimeMillis();
+
+	double get99thPercentileTimeMillis();
+
+	/**
+	 * Reset all recorded values.
+	 */
+	void reset();
+
+}
@@ -5,6 +5,8 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -52,7 +54,8 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * @see Matcher#matches()
  * @see Matcher#group(int)
  */
-public class RegExpCapturingGroupPreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Object> {
+public class RegExpCapturingGroupPreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Object>
+		implements ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_SOURCE_FIELD = "source_field";
 	protected static final String CFG_PATTERN = "pattern";
@@ -62,6 +65,9 @@ public class RegExpCapturingGroupPreprocessor extends StructuredContentPreproces
 	protected Pattern patternCompiled;
 	protected Map<Object, String> resultMapping;
 
+	private FieldPath fieldSourcePath;
+	private FieldPath[] resultMappingPaths;
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
@@ -83,6 +89,8 @@ public class RegExpCapturingGroupPreprocessor extends StructuredContentPreproces
 			throw new SettingsException("'settings/" + CFG_RESULT_MAPPING + "' configuration value for '" + name
 					+ "' preprocessor is invalid");
 		}
+		fieldSourcePath = FieldPath.compile(fieldSource);
+		resultMappingPaths = FieldPath.compile(resultMapping.values());
 	}
 
 	/**
@@ -134,28 +142,26 @@ public class RegExpCapturingGroupPreprocessor extends StructuredContentPreproces
 	@Override
 	protected void processOneSourceValue(Map<String, Object> data, Object context, String base,
 			PreprocessChainContext chainContext) {
-		Object v = null;
-		if (fieldSource.contains(".")) {
-			v = XContentMapValues.extractValue(fieldSource, data);
-		} else {
-			v = data.get(fieldSource);
-		}
+		Object v = fieldSourcePath.get(data);
 
 		if (v != null) {
 			if (v instanceof String) {
 				String vs = (String) v;
 				Matcher m = patternCompiled.matcher(vs);
 				if (m.matches()) {
+					FieldPath[] paths = resultMappingPaths;
+					int pathIndex = 0;
 					for (Object index : resultMapping.keySet()) {
+						FieldPath path = paths[pathIndex++];
 						int i = -1;
 						if (index instanceof Number) {
 							i = ((Number) index).intValue();
 						} else {
 							i = Integer.parseInt(index.toString());
 						}
-						if (i >= 0 && i <= m.groupCount()) {
+						if (path != null && i >= 0 && i <= m.groupCount()) {
 							try {
-								StructureUtils.putValueIntoMapOfMaps(data, resultMapping.get(index), m.group(i));
+								path.put(data, m.group(i));
 							} catch (IllegalStateException e) {
 								String warningMessage = "No match found for Capturing group " + i + " in value '" + vs
 										+ "' from field '" + fieldSource + "'";
@@ -196,4 +202,14 @@ public class RegExpCapturingGroupPreprocessor extends StructuredContentPreproces
 		return patternCompiled != null ? patternCompiled.pattern() : null;
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		return resolveAccessedFields(Collections.singletonList(fieldSource));
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return resolveAccessedFields(resultMapping.values());
+	}
+
 }
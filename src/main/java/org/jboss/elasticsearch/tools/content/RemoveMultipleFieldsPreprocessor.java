@@ -6,6 +6,8 @@
 package org.jboss.elasticsearch.tools.content;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -36,12 +38,15 @@ import org.elasticsearch.common.settings.SettingsException;
  * @author Vlastimil Elias (velias at redhat dot com)
  * @see StructuredContentPreprocessorFactory
  */
-public class RemoveMultipleFieldsPreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Object> {
+public class RemoveMultipleFieldsPreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Object>
+		implements ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_FIELDS = "fields";
 
 	protected List<String> fields;
 
+	private FieldPath[] fieldPaths;
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
@@ -60,13 +65,16 @@ public class RemoveMultipleFieldsPreprocessor extends StructuredContentPreproces
 			throw new SettingsException("Missing, empty or bad 'settings/" + CFG_FIELDS + "' configuration value for '"
 					+ name + "' preprocessor");
 		}
+		fieldPaths = FieldPath.compile(fields);
 	}
 
 	@Override
 	protected void processOneSourceValue(Map<String, Object> data, Object context, String base,
 			PreprocessChainContext chainContext) {
-		for (String key : fields) {
-			StructureUtils.removeValueFromMapOfMaps(data, key);
+		FieldPath[] paths = fieldPaths;
+		for (FieldPath path : paths) {
+			if (path != null)
+				path.remove(data);
 		}
 	}
 
@@ -82,4 +90,14 @@ public class RemoveMultipleFieldsPreprocessor extends StructuredContentPreproces
 		return fields;
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return resolveAccessedFields(fields);
+	}
+
 }
@@ -6,6 +6,7 @@
 package org.jboss.elasticsearch.tools.content;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 
 import org.elasticsearch.common.settings.SettingsException;
@@ -40,12 +41,15 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * @author Vlastimil Elias (velias at redhat dot com)
  * @see StructuredContentPreprocessorFactory
  */
-public class RequiredValidatorPreprocessor extends StructuredContentPreprocessorBase {
+public class RequiredValidatorPreprocessor extends StructuredContentPreprocessorBase implements
+		ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_FIELD = "field";
 
 	protected String field;
 
+	private FieldPath fieldPath;
+
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
 		if (settings == null) {
@@ -53,13 +57,14 @@ public class RequiredValidatorPreprocessor extends StructuredContentPreprocessor
 		}
 		field = XContentMapValues.nodeStringValue(settings.get(CFG_FIELD), null);
 		validateConfigurationStringNotEmpty(field, CFG_FIELD);
+		fieldPath = FieldPath.compile(field);
 	}
 
 	@Override
 	public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext chainContext) {
 		if (data == null)
 			return null;
-		Object sourceData = XContentMapValues.extractValue(field, data);
+		Object sourceData = fieldPath.get(data);
 		if (sourceData == null) {
 			throw new InvalidDataException("Field " + field + " is required");
 		} else if (sourceData instanceof String) {
@@ -80,4 +85,14 @@ public class RequiredValidatorPreprocessor extends StructuredContentPreprocessor
 		return field;
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		return Collections.singletonList(field);
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return Collections.emptyList();
+	}
+
 }
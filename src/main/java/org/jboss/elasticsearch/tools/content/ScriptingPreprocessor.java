@@ -6,8 +6,13 @@
 package org.jboss.elasticsearch.tools.content;
 
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
@@ -28,7 +33,8 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  *     "class"    : "org.jboss.elasticsearch.tools.content.ScriptingPreprocessor",
  *     "settings" : {
  *         "script_engine_name"  : "JavaScript",
- *         "script"  : "data.put('v2', data.get('v')); data.put('c','con');"
+ *         "script"  : "data.put('v2', data.get('v')); data.put('c','con');",
+ *         "engine_pool_size" : 4
  *     } 
  * }
  * </pre>
@@ -38,23 +44,48 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * <li><code>script_engine_name</code> - optional name of scripting engine. Defaults to <code>JavaScript</code>.
  * <li><code>script</code> - script code to run, {@link ScriptEngine#eval(String)} method is used. You can use variable
  * called <code>data</code> to manipulate processed data.
+ * <li><code>engine_pool_size</code> - optional maximal number of scripting engines used to process data by more threads
+ * concurrently. Defaults to number of available processors.
  * </ul>
  * <p>
+ * Script is compiled only once if scripting engine supports it (implements {@link Compilable}). Preprocessor can be
+ * used by more threads concurrently, each thread takes engine from pool (new one is created if all engines in pool are
+ * used and pool is not full yet), so scripts run in parallel up to the pool size. Engine which declares itself as
+ * thread safe (over <code>THREADING</code> factory parameter) is shared by all pooled items. Script runs with new
+ * engine scope for each data item, so global variables set by script are not visible for next data items.
+ * <p>
  * <b>Note</b> that performance of this preprocessor depends on performance of scripting engine. It is always better to
  * use other existing specialized preprocessors for simple tasks like constant values setting, simple value copy etc.
  * 
  * @author Vlastimil Elias (velias at redhat dot com)
  * @see StructuredContentPreprocessorFactory
  */
-public class ScriptingPreprocessor extends StructuredContentPreprocessorBase {
+public class ScriptingPreprocessor extends StructuredContentPreprocessorBase implements ThreadSafePreprocessor {
 
 	protected static final String CFG_SCRIPT_ENGINE_NAME_FIELD = "script_engine_name";
 	protected static final String CFG_SCRIPT_FIELD = "script";
+	protected static final String CFG_ENGINE_POOL_SIZE = "engine_pool_size";
 
 	protected String scriptEngineName;
 	protected static ScriptEngineManager factory = new ScriptEngineManager();
 	protected String script;
 	protected ScriptEngine engine;
+	protected int enginePoolSize;
+
+	/**
+	 * true if {@link #engine} can be used by more threads concurrently, so it is shared by all pooled engines.
+	 */
+	protected boolean engineThreadSafe;
+
+	/**
+	 * Engines ready to be used.
+	 */
+	private BlockingQueue<PooledEngine> enginePool;
+
+	/**
+	 * Number of engines created for pool.
+	 */
+	private final AtomicInteger enginesCreated = new AtomicInteger();
 
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
@@ -65,32 +96,78 @@ public class ScriptingPreprocessor extends StructuredContentPreprocessorBase {
 		validateConfigurationStringNotEmpty(script, CFG_SCRIPT_FIELD);
 		scriptEngineName = XContentMapValues.nodeStringValue(settings.get(CFG_SCRIPT_ENGINE_NAME_FIELD), "JavaScript");
 		validateConfigurationStringNotEmpty(scriptEngineName, CFG_SCRIPT_ENGINE_NAME_FIELD);
-		engine = factory.getEngineByName(scriptEngineName);
+		engine = createEngine();
 		if (engine == null) {
 			throw new SettingsException("No scripting engine is available for name " + scriptEngineName
 					+ " for preprocessor " + name);
 		}
+		try {
+			enginePoolSize = XContentMapValues.nodeIntegerValue(settings.get(CFG_ENGINE_POOL_SIZE), Runtime.getRuntime()
+					.availableProcessors());
+		} catch (NumberFormatException e) {
+			enginePoolSize = 0;
+		}
+		if (enginePoolSize < 1) {
+			throw new SettingsException("Invalid 'settings/" + CFG_ENGINE_POOL_SIZE + "' configuration value for '" + name
+					+ "' preprocessor, must be positive number");
+		}
+		engineThreadSafe = engine.getFactory().getParameter("THREADING") != null;
+		enginePool = new LinkedBlockingQueue<PooledEngine>();
+		enginePool.add(new PooledEngine(engine));
+		enginesCreated.set(1);
+	}
+
+	private ScriptEngine createEngine() {
+		synchronized (factory) {
+			return factory.getEngineByName(scriptEngineName);
+		}
 	}
 
 	@Override
 	public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext chainContext) {
-
-		ScriptContext newContext = new SimpleScriptContext();
-		Bindings engineScope = newContext.getBindings(ScriptContext.ENGINE_SCOPE);
-		engineScope.put("data", data);
-
+		PooledEngine pe = acquireEngine();
 		try {
-			synchronized (engine) {
-				engine.eval(script, newContext);
-			}
+			pe.eval(data);
 		} catch (ScriptException e) {
 			String warningMessage = "Script execution failed: " + e.getMessage();
 			addDataWarning(chainContext, warningMessage);
 			logger.debug(warningMessage);
+		} finally {
+			enginePool.add(pe);
 		}
 		return data;
 	}
 
+	/**
+	 * Get engine from pool, create new one if pool is empty and is not full yet, or wait for engine used by other thread.
+	 * 
+	 * @return engine to be used, must be returned into {@link #enginePool} after use
+	 */
+	private PooledEngine acquireEngine() {
+		PooledEngine ret = enginePool.poll();
+		if (ret != null)
+			return ret;
+		if (enginesCreated.incrementAndGet() <= enginePoolSize) {
+			ScriptEngine e = engineThreadSafe ? engine : createEngine();
+			if (e != null)
+				return new PooledEngine(e);
+		}
+		enginesCreated.decrementAndGet();
+		try {
+			return enginePool.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for script engine", e);
+		}
+	}
+
+	/**
+	 * @return number of engines created for pool
+	 */
+	protected int getEnginesCreated() {
+		return enginesCreated.get();
+	}
+
 	public String getScriptEngineName() {
 		return scriptEngineName;
 	}
@@ -99,4 +176,46 @@ public class ScriptingPreprocessor extends StructuredContentPreprocessorBase {
 		return script;
 	}
 
+	public int getEnginePoolSize() {
+		return enginePoolSize;
+	}
+
+	/**
+	 * Script engine with compiled script reused for all evaluations. It is used by one thread at a time.
+	 */
+	protected final class PooledEngine {
+
+		final ScriptEngine engine;
+		final CompiledScript compiledScript;
+
+		PooledEngine(ScriptEngine engine) {
+			this.engine = engine;
+			compiledScript = compile(engine);
+		}
+
+		private CompiledScript compile(ScriptEngine engine) {
+			if (engine instanceof Compilable) {
+				try {
+					return ((Compilable) engine).compile(script);
+				} catch (ScriptException e) {
+					// reported for each data item when evaluated
+					logger.debug("Script compilation failed for preprocessor {}: {}", name, e.getMessage());
+				}
+			}
+			return null;
+		}
+
+		void eval(Map<String, Object> data) throws ScriptException {
+			// new scope for each evaluation, so global variables of script don't leak between data items
+			Bindings engineScope = engine.createBindings();
+			engineScope.put("data", data);
+			ScriptContext context = new SimpleScriptContext();
+			context.setBindings(engineScope, ScriptContext.ENGINE_SCOPE);
+			if (compiledScript != null)
+				compiledScript.eval(context);
+			else
+				engine.eval(script, context);
+		}
+	}
+
 }
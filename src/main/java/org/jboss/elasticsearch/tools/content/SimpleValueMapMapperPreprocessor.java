@@ -5,7 +5,12 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.common.settings.SettingsException;
@@ -47,23 +52,34 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * '.
  * <li><code>value_mapping</code> - Map structure for value mapping. Key is value from <code>source_field</code>, Value
  * is value for for <code>target_field</code>.
+ * <li><code>value_mapping_file</code> - optional path to text file with value mapping, for mappings too large to be
+ * inlined in configuration. Each line contains key and value separated by tab character. File is compiled into compact
+ * binary table stored next to it and memory mapped, so mapping is kept off heap and shared by all preprocessors using
+ * the same file. See {@link MappedValueMappingTable} for details. <code>value_mapping</code> has precedence if both
+ * are used.
  * </ul>
  * 
  * @author Vlastimil Elias (velias at redhat dot com)
  * @see StructuredContentPreprocessorFactory
  * @see ValueUtils#processStringValuePatternReplacement(String, Map, Object)
  */
-public class SimpleValueMapMapperPreprocessor extends StructuredContentPreprocessorBase {
+public class SimpleValueMapMapperPreprocessor extends StructuredContentPreprocessorBase implements
+		ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_SOURCE_FIELD = "source_field";
 	protected static final String CFG_TARGET_FIELD = "target_field";
 	protected static final String CFG_VALUE_DEFAULT = "value_default";
 	protected static final String CFG_VALUE_MAPPING = "value_mapping";
+	protected static final String CFG_VALUE_MAPPING_FILE = "value_mapping_file";
 
 	protected String fieldSource;
 	protected String fieldTarget;
+	private FieldPath fieldSourcePath;
+	private FieldPath fieldTargetPath;
 	protected String defaultValue = null;
+	private CompiledTemplate defaultValueTemplate;
 	protected Map<String, String> valueMap = null;
+	protected MappedValueMappingTable valueMappingTable = null;
 
 	@SuppressWarnings("unchecked")
 	@Override
@@ -75,9 +91,23 @@ public class SimpleValueMapMapperPreprocessor extends StructuredContentPreproces
 		validateConfigurationStringNotEmpty(fieldSource, CFG_SOURCE_FIELD);
 		fieldTarget = XContentMapValues.nodeStringValue(settings.get(CFG_TARGET_FIELD), null);
 		validateConfigurationStringNotEmpty(fieldTarget, CFG_TARGET_FIELD);
+		fieldSourcePath = FieldPath.compile(fieldSource);
+		fieldTargetPath = FieldPath.compile(fieldTarget);
 		defaultValue = ValueUtils.trimToNull(XContentMapValues.nodeStringValue(settings.get(CFG_VALUE_DEFAULT), null));
+		defaultValueTemplate = defaultValue != null ? CompiledTemplate.compile(defaultValue) : null;
 		valueMap = (Map<String, String>) settings.get(CFG_VALUE_MAPPING);
-		if (valueMap == null || valueMap.isEmpty()) {
+		valueMappingTable = null;
+		String mappingFile = ValueUtils.trimToNull(XContentMapValues.nodeStringValue(settings.get(CFG_VALUE_MAPPING_FILE),
+				null));
+		if (mappingFile != null) {
+			try {
+				valueMappingTable = MappedValueMappingTable.open(new File(mappingFile));
+			} catch (IOException e) {
+				throw new SettingsException("Invalid 'settings/" + CFG_VALUE_MAPPING_FILE + "' configuration value for '"
+						+ name + "' preprocessor: " + e.getMessage());
+			}
+		}
+		if ((valueMap == null || valueMap.isEmpty()) && valueMappingTable == null) {
 			logger.warn("'settings/" + CFG_VALUE_MAPPING + "' is not defined for preprocessor '{}'", name);
 		}
 	}
@@ -87,12 +117,7 @@ public class SimpleValueMapMapperPreprocessor extends StructuredContentPreproces
 		if (data == null)
 			return null;
 
-		Object v = null;
-		if (fieldSource.contains(".")) {
-			v = XContentMapValues.extractValue(fieldSource, data);
-		} else {
-			v = data.get(fieldSource);
-		}
+		Object v = fieldSourcePath.get(data);
 
 		if (v == null) {
 			putDefaultValue(data, null);
@@ -106,6 +131,8 @@ public class SimpleValueMapMapperPreprocessor extends StructuredContentPreproces
 			String newVal = null;
 			if (valueMap != null && !ValueUtils.isEmpty(origValue))
 				newVal = valueMap.get(origValue);
+			if (newVal == null && valueMappingTable != null && !ValueUtils.isEmpty(origValue))
+				newVal = valueMappingTable.get(origValue);
 			if (newVal != null) {
 				putTargetValue(data, newVal);
 			} else {
@@ -116,13 +143,13 @@ public class SimpleValueMapMapperPreprocessor extends StructuredContentPreproces
 	}
 
 	private void putDefaultValue(Map<String, Object> data, String originalValue) {
-		if (defaultValue != null) {
-			putTargetValue(data, ValueUtils.processStringValuePatternReplacement(defaultValue, data, originalValue));
+		if (defaultValueTemplate != null) {
+			putTargetValue(data, defaultValueTemplate.render(data, originalValue));
 		}
 	}
 
 	protected void putTargetValue(Map<String, Object> data, String value) {
-		StructureUtils.putValueIntoMapOfMaps(data, fieldTarget, value);
+		fieldTargetPath.put(data, value);
 	}
 
 	public String getFieldSource() {
@@ -141,4 +168,22 @@ public class SimpleValueMapMapperPreprocessor extends StructuredContentPreproces
 		return valueMap;
 	}
 
+	public MappedValueMappingTable getValueMappingTable() {
+		return valueMappingTable;
+	}
+
+	@Override
+	public Collection<String> getReadFields() {
+		List<String> ret = new ArrayList<String>();
+		ret.add(fieldSource);
+		if (defaultValueTemplate != null)
+			ret.addAll(defaultValueTemplate.getKeys());
+		return ret;
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return Collections.singletonList(fieldTarget);
+	}
+
 }
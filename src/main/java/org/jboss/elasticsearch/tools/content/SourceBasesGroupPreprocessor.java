@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.SettingsException;
+
+/**
+ * Group of preprocessors configured with same "source_bases", which share one traversal of source bases. Each value of
+ * source base is processed by all preprocessors of group before next value is processed. Created by
+ * {@link PreprocessorChain#optimize()} from adjacent preprocessors allowing it, see
+ * {@link StructuredContentPreprocessorWithSourceBasesBase#isSourceBasesTraversalShareable()}.
+ *
+ * @since 1.3.10
+ */
+public final class SourceBasesGroupPreprocessor implements ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
+
+	private final StructuredContentPreprocessorWithSourceBasesBase<Object>[] preprocessors;
+
+	private final String name;
+
+	/**
+	 * @param preprocessors to group, all with same source bases. Must implement {@link ThreadSafePreprocessor} and
+	 *          {@link FieldAccessAwarePreprocessor}.
+	 */
+	@SuppressWarnings("unchecked")
+	SourceBasesGroupPreprocessor(List<StructuredContentPreprocessorWithSourceBasesBase<?>> preprocessors) {
+		this.preprocessors = preprocessors.toArray(new StructuredContentPreprocessorWithSourceBasesBase[preprocessors
+				.size()]);
+		StringBuilder sb = new StringBuilder();
+		for (StructuredContentPreprocessor p : preprocessors) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(p.getName());
+		}
+		name = sb.toString();
+	}
+
+	/**
+	 * Group can't be configured, it is created by {@link PreprocessorChain#optimize()} only.
+	 *
+	 * @throws SettingsException always
+	 */
+	@Override
+	public void init(String name, Client client, Map<String, Object> settings) throws SettingsException {
+		throw new SettingsException("Preprocessor '" + name + "' can't be configured, " + getClass().getSimpleName()
+				+ " is created by preprocessor chain optimization only");
+	}
+
+	/**
+	 * @return names of grouped preprocessors separated by comma
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return unmodifiable list of grouped preprocessors in order of use
+	 */
+	public List<StructuredContentPreprocessor> getPreprocessors() {
+		List<StructuredContentPreprocessor> ret = new ArrayList<StructuredContentPreprocessor>();
+		Collections.addAll(ret, preprocessors);
+		return Collections.unmodifiableList(ret);
+	}
+
+	@Override
+	public Map<String, Object> preprocessData(Map<String, Object> data) {
+		return preprocessData(data, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext chainContext) {
+		if (data == null)
+			return null;
+		Object[] contexts = new Object[preprocessors.length];
+		for (int i = 0; i < preprocessors.length; i++) {
+			contexts[i] = preprocessors[i].createContext(data);
+		}
+		for (FieldPath basePath : preprocessors[0].getSourceBasesPaths()) {
+			if (basePath == null)
+				continue;
+			String base = basePath.getPath();
+			Object obj = basePath.get(data);
+			if (obj != null) {
+				if (obj instanceof Map) {
+					processOneSourceValue((Map<String, Object>) obj, contexts, base, chainContext);
+				} else if (obj instanceof Collection) {
+					for (Object o : (Collection<Object>) obj) {
+						if (o instanceof Map) {
+							processOneSourceValue((Map<String, Object>) o, contexts, base, chainContext);
+						} else {
+							addDataWarning(chainContext, "Collection in field '" + base
+									+ "' contains value which is not Map, which can't be processed as source_base, so is skipped");
+						}
+					}
+				} else {
+					addDataWarning(chainContext, "Field '" + base
+							+ "' contains invalid value which can't be processed as source_base, so is skipped");
+				}
+			}
+		}
+		return data;
+	}
+
+	private void processOneSourceValue(Map<String, Object> value, Object[] contexts, String base,
+			PreprocessChainContext chainContext) {
+		for (int i = 0; i < preprocessors.length; i++) {
+			preprocessors[i].processOneSourceValue(value, contexts[i], base, chainContext);
+		}
+	}
+
+	/**
+	 * Add warning from each preprocessor of group, same as they do if they are not grouped.
+	 */
+	private void addDataWarning(PreprocessChainContext chainContext, String msg) {
+		for (StructuredContentPreprocessorWithSourceBasesBase<Object> p : preprocessors) {
+			p.addDataWarning(chainContext, msg);
+			p.logger.debug(msg);
+		}
+	}
+
+	@Override
+	public Collection<String> getReadFields() {
+		Set<String> ret = new LinkedHashSet<String>();
+		for (StructuredContentPreprocessor p : preprocessors) {
+			ret.addAll(((FieldAccessAwarePreprocessor) p).getReadFields());
+		}
+		return ret;
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		Set<String> ret = new LinkedHashSet<String>();
+		for (StructuredContentPreprocessor p : preprocessors) {
+			ret.addAll(((FieldAccessAwarePreprocessor) p).getWrittenFields());
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,263 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+
+/**
+ * Engine of streaming mode of {@link PreprocessorChain}. Reads document from {@link XContentParser} and materializes
+ * into data structure only subtrees of fields accessed by preprocessors. Other top level fields are copied directly into
+ * {@link XContentBuilder}, other objects nested in partially accessed objects are kept as raw bytes and written back
+ * when object is written. If accessed fields are not known then whole document is materialized.
+ * <p>
+ * Materialized fields are written after the copied fields, so order of fields in output document may differ from
+ * input. It is immutable so can be shared by more threads.
+ *
+ * @see PreprocessorChain#preprocessData(XContentParser, XContentBuilder, PreprocessChainContext)
+ * @since 1.3.10
+ */
+final class StreamingDocumentProcessor {
+
+	/**
+	 * Root of tree of accessed fields, <code>null</code> if whole document has to be materialized.
+	 */
+	private final Node root;
+
+	/**
+	 * @param accessedFields paths of fields accessed by preprocessors in dot notation, <code>null</code> if any field
+	 *          may be accessed.
+	 */
+	StreamingDocumentProcessor(Collection<String> accessedFields) {
+		root = accessedFields != null ? buildTree(accessedFields) : null;
+	}
+
+	private static Node buildTree(Collection<String> accessedFields) {
+		Node root = new Node();
+		for (String field : accessedFields) {
+			if (field == null || field.isEmpty())
+				continue;
+			Node node = root;
+			for (String element : field.split("\\.")) {
+				if (node.full)
+					break;
+				Node child = node.children.get(element);
+				if (child == null) {
+					child = new Node();
+					node.children.put(element, child);
+				}
+				node = child;
+			}
+			node.full = true;
+			node.children.clear();
+		}
+		return root;
+	}
+
+	/**
+	 * @return true if whole document is materialized because accessed fields are not known
+	 */
+	boolean isFullMaterialization() {
+		return root == null;
+	}
+
+	/**
+	 * Preprocess one document by chain.
+	 *
+	 * @param parser to read document from, positioned before or at start of document object
+	 * @param builder to write preprocessed document into
+	 * @param chain to preprocess document by
+	 * @param chainContext context of data preprocessing, may be null
+	 * @return false if document was filtered out by chain, content of builder must be discarded then
+	 * @throws IOException if document reading or writing fails
+	 */
+	boolean process(XContentParser parser, XContentBuilder builder, PreprocessorChain chain,
+			PreprocessChainContext chainContext) throws IOException {
+		Map<String, Object> data = read(parser, builder);
+		data = chain.preprocessData(data, chainContext);
+		if (data == null)
+			return false;
+		write(data, builder);
+		return true;
+	}
+
+	/**
+	 * Read document, start document object in builder and copy not accessed top level fields into it.
+	 *
+	 * @param parser to read document from
+	 * @param builder to write not accessed fields into
+	 * @return materialized part of document
+	 * @throws IOException
+	 */
+	Map<String, Object> read(XContentParser parser, XContentBuilder builder) throws IOException {
+		Token token = parser.currentToken();
+		if (token == null)
+			token = parser.nextToken();
+		if (token != Token.START_OBJECT)
+			throw new IOException("Document must be an object but starts with " + token);
+		builder.startObject();
+		if (root == null)
+			return parser.mapOrdered();
+		return readObject(parser, builder, root);
+	}
+
+	/**
+	 * Write materialized part of document into builder and end document object.
+	 *
+	 * @param data to write
+	 * @param builder to write into
+	 * @throws IOException
+	 */
+	void write(Map<String, Object> data, XContentBuilder builder) throws IOException {
+		writeFields(data, builder);
+		builder.endObject();
+	}
+
+	/**
+	 * Read object fields until end of object.
+	 *
+	 * @param parser positioned at start of object
+	 * @param builder to copy not accessed fields into, <code>null</code> if they have to be kept in returned
+	 *          {@link PartialMap}
+	 * @param node of accessed fields tree for this object
+	 * @return materialized fields
+	 * @throws IOException
+	 */
+	private static Map<String, Object> readObject(XContentParser parser, XContentBuilder builder, Node node)
+			throws IOException {
+		Map<String, Object> map = builder != null ? new LinkedHashMap<String, Object>() : new PartialMap();
+		Token token;
+		while ((token = parser.nextToken()) == Token.FIELD_NAME) {
+			String name = parser.currentName();
+			token = parser.nextToken();
+			Node child = node.children.get(name);
+			if (child == null) {
+				if (builder != null) {
+					builder.field(name);
+					builder.copyCurrentStructure(parser);
+				} else if (token == Token.START_OBJECT) {
+					((PartialMap) map).addRaw(name, parser);
+				} else {
+					// raw field can be used for objects only
+					map.put(name, readValue(parser, token));
+				}
+			} else if (child.full || token != Token.START_OBJECT) {
+				map.put(name, readValue(parser, token));
+			} else {
+				map.put(name, readObject(parser, null, child));
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Read value starting with current token of parser, same way as {@link XContentParser#mapOrdered()} does.
+	 *
+	 * @param parser to read value from
+	 * @param token current token of parser
+	 * @return value
+	 * @throws IOException
+	 */
+	static Object readValue(XContentParser parser, Token token) throws IOException {
+		switch (token) {
+		case START_OBJECT:
+			return parser.mapOrdered();
+		case START_ARRAY:
+			List<Object> list = new ArrayList<Object>();
+			while ((token = parser.nextToken()) != Token.END_ARRAY) {
+				list.add(readValue(parser, token));
+			}
+			return list;
+		case VALUE_STRING:
+			return parser.text();
+		case VALUE_NUMBER:
+			return parser.numberValue();
+		case VALUE_BOOLEAN:
+			return parser.booleanValue();
+		case VALUE_NULL:
+			return null;
+		case VALUE_EMBEDDED_OBJECT:
+			return parser.binaryValue();
+		default:
+			return parser.objectText();
+		}
+	}
+
+	private static void writeFields(Map<?, ?> map, XContentBuilder builder) throws IOException {
+		for (Map.Entry<?, ?> e : map.entrySet()) {
+			builder.field(String.valueOf(e.getKey()));
+			writeValue(e.getValue(), builder);
+		}
+	}
+
+	private static void writeValue(Object value, XContentBuilder builder) throws IOException {
+		if (value instanceof Map) {
+			builder.startObject();
+			if (value instanceof PartialMap)
+				((PartialMap) value).writeRaw(builder);
+			writeFields((Map<?, ?>) value, builder);
+			builder.endObject();
+		} else if (value instanceof Iterable) {
+			builder.startArray();
+			for (Object o : (Iterable<?>) value) {
+				writeValue(o, builder);
+			}
+			builder.endArray();
+		} else {
+			builder.value(value);
+		}
+	}
+
+	/**
+	 * Node of accessed fields tree.
+	 */
+	private static final class Node {
+		final Map<String, Node> children = new HashMap<String, Node>();
+
+		/**
+		 * true if whole subtree of field is accessed
+		 */
+		boolean full;
+	}
+
+	/**
+	 * Map with partially materialized object. Not accessed objects are kept as raw bytes, so they are written back only if
+	 * this map is still part of preprocessed document.
+	 */
+	private static final class PartialMap extends LinkedHashMap<String, Object> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> rawNames = new ArrayList<String>();
+		private final List<BytesReference> rawValues = new ArrayList<BytesReference>();
+
+		void addRaw(String name, XContentParser parser) throws IOException {
+			XContentBuilder raw = XContentBuilder.builder(parser.contentType().xContent());
+			raw.copyCurrentStructure(parser);
+			rawNames.add(name);
+			rawValues.add(raw.bytes());
+		}
+
+		void writeRaw(XContentBuilder builder) throws IOException {
+			for (int i = 0; i < rawNames.size(); i++) {
+				// field may be put also into materialized part by preprocessor
+				if (!containsKey(rawNames.get(i)))
+					builder.rawField(rawNames.get(i), rawValues.get(i));
+			}
+		}
+	}
+
+}
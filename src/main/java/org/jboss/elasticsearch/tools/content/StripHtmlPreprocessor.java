@@ -5,6 +5,8 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -44,18 +46,31 @@ import org.jsoup.select.NodeVisitor;
  * <li><code>source_bases</code> - list of fields in source data which are used as bases for stripping. If defined then
  * stripping is performed for each of this fields, <code>source_field</code> and <code>target_field</code> are resolved
  * relatively against this base. Base must provide object or list of objects.
+ * <li><code>mode</code> - optional HTML processing mode. <code>dom</code> (default) cleans value by jsoup and converts
+ * built DOM to text. <code>streaming</code> converts value in single pass without DOM by {@link HtmlTextExtractor},
+ * which is much faster and uses less memory for large values, but output may differ for heavily malformed HTML.
  * </ul>
+ * Values without <code>&lt;</code> and <code>&amp;</code> are only whitespace normalized in both modes, and returned
+ * untouched if already normalized.
  * 
  * @author Vlastimil Elias (velias at redhat dot com)
  * @see StructuredContentPreprocessorFactory
  */
-public class StripHtmlPreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Object> {
+public class StripHtmlPreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Object> implements
+		ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_SOURCE_FIELD = "source_field";
 	protected static final String CFG_TARGET_FIELD = "target_field";
+	protected static final String CFG_MODE = "mode";
+
+	protected static final String MODE_DOM = "dom";
+	protected static final String MODE_STREAMING = "streaming";
 
 	protected String fieldSource;
 	protected String fieldTarget;
+	protected boolean streaming = false;
+	private FieldPath fieldSourcePath;
+	private FieldPath fieldTargetPath;
 
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
@@ -64,6 +79,17 @@ public class StripHtmlPreprocessor extends StructuredContentPreprocessorWithSour
 		validateConfigurationStringNotEmpty(fieldSource, CFG_SOURCE_FIELD);
 		fieldTarget = XContentMapValues.nodeStringValue(settings.get(CFG_TARGET_FIELD), null);
 		validateConfigurationStringNotEmpty(fieldTarget, CFG_TARGET_FIELD);
+		String mode = XContentMapValues.nodeStringValue(settings.get(CFG_MODE), MODE_DOM).trim();
+		if (MODE_STREAMING.equalsIgnoreCase(mode)) {
+			streaming = true;
+		} else if (MODE_DOM.equalsIgnoreCase(mode)) {
+			streaming = false;
+		} else {
+			throw new SettingsException("Invalid 'settings/" + CFG_MODE + "' configuration value for '" + name
+					+ "' preprocessor, must be '" + MODE_DOM + "' or '" + MODE_STREAMING + "'");
+		}
+		fieldSourcePath = FieldPath.compile(fieldSource);
+		fieldTargetPath = FieldPath.compile(fieldTarget);
 	}
 
 	@Override
@@ -74,12 +100,7 @@ public class StripHtmlPreprocessor extends StructuredContentPreprocessorWithSour
 	@Override
 	protected void processOneSourceValue(Map<String, Object> data, Object context, String base,
 			PreprocessChainContext chainContext) {
-		Object v = null;
-		if (fieldSource.contains(".")) {
-			v = XContentMapValues.extractValue(fieldSource, data);
-		} else {
-			v = data.get(fieldSource);
-		}
+		Object v = fieldSourcePath.get(data);
 
 		if (v != null) {
 			if (!(v instanceof String)) {
@@ -89,12 +110,18 @@ public class StripHtmlPreprocessor extends StructuredContentPreprocessorWithSour
 				logger.debug(msg);
 			} else {
 				String value = stripHtml(v.toString());
-				StructureUtils.putValueIntoMapOfMaps(data, fieldTarget, value);
+				fieldTargetPath.put(data, value);
 			}
 		}
 	}
 
 	protected String stripHtml(String value) {
+		if (streaming || value == null || (value.indexOf('<') < 0 && value.indexOf('&') < 0))
+			return HtmlTextExtractor.extractText(value);
+		return stripHtmlByDom(value);
+	}
+
+	protected String stripHtmlByDom(String value) {
 		if (value == null || value.trim().isEmpty())
 			return value;
 		Document doc = Jsoup.parse(Jsoup.clean(value, Whitelist.relaxed()));
@@ -139,8 +166,22 @@ public class StripHtmlPreprocessor extends StructuredContentPreprocessorWithSour
 		return fieldTarget;
 	}
 
+	public boolean isStreaming() {
+		return streaming;
+	}
+
 	public List<String> getSourceBases() {
 		return sourceBases;
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		return resolveAccessedFields(Collections.singletonList(fieldSource));
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return resolveAccessedFields(Collections.singletonList(fieldTarget));
+	}
+
 }
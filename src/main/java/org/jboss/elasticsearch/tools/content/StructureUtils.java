@@ -10,7 +10,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -171,14 +170,14 @@ public class StructureUtils {
 	}
 
 	/**
-	 * Put value into Map of Maps structure. Dot notation supported for deeper level of nesting.
+	 * Put value into Map of Maps structure. Dot notation supported for deeper level of nesting. Use
+	 * {@link FieldPath#put(Map, Object)} if you put value into same field repeatedly.
 	 * 
 	 * @param map Map to put value into
 	 * @param field to put value into. Dot notation can be used.
 	 * @param value to be added into Map
 	 * @throws IllegalArgumentException if value can't be added due something wrong in data structure
 	 */
-	@SuppressWarnings("unchecked")
 	public static void putValueIntoMapOfMaps(Map<String, Object> map, String field, Object value)
 			throws IllegalArgumentException {
 		if (map == null)
@@ -186,117 +185,94 @@ public class StructureUtils {
 		if (ValueUtils.isEmpty(field)) {
 			throw new IllegalArgumentException("field argument must be defined");
 		}
-		if (field.contains(".")) {
-			String[] tokens = field.split("\\.");
-			int tokensCount = tokens.length;
-			Map<String, Object> levelData = map;
-			for (String tok : tokens) {
-				if (tokensCount == 1) {
-					levelData.put(tok, value);
-				} else {
-					Object o = levelData.get(tok);
-					if (o == null) {
-						Map<String, Object> lv = new LinkedHashMap<String, Object>();
-						levelData.put(tok, lv);
-						levelData = lv;
-					} else if (o instanceof Map) {
-						levelData = (Map<String, Object>) o;
-					} else {
-						throw new IllegalArgumentException("Cant put value for field '" + field
-								+ "' because some element in the path is not Map");
-					}
-				}
-				tokensCount--;
-			}
+		if (field.indexOf('.') >= 0) {
+			FieldPath.compile(field).put(map, value);
 		} else {
 			map.put(field, value);
 		}
 	}
 
 	/**
-	 * Remove value from Map of Maps structure. Dot notation supported for deeper level of nesting.
+	 * Remove value from Map of Maps structure. Dot notation supported for deeper level of nesting. Use
+	 * {@link FieldPath#remove(Map)} if you remove same field repeatedly.
 	 * 
 	 * @param map Map to remove value from
 	 * @param field to remove. Dot notation can be used.
 	 * @return object removed from structure if any
 	 * @throws IllegalArgumentException if value can't be removed due something wrong in data structure
 	 */
-	@SuppressWarnings("unchecked")
 	public static Object removeValueFromMapOfMaps(Map<String, Object> map, String field) throws IllegalArgumentException {
 		if (map == null)
 			return null;
 		if (ValueUtils.isEmpty(field)) {
 			throw new IllegalArgumentException("field argument must be defined");
 		}
-		if (field.contains(".")) {
-			String[] tokens = field.split("\\.");
-			int tokensCount = tokens.length;
-			Map<String, Object> levelData = map;
-			for (String tok : tokens) {
-				if (tokensCount == 1) {
-					return levelData.remove(tok);
-				} else {
-					Object o = levelData.get(tok);
-					if (o == null) {
-						return null;
-					} else if (o instanceof Map) {
-						levelData = (Map<String, Object>) o;
-					} else {
-						throw new IllegalArgumentException("Cant remove value for field '" + field
-								+ "' because some element in the path is not Map");
-					}
-				}
-				tokensCount--;
-			}
+		if (field.indexOf('.') >= 0) {
+			return FieldPath.compile(field).remove(map);
 		} else {
 			return map.remove(field);
 		}
-		return null;
 	}
 	
 	/**
-	 * A recursive method which creates a complete and deep copy of the whole structure.
-	 * Immutable elements stay as they are but all Lists and Maps are replaced with new instances.
+	 * Create a complete and deep copy of the whole structure. Immutable elements stay as they are but all Lists and Maps
+	 * are replaced with {@link CopyOnWriteStructure} nodes, null values in them are left out. Copy of structure which is
+	 * already made of {@link CopyOnWriteStructure} nodes is created in constant time, data are shared and cloned only
+	 * when changed, so structure may be copied cheaply many times. Copy of plain Maps and Lists is O(n) as whole structure
+	 * is traversed, so structure should be copied once and then copies of the copy should be used if it is copied often.
+	 * Source structure is only read, but returned nodes are not thread safe, see {@link CopyOnWriteStructure}.
 	 * 
 	 * @param root with the structure to copy
 	 * @return deep copy of the given structure
 	 */
 	@SuppressWarnings("unchecked")
-	public static Object getADeepStructureCopy( Object root ) {
-	    
-	    if ( root==null ) {
-	        
-	        return null;
-	        
-	    } else if ( root instanceof List ) {
-	        
-	        List<Object> rootList = (List<Object>)root;
-	        List<Object> copy = new LinkedList<Object>();
-	        
-	        for ( Object elem : rootList ) {
-	            Object copiedElem = getADeepStructureCopy(elem);
-	            if ( copiedElem==null ) continue;
-	            copy.add(copiedElem);   
-	        }
-	        return copy;
-            
-	    } else if ( root instanceof Map ) {
-	        
-	        Map<String,Object> rootMap = (Map<String,Object>)root;
-	        Map<String,Object> copy = new LinkedHashMap<String,Object>(rootMap.size());
-	        
-	        for ( String key : rootMap.keySet() ) {
-	            Object copiedElem = getADeepStructureCopy( rootMap.get(key) );
-	            if ( copiedElem==null ) continue;
-	            copy.put( key, copiedElem );
-	        }
-	        return copy;
-	        
-	    } else {
-	        
-	        // Since it's neither a List nor a Map, it has to be an immutable value which we can copy by reference.
-	        return root;
-	    }
+	public static Object getADeepStructureCopy(Object root) {
+		if (root instanceof CopyOnWriteStructure) {
+			return ((CopyOnWriteStructure) root).copy();
+		} else if (root instanceof List) {
+			List<Object> rootList = (List<Object>) root;
+			List<Object> copy = new ArrayList<Object>(rootList.size());
+			for (Object elem : rootList) {
+				Object copiedElem = getADeepStructureCopy(elem);
+				if (copiedElem != null)
+					copy.add(copiedElem);
+			}
+			return new CopyOnWriteStructureList(copy, false);
+		} else if (root instanceof Map) {
+			Map<String, Object> rootMap = (Map<String, Object>) root;
+			Map<String, Object> copy = new LinkedHashMap<String, Object>(Math.max(16, (int) (rootMap.size() / .75f) + 1));
+			for (Map.Entry<String, Object> e : rootMap.entrySet()) {
+				Object copiedElem = getADeepStructureCopy(e.getValue());
+				if (copiedElem != null)
+					copy.put(e.getKey(), copiedElem);
+			}
+			return new CopyOnWriteStructureMap(copy, false);
+		} else {
+			// Since it's neither a List nor a Map, it has to be an immutable value which we can copy by reference.
+			return root;
+		}
+	}
+
+	static boolean isStructure(Object value) {
+		return value instanceof Map || value instanceof List;
+	}
+
+	/**
+	 * Prepare value from shared level of {@link CopyOnWriteStructure} to be stored into its cloned level, so nested
+	 * structures are not shared directly.
+	 * 
+	 * @param value to prepare
+	 * @return copy of nested node, nested Map or List wrapped into shared node, or other value
+	 */
+	@SuppressWarnings("unchecked")
+	static Object unshareStructureNode(Object value) {
+		if (value instanceof CopyOnWriteStructure)
+			return ((CopyOnWriteStructure) value).copy();
+		if (value instanceof Map)
+			return new CopyOnWriteStructureMap((Map<String, Object>) value, true);
+		if (value instanceof List)
+			return new CopyOnWriteStructureList((List<Object>) value, true);
+		return value;
 	}
 
 }
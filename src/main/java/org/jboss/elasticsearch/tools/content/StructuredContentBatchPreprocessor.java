@@ -0,0 +1,39 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional extension of {@link StructuredContentPreprocessor} for preprocessors which are able to preprocess whole
+ * batch of data items at once, so work which is same for all items in batch may be done only once.
+ * {@link PreprocessorChain#processBatch(List, List)} calls {@link #preprocessBatch(List, List)} for preprocessors
+ * implementing this interface, and {@link StructuredContentPreprocessor#preprocessData(Map, PreprocessChainContext)}
+ * for each data item for others.
+ *
+ * @see StructuredContentPreprocessorBase#preprocessBatch(List, List)
+ * @since 1.3.10
+ */
+public interface StructuredContentBatchPreprocessor extends StructuredContentPreprocessor {
+
+	/**
+	 * Preprocess batch of data items. Implementation must follow the same contract as
+	 * {@link PreprocessorChain#processBatch(List, List)}, so data item rejected by {@link InvalidDataException} is
+	 * replaced by <code>null</code> in returned list and reason is written into the chain context of this item as
+	 * warning. Other items of the batch must be preprocessed normally in this case.
+	 *
+	 * @param batch list of data items to be preprocessed - items may be changed during call! List itself may be changed
+	 *          during call also, and it may contain <code>null</code> items which must be skipped.
+	 * @param chainContexts list of chain contexts for data items with same size as <code>batch</code>, may be
+	 *          <code>null</code> or may contain <code>null</code> items.
+	 * @return list with preprocessed data with same size and order as <code>batch</code> - typically the
+	 *         <code>batch</code> list itself.
+	 */
+	List<Map<String, Object>> preprocessBatch(List<Map<String, Object>> batch,
+			List<? extends PreprocessChainContext> chainContexts);
+
+}
@@ -6,6 +6,7 @@
 package org.jboss.elasticsearch.tools.content;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.client.Client;
@@ -18,7 +19,7 @@ import org.elasticsearch.common.settings.SettingsException;
  * 
  * @author Vlastimil Elias (velias at redhat dot com)
  */
-public abstract class StructuredContentPreprocessorBase implements StructuredContentPreprocessor {
+public abstract class StructuredContentPreprocessorBase implements StructuredContentBatchPreprocessor {
 
 	protected ESLogger logger = null;
 
@@ -49,6 +50,47 @@ public abstract class StructuredContentPreprocessorBase implements StructuredCon
 		return preprocessData(data, null);
 	}
 
+	/**
+	 * Default implementation simply calls {@link #preprocessData(Map, PreprocessChainContext)} for each data item in
+	 * batch. Override it if your preprocessor is able to do some work only once per batch.
+	 * 
+	 * @see StructuredContentBatchPreprocessor#preprocessBatch(List, List)
+	 */
+	@Override
+	public List<Map<String, Object>> preprocessBatch(List<Map<String, Object>> batch,
+			List<? extends PreprocessChainContext> chainContexts) {
+		if (batch == null)
+			return null;
+		for (int i = 0; i < batch.size(); i++) {
+			Map<String, Object> data = batch.get(i);
+			if (data != null) {
+				PreprocessChainContext chainContext = getChainContext(chainContexts, i);
+				try {
+					batch.set(i, preprocessData(data, chainContext));
+				} catch (InvalidDataException e) {
+					batch.set(i, null);
+					addDataWarning(chainContext, String.valueOf(e.getMessage()));
+				}
+			}
+		}
+		return batch;
+	}
+
+	/**
+	 * Get chain context for given data item of batch.
+	 * 
+	 * @param chainContexts list of chain contexts for batch, can be <code>null</code>
+	 * @param index of data item in batch
+	 * @return chain context or <code>null</code> if not available
+	 * @see StructuredContentBatchPreprocessor#preprocessBatch(List, List)
+	 */
+	protected static PreprocessChainContext getChainContext(List<? extends PreprocessChainContext> chainContexts,
+			int index) {
+		if (chainContexts == null || index >= chainContexts.size())
+			return null;
+		return chainContexts.get(index);
+	}
+
 	/**
 	 * Write warning message into processing chain context if available.
 	 * 
@@ -6,6 +6,7 @@
 package org.jboss.elasticsearch.tools.content;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -23,14 +24,21 @@ import org.elasticsearch.client.Client;
  *     "settings" : {
  *         "some_setting_1" : "value1",
  *         "some_setting_2" : "value2"
- *     }
+ *     },
+ *     "when"     : { "field" : "fields.status", "exists" : true }
  * }
  * </pre>
  * 
  * Class defined in <code>class</code> element must implement {@link StructuredContentPreprocessor} interface. Name of
  * preprocessor from <code>name</code> element and configuration structure stored in <code>settings</code> element (must
  * be <code>Map<String, Object></code>) is then passed to the
- * {@link StructuredContentPreprocessor#init(String, Client, Map)} method.
+ * {@link StructuredContentPreprocessor#init(String, Client, Map)} method. Optional <code>when</code> element contains
+ * condition described in {@link PreprocessorCondition}, it is used by {@link PreprocessorChain} to invoke preprocessor
+ * only for data items matching it.
+ * <p>
+ * Use {@link #createPreprocessorChain(List, Client)} to create {@link PreprocessorChain} which allows to run all
+ * preprocessors over data item or batch of data items. Metrics of each preprocessor in chain can be recorded if chain is
+ * created by {@link #createPreprocessorChain(List, Client, boolean)}.
  * 
  * @author Vlastimil Elias (velias at redhat dot com)
  */
@@ -39,6 +47,7 @@ public class StructuredContentPreprocessorFactory {
   public static final String CFG_SETTINGS = "settings";
 	public static final String CFG_CLASS = "class";
 	public static final String CFG_NAME = "name";
+	public static final String CFG_WHEN = "when";
 
 	/**
    * Create preprocessor from configuration described in this class's javadoc.
@@ -98,4 +107,49 @@ public class StructuredContentPreprocessorFactory {
     return ret;
   }
 
+  /**
+   * Create chain of preprocessors from array of configurations described in this class's javadoc.
+   * 
+   * @param preprocessorConfig List of configuration structure in Map of Maps
+   * @param client ES client to be passed to the preprocessors.
+   * @return chain of created preprocessors
+   * @throws IllegalArgumentException if something is wrong and preprocessor can't be instantiated.
+   * @since 1.3.10
+   */
+  public static PreprocessorChain createPreprocessorChain(List<Map<String, Object>> preprocessorConfig, Client client)
+      throws IllegalArgumentException {
+    return createPreprocessorChain(preprocessorConfig, client, false);
+  }
+
+  /**
+   * Create chain of preprocessors from array of configurations described in this class's javadoc, optionally with
+   * metrics recording.
+   * 
+   * @param preprocessorConfig List of configuration structure in Map of Maps
+   * @param client ES client to be passed to the preprocessors.
+   * @param instrumented if true then each preprocessor is wrapped by {@link InstrumentedPreprocessor}, so its metrics
+   *          are available from {@link PreprocessorChain#getMetrics()} by preprocessor name. Preprocessors with same
+   *          name share metrics.
+   * @return chain of created preprocessors
+   * @throws IllegalArgumentException if something is wrong and preprocessor can't be instantiated.
+   * @since 1.3.10
+   */
+  public static PreprocessorChain createPreprocessorChain(List<Map<String, Object>> preprocessorConfig, Client client,
+      boolean instrumented) throws IllegalArgumentException {
+    List<StructuredContentPreprocessor> preprocessors = createPreprocessors(preprocessorConfig, client);
+    if (instrumented) {
+      Map<String, PreprocessorMetrics> metrics = new HashMap<String, PreprocessorMetrics>();
+      for (int i = 0; i < preprocessors.size(); i++) {
+        StructuredContentPreprocessor p = preprocessors.get(i);
+        PreprocessorMetrics m = metrics.get(p.getName());
+        if (m == null) {
+          m = new PreprocessorMetrics(p.getName());
+          metrics.put(p.getName(), m);
+        }
+        preprocessors.set(i, new InstrumentedPreprocessor(p, m));
+      }
+    }
+    return new PreprocessorChain(preprocessors, preprocessorConfig, client);
+  }
+
 }
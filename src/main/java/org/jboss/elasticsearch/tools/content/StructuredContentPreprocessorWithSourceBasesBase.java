@@ -5,12 +5,12 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.common.settings.SettingsException;
-import org.elasticsearch.common.xcontent.support.XContentMapValues;
 
 /**
  * Abstract base class for preprocessors supporting concept of "source_bases". Do not forgot to call parent
@@ -24,6 +24,8 @@ public abstract class StructuredContentPreprocessorWithSourceBasesBase<T> extend
 
 	protected List<String> sourceBases;
 
+	private FieldPath[] sourceBasesPaths;
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
@@ -31,20 +33,37 @@ public abstract class StructuredContentPreprocessorWithSourceBasesBase<T> extend
 			throw new SettingsException("'settings' section is not defined for preprocessor " + name);
 		}
 		sourceBases = (List<String>) settings.get(CFG_source_bases);
+		sourceBasesPaths = sourceBases != null ? FieldPath.compile(sourceBases) : new FieldPath[0];
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext chainContext) {
 		if (data == null)
 			return null;
+		return preprocessData(data, sourceBases != null ? createContext(data) : null, chainContext);
+	}
 
+	/**
+	 * Do preprocessing of data with given context. Allows subclasses to prepare context also for case when
+	 * "source_bases" concept is not used.
+	 * 
+	 * @param data to run preprocessing on, not null
+	 * @param context passed to each call of {@link #processOneSourceValue(Map, Object, String, PreprocessChainContext)}
+	 * @param chainContext preprocessor chain context
+	 * @return preprocessed data
+	 * @since 1.3.10
+	 */
+	@SuppressWarnings("unchecked")
+	protected Map<String, Object> preprocessData(Map<String, Object> data, T context,
+			PreprocessChainContext chainContext) {
 		if (sourceBases == null) {
-			processOneSourceValue(data, null, null, chainContext);
+			processOneSourceValue(data, context, null, chainContext);
 		} else {
-			T context = createContext(data);
-			for (String base : sourceBases) {
-				Object obj = XContentMapValues.extractValue(base, data);
+			for (FieldPath basePath : getSourceBasesPaths()) {
+				if (basePath == null)
+					continue;
+				String base = basePath.getPath();
+				Object obj = basePath.get(data);
 				if (obj != null) {
 					if (obj instanceof Map) {
 						processOneSourceValue((Map<String, Object>) obj, context, base, chainContext);
@@ -108,6 +127,50 @@ public abstract class StructuredContentPreprocessorWithSourceBasesBase<T> extend
 		}
 	}
 
+	/**
+	 * Get compiled paths of configured source bases, compiled in {@link #init(Map)}.
+	 * 
+	 * @return compiled paths, <code>null</code> on positions of empty bases. Empty array if source bases are not
+	 *         configured.
+	 * @since 1.3.10
+	 */
+	protected FieldPath[] getSourceBasesPaths() {
+		return sourceBasesPaths;
+	}
+
+	/**
+	 * Resolve fields accessed by preprocessor for {@link FieldAccessAwarePreprocessor} methods. Configured source bases
+	 * are returned instead of <code>fields</code> because fields are relative to them then.
+	 *
+	 * @param fields accessed by preprocessor, relative to source base if "source_bases" concept is used
+	 * @return accessed fields
+	 * @since 1.3.10
+	 */
+	protected Collection<String> resolveAccessedFields(Collection<String> fields) {
+		if (sourceBases == null)
+			return fields;
+		List<String> ret = new ArrayList<String>();
+		for (String base : sourceBases) {
+			if (base != null && !base.isEmpty())
+				ret.add(base);
+		}
+		return ret;
+	}
+
+	/**
+	 * Check if preprocessor can share traversal of source bases with other preprocessors configured with same
+	 * "source_bases", see {@link PreprocessorChain#optimize()}. Each value of source base is then processed by all
+	 * preprocessors before next value is processed, and contexts of all preprocessors are created before the first
+	 * value is processed. It is allowed by default, preprocessors which read data out of source base value or override
+	 * {@link #preprocessData(Map, PreprocessChainContext)} or {@link #preprocessBatch(List, List)} have to disable it.
+	 *
+	 * @return true if preprocessor can share traversal of source bases
+	 * @since 1.3.10
+	 */
+	protected boolean isSourceBasesTraversalShareable() {
+		return true;
+	}
+
 	/**
 	 * Get configured source bases
 	 * 
@@ -0,0 +1,21 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.Map;
+
+/**
+ * Marker interface for {@link StructuredContentPreprocessor} implementations which allow concurrent calls of
+ * {@link StructuredContentPreprocessor#preprocessData(Map, PreprocessChainContext)} from more threads after they are
+ * initialized. {@link PreprocessorChain} running in parallel mode uses one instance of these preprocessors for all
+ * threads, while other preprocessors are instantiated for each thread or their calls are serialized.
+ *
+ * @see PreprocessorChain#setExecutor(java.util.concurrent.ExecutorService)
+ * @since 1.3.10
+ */
+public interface ThreadSafePreprocessor extends StructuredContentPreprocessor {
+
+}
@@ -5,6 +5,8 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 
 import org.elasticsearch.common.settings.SettingsException;
@@ -42,7 +44,8 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * @author Vlastimil Elias (velias at redhat dot com)
  * @see StructuredContentPreprocessorFactory
  */
-public class TrimStringValuePreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Object> {
+public class TrimStringValuePreprocessor extends StructuredContentPreprocessorWithSourceBasesBase<Object> implements
+		ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_SOURCE_FIELD = "source_field";
 	protected static final String CFG_TARGET_FIELD = "target_field";
@@ -50,6 +53,8 @@ public class TrimStringValuePreprocessor extends StructuredContentPreprocessorWi
 
 	protected String fieldSource;
 	protected String fieldTarget;
+	private FieldPath fieldSourcePath;
+	private FieldPath fieldTargetPath;
 	protected int maxSize;
 
 	@Override
@@ -59,18 +64,15 @@ public class TrimStringValuePreprocessor extends StructuredContentPreprocessorWi
 		validateConfigurationStringNotEmpty(fieldSource, CFG_SOURCE_FIELD);
 		fieldTarget = XContentMapValues.nodeStringValue(settings.get(CFG_TARGET_FIELD), null);
 		validateConfigurationStringNotEmpty(fieldTarget, CFG_TARGET_FIELD);
+		fieldSourcePath = FieldPath.compile(fieldSource);
+		fieldTargetPath = FieldPath.compile(fieldTarget);
 		maxSize = readMandatoryIntegerConfigValue(settings, CFG_MAX_SIZE);
 	}
 
 	@Override
 	protected void processOneSourceValue(Map<String, Object> data, Object context, String base,
 			PreprocessChainContext chainContext) {
-		Object v = null;
-		if (fieldSource.contains(".")) {
-			v = XContentMapValues.extractValue(fieldSource, data);
-		} else {
-			v = data.get(fieldSource);
-		}
+		Object v = fieldSourcePath.get(data);
 
 		if (v != null) {
 			if (!(v instanceof String)) {
@@ -93,7 +95,7 @@ public class TrimStringValuePreprocessor extends StructuredContentPreprocessorWi
 	}
 
 	protected void putTargetValue(Map<String, Object> data, String value) {
-		StructureUtils.putValueIntoMapOfMaps(data, fieldTarget, value);
+		fieldTargetPath.put(data, value);
 	}
 
 	@Override
@@ -113,4 +115,14 @@ public class TrimStringValuePreprocessor extends StructuredContentPreprocessorWi
 		return maxSize;
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		return resolveAccessedFields(Collections.singletonList(fieldSource));
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return resolveAccessedFields(Collections.singletonList(fieldTarget));
+	}
+
 }
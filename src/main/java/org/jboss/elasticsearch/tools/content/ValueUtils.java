@@ -11,9 +11,9 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.TimeZone;
 
-import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
 
 /**
  * Utility functions for values manipulation.
@@ -133,54 +133,38 @@ public class ValueUtils {
 	 * @param data to get replacement values from
 	 * @param originalValue used in pattern if {@value #PATTERN_KEY_ORIGINAL_VALUE} is used as key
 	 * @return value with replaced keys
+	 * @see CompiledTemplate
 	 */
 	public static String processStringValuePatternReplacement(String patternValue, Map<String, Object> data,
 			Object originalValue) {
 		if (patternValue == null || patternValue.length() == 0)
 			return patternValue;
-		StringBuilder finalContent = new StringBuilder();
-
-		boolean inBraces = false;
-		StringBuilder bracesContent = null;
-		for (int idx = 0; idx < patternValue.length(); idx++) {
-			char ch = patternValue.charAt(idx);
-			if (!inBraces && ch == '{') {
-				inBraces = true;
-				bracesContent = new StringBuilder();
-			} else if (inBraces && ch == '}') {
-				inBraces = false;
-				String key = bracesContent.toString();
-				if (key.length() > 0) {
-					Object v = null;
-					if (PATTERN_KEY_ORIGINAL_VALUE.equals(key)) {
-						v = originalValue;
-					} else if (data != null) {
-						if (key.contains(".")) {
-							v = XContentMapValues.extractValue(key, data);
-						} else {
-							v = data.get(key);
-						}
-					}
-					if (v != null) {
-						finalContent.append(v.toString());
-					}
-				}
-			} else if (inBraces) {
-				bracesContent.append(ch);
-			} else {
-				finalContent.append(ch);
-			}
+		CompiledTemplate template = templateCache.getIfPresent(patternValue);
+		if (template == null) {
+			template = CompiledTemplate.compile(patternValue);
+			templateCache.put(patternValue, template);
 		}
-		// handle not closed brace
-		if (inBraces) {
-			finalContent.append("{").append(bracesContent);
-		}
-		return finalContent.toString();
+		return template.render(data, originalValue);
 	}
 
-	protected static final SimpleDateFormat ISO_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXX");
+	/**
+	 * Templates compiled by {@link #processStringValuePatternReplacement(String, Map, Object)}, pattern is key. Bounded
+	 * as patterns may come from data.
+	 */
+	private static final Cache<String, CompiledTemplate> templateCache = CacheBuilder.newBuilder().maximumSize(1000)
+			.build();
+
+	/**
+	 * ISO 8601 full datetime format in UTC, same as {@link CompiledDateFormat#ISO_DATE_TIME}.
+	 * 
+	 * @deprecated it is not thread safe, use {@link CompiledDateFormat#ISO_DATE_TIME} or
+	 *             {@link #formatISODateTime(Date)}
+	 */
+	@Deprecated
+	protected static final SimpleDateFormat ISO_DATE_FORMAT = new SimpleDateFormat(
+			CompiledDateFormat.ISO_DATE_TIME.getPattern());
 	static {
-		ISO_DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
+		ISO_DATE_FORMAT.setTimeZone(CompiledDateFormat.ISO_DATE_TIME.getTimeZone());
 	}
 
 	/**
@@ -188,12 +172,9 @@ public class ValueUtils {
 	 * 
 	 * @param date to format
 	 * @return formatted string
+	 * @see CompiledDateFormat#ISO_DATE_TIME
 	 */
 	public static final String formatISODateTime(Date date) {
-		if (date == null)
-			return null;
-		synchronized (ISO_DATE_FORMAT) {
-			return ISO_DATE_FORMAT.format(date);
-		}
+		return CompiledDateFormat.ISO_DATE_TIME.format(date);
 	}
 }
@@ -7,6 +7,7 @@ package org.jboss.elasticsearch.tools.content;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -47,7 +48,8 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
  * @author Ryszard Kozmik (rkozmik at redhat dot com)
  * @see StructuredContentPreprocessorFactory
  */
-public class ValuesCollectingPreprocessor extends StructuredContentPreprocessorBase {
+public class ValuesCollectingPreprocessor extends StructuredContentPreprocessorBase implements
+		ThreadSafePreprocessor, FieldAccessAwarePreprocessor {
 
 	protected static final String CFG_SOURCE_FIELDS = "source_fields";
 	protected static final String CFG_TARGET_FIELD = "target_field";
@@ -57,6 +59,9 @@ public class ValuesCollectingPreprocessor extends StructuredContentPreprocessorB
 	protected List<String> fieldsSource;
 	protected boolean fieldDeepCopy;
 
+	private FieldPath fieldTargetPath;
+	private FieldPath[] fieldsSourcePaths;
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void init(Map<String, Object> settings) throws SettingsException {
@@ -67,6 +72,8 @@ public class ValuesCollectingPreprocessor extends StructuredContentPreprocessorB
 		validateConfigurationObjectNotEmpty(fieldsSource, CFG_SOURCE_FIELDS);
 		fieldTarget = XContentMapValues.nodeStringValue(settings.get(CFG_TARGET_FIELD), null);
 		validateConfigurationStringNotEmpty(fieldTarget, CFG_TARGET_FIELD);
+		fieldTargetPath = FieldPath.compile(fieldTarget);
+		fieldsSourcePaths = FieldPath.compile(fieldsSource);
 		String fieldDeepCopyStr = XContentMapValues.nodeStringValue(settings.get(CFG_DEEP_COPY), "false" );
 		fieldDeepCopy = fieldDeepCopyStr.compareTo("true")==0 ? true : false;
 	}
@@ -77,16 +84,18 @@ public class ValuesCollectingPreprocessor extends StructuredContentPreprocessorB
 			return null;
 		Set<Object> vals = new HashSet<Object>();
 
-		for (String sourceField : fieldsSource) {
-			if (ValueUtils.isEmpty(sourceField))
+		FieldPath[] sourcePaths = fieldsSourcePaths;
+		for (FieldPath sourcePath : sourcePaths) {
+			if (sourcePath == null)
 				continue;
-			Object v = XContentMapValues.extractValue(sourceField, data);
+			Object v = sourcePath.get(data);
 			collectValue(vals, v);
 		}
+		FieldPath targetPath = fieldTargetPath;
 		if (vals != null && !vals.isEmpty()) {
-			StructureUtils.putValueIntoMapOfMaps(data, fieldTarget, new ArrayList<Object>(vals));
+			targetPath.put(data, new ArrayList<Object>(vals));
 		} else {
-			StructureUtils.putValueIntoMapOfMaps(data, fieldTarget, null);
+			targetPath.put(data, null);
 		}
 		return data;
 	}
@@ -119,4 +128,14 @@ public class ValuesCollectingPreprocessor extends StructuredContentPreprocessorB
 		return fieldsSource;
 	}
 
+	@Override
+	public Collection<String> getReadFields() {
+		return fieldsSource;
+	}
+
+	@Override
+	public Collection<String> getWrittenFields() {
+		return Collections.singletonList(fieldTarget);
+	}
+
 }
@@ -5,7 +5,9 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.Assert;
@@ -81,7 +83,7 @@ public class AddCurrentTimestampPreprocessorTest {
 	@Test
 	public void preprocessData() {
 		AddCurrentTimestampPreprocessor tested = new AddCurrentTimestampPreprocessor();
-		tested.field = "my_field";
+		init(tested, "my_field");
 
 		// case - not NPE
 		tested.preprocessData(null, null);
@@ -105,4 +107,34 @@ public class AddCurrentTimestampPreprocessorTest {
 			Assert.assertTrue(now <= val && val <= now + 100);
 		}
 	}
+
+	@Test
+	public void preprocessBatch() {
+		AddCurrentTimestampPreprocessor tested = new AddCurrentTimestampPreprocessor();
+		init(tested, "my_field");
+
+		// case - not NPE
+		Assert.assertNull(tested.preprocessBatch(null, null));
+
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+		batch.add(new HashMap<String, Object>());
+		batch.add(null);
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put(tested.field, "value old");
+		batch.add(values);
+
+		long now = System.currentTimeMillis();
+		Assert.assertSame(batch, tested.preprocessBatch(batch, null));
+		Assert.assertNull(batch.get(1));
+		long val = ISODateTimeFormat.dateTimeParser().parseMillis((String) batch.get(0).get(tested.field));
+		Assert.assertTrue(now <= val && val <= now + 100);
+		// same timestamp for whole batch
+		Assert.assertEquals(batch.get(0).get(tested.field), batch.get(2).get(tested.field));
+	}
+
+	private static void init(AddCurrentTimestampPreprocessor tested, String field) {
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(AddCurrentTimestampPreprocessor.CFG_FIELD, field);
+		tested.init("Test mapper", null, settings);
+	}
 }
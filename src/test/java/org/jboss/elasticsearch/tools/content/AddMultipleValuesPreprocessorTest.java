@@ -69,7 +69,7 @@ public class AddMultipleValuesPreprocessorTest {
 		settings.put("field_replace_nested", "{user.name}");
 		settings.put("field_replace.complex", "I'm {user.name} and like to read '{title}'");
 		settings.put("field_replace.complex2", "{title} - {user.name}");
-		tested.fields = settings;
+		tested.init("Test mapper", null, settings);
 
 		// case - not NPE
 		tested.preprocessData(null, null);
@@ -123,7 +123,7 @@ public class AddValuePreprocessorTest {
 	public void preprocessData() {
 
 		AddValuePreprocessor tested = new AddValuePreprocessor();
-		tested.field = "my_field";
+		init(tested, "my_field", null);
 
 		// case - not NPE
 		tested.preprocessData(null, null);
@@ -146,7 +146,7 @@ public class AddValuePreprocessorTest {
 		// case - fill String value over null
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
-			tested.value = "Value";
+			init(tested, tested.field, "Value");
 			tested.preprocessData(values, null);
 			Assert.assertEquals("Value", values.get(tested.field));
 		}
@@ -155,7 +155,7 @@ public class AddValuePreprocessorTest {
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
 			values.put(tested.field, "value old");
-			tested.value = "Value";
+			init(tested, tested.field, "Value");
 			tested.preprocessData(values, null);
 			Assert.assertEquals("Value", values.get(tested.field));
 		}
@@ -163,7 +163,7 @@ public class AddValuePreprocessorTest {
 		// case - fill Integer value over null
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
-			tested.value = new Integer(10);
+			init(tested, tested.field, new Integer(10));
 			tested.preprocessData(values, null);
 			Assert.assertEquals(new Integer(10), values.get(tested.field));
 		}
@@ -172,18 +172,25 @@ public class AddValuePreprocessorTest {
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
 			values.put(tested.field, "value old");
-			tested.value = new Integer(10);
+			init(tested, tested.field, new Integer(10));
 			tested.preprocessData(values, null);
 			Assert.assertEquals(new Integer(10), values.get(tested.field));
 		}
 
 		// case - fill String value over null - dot notation
-		tested.field = "my_field.level1.level2";
+		init(tested, "my_field.level1.level2", null);
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
-			tested.value = "Value";
+			init(tested, tested.field, "Value");
 			tested.preprocessData(values, null);
 			Assert.assertEquals("Value", XContentMapValues.extractValue(tested.field, values));
 		}
 	}
+
+	private static void init(AddValuePreprocessor tested, String field, Object value) {
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(AddValuePreprocessor.CFG_FIELD, field);
+		settings.put(AddValuePreprocessor.CFG_VALUE, value);
+		tested.init("Test mapper", null, settings);
+	}
 }
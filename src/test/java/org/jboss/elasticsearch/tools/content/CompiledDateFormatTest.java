@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link CompiledDateFormat}.
+ */
+public class CompiledDateFormatTest {
+
+	@Test
+	public void compile() {
+		CompiledDateFormat f = CompiledDateFormat.compile("yyyy-MM-dd");
+		Assert.assertEquals("yyyy-MM-dd", f.getPattern());
+		Assert.assertNull(f.getTimeZone());
+
+		try {
+			CompiledDateFormat.compile(null);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			CompiledDateFormat.compile("yyyy-MM-dd'T");
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void formatAndParse() throws ParseException {
+		Assert.assertNull(CompiledDateFormat.ISO_DATE_TIME.format(null));
+		Assert.assertEquals("2012-08-14T12:00:00.000Z", CompiledDateFormat.ISO_DATE_TIME.format(new Date(1344945600000L)));
+		Assert.assertEquals(1344945600000L, CompiledDateFormat.ISO_DATE_TIME.parse("2012-08-14T13:00:00.000+0100")
+				.getTime());
+
+		CompiledDateFormat f = CompiledDateFormat.compile("yyyy-MM-dd HH:mm");
+		Assert.assertEquals(new SimpleDateFormat("yyyy-MM-dd HH:mm").parse("2014-02-03 10:11"), f.parse("2014-02-03 10:11"));
+		try {
+			f.parse("2014:02:03");
+			Assert.fail("ParseException must be thrown");
+		} catch (ParseException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void concurrentUse() throws Exception {
+		final CompiledDateFormat f = CompiledDateFormat.ISO_DATE_TIME;
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 4; t++) {
+				final long base = t * 100000000000L;
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						for (int i = 0; i < 2000; i++) {
+							long millis = base + i * 86400123L;
+							if (f.parse(f.format(new Date(millis))).getTime() != millis)
+								return false;
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> r : results)
+				Assert.assertTrue(r.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
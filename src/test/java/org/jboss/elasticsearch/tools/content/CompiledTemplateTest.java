@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link CompiledTemplate}.
+ */
+public class CompiledTemplateTest {
+
+	@Test
+	public void compile() {
+		try {
+			CompiledTemplate.compile((String) null);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+
+		CompiledTemplate ct = CompiledTemplate.compile("Ahoj {name}");
+		Assert.assertEquals("Ahoj {name}", ct.getPattern());
+		Assert.assertEquals("Ahoj {name}", ct.toString());
+		Assert.assertTrue(ct.hasKeys());
+
+		// case - patterns without keys
+		Assert.assertFalse(CompiledTemplate.compile("").hasKeys());
+		Assert.assertFalse(CompiledTemplate.compile("Ahoj").hasKeys());
+		Assert.assertFalse(CompiledTemplate.compile("Ahoj {}").hasKeys());
+		Assert.assertFalse(CompiledTemplate.compile("Ahoj {name").hasKeys());
+	}
+
+	@Test
+	public void getKeys() {
+		Assert.assertTrue(CompiledTemplate.compile("Ahoj {}").getKeys().isEmpty());
+		Assert.assertEquals(Arrays.asList("name", "user.name"),
+				CompiledTemplate.compile("{__original} {name} and {user.name}{s").getKeys());
+	}
+
+	@Test
+	public void render() {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("name", "Joe");
+		data.put("count", new Integer(10));
+		Map<String, Object> user = new HashMap<String, Object>();
+		user.put("name", "Lena");
+		data.put("user", user);
+
+		// case - constant patterns
+		Assert.assertEquals("", CompiledTemplate.compile("").render(data, null));
+		Assert.assertEquals("Ahoj", CompiledTemplate.compile("Ahoj").render(null, null));
+		Assert.assertEquals("Ahoj welcome", CompiledTemplate.compile("Ahoj {}welcome").render(data, null));
+		Assert.assertEquals("Ahoj {name", CompiledTemplate.compile("Ahoj {name").render(data, null));
+
+		// case - keys
+		CompiledTemplate ct = CompiledTemplate.compile("Ahoj {name} and {user.name}, {count} time{s.");
+		Assert.assertEquals("Ahoj Joe and Lena, 10 time{s.", ct.render(data, null));
+		Assert.assertEquals("Ahoj  and ,  time{s.", ct.render(null, null));
+		Assert.assertEquals("Ahoj  and ,  time{s.", ct.render(new HashMap<String, Object>(), null));
+
+		// case - original value
+		ct = CompiledTemplate.compile("{__original}-{name}");
+		Assert.assertEquals("orig-Joe", ct.render(data, "orig"));
+		Assert.assertEquals("-Joe", ct.render(data, null));
+		Assert.assertEquals("5-", ct.render(null, new Integer(5)));
+
+		// case - rendering same as by ValueUtils for some edge cases
+		String[] patterns = new String[] { "{name}", "{{name}}", "{name}}", "{ name}", "{.}", "{user.}", "a{}{}b" };
+		for (String pattern : patterns) {
+			Assert.assertEquals("Pattern " + pattern, ValueUtils.processStringValuePatternReplacement(pattern, data, "o"),
+					CompiledTemplate.compile(pattern).render(data, "o"));
+		}
+		Assert.assertEquals("Joe}", CompiledTemplate.compile("{name}}").render(data, null));
+	}
+
+}
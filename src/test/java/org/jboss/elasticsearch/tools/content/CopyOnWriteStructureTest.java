@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link CopyOnWriteStructureMap} and {@link CopyOnWriteStructureList}.
+ */
+public class CopyOnWriteStructureTest {
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> createStructure() {
+		Map<String, Object> nested = new LinkedHashMap<String, Object>();
+		nested.put("name", "John");
+		nested.put("tags", new ArrayList<Object>(Arrays.asList("a", "b")));
+		List<Object> list = new LinkedList<Object>();
+		list.add(nested);
+		list.add(null);
+		list.add("text");
+		Map<String, Object> root = new LinkedHashMap<String, Object>();
+		root.put("key", "value");
+		root.put("empty", null);
+		root.put("list", list);
+		root.put("nested", new HashMap<String, Object>(nested));
+		return (Map<String, Object>) StructureUtils.getADeepStructureCopy(root);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void copy_isolation() {
+		Map<String, Object> original = createStructure();
+		Assert.assertTrue(original instanceof CopyOnWriteStructureMap);
+		// null values are left out by deep copy
+		Assert.assertFalse(original.containsKey("empty"));
+		Assert.assertEquals(2, ((List<Object>) original.get("list")).size());
+		Assert.assertTrue(original.get("list") instanceof CopyOnWriteStructureList);
+
+		Map<String, Object> copy = (Map<String, Object>) StructureUtils.getADeepStructureCopy(original);
+		Assert.assertNotSame(original, copy);
+		Assert.assertEquals(original, copy);
+		Assert.assertEquals(original.hashCode(), copy.hashCode());
+
+		// change of copy is not visible in original
+		copy.put("key", "changed");
+		((Map<String, Object>) ((List<Object>) copy.get("list")).get(0)).put("name", "Jack");
+		((List<Object>) ((Map<String, Object>) copy.get("nested")).get("tags")).add("c");
+		Assert.assertEquals("value", original.get("key"));
+		Assert.assertEquals("John", ((Map<String, Object>) ((List<Object>) original.get("list")).get(0)).get("name"));
+		Assert.assertEquals(2, ((List<Object>) ((Map<String, Object>) original.get("nested")).get("tags")).size());
+		Assert.assertEquals("changed", copy.get("key"));
+		Assert.assertEquals("Jack", ((Map<String, Object>) ((List<Object>) copy.get("list")).get(0)).get("name"));
+		Assert.assertEquals(3, ((List<Object>) ((Map<String, Object>) copy.get("nested")).get("tags")).size());
+
+		// change of original is not visible in copy
+		Map<String, Object> copy2 = (Map<String, Object>) StructureUtils.getADeepStructureCopy(original);
+		((Map<String, Object>) original.get("nested")).remove("name");
+		original.remove("key");
+		Assert.assertEquals("value", copy2.get("key"));
+		Assert.assertEquals("John", ((Map<String, Object>) copy2.get("nested")).get("name"));
+		Assert.assertFalse(((Map<String, Object>) original.get("nested")).containsKey("name"));
+
+		// copy of copy
+		Map<String, Object> copy3 = (Map<String, Object>) StructureUtils.getADeepStructureCopy(copy2);
+		copy3.clear();
+		Assert.assertTrue(copy3.isEmpty());
+		Assert.assertEquals(4 - 1, copy2.size());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void map_iteration() {
+		Map<String, Object> original = createStructure();
+		Map<String, Object> copy = (Map<String, Object>) StructureUtils.getADeepStructureCopy(original);
+
+		List<String> keys = new ArrayList<String>();
+		for (Iterator<Map.Entry<String, Object>> it = copy.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Object> e = it.next();
+			keys.add(e.getKey());
+			if ("key".equals(e.getKey()))
+				it.remove();
+			else if ("nested".equals(e.getKey()))
+				((Map<String, Object>) e.getValue()).put("name", "Jack");
+			else if ("list".equals(e.getKey()))
+				e.setValue("replaced");
+		}
+		Assert.assertEquals(Arrays.asList("key", "list", "nested"), keys);
+		Assert.assertEquals(2, copy.size());
+		Assert.assertEquals("replaced", copy.get("list"));
+		Assert.assertEquals("Jack", ((Map<String, Object>) copy.get("nested")).get("name"));
+
+		Assert.assertEquals(3, original.size());
+		Assert.assertEquals("John", ((Map<String, Object>) original.get("nested")).get("name"));
+		Assert.assertTrue(original.get("list") instanceof List);
+
+		// iteration over not shared map changes it directly
+		for (Iterator<Map.Entry<String, Object>> it = copy.entrySet().iterator(); it.hasNext();) {
+			if ("list".equals(it.next().getKey()))
+				it.remove();
+		}
+		Assert.assertEquals(1, copy.size());
+	}
+
+	@Test
+	public void list() {
+		List<Object> list = new CopyOnWriteStructureList();
+		list.add("a");
+		list.add("b");
+		list.add(0, "c");
+		Assert.assertEquals(Arrays.asList("c", "a", "b"), list);
+
+		CopyOnWriteStructureList copy = ((CopyOnWriteStructureList) list).copy();
+		copy.remove(1);
+		copy.set(0, "x");
+		Assert.assertEquals(Arrays.asList("c", "a", "b"), list);
+		Assert.assertEquals(Arrays.asList("x", "b"), copy);
+
+		for (Iterator<Object> it = list.iterator(); it.hasNext();) {
+			if ("a".equals(it.next()))
+				it.remove();
+		}
+		Assert.assertEquals(Arrays.asList("c", "b"), list);
+		Assert.assertEquals(Arrays.asList("x", "b"), copy);
+
+		CopyOnWriteStructureList copy2 = copy.copy();
+		copy.clear();
+		Assert.assertTrue(copy.isEmpty());
+		Assert.assertEquals(Arrays.asList("x", "b"), copy2);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void rawValuesPutIntoStructure() {
+		Map<String, Object> original = new CopyOnWriteStructureMap();
+		Map<String, Object> raw = new HashMap<String, Object>();
+		original.put("raw", raw);
+		// raw values are stored by reference
+		raw.put("a", "1");
+		Assert.assertEquals("1", ((Map<String, Object>) original.get("raw")).get("a"));
+
+		Map<String, Object> copy = (Map<String, Object>) StructureUtils.getADeepStructureCopy(original);
+		((Map<String, Object>) copy.get("raw")).put("a", "2");
+		Assert.assertEquals("1", raw.get("a"));
+		Assert.assertEquals("1", ((Map<String, Object>) original.get("raw")).get("a"));
+		Assert.assertEquals("2", ((Map<String, Object>) copy.get("raw")).get("a"));
+	}
+
+}
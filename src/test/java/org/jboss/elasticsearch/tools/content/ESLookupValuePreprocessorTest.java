@@ -6,15 +6,23 @@
 package org.jboss.elasticsearch.tools.content;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.util.concurrent.ListenableFuture;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.query.FilterBuilders;
 import org.jboss.elasticsearch.tools.content.testtools.ESRealClientTestBase;
 import org.jboss.elasticsearch.tools.content.testtools.TestUtils;
 import org.junit.Test;
@@ -162,6 +170,67 @@ public class ESLookupValuePreprocessorTest extends ESRealClientTestBase {
 			Assert.assertEquals(2, tested.idxSearchField.size());
 			Assert.assertEquals("jbossorg_jira_project_2", tested.idxSearchField.get(0));
 			Assert.assertEquals("jbossorg_jira_project", tested.idxSearchField.get(1));
+			Assert.assertNull(tested.lookupCache);
+			Assert.assertNull(tested.getLookupCacheStats());
+			Assert.assertNull(tested.lookupRequestQueue);
+		}
+
+		// case - limit of concurrent lookups configured
+		{
+			ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
+			Client client = Mockito.mock(Client.class);
+
+			Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json");
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_max_concurrent, 2);
+			tested.init("Test mapper", client, settings);
+			Assert.assertEquals(2, tested.lookupRequestQueue.maxConcurrent);
+
+			try {
+				settings.put(ESLookupValuePreprocessor.CFG_lookup_max_concurrent, "-1");
+				tested.init("Test mapper", client, settings);
+				Assert.fail("SettingsException must be thrown");
+			} catch (SettingsException e) {
+				Assert.assertEquals(
+						"Invalid 'settings/lookup_max_concurrent' configuration value for 'Test mapper' preprocessor, must be positive number",
+						e.getMessage());
+			}
+		}
+
+		// case - shared lookup cache configured
+		{
+			ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
+			Client client = Mockito.mock(Client.class);
+
+			Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json");
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_cache_size, 100);
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_cache_ttl, "10m");
+			tested.init("Test mapper", client, settings);
+			Assert.assertNotNull(tested.lookupCache);
+			Assert.assertEquals(0, tested.getLookupCacheStats().requestCount());
+
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_cache_size, "0");
+			tested.init("Test mapper", client, settings);
+			Assert.assertNull(tested.lookupCache);
+
+			try {
+				settings.put(ESLookupValuePreprocessor.CFG_lookup_cache_size, "-1");
+				tested.init("Test mapper", client, settings);
+				Assert.fail("SettingsException must be thrown");
+			} catch (SettingsException e) {
+				Assert.assertEquals(
+						"Invalid 'settings/lookup_cache_size' configuration value for 'Test mapper' preprocessor, must be positive number",
+						e.getMessage());
+			}
+
+			try {
+				settings.put(ESLookupValuePreprocessor.CFG_lookup_cache_size, "10");
+				settings.put(ESLookupValuePreprocessor.CFG_lookup_cache_ttl, "10x");
+				tested.init("Test mapper", client, settings);
+				Assert.fail("SettingsException must be thrown");
+			} catch (SettingsException e) {
+				Assert.assertTrue(e.getMessage().startsWith(
+						"Invalid 'settings/lookup_cache_ttl' configuration value for 'Test mapper' preprocessor"));
+			}
 		}
 	}
 
@@ -172,8 +241,8 @@ public class ESLookupValuePreprocessorTest extends ESRealClientTestBase {
 			Client client = prepareESClientForUnitTest();
 
 			ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
-			tested.init("Test mapper", client,
-					TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json"));
+			Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json");
+			tested.init("Test mapper", client, settings);
 
 			// case - lookup index is missing so default value is used
 			{
@@ -286,6 +355,7 @@ public class ESLookupValuePreprocessorTest extends ESRealClientTestBase {
 				Map<String, Object> values = new HashMap<String, Object>();
 				tested.resultMapping.get(0)
 						.put(ESLookupValuePreprocessor.CFG_value_default, "unknown {field} for {__original}");
+				tested.init("Test mapper", client, settings);
 				StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, "BBB");
 				StructureUtils.putValueIntoMapOfMaps(values, "field", "jj");
 				tested.preprocessData(values, null);
@@ -295,6 +365,7 @@ public class ESLookupValuePreprocessorTest extends ESRealClientTestBase {
 			// case - test handling when source field contains list of values
 			{
 				tested.resultMapping.get(0).put(ESLookupValuePreprocessor.CFG_value_default, "unknown");
+				tested.init("Test mapper", client, settings);
 				Map<String, Object> values = new HashMap<String, Object>();
 				List<Object> obj = new ArrayList<Object>();
 				obj.add("ORG");
@@ -324,10 +395,10 @@ public class ESLookupValuePreprocessorTest extends ESRealClientTestBase {
 			Client client = prepareESClientForUnitTest();
 
 			ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
-			tested.init("Test mapper", client,
-					TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases-2.json"));
-			tested.sourceField = "sf";
-			tested.sourceValuePattern = null;
+			Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases-2.json");
+			settings.remove(ESLookupValuePreprocessor.CFG_source_value);
+			settings.put(ESLookupValuePreprocessor.CFG_source_field, "sf");
+			tested.init("Test mapper", client, settings);
 			// assert we have correct configuration for the test
 			Assert.assertEquals(2, tested.idxSearchField.size());
 			Assert.assertEquals("jbossorg_jira_project_2", tested.idxSearchField.get(0));
@@ -356,8 +427,9 @@ public class ESLookupValuePreprocessorTest extends ESRealClientTestBase {
 			Client client = prepareESClientForUnitTest();
 
 			ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
-			tested.init("Test mapper", client,
-					TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases-FullSource.json"));
+			Map<String, Object> settings = TestUtils
+					.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases-FullSource.json");
+			tested.init("Test mapper", client, settings);
 
 			// fill testing data
 			prepareTestData(client, tested);
@@ -463,6 +535,7 @@ public class ESLookupValuePreprocessorTest extends ESRealClientTestBase {
 				Map<String, Object> values = new HashMap<String, Object>();
 				tested.resultMapping.get(0)
 						.put(ESLookupValuePreprocessor.CFG_value_default, "unknown {field} for {__original}");
+				tested.init("Test mapper", client, settings);
 				StructureUtils.putValueIntoMapOfMaps(values, testInputField, "BBB");
 				StructureUtils.putValueIntoMapOfMaps(values, "field", "jj");
 				tested.preprocessData(values, null);
@@ -519,6 +592,898 @@ public class ESLookupValuePreprocessorTest extends ESRealClientTestBase {
 		}
 	}
 
+	@Test
+	public void preprocessBatch() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+
+			ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
+			tested.init("Test mapper", client,
+					TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json"));
+			prepareTestData(client, tested);
+
+			// case - values are prefetched at once, warnings are only stored in results
+			{
+				List<Object> sourceValues = new ArrayList<Object>();
+				sourceValues.add("ORG");
+				sourceValues.add("ES2");
+				sourceValues.add("AAA");
+				Map<Object, ESLookupValuePreprocessor.LookupResult> results = tested.prefetchLookupResults(sourceValues);
+				Assert.assertEquals(3, results.size());
+				Assert.assertTrue(results.get("ORG").found);
+				Assert.assertEquals("jbossorg", results.get("ORG").values.get("project.code"));
+				Assert.assertTrue(results.get("ORG").warnings.isEmpty());
+				Assert.assertTrue(results.get("ES2").found);
+				Assert.assertEquals(1, results.get("ES2").warnings.size());
+				Assert.assertFalse(results.get("AAA").found);
+				Assert.assertEquals("No result found during lookup for value 'AAA'.", results.get("AAA").warnings.get(0));
+			}
+
+			// case - whole batch processed, warnings written to context of each data item
+			{
+				String[] codes = new String[] { "ORG", "ISPN", "AAA", "ORG", null };
+				List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+				List<PreprocessChainContextImpl> contexts = new ArrayList<PreprocessChainContextImpl>();
+				for (String code : codes) {
+					Map<String, Object> values = new HashMap<String, Object>();
+					StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, code);
+					batch.add(values);
+					contexts.add(new PreprocessChainContextImpl());
+				}
+				batch.add(null);
+				contexts.add(new PreprocessChainContextImpl());
+
+				List<Map<String, Object>> ret = tested.preprocessBatch(batch, contexts);
+				Assert.assertEquals(6, ret.size());
+				Assert.assertEquals("jbossorg", XContentMapValues.extractValue("project.code", ret.get(0)));
+				Assert.assertEquals("infinispan", XContentMapValues.extractValue("project.code", ret.get(1)));
+				Assert.assertEquals("defval", XContentMapValues.extractValue("project.code", ret.get(2)));
+				Assert.assertEquals("jbossorg", XContentMapValues.extractValue("project.code", ret.get(3)));
+				Assert.assertEquals("jboss.org", XContentMapValues.extractValue("project_name", ret.get(3)));
+				Assert.assertNull(XContentMapValues.extractValue("project.code", ret.get(4)));
+				Assert.assertNull(ret.get(5));
+				Assert.assertFalse(contexts.get(0).isWarning());
+				Assert.assertFalse(contexts.get(1).isWarning());
+				Assert.assertEquals(1, contexts.get(2).getWarnings().size());
+				Assert.assertFalse(contexts.get(3).isWarning());
+				Assert.assertFalse(contexts.get(4).isWarning());
+			}
+
+			// case - collection of values in one document
+			{
+				Map<String, Object> values = new HashMap<String, Object>();
+				List<Object> obj = new ArrayList<Object>();
+				obj.add("ORG");
+				obj.add("ISPN");
+				obj.add("AAA");
+				StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, obj);
+				PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+				tested.preprocessData(values, chainContext);
+				@SuppressWarnings("unchecked")
+				List<Object> l = (List<Object>) XContentMapValues.extractValue("project.code", values);
+				Assert.assertEquals(3, l.size());
+				Assert.assertEquals("jbossorg", l.get(0));
+				Assert.assertEquals("infinispan", l.get(1));
+				Assert.assertEquals("defval", l.get(2));
+				Assert.assertEquals(1, chainContext.getWarnings().size());
+			}
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void preprocessDataAsync() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+
+			ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
+			Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json");
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_max_concurrent, 1);
+			tested.init("Test mapper", client, settings);
+
+			Assert.assertNull(tested.preprocessDataAsync(null, null).get());
+
+			// case - lookup index is missing so defaults are used, failure is warned once
+			{
+				Map<String, Object> values = new HashMap<String, Object>();
+				List<Object> obj = new ArrayList<Object>();
+				obj.add("ORG");
+				obj.add("ISPN");
+				StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, obj);
+				PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+				Assert.assertSame(values, tested.preprocessDataAsync(values, chainContext).get(10, TimeUnit.SECONDS));
+				Assert.assertEquals(Arrays.asList("defval", "defval"), XContentMapValues.extractValue("project.code", values));
+				Assert.assertEquals(1, chainContext.getWarnings().size());
+				Assert.assertTrue(chainContext.getWarnings().get(0).getWarningMessage().startsWith("Lookup failed due"));
+			}
+
+			prepareTestData(client, tested);
+
+			// case - more documents in flight at once, requests over limit are queued
+			{
+				String[] codes = new String[] { "ORG", "ISPN", "AAA", "ES2", null };
+				List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+				List<PreprocessChainContextImpl> contexts = new ArrayList<PreprocessChainContextImpl>();
+				List<ListenableFuture<Map<String, Object>>> futures = new ArrayList<ListenableFuture<Map<String, Object>>>();
+				for (String code : codes) {
+					Map<String, Object> values = new HashMap<String, Object>();
+					StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, code);
+					PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+					docs.add(values);
+					contexts.add(chainContext);
+					futures.add(tested.preprocessDataAsync(values, chainContext));
+				}
+				for (int i = 0; i < codes.length; i++) {
+					Assert.assertSame(docs.get(i), futures.get(i).get(10, TimeUnit.SECONDS));
+				}
+				Assert.assertEquals("jbossorg", XContentMapValues.extractValue("project.code", docs.get(0)));
+				Assert.assertEquals("jboss.org", XContentMapValues.extractValue("project_name", docs.get(0)));
+				Assert.assertEquals("infinispan", XContentMapValues.extractValue("project.code", docs.get(1)));
+				Assert.assertEquals("defval", XContentMapValues.extractValue("project.code", docs.get(2)));
+				Assert.assertEquals("No result found during lookup for value 'AAA'.", contexts.get(2).getWarnings().get(0)
+						.getWarningMessage());
+				Assert.assertEquals(1, contexts.get(3).getWarnings().size());
+				Assert.assertNull(XContentMapValues.extractValue("project.code", docs.get(4)));
+				Assert.assertFalse(contexts.get(0).isWarning());
+				Assert.assertFalse(contexts.get(4).isWarning());
+				Assert.assertEquals(0, tested.lookupRequestQueue.getRunningCount());
+				Assert.assertEquals(0, tested.lookupRequestQueue.getQueuedCount());
+			}
+
+			// case - chain continues with next preprocessors when lookup is done
+			{
+				List<StructuredContentPreprocessor> preprocs = new ArrayList<StructuredContentPreprocessor>();
+				preprocs.add(new InstrumentedPreprocessor(tested));
+				preprocs.add(PreprocessorChainTest.createAddValuePreprocessor("copy", "{project.code}"));
+				PreprocessorChain chain = new PreprocessorChain(preprocs);
+				Map<String, Object> values = new HashMap<String, Object>();
+				StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, "ORG");
+				Map<String, Object> ret = chain.preprocessDataAsync(values, null).get(10, TimeUnit.SECONDS);
+				Assert.assertEquals("jbossorg", ret.get("copy"));
+				Assert.assertEquals(1, chain.getMetrics().get("Test mapper").getInvocationCount());
+			}
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	@Test
+	public void preprocessData_lookupMirror() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+
+			ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
+			Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json");
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_mirror, true);
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_mirror_refresh, "0");
+			tested.init("Test mapper", client, settings);
+
+			// case - mirror can't be loaded as index is missing, so lookups are performed in index
+			Assert.assertNull(tested.getLookupMirror());
+			PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+			Map<String, Object> values = createLookupData("ORG");
+			tested.preprocessData(values, chainContext);
+			Assert.assertEquals("defval", XContentMapValues.extractValue("project.code", values));
+			Assert.assertTrue(chainContext.getWarnings().get(0).getWarningMessage().startsWith("Lookup failed due"));
+
+			prepareTestData(client, tested);
+			Assert.assertTrue(tested.refreshLookupMirror(false));
+			ESLookupValuePreprocessor.LookupMirror mirror = tested.getLookupMirror();
+			Assert.assertEquals(3, mirror.getDocumentCount());
+			Assert.assertEquals(6, mirror.getKeyCount());
+			Assert.assertTrue(mirror.getEstimatedSizeInBytes() > 0);
+			Assert.assertTrue(mirror.getLoadTimestamp() > 0);
+			// index is not changed
+			Assert.assertFalse(tested.refreshLookupMirror(false));
+			Assert.assertSame(mirror, tested.getLookupMirror());
+
+			// lookups are served from mirror even if index is not available
+			client.admin().indices().prepareDelete(tested.indexName).execute().actionGet();
+
+			// case - found values, same as lookups in index
+			{
+				chainContext = new PreprocessChainContextImpl();
+				values = createLookupData("ORG");
+				tested.preprocessData(values, chainContext);
+				Assert.assertEquals("jbossorg", XContentMapValues.extractValue("project.code", values));
+				Assert.assertEquals("jboss.org", XContentMapValues.extractValue("project_name", values));
+				Assert.assertFalse(chainContext.isWarning());
+
+				List<Object> obj = new ArrayList<Object>();
+				obj.add("ISPN");
+				obj.add("test.org");
+				values = createLookupData(obj);
+				Assert.assertTrue(tested.preprocessDataAsync(values, chainContext).isDone());
+				Assert.assertEquals(Arrays.asList("infinispan", "jbossorg"),
+						XContentMapValues.extractValue("project.code", values));
+				Assert.assertFalse(chainContext.isWarning());
+			}
+
+			// case - default value and warnings
+			{
+				chainContext = new PreprocessChainContextImpl();
+				values = createLookupData("AAA");
+				tested.preprocessData(values, chainContext);
+				Assert.assertEquals("defval", XContentMapValues.extractValue("project.code", values));
+				Assert.assertEquals("No result found during lookup for value 'AAA'.", chainContext.getWarnings().get(0)
+						.getWarningMessage());
+
+				chainContext = new PreprocessChainContextImpl();
+				values = createLookupData("ES2");
+				tested.preprocessData(values, chainContext);
+				Assert.assertEquals("elasticsearch", XContentMapValues.extractValue("project.code", values));
+				Assert.assertEquals(
+						"Result found during lookup for value 'ES2' using index field 'jbossorg_jira_project, but result field 'name' is not present there",
+						chainContext.getWarnings().get(0).getWarningMessage());
+
+				chainContext = new PreprocessChainContextImpl();
+				values = createLookupData("ES");
+				tested.preprocessData(values, chainContext);
+				Assert.assertEquals(
+						"More results found during lookup for value 'ES' using index field 'jbossorg_jira_project', so first one is used.",
+						chainContext.getWarnings().get(0).getWarningMessage());
+			}
+
+			// case - failed load keeps previous mirror
+			Assert.assertFalse(tested.refreshLookupMirror(true));
+			Assert.assertSame(mirror, tested.getLookupMirror());
+
+			// case - changed index is loaded again
+			prepareTestData(client, tested);
+			Map<String, Object> doc = new HashMap<String, Object>();
+			doc.put("code", "new");
+			doc.put("name", "New project");
+			doc.put("jbossorg_jira_project", "NEW");
+			client.prepareIndex(tested.indexName, tested.indexType).setId("data4").setSource(doc).execute().actionGet();
+			client.admin().indices().prepareRefresh(tested.indexName).execute().actionGet();
+			Assert.assertTrue(tested.refreshLookupMirror(false));
+			Assert.assertEquals(4, tested.getLookupMirror().getDocumentCount());
+			values = createLookupData("NEW");
+			tested.preprocessBatch(Arrays.asList(values), null);
+			Assert.assertEquals("New project", XContentMapValues.extractValue("project_name", values));
+
+			// case - refresh after refresh time is done in background, previous mirror is used meanwhile
+			mirror = tested.getLookupMirror();
+			doc.put("jbossorg_jira_project", "NEW2");
+			client.prepareIndex(tested.indexName, tested.indexType).setId("data5").setSource(doc).execute().actionGet();
+			client.admin().indices().prepareRefresh(tested.indexName).execute().actionGet();
+			tested.mirrorRefreshMillis = 1;
+			Thread.sleep(5);
+			tested.preprocessData(createLookupData("NEW"), null);
+			for (int i = 0; i < 1000 && tested.getLookupMirror() == mirror; i++)
+				Thread.sleep(10);
+			tested.mirrorRefreshMillis = 0;
+			Assert.assertEquals(5, tested.getLookupMirror().getDocumentCount());
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	@Test
+	public void preprocessData_lookupById() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+
+			ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
+			Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json");
+			settings.put(ESLookupBackend.CFG_lookup_query, "fuzzy");
+			try {
+				tested.init("Test mapper", client, settings);
+				Assert.fail("SettingsException must be thrown");
+			} catch (SettingsException e) {
+				Assert.assertEquals("Invalid 'settings/lookup_query' configuration value for 'Test mapper' preprocessor: fuzzy",
+						e.getMessage());
+			}
+			// case - analyzed match filter is default, term filter must be configured
+			settings.remove(ESLookupBackend.CFG_lookup_query);
+			tested.init("Test mapper", client, settings);
+			Assert.assertTrue(((ESLookupBackend) tested.lookupBackend).matchQuery);
+			settings.put(ESLookupBackend.CFG_lookup_query, "term");
+			tested.init("Test mapper", client, settings);
+			Assert.assertFalse(((ESLookupBackend) tested.lookupBackend).matchQuery);
+
+			settings.put(ESLookupBackend.CFG_lookup_query, "match");
+			settings.put(ESLookupValuePreprocessor.CFG_idx_search_field, Arrays.asList(ESLookupBackend.ID_FIELD));
+			tested.init("Test mapper", client, settings);
+			prepareTestData(client, tested);
+
+			// case - one value by get request
+			PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+			Map<String, Object> values = createLookupData("data2");
+			tested.preprocessData(values, chainContext);
+			Assert.assertEquals("infinispan", XContentMapValues.extractValue("project.code", values));
+			Assert.assertEquals("Infinispan", XContentMapValues.extractValue("project_name", values));
+			Assert.assertFalse(chainContext.isWarning());
+
+			// case - more values by multi get request
+			values = createLookupData(Arrays.asList("data1", "unknown", "data3"));
+			tested.preprocessData(values, chainContext);
+			Assert.assertEquals(Arrays.asList("jbossorg", "defval", "elasticsearch"),
+					XContentMapValues.extractValue("project.code", values));
+			Assert.assertEquals(2, chainContext.getWarnings().size());
+			Assert.assertEquals("No result found during lookup for value 'unknown'.", chainContext.getWarnings().get(0)
+					.getWarningMessage());
+
+			values = createLookupData(Arrays.asList("data1", "data2"));
+			Assert.assertEquals(Arrays.asList("jboss.org", "Infinispan"),
+					XContentMapValues.extractValue("project_name", tested.preprocessDataAsync(values, null).get()));
+			Assert.assertTrue(((ESLookupBackend) tested.lookupBackend).isGetUsable());
+
+			// case - alias over more indices can't be used by get, ids search is used
+			Map<String, Object> source = new HashMap<String, Object>();
+			source.put("code", "aerogear");
+			source.put("name", "AeroGear");
+			client.admin().indices().prepareCreate("projects2").execute().actionGet();
+			client.prepareIndex("projects2", tested.indexType).setId("data4").setSource(source).execute().actionGet();
+			client.admin().indices().prepareRefresh("projects2").execute().actionGet();
+			client.admin().indices().prepareAliases().addAlias(new String[] { tested.indexName, "projects2" }, "projects_all")
+					.addAlias(tested.indexName, "projects_one")
+					.addAlias(tested.indexName, "projects_filtered", FilterBuilders.termFilter("code", "jbossorg")).execute()
+					.actionGet();
+			settings.put(ESLookupValuePreprocessor.CFG_index_name, "projects_all");
+			tested.init("Test mapper", client, settings);
+			Assert.assertFalse(((ESLookupBackend) tested.lookupBackend).isGetUsable());
+			values = createLookupData("data4");
+			tested.preprocessData(values, null);
+			Assert.assertEquals("aerogear", XContentMapValues.extractValue("project.code", values));
+			values = createLookupData(Arrays.asList("data1", "unknown", "data4"));
+			tested.preprocessData(values, null);
+			Assert.assertEquals(Arrays.asList("jbossorg", "defval", "aerogear"),
+					XContentMapValues.extractValue("project.code", values));
+			values = createLookupData(Arrays.asList("data4", "data2"));
+			Assert.assertEquals(Arrays.asList("AeroGear", "Infinispan"),
+					XContentMapValues.extractValue("project_name", tested.preprocessDataAsync(values, null).get()));
+
+			// case - alias over one index is used by get
+			settings.put(ESLookupValuePreprocessor.CFG_index_name, "projects_one");
+			tested.init("Test mapper", client, settings);
+			Assert.assertTrue(((ESLookupBackend) tested.lookupBackend).isGetUsable());
+			values = createLookupData("data2");
+			tested.preprocessData(values, null);
+			Assert.assertEquals("infinispan", XContentMapValues.extractValue("project.code", values));
+
+			// case - filter of alias is ignored by get, so ids search is used
+			settings.put(ESLookupValuePreprocessor.CFG_index_name, "projects_filtered");
+			tested.init("Test mapper", client, settings);
+			Assert.assertFalse(((ESLookupBackend) tested.lookupBackend).isGetUsable());
+			values = createLookupData(Arrays.asList("data1", "data2"));
+			tested.preprocessData(values, null);
+			Assert.assertEquals(Arrays.asList("jbossorg", "defval"), XContentMapValues.extractValue("project.code", values));
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void preprocessData_memoryBackend() throws Exception {
+		ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
+		Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json");
+		settings.put(ESLookupValuePreprocessor.CFG_lookup_backend, ESLookupValuePreprocessor.BACKEND_MEMORY);
+		settings.put(ESLookupValuePreprocessor.CFG_lookup_mirror, true);
+
+		// case - mirror is supported by elasticsearch backend only
+		try {
+			tested.init("Test mapper", null, settings);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals("Invalid 'settings/lookup_mirror' configuration value for 'Test mapper' preprocessor: "
+					+ "mirror can be used with 'elasticsearch' lookup backend only", e.getMessage());
+		}
+		settings.remove(ESLookupValuePreprocessor.CFG_lookup_mirror);
+
+		// case - unknown backend
+		try {
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_backend, "org.unknown.Backend");
+			tested.init("Test mapper", null, settings);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals(
+					"Invalid 'settings/lookup_backend' configuration value for 'Test mapper' preprocessor: org.unknown.Backend",
+					e.getMessage());
+		}
+
+		// case - client and index are not necessary for other backends
+		settings.put(ESLookupValuePreprocessor.CFG_lookup_backend, ESLookupValuePreprocessor.BACKEND_MEMORY);
+		settings.remove(ESLookupValuePreprocessor.CFG_index_name);
+		settings.remove(ESLookupValuePreprocessor.CFG_index_type);
+		List<Map<String, Object>> documents = new ArrayList<Map<String, Object>>();
+		for (int i = 1; i <= 3; i++)
+			documents.add(TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData_data" + i + ".json"));
+		settings.put(MemoryLookupBackend.CFG_lookup_documents, documents);
+		tested.init("Test mapper", null, settings);
+		Assert.assertTrue(tested.lookupBackend instanceof MemoryLookupBackend);
+		Assert.assertEquals(3, ((MemoryLookupBackend) tested.lookupBackend).getDocuments().size());
+
+		// case - found values, same as lookups in index
+		PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+		Map<String, Object> values = createLookupData("ORG");
+		tested.preprocessData(values, chainContext);
+		Assert.assertEquals("jbossorg", XContentMapValues.extractValue("project.code", values));
+		Assert.assertEquals("jboss.org", XContentMapValues.extractValue("project_name", values));
+		Assert.assertFalse(chainContext.isWarning());
+
+		values = createLookupData(Arrays.asList("ISPN", "test.org"));
+		Assert.assertTrue(tested.preprocessDataAsync(values, chainContext).isDone());
+		Assert.assertEquals(Arrays.asList("infinispan", "jbossorg"), XContentMapValues.extractValue("project.code", values));
+		Assert.assertFalse(chainContext.isWarning());
+
+		// case - default value and warnings
+		chainContext = new PreprocessChainContextImpl();
+		values = createLookupData(Arrays.asList("AAA", "ES2"));
+		tested.preprocessBatch(Arrays.asList(values), Arrays.asList(chainContext));
+		Assert.assertEquals(Arrays.asList("defval", "elasticsearch"), XContentMapValues.extractValue("project.code", values));
+		Assert.assertEquals(2, chainContext.getWarnings().size());
+		Assert.assertEquals("No result found during lookup for value 'AAA'.", chainContext.getWarnings().get(0)
+				.getWarningMessage());
+		Assert.assertEquals(
+				"Result found during lookup for value 'ES2' using index field 'jbossorg_jira_project, but result field 'name' is not present there",
+				chainContext.getWarnings().get(1).getWarningMessage());
+
+		chainContext = new PreprocessChainContextImpl();
+		values = createLookupData("ES");
+		tested.preprocessData(values, chainContext);
+		Assert.assertEquals(
+				"More results found during lookup for value 'ES' using index field 'jbossorg_jira_project', so first one is used.",
+				chainContext.getWarnings().get(0).getWarningMessage());
+
+		// case - failed multi value lookup is not retried for each value
+		LookupBackend backend = tested.lookupBackend;
+		tested.lookupBackend = Mockito.mock(LookupBackend.class);
+		Mockito.when(tested.lookupBackend.lookup(Mockito.anyString(), Mockito.anyList())).thenThrow(
+				new ElasticsearchException("backend down"));
+		chainContext = new PreprocessChainContextImpl();
+		values = createLookupData(Arrays.asList("AAA", "BBB", "CCC"));
+		tested.preprocessBatch(Arrays.asList(values), Arrays.asList(chainContext));
+		Assert.assertEquals(Arrays.asList("defval", "defval", "defval"),
+				XContentMapValues.extractValue("project.code", values));
+		Assert.assertEquals(1, chainContext.getWarnings().size());
+		Assert.assertTrue(chainContext.getWarnings().get(0).getWarningMessage().startsWith("Lookup failed due"));
+		Mockito.verify(tested.lookupBackend, Mockito.times(1)).lookup(Mockito.anyString(), Mockito.anyList());
+		tested.lookupBackend = backend;
+
+		// case - structures are copied, as documents are shared by lookups
+		Map<String, String> sourceMapping = new HashMap<String, String>();
+		sourceMapping.put(ESLookupValuePreprocessor.CFG_idx_result_field, "_source");
+		sourceMapping.put(ESLookupValuePreprocessor.CFG_target_field, "project_doc");
+		((List<Map<String, String>>) settings.get(ESLookupValuePreprocessor.CFG_result_mapping)).add(sourceMapping);
+		tested.init("Test mapper", null, settings);
+		values = createLookupData("ISPN");
+		tested.preprocessData(values, null);
+		Object doc = XContentMapValues.extractValue("project_doc", values);
+		Assert.assertEquals(documents.get(1), doc);
+		Assert.assertNotSame(documents.get(1), doc);
+	}
+
+	private Map<String, Object> createLookupData(Object projectcode) {
+		Map<String, Object> ret = new HashMap<String, Object>();
+		StructureUtils.putValueIntoMapOfMaps(ret, "fields.projectcode", projectcode);
+		return ret;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void preprocessData_lookupCache() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+
+			ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
+			Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json");
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_cache_size, 2);
+			((List<Map<String, String>>) settings.get(ESLookupValuePreprocessor.CFG_result_mapping)).get(0).put(
+					ESLookupValuePreprocessor.CFG_value_default, "unknown {field}");
+			tested.init("Test mapper", client, settings);
+
+			// case - lookup index is missing so failure is not cached
+			{
+				Map<String, Object> values = new HashMap<String, Object>();
+				StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, "ORG");
+				StructureUtils.putValueIntoMapOfMaps(values, "field", "f");
+				tested.preprocessData(values, null);
+				Assert.assertEquals("unknown f", (String) XContentMapValues.extractValue("project.code", values));
+				Assert.assertEquals(0, tested.lookupCache.size());
+			}
+
+			prepareTestData(client, tested);
+
+			// case - first lookup goes to index, next ones are served from cache
+			for (int i = 0; i < 3; i++) {
+				Map<String, Object> values = new HashMap<String, Object>();
+				StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, "ORG");
+				PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+				tested.preprocessData(values, chainContext);
+				Assert.assertEquals("jbossorg", (String) XContentMapValues.extractValue("project.code", values));
+				Assert.assertEquals("jboss.org", (String) XContentMapValues.extractValue("project_name", values));
+				Assert.assertFalse(chainContext.isWarning());
+			}
+			Assert.assertEquals(2, tested.getLookupCacheStats().missCount());
+			Assert.assertEquals(2, tested.getLookupCacheStats().hitCount());
+
+			// case - warnings are replayed for cached value, default is evaluated against each document
+			for (int i = 0; i < 2; i++) {
+				Map<String, Object> values = new HashMap<String, Object>();
+				StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, "AAA");
+				StructureUtils.putValueIntoMapOfMaps(values, "field", "f" + i);
+				PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+				tested.preprocessData(values, chainContext);
+				Assert.assertEquals("unknown f" + i, (String) XContentMapValues.extractValue("project.code", values));
+				Assert.assertNull(XContentMapValues.extractValue("project_name", values));
+				Assert.assertEquals(1, chainContext.getWarnings().size());
+			}
+			// not found value is cached in negative cache
+			Assert.assertEquals(2, tested.getLookupCacheStats().hitCount());
+			Assert.assertEquals(1, tested.negativeLookupCache.size());
+			Assert.assertEquals(1, tested.getNegativeLookupCacheStats().hitCount());
+
+			// case - least recently used value is evicted when cache is full
+			for (String code : new String[] { "ISPN", "ES2" }) {
+				Map<String, Object> values = new HashMap<String, Object>();
+				StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, code);
+				tested.preprocessData(values, null);
+			}
+			Assert.assertEquals(2, tested.lookupCache.size());
+			Assert.assertEquals(1, tested.getLookupCacheStats().evictionCount());
+			Assert.assertNull(tested.lookupCache.getIfPresent("ORG"));
+			Assert.assertNotNull(tested.lookupCache.getIfPresent("ISPN"));
+
+			// case - cache invalidation
+			tested.invalidateLookupCache();
+			Assert.assertEquals(0, tested.lookupCache.size());
+			Assert.assertEquals(0, tested.negativeLookupCache.size());
+
+			// case - negative caching disabled
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_cache_negative_ttl, "0");
+			tested.init("Test mapper", client, settings);
+			Assert.assertNotNull(tested.lookupCache);
+			Assert.assertNull(tested.negativeLookupCache);
+			Assert.assertNull(tested.getNegativeLookupCacheStats());
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	@Test
+	public void preprocessData_coalescedLookups() throws Exception {
+		Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json");
+		settings.put(ESLookupValuePreprocessor.CFG_lookup_backend, ESLookupValuePreprocessor.BACKEND_MEMORY);
+		BlockingLookupBackend backend = new BlockingLookupBackend();
+		// two preprocessors using the same backend share lookups
+		ESLookupValuePreprocessor tested = createCoalescingPreprocessor(settings, backend);
+		ESLookupValuePreprocessor tested2 = createCoalescingPreprocessor(settings, backend);
+		backend.init("Test mapper", null, settings, tested.idxResultFields);
+		backend.setDocuments(Arrays.asList(TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData_data1.json")));
+
+		// case - one lookup for each distinct value, others wait for it
+		List<Map<String, Object>> data = new ArrayList<Map<String, Object>>();
+		List<PreprocessChainContextImpl> chainContexts = new ArrayList<PreprocessChainContextImpl>();
+		List<Thread> threads = new ArrayList<Thread>();
+		backend.block(2);
+		threads.add(startPreprocessing(tested, createLookupData("ORG"), data, chainContexts));
+		threads.add(startPreprocessing(tested2, createLookupData("AAA"), data, chainContexts));
+		Assert.assertTrue(backend.started.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(2, tested.getInFlightLookupCount());
+		Assert.assertEquals(2, tested2.getInFlightLookupCount());
+		for (int i = 0; i < 3; i++)
+			threads.add(startPreprocessing(i % 2 == 0 ? tested : tested2, createLookupData("ORG"), data, chainContexts));
+		waitForCoalescedLookups(3, tested, tested2);
+
+		backend.release.countDown();
+		for (Thread t : threads)
+			t.join(10000);
+		Assert.assertEquals(0, tested.getInFlightLookupCount());
+		Assert.assertEquals(2, backend.lookupCount.get());
+		Assert.assertEquals(2, tested.getCoalescedLookupCount());
+		Assert.assertEquals(1, tested2.getCoalescedLookupCount());
+		for (int i : new int[] { 0, 2, 3, 4 }) {
+			Assert.assertEquals("jbossorg", XContentMapValues.extractValue("project.code", data.get(i)));
+			Assert.assertFalse(chainContexts.get(i).isWarning());
+		}
+		Assert.assertEquals("defval", XContentMapValues.extractValue("project.code", data.get(1)));
+		Assert.assertEquals("No result found during lookup for value 'AAA'.", chainContexts.get(1).getWarnings().get(0)
+				.getWarningMessage());
+
+		// case - next lookup is performed again as cache is not enabled
+		tested.preprocessData(createLookupData("ORG"), null);
+		Assert.assertEquals(3, backend.lookupCount.get());
+		Assert.assertEquals(2, tested.getCoalescedLookupCount());
+
+		// case - failure warning is replayed for coalesced lookups
+		data.clear();
+		chainContexts.clear();
+		threads.clear();
+		backend.block(1);
+		backend.fail = true;
+		threads.add(startPreprocessing(tested, createLookupData("ORG"), data, chainContexts));
+		Assert.assertTrue(backend.started.await(10, TimeUnit.SECONDS));
+		threads.add(startPreprocessing(tested2, createLookupData("ORG"), data, chainContexts));
+		waitForCoalescedLookups(4, tested, tested2);
+		backend.release.countDown();
+		for (Thread t : threads)
+			t.join(10000);
+		Assert.assertEquals(4, backend.lookupCount.get());
+		for (int i = 0; i < 2; i++) {
+			Assert.assertEquals("defval", XContentMapValues.extractValue("project.code", data.get(i)));
+			Assert.assertEquals(1, chainContexts.get(i).getWarnings().size());
+			Assert.assertTrue(chainContexts.get(i).getWarnings().get(0).getWarningMessage().startsWith("Lookup failed due"));
+		}
+
+		// case - preprocessors with other lookup identity don't share lookups
+		tested2.resultMapping.get(0).put(ESLookupValuePreprocessor.CFG_target_field, "other");
+		Assert.assertFalse(tested.lookupIdentity.equals(tested2.createLookupIdentity()));
+	}
+
+	private ESLookupValuePreprocessor createCoalescingPreprocessor(Map<String, Object> settings,
+			LookupBackend backend) {
+		ESLookupValuePreprocessor ret = new ESLookupValuePreprocessor();
+		ret.init("Test mapper", null, settings);
+		ret.lookupBackend = backend;
+		ret.lookupIdentity = ret.createLookupIdentity();
+		return ret;
+	}
+
+	private Thread startPreprocessing(final ESLookupValuePreprocessor preprocessor, final Map<String, Object> values,
+			List<Map<String, Object>> data, List<PreprocessChainContextImpl> chainContexts) {
+		final PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+		data.add(values);
+		chainContexts.add(chainContext);
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				preprocessor.preprocessData(values, chainContext);
+			}
+		};
+		t.start();
+		return t;
+	}
+
+	/**
+	 * Wait until given number of lookups registered as waiting for lookup blocked in {@link BlockingLookupBackend}.
+	 */
+	private void waitForCoalescedLookups(long expected, ESLookupValuePreprocessor... preprocessors)
+			throws InterruptedException {
+		for (int i = 0; i < 1000; i++) {
+			long count = 0;
+			for (ESLookupValuePreprocessor p : preprocessors)
+				count += p.getCoalescedLookupCount();
+			if (count >= expected)
+				return;
+			Thread.sleep(10);
+		}
+		Assert.fail("Coalesced lookups not registered in time");
+	}
+
+	/**
+	 * Memory backend blocking lookups until released, so concurrent lookups are in flight at the same time.
+	 */
+	private static class BlockingLookupBackend extends MemoryLookupBackend {
+
+		final AtomicInteger lookupCount = new AtomicInteger();
+		final List<Integer> lookupSizes = Collections.synchronizedList(new ArrayList<Integer>());
+		volatile CountDownLatch started;
+		volatile CountDownLatch release;
+		volatile boolean fail;
+
+		/**
+		 * @param lookups number of lookups to be counted down in {@link #started}
+		 */
+		void block(int lookups) {
+			started = new CountDownLatch(lookups);
+			release = new CountDownLatch(1);
+		}
+
+		@Override
+		public Map<Object, List<Map<String, Object>>> lookup(String searchField, List<Object> values) {
+			lookupCount.incrementAndGet();
+			lookupSizes.add(values.size());
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (fail)
+				throw new ElasticsearchException("backend down");
+			return super.lookup(searchField, values);
+		}
+	}
+
+	@Test
+	public void preprocessData_lookupBatcher() throws Exception {
+		ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
+		Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json");
+		settings.put(ESLookupValuePreprocessor.CFG_lookup_backend, ESLookupValuePreprocessor.BACKEND_MEMORY);
+		tested.init("Test mapper", null, settings);
+		Assert.assertNull(tested.getLookupBatcher());
+
+		settings.put(ESLookupValuePreprocessor.CFG_lookup_batch_size, 4);
+		settings.put(ESLookupValuePreprocessor.CFG_lookup_batch_wait, "10s");
+		tested.init("Test mapper", null, settings);
+		BlockingLookupBackend backend = new BlockingLookupBackend();
+		backend.init("Test mapper", null, settings, tested.idxResultFields);
+		List<Map<String, Object>> documents = new ArrayList<Map<String, Object>>();
+		for (int i = 1; i <= 3; i++)
+			documents.add(TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData_data" + i + ".json"));
+		backend.setDocuments(documents);
+		tested.lookupBackend = backend;
+
+		// case - values are collected while other lookup is running and looked up at once when it finishes
+		long start = System.currentTimeMillis();
+		List<Map<String, Object>> data = new ArrayList<Map<String, Object>>();
+		List<PreprocessChainContextImpl> chainContexts = new ArrayList<PreprocessChainContextImpl>();
+		List<Thread> threads = new ArrayList<Thread>();
+		backend.block(1);
+		threads.add(startPreprocessing(tested, createLookupData("ISPN"), data, chainContexts));
+		backend.started.await(10, TimeUnit.SECONDS);
+		for (String code : new String[] { "ORG", "ES2", "AAA" })
+			threads.add(startPreprocessing(tested, createLookupData(code), data, chainContexts));
+		while (tested.getLookupBatcher().getPendingCount() < 3)
+			Thread.sleep(1);
+		backend.release.countDown();
+		for (Thread t : threads)
+			t.join(10000);
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		Assert.assertEquals(Arrays.asList(1, 3), backend.lookupSizes);
+		Assert.assertEquals(2, tested.getLookupBatcher().getBatchCount());
+		Assert.assertEquals(4, tested.getLookupBatcher().getValueCount());
+		Assert.assertEquals("Infinispan", XContentMapValues.extractValue("project_name", data.get(0)));
+		Assert.assertFalse(chainContexts.get(0).isWarning());
+		Assert.assertEquals("jbossorg", XContentMapValues.extractValue("project.code", data.get(1)));
+		Assert.assertEquals("elasticsearch", XContentMapValues.extractValue("project.code", data.get(2)));
+		Assert.assertEquals(
+				"Result found during lookup for value 'ES2' using index field 'jbossorg_jira_project, but result field 'name' is not present there",
+				chainContexts.get(2).getWarnings().get(0).getWarningMessage());
+		Assert.assertEquals("defval", XContentMapValues.extractValue("project.code", data.get(3)));
+		Assert.assertEquals("No result found during lookup for value 'AAA'.", chainContexts.get(3).getWarnings().get(0)
+				.getWarningMessage());
+
+		// case - full batch is looked up at once even if other lookup is running
+		settings.put(ESLookupValuePreprocessor.CFG_lookup_batch_size, 2);
+		tested.init("Test mapper", null, settings);
+		tested.lookupBackend = backend;
+		backend.lookupSizes.clear();
+		data.clear();
+		chainContexts.clear();
+		threads.clear();
+		backend.block(2);
+		threads.add(startPreprocessing(tested, createLookupData("ORG"), data, chainContexts));
+		threads.add(startPreprocessing(tested, createLookupData("ISPN"), data, chainContexts));
+		threads.add(startPreprocessing(tested, createLookupData("ES2"), data, chainContexts));
+		Assert.assertTrue(backend.started.await(5, TimeUnit.SECONDS));
+		backend.release.countDown();
+		for (Thread t : threads)
+			t.join(10000);
+		Assert.assertEquals(Arrays.asList(1, 2), backend.lookupSizes);
+		Assert.assertEquals("jbossorg", XContentMapValues.extractValue("project.code", data.get(0)));
+		Assert.assertEquals("Infinispan", XContentMapValues.extractValue("project_name", data.get(1)));
+
+		// case - value without concurrent lookup is looked up immediately
+		tested.init("Test mapper", null, settings);
+		tested.lookupBackend = backend;
+		backend.lookupSizes.clear();
+		backend.block(1);
+		backend.release.countDown();
+		start = System.currentTimeMillis();
+		Map<String, Object> values = createLookupData("ES");
+		PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+		tested.preprocessData(values, chainContext);
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		Assert.assertEquals(Arrays.asList(1), backend.lookupSizes);
+		Assert.assertEquals(1, tested.getLookupBatcher().getBatchCount());
+		Assert.assertEquals("jbossorg", XContentMapValues.extractValue("project.code", values));
+		Assert.assertEquals(
+				"More results found during lookup for value 'ES' using index field 'jbossorg_jira_project', so first one is used.",
+				chainContext.getWarnings().get(0).getWarningMessage());
+		int batchSize = tested.getLookupBatcher().getBatchSize();
+		Assert.assertTrue(batchSize >= 1 && batchSize <= 4);
+	}
+
+	@Test
+	public void preprocessData_circuitBreaker() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+
+			ESLookupValuePreprocessor tested = new ESLookupValuePreprocessor();
+			Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ESLookupValue_preprocessData-nobases.json");
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_circuit_breaker_failures, 2);
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_circuit_breaker_retry, "1h");
+			tested.init("Test mapper", client, settings);
+			Assert.assertEquals(2, tested.circuitBreaker.failureThreshold);
+			Assert.assertEquals(3600000, tested.circuitBreaker.retryMillis);
+
+			// case - lookup index is missing so breaker is opened after two failures, only first failure is warned
+			for (int i = 0; i < 4; i++) {
+				Map<String, Object> values = new HashMap<String, Object>();
+				StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, "ORG");
+				PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+				tested.preprocessData(values, chainContext);
+				Assert.assertEquals("defval", (String) XContentMapValues.extractValue("project.code", values));
+				Assert.assertEquals(i == 0, chainContext.isWarning());
+				Assert.assertEquals(i > 0, tested.circuitBreaker.isOpen());
+			}
+
+			// case - defaults are used even if index is available until retry time elapses
+			prepareTestData(client, tested);
+			{
+				Map<String, Object> values = new HashMap<String, Object>();
+				StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, "ORG");
+				tested.preprocessData(values, null);
+				Assert.assertEquals("defval", (String) XContentMapValues.extractValue("project.code", values));
+			}
+
+			// case - successful probe after retry time closes breaker
+			tested.circuitBreaker.openUntil.set(System.currentTimeMillis() - 1);
+			{
+				Map<String, Object> values = new HashMap<String, Object>();
+				StructureUtils.putValueIntoMapOfMaps(values, tested.sourceField, "ORG");
+				tested.preprocessData(values, null);
+				Assert.assertEquals("jbossorg", (String) XContentMapValues.extractValue("project.code", values));
+				Assert.assertFalse(tested.circuitBreaker.isOpen());
+			}
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	@Test
+	public void circuitBreaker() {
+		ESLookupValuePreprocessor.CircuitBreaker tested = new ESLookupValuePreprocessor.CircuitBreaker(2, 3600000);
+		Assert.assertTrue(tested.allowRequest());
+		Assert.assertFalse(tested.recordFailure());
+		Assert.assertTrue(tested.allowRequest());
+		tested.recordSuccess();
+		Assert.assertFalse(tested.recordFailure());
+		Assert.assertTrue(tested.recordFailure());
+		Assert.assertTrue(tested.isOpen());
+		Assert.assertFalse(tested.allowRequest());
+
+		// case - only one probe allowed after retry time, failed probe opens breaker again
+		tested.openUntil.set(System.currentTimeMillis() - 1);
+		Assert.assertTrue(tested.allowRequest());
+		Assert.assertFalse(tested.allowRequest());
+		Assert.assertFalse(tested.recordFailure());
+		Assert.assertFalse(tested.allowRequest());
+
+		// case - successful probe closes breaker
+		tested.openUntil.set(System.currentTimeMillis() - 1);
+		Assert.assertTrue(tested.allowRequest());
+		tested.recordSuccess();
+		Assert.assertFalse(tested.isOpen());
+		Assert.assertTrue(tested.allowRequest());
+	}
+
+	@Test
+	public void lookupRequestQueue() {
+		final ESLookupValuePreprocessor.LookupRequestQueue tested = new ESLookupValuePreprocessor.LookupRequestQueue(2);
+		final List<Integer> sent = new ArrayList<Integer>();
+		for (int i = 0; i < 4; i++) {
+			final int request = i;
+			tested.submit(new Runnable() {
+				@Override
+				public void run() {
+					sent.add(request);
+				}
+			});
+		}
+		// case - requests over limit are queued, submitting thread is not blocked
+		Assert.assertEquals(Arrays.asList(0, 1), sent);
+		Assert.assertEquals(2, tested.getRunningCount());
+		Assert.assertEquals(2, tested.getQueuedCount());
+
+		// case - finished request sends next queued one
+		tested.requestFinished();
+		Assert.assertEquals(Arrays.asList(0, 1, 2), sent);
+		Assert.assertEquals(2, tested.getRunningCount());
+		Assert.assertEquals(1, tested.getQueuedCount());
+		tested.requestFinished();
+		tested.requestFinished();
+		tested.requestFinished();
+		Assert.assertEquals(Arrays.asList(0, 1, 2, 3), sent);
+		Assert.assertEquals(0, tested.getRunningCount());
+		Assert.assertEquals(0, tested.getQueuedCount());
+	}
+
 	private void prepareTestData(Client client, ESLookupValuePreprocessor tested) {
 		// fill testing data
 		client.admin().indices().prepareCreate(tested.indexName).execute().actionGet();
@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link FieldPath}.
+ */
+public class FieldPathTest {
+
+	@Test
+	public void compile() {
+		try {
+			FieldPath.compile((String) null);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			FieldPath.compile("  ");
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+
+		FieldPath fp = FieldPath.compile("a.b");
+		Assert.assertEquals("a.b", fp.getPath());
+		Assert.assertEquals("a.b", fp.toString());
+		Assert.assertEquals(FieldPath.compile("a.b"), fp);
+		Assert.assertEquals(FieldPath.compile("a.b").hashCode(), fp.hashCode());
+
+		// case - collection of paths
+		FieldPath[] fps = FieldPath.compile(Arrays.asList("a", "", "b.c"));
+		Assert.assertEquals(3, fps.length);
+		Assert.assertEquals("a", fps[0].getPath());
+		Assert.assertNull(fps[1]);
+		Assert.assertEquals("b.c", fps[2].getPath());
+		Assert.assertNull(FieldPath.compile(Arrays.asList((String) null))[0]);
+	}
+
+	@Test
+	public void get() {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("simple", "v1");
+		Map<String, Object> level1 = new HashMap<String, Object>();
+		data.put("level1", level1);
+		level1.put("level2", "v2");
+		level1.put("dotted.key", "v3");
+		Map<String, Object> level2 = new HashMap<String, Object>();
+		level2.put("x", "v4");
+		level1.put("dotted.map", level2);
+		List<Object> list = new ArrayList<Object>();
+		data.put("list", list);
+		for (int i = 0; i < 3; i++) {
+			Map<String, Object> item = new HashMap<String, Object>();
+			if (i != 1)
+				item.put("name", "n" + i);
+			list.add(item);
+		}
+		list.add("not map");
+		data.put("top.dotted", "v5");
+
+		String[] paths = new String[] { "simple", "unknown", "level1", "level1.level2", "level1.unknown",
+				"level1.dotted.key", "level1.dotted.map.x", "list", "list.name", "list.unknown", "simple.more",
+				"top.dotted", "level1..level2", ".simple", "simple.", "." };
+		for (String path : paths) {
+			Assert.assertEquals("Path " + path, XContentMapValues.extractValue(path, data),
+					FieldPath.compile(path).get(data));
+		}
+
+		Assert.assertEquals("v3", FieldPath.compile("level1.dotted.key").get(data));
+		Assert.assertEquals(Arrays.asList("n0", "n2"), FieldPath.compile("list.name").get(data));
+		Assert.assertNull(FieldPath.compile("simple").get(null));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void put() {
+		FieldPath.compile("a").put(null, "v");
+
+		Map<String, Object> data = new HashMap<String, Object>();
+		FieldPath.compile("a").put(data, "v1");
+		Assert.assertEquals("v1", data.get("a"));
+
+		FieldPath.compile("b.c.d").put(data, "v2");
+		Assert.assertEquals("v2", ((Map<String, Object>) ((Map<String, Object>) data.get("b")).get("c")).get("d"));
+		FieldPath.compile("b.e").put(data, "v3");
+		Assert.assertEquals("v3", ((Map<String, Object>) data.get("b")).get("e"));
+
+		// case - empty elements in path handled same as by String.split()
+		Map<String, Object> tested = new HashMap<String, Object>();
+		FieldPath.compile("x..y").put(tested, "v4");
+		FieldPath.compile("x.z.").put(tested, "v5");
+		Map<String, Object> x = (Map<String, Object>) tested.get("x");
+		Assert.assertEquals("v4", ((Map<String, Object>) x.get("")).get("y"));
+		Assert.assertEquals("v5", x.get("z"));
+
+		try {
+			FieldPath.compile("a.b").put(data, "v");
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("Cant put value for field 'a.b' because some element in the path is not Map",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void remove() {
+		Assert.assertNull(FieldPath.compile("a").remove(null));
+
+		Map<String, Object> data = new HashMap<String, Object>();
+		FieldPath.compile("a").put(data, "v1");
+		FieldPath.compile("b.c.d").put(data, "v2");
+
+		Assert.assertNull(FieldPath.compile("unknown.c").remove(data));
+		Assert.assertEquals("v2", FieldPath.compile("b.c.d").remove(data));
+		Assert.assertNull(FieldPath.compile("b.c.d").get(data));
+		Assert.assertNotNull(FieldPath.compile("b.c").get(data));
+		Assert.assertEquals("v1", FieldPath.compile("a").remove(data));
+		Assert.assertFalse(data.containsKey("a"));
+
+		try {
+			FieldPath.compile("b.c.d").put(data, "v");
+			FieldPath.compile("b.c.d.e").remove(data);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("Cant remove value for field 'b.c.d.e' because some element in the path is not Map",
+					e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.settings.SettingsException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link FileLookupBackend}.
+ */
+public class FileLookupBackendTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void init_settingerrors() throws IOException {
+		FileLookupBackend tested = new FileLookupBackend();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		try {
+			tested.init("Test", null, settings, Arrays.asList("name"));
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals("Missing or empty 'settings/lookup_file' configuration value for 'Test' preprocessor",
+					e.getMessage());
+		}
+
+		settings.put(FileLookupBackend.CFG_lookup_file, new File(folder.getRoot(), "missing.jsonl").getPath());
+		try {
+			tested.init("Test", null, settings, Arrays.asList("name"));
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertTrue(e.getMessage().startsWith(
+					"Invalid 'settings/lookup_file' configuration value for 'Test' preprocessor: "));
+		}
+
+		settings.put(FileLookupBackend.CFG_lookup_file_format, "xml");
+		try {
+			tested.init("Test", null, settings, Arrays.asList("name"));
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals("Invalid 'settings/lookup_file_format' configuration value for 'Test' preprocessor: xml",
+					e.getMessage());
+		}
+
+		settings.put(FileLookupBackend.CFG_lookup_file,
+				MappedValueMappingTableTest.writeMappingFile(folder.newFile("invalid.jsonl"), "{\"code\":").getPath());
+		settings.remove(FileLookupBackend.CFG_lookup_file_format);
+		try {
+			tested.init("Test", null, settings, Arrays.asList("name"));
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertTrue(e.getMessage().startsWith(
+					"Invalid 'settings/lookup_file' configuration value for 'Test' preprocessor: "));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void lookup_jsonl() throws IOException {
+		File file = MappedValueMappingTableTest.writeMappingFile(folder.newFile("projects.json"),
+				"{\"code\":\"a\",\"name\":\"A\",\"info\":{\"lead\":\"joe\"}}\n\n  {\"code\":\"b\",\"aliases\":[\"x\",\"y\"]}\n");
+		FileLookupBackend tested = new FileLookupBackend();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(FileLookupBackend.CFG_lookup_file, file.getPath());
+		tested.init("Test", null, settings, Arrays.asList("name", "info.lead", "_source"));
+		Assert.assertEquals(FileLookupBackend.FORMAT_JSONL, tested.getFormat());
+		Assert.assertEquals(2, tested.getDocuments().size());
+
+		Map<Object, List<Map<String, Object>>> ret = tested.lookup("code", Arrays.<Object> asList("a", "b", "c"));
+		Assert.assertEquals(2, ret.size());
+		Assert.assertEquals("A", ret.get("a").get(0).get("name"));
+		Assert.assertEquals("joe", ret.get("a").get(0).get("info.lead"));
+		Assert.assertFalse(ret.get("b").get(0).containsKey("name"));
+		Assert.assertEquals(Arrays.asList("x", "y"), ((Map<String, Object>) ret.get("b").get(0).get("_source")).get("aliases"));
+
+		ret = tested.lookup("aliases", Arrays.<Object> asList("y"));
+		Assert.assertEquals(1, ret.get("y").size());
+	}
+
+	@Test
+	public void lookup_csv() throws IOException {
+		File file = MappedValueMappingTableTest.writeMappingFile(folder.newFile("projects.csv"),
+				"code,name,description\na,A,plain\n\"b\",\"B, \"\"quoted\"\"\",\nc,,\n");
+		FileLookupBackend tested = new FileLookupBackend();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(FileLookupBackend.CFG_lookup_file, file.getPath());
+		tested.init("Test", null, settings, Arrays.asList("name", "description"));
+		Assert.assertEquals(FileLookupBackend.FORMAT_CSV, tested.getFormat());
+		Assert.assertEquals(3, tested.getDocuments().size());
+
+		Map<Object, List<Map<String, Object>>> ret = tested.lookup("code", Arrays.<Object> asList("a", "b", "c"));
+		Assert.assertEquals("A", ret.get("a").get(0).get("name"));
+		Assert.assertEquals("plain", ret.get("a").get(0).get("description"));
+		Assert.assertEquals("B, \"quoted\"", ret.get("b").get(0).get("name"));
+		Assert.assertFalse(ret.get("b").get(0).containsKey("description"));
+		Assert.assertTrue(ret.get("c").get(0).isEmpty());
+
+		// explicit format
+		file = MappedValueMappingTableTest.writeMappingFile(folder.newFile("projects.txt"), "code,name\na,A\n");
+		settings.put(FileLookupBackend.CFG_lookup_file, file.getPath());
+		settings.put(FileLookupBackend.CFG_lookup_file_format, "csv");
+		tested.init("Test", null, settings, Arrays.asList("name"));
+		Assert.assertEquals("A", tested.lookup("code", Arrays.<Object> asList("a")).get("a").get(0).get("name"));
+	}
+
+	@Test
+	public void parseCsvLine() {
+		Assert.assertEquals(Arrays.asList(""), FileLookupBackend.parseCsvLine(""));
+		Assert.assertEquals(Arrays.asList("a", "", "c"), FileLookupBackend.parseCsvLine("a,,c"));
+		Assert.assertEquals(Arrays.asList("a,b", "\"", ""), FileLookupBackend.parseCsvLine("\"a,b\",\"\"\"\","));
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link HtmlTextExtractor}.
+ */
+public class HtmlTextExtractorTest {
+
+	@Test
+	public void extractText_untouched() {
+		Assert.assertNull(HtmlTextExtractor.extractText(null));
+		String value = "";
+		Assert.assertSame(value, HtmlTextExtractor.extractText(value));
+		value = "   ";
+		Assert.assertSame(value, HtmlTextExtractor.extractText(value));
+		value = "plain text without markup, a > b";
+		Assert.assertSame(value, HtmlTextExtractor.extractText(value));
+
+		Assert.assertEquals("plain text", HtmlTextExtractor.extractText(" plain \n\t text  "));
+		Assert.assertEquals("a  b", HtmlTextExtractor.extractText("a  b"));
+		Assert.assertEquals("", HtmlTextExtractor.extractText(" "));
+	}
+
+	@Test
+	public void extractText() {
+		Assert.assertEquals("aa bb cdgh < text in div & then invalid paragraph test pre &",
+				HtmlTextExtractor.extractText("<b>aa<b>bb<br>cdgh &lt;<div>text in div</div>\n &amp; then\n invalid <p> "
+						+ "paragraph <pre>test\npre &amp;</pre>"));
+		Assert.assertEquals("aabbcc", HtmlTextExtractor.extractText("aa<span>bb</span><!-- comment -->cc"));
+		Assert.assertEquals("before after", HtmlTextExtractor.extractText("before<script>if (a<b) x='<p>';</script> "
+				+ "<STYLE type=\"text/css\">p {}</STYLE><p>after"));
+		Assert.assertEquals("link text", HtmlTextExtractor.extractText("<a href=\"x?a>b\" title='>'>link</a> text"));
+		Assert.assertEquals("a < b", HtmlTextExtractor.extractText("a < b"));
+		Assert.assertEquals("title & text", HtmlTextExtractor.extractText("<title>title &amp;</title><p>text"));
+	}
+
+	@Test
+	public void extractText_sameAsDom() {
+		StripHtmlPreprocessor dom = new StripHtmlPreprocessor();
+		String[] values = new String[] {
+				"<b>aa<b>bb<br>cdgh &lt;<div>text in div</div>\n &amp; then\n invalid <p> paragraph <pre>test\npre &amp;</pre>",
+				"aa <b>bb", "cc <div>dd</div>", "plain text", "  plain \r\n text  ", "a&nbsp;&nbsp;b &nbsp; c", "&amp",
+				"&lt;p&gt; escaped &amp;lt; twice", "&unknown; &#169; &#x41; &copy", "a < b > c", "a <3 b", "x</>y", "x</ y>z",
+				"trailing <", "trailing </", "unclosed <b", "<!DOCTYPE html><html><head><title>T &amp; T</title>"
+						+ "<script type=\"text/javascript\">var a = '<b>';</script></head><body><h1>Head</h1>"
+						+ "<p class='x'>Para <em>one</em>.</p><!-- comment <b> --></body></html>",
+				"<table><tr><td>c1</td><td>c2</td></tr></table>", "<ul><li>one<li>two</ul>after",
+				"aa<span style=\"x\">bb</span>cc<font>dd</font>", "line1<br/>line2<br />line3", "<img src='a.png'>img",
+				"<?xml version=\"1.0\"?><p>xml", "<textarea>a <b> &amp;</textarea>", "a<!-->b<!--->c<!-- x -->d",
+				"<P>Upper <B>case</B></P>", "<pre>\n  code\n    indented\n</pre>", "<code>a&lt;b</code>&gt;",
+				" <p> nbsp </p> " };
+		for (String value : values) {
+			Assert.assertEquals(value, dom.stripHtmlByDom(value), HtmlTextExtractor.extractText(value));
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.joda.time.DateTimeZone;
+import org.elasticsearch.common.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ISODateTimeParser}.
+ */
+public class ISODateTimeParserTest {
+
+	@Test
+	public void parseMillis() {
+		Assert.assertEquals(ISODateTimeParser.INVALID, ISODateTimeParser.parseMillis(null));
+		Assert.assertEquals(ISODateTimeParser.INVALID, ISODateTimeParser.parseMillis(""));
+		Assert.assertEquals(ISODateTimeParser.INVALID, ISODateTimeParser.parseMillis("badformat"));
+		Assert.assertEquals(1344945600000L, ISODateTimeParser.parseMillis("2012-08-14T12:00:00.000Z"));
+		Assert.assertEquals(1344945600000L, ISODateTimeParser.parseMillis("2012-08-14T13:00:00.0+0100"));
+		Assert.assertEquals(1344945600000L, ISODateTimeParser.parseMillis("2012-08-14T10:30-01:30"));
+		Assert.assertEquals(0L, ISODateTimeParser.parseMillis("1970-01-01T00:00:00Z"));
+		Assert.assertEquals(-1L, ISODateTimeParser.parseMillis("1969-12-31T23:59:59.999999Z"));
+	}
+
+	@Test
+	public void parseMillis_sameAsJoda() {
+		String[] values = new String[] { "2012-01-15T12:24:44Z", "2012-01-15T17:40:45+0100", "2012-09-17T15:56:52.383+02:00",
+				"2012-09-17T15:56:52,383-05", "2012-09-17T15:56:52.1Z", "2012-09-17T15:56:52.123456789Z",
+				"2012-09-17T15:56:52.1234567890Z", "2012-09-17T15:56Z", "2012-09-17T15Z", "2012-09-17T15:56:52",
+				"2012-09-17T15", "2012-09-17T", "2012-09-17TZ", "2012-09-17", "2012-09", "2012", "2012-2-3", "2012-02-3T1:2",
+				"2012-045", "2012-W05-2", "2012-W05", "T15:56:52Z", "2012-09-17t15:56:52z", "2012-13-01", "2012-02-30",
+				"2012-02-29T00:00Z", "2013-02-29T00:00Z", "1900-02-29", "2000-02-29", "2012-09-17T24:00:00Z",
+				"2012-09-17T23:60:00Z", "2012-09-17T23:59:60Z", "2012-09-17T15:56:52.Z", "2012-09-17T15:56:52+25:00",
+				"2012-09-17T15:56:52+01:60", "2012-09-17T15:56:52+01:00:30", "2012-09-17 15:56:52", "2012-09-17T15:56:52ZZ",
+				"0001-01-01T00:00:00Z", "9999-12-31T23:59:59.999Z", "20120-01-01", "-2012-01-01", "+2012-01-01",
+				"2012-03-25T02:30:00", "2012-10-28T02:30:00", "x2012" };
+		DateTimeZone defaultZone = DateTimeZone.getDefault();
+		try {
+			for (String zone : new String[] { "UTC", "Europe/Prague", "America/New_York", "Asia/Kolkata" }) {
+				DateTimeZone.setDefault(DateTimeZone.forID(zone));
+				for (String value : values) {
+					Assert.assertEquals(zone + " " + value, jodaMillis(value), ISODateTimeParser.parseMillis(value));
+				}
+			}
+		} finally {
+			DateTimeZone.setDefault(defaultZone);
+		}
+
+		Random random = new Random(5);
+		for (int i = 0; i < 2000; i++) {
+			long millis = (random.nextLong() % 200000000000000L);
+			String value = ISODateTimeFormat.dateTime().withZone(DateTimeZone.forOffsetMillis(random.nextInt(24) * 1800000))
+					.print(millis);
+			Assert.assertEquals(value, millis, ISODateTimeParser.parseMillis(value));
+		}
+	}
+
+	private static long jodaMillis(String value) {
+		try {
+			return ISODateTimeFormat.dateTimeParser().parseMillis(value);
+		} catch (IllegalArgumentException e) {
+			return ISODateTimeParser.INVALID;
+		}
+	}
+
+	@Test
+	public void isSameUtcLayout() {
+		Assert.assertTrue(ISODateTimeParser.isSameUtcLayout("2012-01-15T12:24:44Z", "2013-11-05T02:04:49Z"));
+		Assert.assertTrue(ISODateTimeParser.isSameUtcLayout("2012-01-15T12:24:44.123Z", "2013-11-05T02:04:49.000Z"));
+		Assert.assertFalse(ISODateTimeParser.isSameUtcLayout("2012-01-15T12:24:44Z", "2012-01-15T12:24:44.1Z"));
+		Assert.assertFalse(ISODateTimeParser.isSameUtcLayout("2012-01-15T12:24:44+0100", "2012-01-15T12:24:44+0100"));
+		Assert.assertFalse(ISODateTimeParser.isSameUtcLayout("2012-01-15T12:24:44Z", "2012-01-15T12:24:4xZ"));
+		Assert.assertFalse(ISODateTimeParser.isSameUtcLayout("2012-01-15T12:24:44Z", "2012-01-15T12:24-44Z"));
+		Assert.assertFalse(ISODateTimeParser.isSameUtcLayout("-012-01-15Z", "-013-01-15Z"));
+		Assert.assertFalse(ISODateTimeParser.isSameUtcLayout("Z", "Z"));
+	}
+
+}
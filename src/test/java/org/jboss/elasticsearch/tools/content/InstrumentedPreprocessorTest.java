@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test for {@link InstrumentedPreprocessor}.
+ */
+public class InstrumentedPreprocessorTest {
+
+	@Test
+	public void constructor() {
+		StructuredContentPreprocessor delegate = Mockito.mock(StructuredContentPreprocessor.class);
+		Mockito.when(delegate.getName()).thenReturn("mock");
+		InstrumentedPreprocessor tested = new InstrumentedPreprocessor(delegate);
+		Assert.assertSame(delegate, tested.getDelegate());
+		Assert.assertEquals("mock", tested.getName());
+		Assert.assertEquals("mock", tested.getMetrics().getName());
+
+		PreprocessorMetrics metrics = new PreprocessorMetrics("shared");
+		Assert.assertSame(metrics, new InstrumentedPreprocessor(delegate, metrics).getMetrics());
+
+		try {
+			new InstrumentedPreprocessor(delegate, null);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void preprocessData() {
+		InstrumentedPreprocessor tested = new InstrumentedPreprocessor(
+				PreprocessorChainTest.createRequiredValidatorPreprocessor("a"));
+
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("a", "v");
+		Assert.assertSame(data, tested.preprocessData(data));
+		PreprocessChainContextImpl context = new PreprocessChainContextImpl();
+		Assert.assertSame(data, tested.preprocessData(data, context));
+
+		// case - exception is counted and rethrown
+		try {
+			tested.preprocessData(new HashMap<String, Object>(), context);
+			Assert.fail("InvalidDataException must be thrown");
+		} catch (InvalidDataException e) {
+			// OK
+		}
+
+		PreprocessorMetrics.Snapshot s = tested.getMetrics().getSnapshot();
+		Assert.assertEquals(3, s.getInvocationCount());
+		Assert.assertEquals(3, s.getDocumentCount());
+		Assert.assertEquals(1, s.getExceptionCount());
+		Assert.assertEquals(0, s.getWarningCount());
+		Assert.assertTrue(s.getMaxTimeNanos() > 0);
+	}
+
+	@Test
+	public void preprocessData_warnings() {
+		TrimStringValuePreprocessor trim = new TrimStringValuePreprocessor();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(TrimStringValuePreprocessor.CFG_SOURCE_FIELD, "a");
+		settings.put(TrimStringValuePreprocessor.CFG_TARGET_FIELD, "a");
+		settings.put(TrimStringValuePreprocessor.CFG_MAX_SIZE, 5);
+		trim.init("trim", null, settings);
+		InstrumentedPreprocessor tested = new InstrumentedPreprocessor(trim);
+
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("a", new ArrayList<Object>());
+		PreprocessChainContextImpl context = new PreprocessChainContextImpl();
+		tested.preprocessData(data, context);
+		Assert.assertEquals(1, context.getWarnings().size());
+		Assert.assertEquals("trim", context.getWarnings().get(0).getPreprocessorName());
+		Assert.assertEquals(1, tested.getMetrics().getWarningCount());
+
+		// case - no warning counted without context
+		tested.preprocessData(data, null);
+		Assert.assertEquals(1, tested.getMetrics().getWarningCount());
+		Assert.assertEquals(2, tested.getMetrics().getInvocationCount());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void preprocessBatch() {
+		// case - delegate is batch preprocessor
+		InstrumentedPreprocessor tested = new InstrumentedPreprocessor(
+				PreprocessorChainTest.createRequiredValidatorPreprocessor("a"));
+		assertBatch(tested);
+
+		// case - delegate is not batch preprocessor
+		StructuredContentPreprocessor delegate = Mockito.mock(StructuredContentPreprocessor.class);
+		Mockito.when(delegate.getName()).thenReturn("required a");
+		final StructuredContentPreprocessor real = PreprocessorChainTest.createRequiredValidatorPreprocessor("a");
+		Mockito.when(delegate.preprocessData(Mockito.anyMap(), Mockito.any(PreprocessChainContext.class))).thenAnswer(
+				new Answer<Map<String, Object>>() {
+					@SuppressWarnings("unchecked")
+					@Override
+					public Map<String, Object> answer(InvocationOnMock invocation) throws Throwable {
+						return real.preprocessData((Map<String, Object>) invocation.getArguments()[0],
+								(PreprocessChainContext) invocation.getArguments()[1]);
+					}
+				});
+		tested = new InstrumentedPreprocessor(delegate);
+		assertBatch(tested);
+
+		Assert.assertNull(tested.preprocessBatch(null, null));
+	}
+
+	private void assertBatch(InstrumentedPreprocessor tested) {
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+		List<PreprocessChainContextImpl> contexts = new ArrayList<PreprocessChainContextImpl>();
+		for (int i = 0; i < 3; i++) {
+			Map<String, Object> data = new HashMap<String, Object>();
+			if (i != 1)
+				data.put("a", "v");
+			batch.add(data);
+			contexts.add(new PreprocessChainContextImpl());
+		}
+		batch.add(null);
+		contexts.add(null);
+
+		List<Map<String, Object>> ret = tested.preprocessBatch(batch, contexts);
+		Assert.assertNotNull(ret.get(0));
+		Assert.assertNull(ret.get(1));
+		Assert.assertNotNull(ret.get(2));
+		Assert.assertEquals(1, contexts.get(1).getWarnings().size());
+
+		PreprocessorMetrics.Snapshot s = tested.getMetrics().getSnapshot();
+		Assert.assertEquals(1, s.getInvocationCount());
+		Assert.assertEquals(3, s.getDocumentCount());
+		Assert.assertEquals(1, s.getWarningCount());
+		Assert.assertEquals(0, s.getExceptionCount());
+
+		// case - no contexts
+		tested.preprocessBatch(new ArrayList<Map<String, Object>>(batch), null);
+		Assert.assertEquals(2, tested.getMetrics().getInvocationCount());
+		Assert.assertEquals(1, tested.getMetrics().getWarningCount());
+	}
+
+}
@@ -10,6 +10,7 @@ import static org.jboss.elasticsearch.tools.content.IsDateInRangePreprocessor.CF
 import static org.jboss.elasticsearch.tools.content.IsDateInRangePreprocessor.CFG_LEFT_DATE;
 import static org.jboss.elasticsearch.tools.content.IsDateInRangePreprocessor.CFG_RESULT_FIELD;
 import static org.jboss.elasticsearch.tools.content.IsDateInRangePreprocessor.CFG_RIGHT_DATE;
+import static org.jboss.elasticsearch.tools.content.IsDateInRangePreprocessor.CFG_RIGHT_DATE_FORMAT;
 
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -75,8 +76,19 @@ public class IsDateInRangePreprocessorTest {
 					e.getMessage());
 		}
 
-		// case - no more mandatory setting fields
+		// case - invalid date format
 		settings.put(CFG_RIGHT_DATE, "right_date");
+		settings.put(CFG_RIGHT_DATE_FORMAT, "yyyy-MM-dd'T");
+		try {
+			tested.init("Test mapper", null, settings);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith(
+					"Invalid 'settings/" + CFG_RIGHT_DATE_FORMAT + "' configuration value for 'Test mapper' preprocessor: "));
+		}
+
+		// case - no more mandatory setting fields
+		settings.remove(CFG_RIGHT_DATE_FORMAT);
 		tested.init("Test mapper", null, settings); 
 	}
 
@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.settings.SettingsException;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link JdbcLookupBackend}. Uses embedded H2 database.
+ */
+public class JdbcLookupBackendTest {
+
+	private static final String URL = "jdbc:h2:mem:jdbclookuptest;DB_CLOSE_DELAY=-1";
+
+	@Test
+	public void init_settingerrors() {
+		JdbcLookupBackend tested = new JdbcLookupBackend();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		try {
+			tested.init("Test", null, settings, Arrays.asList("name"));
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals("Missing or empty 'settings/lookup_jdbc_url' configuration value for 'Test' preprocessor",
+					e.getMessage());
+		}
+
+		settings.put(JdbcLookupBackend.CFG_lookup_jdbc_url, URL);
+		try {
+			tested.init("Test", null, settings, Arrays.asList("name"));
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals("Missing or empty 'settings/lookup_jdbc_table' configuration value for 'Test' preprocessor",
+					e.getMessage());
+		}
+
+		settings.put(JdbcLookupBackend.CFG_lookup_jdbc_table, "project; DROP TABLE project");
+		try {
+			tested.init("Test", null, settings, Arrays.asList("name"));
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals(
+					"Invalid 'settings/lookup_jdbc_table' configuration value for 'Test' preprocessor: project; DROP TABLE project",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void lookup() throws SQLException {
+		Connection conn = DriverManager.getConnection(URL, "sa", "");
+		try {
+			Statement st = conn.createStatement();
+			st.execute("CREATE TABLE project (code VARCHAR(20), name VARCHAR(100), jira VARCHAR(20), priority INT)");
+			st.execute("INSERT INTO project VALUES ('jbossorg', 'jboss.org', 'ORG', 1)");
+			st.execute("INSERT INTO project VALUES ('infinispan', 'Infinispan', 'ISPN', 2)");
+			st.execute("INSERT INTO project VALUES ('elasticsearch', NULL, 'ES', 3)");
+			st.execute("INSERT INTO project VALUES ('elasticsearch2', NULL, 'ES', 4)");
+			st.close();
+
+			JdbcLookupBackend tested = new JdbcLookupBackend();
+			Map<String, Object> settings = new HashMap<String, Object>();
+			settings.put(JdbcLookupBackend.CFG_lookup_jdbc_url, URL);
+			settings.put(JdbcLookupBackend.CFG_lookup_jdbc_user, "sa");
+			settings.put(JdbcLookupBackend.CFG_lookup_jdbc_table, "project");
+			tested.init("Test", null, settings, Arrays.asList("code", "name", "priority"));
+
+			Map<Object, List<Map<String, Object>>> ret = tested.lookup("jira", Arrays.<Object> asList("ORG", "ES", "AAA"));
+			Assert.assertEquals(2, ret.size());
+			Assert.assertEquals(1, ret.get("ORG").size());
+			Assert.assertEquals("jbossorg", ret.get("ORG").get(0).get("code"));
+			Assert.assertEquals("jboss.org", ret.get("ORG").get(0).get("name"));
+			Assert.assertEquals(1, ret.get("ORG").get(0).get("priority"));
+			Assert.assertEquals(2, ret.get("ES").size());
+			Assert.assertFalse(ret.get("ES").get(0).containsKey("name"));
+
+			// non string value is mapped back to itself
+			ret = tested.lookup("priority", Arrays.<Object> asList(2));
+			Assert.assertEquals("infinispan", ret.get(2).get(0).get("code"));
+
+			Assert.assertTrue(tested.lookup("jira", Arrays.<Object> asList()).isEmpty());
+
+			// connection is kept for next lookups
+			Assert.assertEquals(1, tested.getIdleConnectionCount());
+
+			// only search and result columns are selected, all for _source
+			Assert.assertFalse(ret.get(2).get(0).containsKey("jira"));
+			JdbcLookupBackend testedSource = new JdbcLookupBackend();
+			testedSource.init("Test", null, settings, Arrays.asList("_source"));
+			@SuppressWarnings("unchecked")
+			Map<String, Object> source = (Map<String, Object>) testedSource.lookup("code", Arrays.<Object> asList("jbossorg"))
+					.get("jbossorg").get(0).get("_source");
+			Assert.assertEquals("ORG", source.get("jira"));
+			Assert.assertEquals(4, source.size());
+			testedSource.close();
+			Assert.assertEquals(0, testedSource.getIdleConnectionCount());
+
+			try {
+				tested.lookup("jira or 1=1", Arrays.<Object> asList("ORG"));
+				Assert.fail("ElasticsearchException must be thrown");
+			} catch (ElasticsearchException e) {
+				// OK
+			}
+			try {
+				tested.lookup("unknown", Arrays.<Object> asList("ORG"));
+				Assert.fail("ElasticsearchException must be thrown");
+			} catch (ElasticsearchException e) {
+				Assert.assertTrue(e.getMessage().startsWith("JDBC lookup failed due "));
+			}
+			// connection of failed lookup is closed
+			Assert.assertEquals(0, tested.getIdleConnectionCount());
+			tested.close();
+		} finally {
+			conn.createStatement().execute("DROP ALL OBJECTS");
+			conn.close();
+		}
+	}
+
+	@Test
+	public void close_releasesConnections() throws Exception {
+		Connection conn = DriverManager.getConnection(URL, "sa", "");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Statement st = conn.createStatement();
+			st.execute("CREATE TABLE project (code VARCHAR(20), jira VARCHAR(20))");
+			st.execute("INSERT INTO project VALUES ('jbossorg', 'ORG')");
+			st.close();
+			TrackingJdbcLookupBackend.openedConnections.clear();
+
+			Map<String, Object> settings = new HashMap<String, Object>();
+			settings.put(ESLookupValuePreprocessor.CFG_lookup_backend, TrackingJdbcLookupBackend.class.getName());
+			settings.put(JdbcLookupBackend.CFG_lookup_jdbc_url, URL);
+			settings.put(JdbcLookupBackend.CFG_lookup_jdbc_user, "sa");
+			settings.put(JdbcLookupBackend.CFG_lookup_jdbc_table, "project");
+			settings.put(ESLookupValuePreprocessor.CFG_source_field, "jira");
+			settings.put(ESLookupValuePreprocessor.CFG_idx_search_field, "jira");
+			Map<String, Object> mapping = new HashMap<String, Object>();
+			mapping.put(ESLookupValuePreprocessor.CFG_idx_result_field, "code");
+			mapping.put(ESLookupValuePreprocessor.CFG_target_field, "project");
+			settings.put(ESLookupValuePreprocessor.CFG_result_mapping, Arrays.asList(mapping));
+
+			// case - init again closes connections of previous backend
+			ESLookupValuePreprocessor preprocessor = new ESLookupValuePreprocessor();
+			preprocessor.init("Test", null, settings);
+			preprocessor.preprocessData(createData("ORG"), null);
+			Assert.assertEquals(1, TrackingJdbcLookupBackend.openedConnections.size());
+			preprocessor.init("Test", null, settings);
+			Assert.assertTrue(TrackingJdbcLookupBackend.openedConnections.get(0).isClosed());
+			preprocessor.close();
+
+			// case - chain closes connections of all backends in chain, used by more threads
+			TrackingJdbcLookupBackend.openedConnections.clear();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(StructuredContentPreprocessorFactory.CFG_CLASS, ESLookupValuePreprocessor.class.getName());
+			config.put(StructuredContentPreprocessorFactory.CFG_NAME, "Test");
+			config.put(StructuredContentPreprocessorFactory.CFG_SETTINGS, settings);
+			PreprocessorChain chain = StructuredContentPreprocessorFactory.createPreprocessorChain(
+					Arrays.asList(config, config), null, true);
+			chain.setExecutor(executor);
+			chain.setMinChunkSize(1);
+			List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+			for (int i = 0; i < 20; i++) {
+				batch.add(createData(i % 2 == 0 ? "ORG" : "ORG" + i));
+			}
+			chain.processBatch(batch);
+			Assert.assertEquals("jbossorg", batch.get(0).get("project"));
+			Assert.assertFalse(TrackingJdbcLookupBackend.openedConnections.isEmpty());
+			chain.close();
+			for (Connection c : TrackingJdbcLookupBackend.openedConnections) {
+				Assert.assertTrue(c.isClosed());
+			}
+		} finally {
+			executor.shutdown();
+			conn.createStatement().execute("DROP ALL OBJECTS");
+			conn.close();
+		}
+	}
+
+	private static Map<String, Object> createData(String jira) {
+		Map<String, Object> ret = new HashMap<String, Object>();
+		ret.put("jira", jira);
+		return ret;
+	}
+
+	/**
+	 * Backend remembering all connections it opened.
+	 */
+	public static class TrackingJdbcLookupBackend extends JdbcLookupBackend {
+
+		static final List<Connection> openedConnections = Collections.synchronizedList(
+				new ArrayList<Connection>());
+
+		@Override
+		protected Connection openConnection() throws SQLException {
+			Connection ret = super.openConnection();
+			openedConnections.add(ret);
+			return ret;
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link LazyDocumentMap}.
+ */
+public class LazyDocumentMapTest {
+
+	private static final String DOCUMENT = "{\"id\":1,\"name\":\"Doc\",\"price\":10.5,\"valid\":true,\"empty\":null,"
+			+ "\"big\":{\"x\":[1,2.5,{\"y\":\"z\"}],\"b\":false},"
+			+ "\"nested\":{\"a\":\"A\",\"html\":\"<b>bold</b> text\",\"remove\":\"r\",\"deep\":{\"k\":[1,null]}},"
+			+ "\"list\":[{\"a\":1},\"s\",[]], \"meta\" : { } }";
+
+	private static Map<String, Object> parseEagerly(BytesReference bytes) {
+		return XContentHelper.convertToMap(bytes, true).v2();
+	}
+
+	private static BytesReference toBytes(String json, XContentType type) throws Exception {
+		BytesReference bytes = new BytesArray(json);
+		if (type == XContentType.JSON)
+			return bytes;
+		XContentBuilder builder = XContentFactory.contentBuilder(type);
+		builder.map(parseEagerly(bytes));
+		return builder.bytes();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void read() throws Exception {
+		for (XContentType type : new XContentType[] { XContentType.JSON, XContentType.SMILE }) {
+			BytesReference source = toBytes(DOCUMENT, type);
+			LazyDocumentMap tested = new LazyDocumentMap(source);
+			Assert.assertEquals(type, tested.getContentType());
+
+			Assert.assertEquals(9, tested.size());
+			Assert.assertEquals(1, tested.get("id"));
+			Assert.assertEquals("Doc", tested.get("name"));
+			Assert.assertEquals(10.5, tested.get("price"));
+			Assert.assertEquals(Boolean.TRUE, tested.get("valid"));
+			Assert.assertTrue(tested.containsKey("empty"));
+			Assert.assertNull(tested.get("empty"));
+			Assert.assertNull(tested.get("unknown"));
+
+			// nested objects are decoded lazily
+			Object nested = tested.get("nested");
+			Assert.assertTrue(nested instanceof LazyDocumentMap);
+			Assert.assertSame(nested, tested.get("nested"));
+			Assert.assertEquals("A", XContentMapValues.extractValue("nested.a", tested));
+			Assert.assertEquals(1, ((List<Object>) XContentMapValues.extractValue("nested.deep.k", tested)).get(0));
+			Assert.assertTrue(((Map<String, Object>) tested.get("meta")).isEmpty());
+			Assert.assertEquals(3, ((List<Object>) tested.get("list")).size());
+
+			// same content as eagerly parsed document
+			Map<String, Object> expected = parseEagerly(source);
+			Assert.assertEquals(expected, new LazyDocumentMap(source));
+			Assert.assertEquals(expected, tested);
+			Assert.assertEquals(expected.hashCode(), new LazyDocumentMap(source).hashCode());
+			List<String> keys = new ArrayList<String>();
+			for (Map.Entry<String, Object> e : new LazyDocumentMap(source).entrySet()) {
+				keys.add(e.getKey());
+				Assert.assertEquals(expected.get(e.getKey()), e.getValue());
+			}
+			Assert.assertEquals(new ArrayList<String>(expected.keySet()), keys);
+		}
+	}
+
+	@Test
+	public void read_invalid() {
+		try {
+			new LazyDocumentMap(null);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			new LazyDocumentMap(new BytesArray("[1,2]"), XContentType.JSON).size();
+			Assert.fail("ElasticsearchParseException must be thrown");
+		} catch (ElasticsearchParseException e) {
+			// OK
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void write() throws Exception {
+		for (XContentType type : new XContentType[] { XContentType.JSON, XContentType.SMILE }) {
+			BytesReference source = toBytes(DOCUMENT, type);
+			Map<String, Object> expected = parseEagerly(source);
+
+			// case - not changed document is not serialized again
+			LazyDocumentMap tested = new LazyDocumentMap(source);
+			Assert.assertSame(source, tested.bytes());
+			tested.get("name");
+			XContentMapValues.extractValue("nested.deep", tested);
+			Assert.assertFalse(tested.isChanged());
+			Assert.assertSame(source, tested.bytes());
+
+			// case - changed document
+			Map<String, Object> nested = (Map<String, Object>) tested.get("nested");
+			nested.put("text", "bold text");
+			nested.remove("remove");
+			tested.put("name", "Changed");
+			tested.remove("id");
+			((Map<String, Object>) expected.get("nested")).put("text", "bold text");
+			((Map<String, Object>) expected.get("nested")).remove("remove");
+			expected.put("name", "Changed");
+			expected.remove("id");
+			Assert.assertTrue(tested.isChanged());
+			BytesReference bytes = tested.bytes();
+			Assert.assertNotSame(source, bytes);
+			Assert.assertEquals(expected, parseEagerly(bytes));
+
+			// case - other content type
+			XContentBuilder builder = XContentFactory.contentBuilder(type == XContentType.JSON ? XContentType.SMILE
+					: XContentType.JSON);
+			tested.toXContent(builder, LazyDocumentMap.EMPTY_PARAMS);
+			Assert.assertEquals(expected, parseEagerly(builder.bytes()));
+			builder = XContentFactory.contentBuilder(type == XContentType.JSON ? XContentType.SMILE : XContentType.JSON);
+			new LazyDocumentMap(source).toXContent(builder, LazyDocumentMap.EMPTY_PARAMS);
+			Assert.assertEquals(parseEagerly(source), parseEagerly(builder.bytes()));
+
+			// case - decoded array may be changed
+			tested = new LazyDocumentMap(source);
+			((List<Object>) tested.get("list")).remove(0);
+			Assert.assertTrue(tested.isChanged());
+			Assert.assertEquals(2, ((List<Object>) parseEagerly(tested.bytes()).get("list")).size());
+		}
+	}
+
+	@Test
+	public void change_byIteration() throws Exception {
+		LazyDocumentMap tested = new LazyDocumentMap(new BytesArray(DOCUMENT));
+		for (Iterator<Map.Entry<String, Object>> it = tested.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Object> e = it.next();
+			if (e.getKey().equals("big"))
+				it.remove();
+			else if (e.getKey().equals("meta"))
+				e.setValue("replaced");
+		}
+		Map<String, Object> expected = parseEagerly(new BytesArray(DOCUMENT));
+		expected.remove("big");
+		expected.put("meta", "replaced");
+		Assert.assertEquals(expected, parseEagerly(tested.bytes()));
+
+		tested = new LazyDocumentMap(new BytesArray(DOCUMENT));
+		tested.clear();
+		Assert.assertTrue(tested.isEmpty());
+		Assert.assertEquals(new HashMap<String, Object>(), parseEagerly(tested.bytes()));
+	}
+
+	@Test
+	public void preprocessorChain() throws Exception {
+		List<Map<String, Object>> configs = new ArrayList<Map<String, Object>>();
+		configs.add(PreprocessorChainTest.createConfig("add", AddValuePreprocessor.class, AddValuePreprocessor.CFG_FIELD,
+				"meta.title", AddValuePreprocessor.CFG_VALUE, "{name} - {nested.a}"));
+		configs.add(PreprocessorChainTest.createConfig("strip", StripHtmlPreprocessor.class,
+				StripHtmlPreprocessor.CFG_SOURCE_FIELD, "nested.html", StripHtmlPreprocessor.CFG_TARGET_FIELD, "nested.text"));
+		configs.add(PreprocessorChainTest.createConfig("remove", RemoveMultipleFieldsPreprocessor.class,
+				RemoveMultipleFieldsPreprocessor.CFG_FIELDS, "nested.deep"));
+		PreprocessorChain chain = StructuredContentPreprocessorFactory.createPreprocessorChain(configs, null);
+
+		Map<String, Object> expected = chain.preprocessData(parseEagerly(new BytesArray(DOCUMENT)), null);
+		LazyDocumentMap tested = new LazyDocumentMap(new BytesArray(DOCUMENT));
+		Assert.assertSame(tested, chain.preprocessData(tested, null));
+		Assert.assertEquals(expected, tested);
+		Assert.assertEquals(expected, parseEagerly(tested.bytes()));
+	}
+
+}
@@ -108,9 +108,10 @@ public class LongToTimestampValuePreprocessorTest {
 	public void preprocessData_nobases() {
 
 		LongToTimestampValuePreprocessor tested = new LongToTimestampValuePreprocessor();
-		tested.name = "mypreproc";
-		tested.fieldSource = "source";
-		tested.fieldTarget = "target";
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(LongToTimestampValuePreprocessor.CFG_SOURCE_FIELD, "source");
+		settings.put(LongToTimestampValuePreprocessor.CFG_TARGET_FIELD, "target");
+		tested.init("mypreproc", null, settings);
 
 		// case - not NPE
 		tested.preprocessData(null, null);
@@ -180,7 +181,8 @@ public class LongToTimestampValuePreprocessorTest {
 
 		// case - Long, rewrite source
 		{
-			tested.fieldTarget = "source";
+			settings.put(LongToTimestampValuePreprocessor.CFG_TARGET_FIELD, "source");
+			tested.init("mypreproc", null, settings);
 			Map<String, Object> values = new HashMap<String, Object>();
 			values.put(tested.fieldSource, new Long(510));
 			tested.preprocessData(values, null);
@@ -192,10 +194,12 @@ public class LongToTimestampValuePreprocessorTest {
 	public void preprocessData_bases() {
 
 		LongToTimestampValuePreprocessor tested = new LongToTimestampValuePreprocessor();
-		tested.name = "Test";
-		tested.fieldSource = "source";
-		tested.fieldTarget = "target";
-		tested.sourceBases = Arrays.asList(new String[] { "author", "editor", "comments" });
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(LongToTimestampValuePreprocessor.CFG_SOURCE_FIELD, "source");
+		settings.put(LongToTimestampValuePreprocessor.CFG_TARGET_FIELD, "target");
+		settings.put(LongToTimestampValuePreprocessor.CFG_source_bases,
+				Arrays.asList(new String[] { "author", "editor", "comments" }));
+		tested.init("Test", null, settings);
 
 		// case - test it
 		{
@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link MappedValueMappingTable}.
+ */
+public class MappedValueMappingTableTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	protected static File writeMappingFile(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	@Test
+	public void get() throws IOException {
+		File file = writeMappingFile(folder.newFile("mapping.txt"),
+				"b\tvalue b\n\na\tvalue a\nc\t\naa\tdup\n\u017elu\u0165\tyellow\n\uD83D\uDE00\tsmile\n"
+						+ "\uFFFD\treplacement\naa\tvalue aa\n");
+		MappedValueMappingTable tested = MappedValueMappingTable.open(file);
+		Assert.assertTrue(new File(file.getPath() + MappedValueMappingTable.TABLE_FILE_SUFFIX).exists());
+		Assert.assertEquals(7, tested.size());
+		Assert.assertTrue(tested.getSizeInBytes() > 0);
+
+		Assert.assertEquals("value a", tested.get("a"));
+		Assert.assertEquals("value aa", tested.get("aa"));
+		Assert.assertEquals("value b", tested.get("b"));
+		Assert.assertEquals("", tested.get("c"));
+		Assert.assertEquals("yellow", tested.get("\u017elu\u0165"));
+		Assert.assertEquals("smile", tested.get("\uD83D\uDE00"));
+		Assert.assertEquals("replacement", tested.get("\uFFFD"));
+		Assert.assertNull(tested.get(null));
+		Assert.assertNull(tested.get(""));
+		Assert.assertNull(tested.get("A"));
+		Assert.assertNull(tested.get("aaa"));
+		Assert.assertNull(tested.get("\u017elu"));
+		Assert.assertNull(tested.get("zzz"));
+	}
+
+	@Test
+	public void get_large() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 10000; i++)
+			sb.append("key").append(i).append('\t').append(i).append('\n');
+		MappedValueMappingTable tested = MappedValueMappingTable.open(writeMappingFile(folder.newFile("large.txt"),
+				sb.toString()));
+		Assert.assertEquals(10000, tested.size());
+		for (int i = 0; i < 10000; i++)
+			Assert.assertEquals(Integer.toString(i), tested.get("key" + i));
+		Assert.assertNull(tested.get("key10000"));
+	}
+
+	@Test
+	public void open() throws Exception {
+		File file = writeMappingFile(folder.newFile("mapping.txt"), "a\t1\n");
+		MappedValueMappingTable tested = MappedValueMappingTable.open(file);
+
+		// case - same table is shared in JVM
+		Assert.assertSame(tested, MappedValueMappingTable.open(file));
+
+		// case - table is compiled again if text file is changed
+		writeMappingFile(file, "a\t2\n");
+		file.setLastModified(System.currentTimeMillis() + 10000);
+		MappedValueMappingTable changed = MappedValueMappingTable.open(file);
+		Assert.assertNotSame(tested, changed);
+		Assert.assertEquals("2", changed.get("a"));
+		Assert.assertEquals("1", tested.get("a"));
+
+		// case - compiled table is used if text file doesn't exist
+		file.delete();
+		Assert.assertEquals("2", MappedValueMappingTable.open(file).get("a"));
+
+		// case - nothing exists
+		try {
+			MappedValueMappingTable.open(new File(folder.getRoot(), "unknown.txt"));
+			Assert.fail("FileNotFoundException must be thrown");
+		} catch (FileNotFoundException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void open_invalid() throws IOException {
+		try {
+			MappedValueMappingTable.open(writeMappingFile(folder.newFile("invalid.txt"), "a\t1\nb 2\n"));
+			Assert.fail("IOException must be thrown");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Invalid line 2 in value mapping file"));
+		}
+
+		writeMappingFile(folder.newFile("corrupted.txt" + MappedValueMappingTable.TABLE_FILE_SUFFIX), "corrupted");
+		try {
+			MappedValueMappingTable.open(new File(folder.getRoot(), "corrupted.txt"));
+			Assert.fail("IOException must be thrown");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Invalid format of value mapping table"));
+		}
+	}
+
+}
@@ -130,6 +130,23 @@ public class MaxTimestampPreprocessorTest {
 			Assert.assertEquals(2, chainContext.getWarnings().size());
 		}
 
+		// case - select max from list of UTC values with same layout compared lexicographically
+		{
+			Map<String, Object> values = new HashMap<String, Object>();
+			List<Object> source = new ArrayList<Object>();
+			source.add("2012-01-15T12:24:44.000Z");
+			source.add(" 2013-01-15T12:24:44.000Z ");
+			source.add("2012-11-15T12:24:44.000Z");
+			source.add("2013-01-15T12:24:43.999Z");
+			source.add("2013-01-15T13:24:44.000+0100");
+			source.add("2013-13-15T12:24:44.000Z");
+			values.put("source", source);
+			PreprocessChainContextImpl chainContext = new PreprocessChainContextImpl();
+			tested.preprocessData(values, chainContext);
+			Assert.assertEquals(" 2013-01-15T12:24:44.000Z ", values.get("target"));
+			Assert.assertEquals(1, chainContext.getWarnings().size());
+		}
+
 	}
 
 }
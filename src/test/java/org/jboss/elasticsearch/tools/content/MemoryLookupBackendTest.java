@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.settings.SettingsException;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link MemoryLookupBackend}.
+ */
+public class MemoryLookupBackendTest {
+
+	@Test
+	public void init() {
+		MemoryLookupBackend tested = new MemoryLookupBackend();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		tested.init("Test", null, settings, Arrays.asList("name"));
+		Assert.assertTrue(tested.getDocuments().isEmpty());
+
+		settings.put(MemoryLookupBackend.CFG_lookup_documents, "no list");
+		try {
+			tested.init("Test", null, settings, Arrays.asList("name"));
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals("'settings/lookup_documents' configuration value for 'Test' preprocessor must be List of documents",
+					e.getMessage());
+		}
+
+		settings.put(MemoryLookupBackend.CFG_lookup_documents, Arrays.asList("no map"));
+		try {
+			tested.init("Test", null, settings, Arrays.asList("name"));
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals("'settings/lookup_documents' configuration value for 'Test' preprocessor must be List of documents",
+					e.getMessage());
+		}
+
+		settings.put(MemoryLookupBackend.CFG_lookup_documents, Arrays.asList(createDocument("a", "A", null)));
+		tested.init("Test", null, settings, Arrays.asList("name"));
+		Assert.assertEquals(1, tested.getDocuments().size());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void lookup() {
+		MemoryLookupBackend tested = new MemoryLookupBackend();
+		tested.init("Test", null, new HashMap<String, Object>(), Arrays.asList("name", "nested.value", "_source"));
+		List<Map<String, Object>> documents = new ArrayList<Map<String, Object>>();
+		documents.add(createDocument("a", "A", Arrays.asList("x", "y")));
+		documents.add(createDocument("b", null, "y"));
+		documents.add(createDocument(1, "One", null));
+		tested.setDocuments(documents);
+
+		Map<Object, List<Map<String, Object>>> ret = tested.lookup("code", Arrays.<Object> asList("a", "1", "c"));
+		Assert.assertEquals(2, ret.size());
+		Assert.assertEquals(1, ret.get("a").size());
+		Assert.assertEquals("A", ret.get("a").get(0).get("name"));
+		Assert.assertEquals("nv", ret.get("a").get(0).get("nested.value"));
+		Assert.assertSame(documents.get(0), ret.get("a").get(0).get("_source"));
+		Assert.assertEquals("One", ret.get("1").get(0).get("name"));
+		Assert.assertFalse(ret.containsKey("c"));
+
+		// each value of list is indexed
+		ret = tested.lookup("aliases", Arrays.<Object> asList("x", "y"));
+		Assert.assertEquals(1, ret.get("x").size());
+		Assert.assertEquals(2, ret.get("y").size());
+		Assert.assertEquals("A", ret.get("y").get(0).get("name"));
+		Assert.assertFalse(ret.get("y").get(1).containsKey("name"));
+		Assert.assertEquals("b", ((Map<String, Object>) ret.get("y").get(1).get("_source")).get("code"));
+
+		// indices are rebuilt for new documents
+		tested.setDocuments(Arrays.asList(createDocument("c", "C", null)));
+		ret = tested.lookup("code", Arrays.<Object> asList("a", "c"));
+		Assert.assertEquals(1, ret.size());
+		Assert.assertEquals("C", ret.get("c").get(0).get("name"));
+	}
+
+	protected static Map<String, Object> createDocument(Object code, String name, Object aliases) {
+		Map<String, Object> ret = new HashMap<String, Object>();
+		ret.put("code", code);
+		if (name != null)
+			ret.put("name", name);
+		if (aliases != null)
+			ret.put("aliases", aliases);
+		StructureUtils.putValueIntoMapOfMaps(ret, "nested.value", "nv");
+		return ret;
+	}
+
+}
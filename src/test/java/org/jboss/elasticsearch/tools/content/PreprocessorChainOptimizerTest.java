@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import static org.jboss.elasticsearch.tools.content.PreprocessorChainTest.createConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.settings.SettingsException;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link PreprocessorChainOptimizer} and {@link PreprocessorChain#optimize()}.
+ */
+public class PreprocessorChainOptimizerTest {
+
+	private static Map<String, Object> addValue(String name, String field, String value) {
+		return createConfig(name, AddValuePreprocessor.class, AddValuePreprocessor.CFG_FIELD, field,
+				AddValuePreprocessor.CFG_VALUE, value);
+	}
+
+	private static Map<String, Object> stripHtml(String name, String source, String target, String... bases) {
+		Map<String, Object> ret = createConfig(name, StripHtmlPreprocessor.class, StripHtmlPreprocessor.CFG_SOURCE_FIELD,
+				source, StripHtmlPreprocessor.CFG_TARGET_FIELD, target);
+		return addSourceBases(ret, bases);
+	}
+
+	private static Map<String, Object> trim(String name, String source, String target, String... bases) {
+		Map<String, Object> ret = createConfig(name, TrimStringValuePreprocessor.class,
+				TrimStringValuePreprocessor.CFG_SOURCE_FIELD, source, TrimStringValuePreprocessor.CFG_TARGET_FIELD, target,
+				TrimStringValuePreprocessor.CFG_MAX_SIZE, "5");
+		return addSourceBases(ret, bases);
+	}
+
+	private static Map<String, Object> remove(String name, String... fields) {
+		Map<String, Object> ret = createConfig(name, RemoveMultipleFieldsPreprocessor.class);
+		getSettings(ret).put(RemoveMultipleFieldsPreprocessor.CFG_FIELDS, Arrays.asList(fields));
+		return ret;
+	}
+
+	private static Map<String, Object> required(String name, String field) {
+		return createConfig(name, RequiredValidatorPreprocessor.class, RequiredValidatorPreprocessor.CFG_FIELD, field);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getSettings(Map<String, Object> config) {
+		return (Map<String, Object>) config.get(StructuredContentPreprocessorFactory.CFG_SETTINGS);
+	}
+
+	private static Map<String, Object> addSourceBases(Map<String, Object> config, String... bases) {
+		if (bases.length > 0)
+			getSettings(config).put(StructuredContentPreprocessorWithSourceBasesBase.CFG_source_bases,
+					Arrays.asList(bases));
+		return config;
+	}
+
+	private static List<String> getNames(PreprocessorChain chain) {
+		List<String> ret = new ArrayList<String>();
+		for (StructuredContentPreprocessor p : chain.getPreprocessors()) {
+			ret.add(p.getName());
+		}
+		return ret;
+	}
+
+	private static PreprocessorChain createChain(boolean instrumented, Map<String, Object>... configs) {
+		return StructuredContentPreprocessorFactory.createPreprocessorChain(Arrays.asList(configs), null, instrumented);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void removeDeadStores() {
+		PreprocessorChain chain = createChain(false, addValue("tmp", "tmp.a", "x"), addValue("tmp2", "tmp2", "y"),
+				stripHtml("strip", "html", "text"), addValue("used", "used", "u"), addValue("copy", "copy", "{used}"),
+				remove("remove", "tmp", "tmp2", "used"), addValue("after", "tmp", "z"));
+		Assert.assertEquals(Arrays.asList("strip", "used", "copy", "remove", "after"), getNames(chain.optimize()));
+
+		// case - stores are kept if some preprocessor doesn't declare fields
+		chain = createChain(false, addValue("tmp", "tmp", "x"), createConfig("mock", StructuredContentPreprocessorMock.class),
+				remove("remove", "tmp"));
+		Assert.assertEquals(Arrays.asList("tmp", "mock", "remove"), getNames(chain.optimize()));
+
+		// case - remove with source bases doesn't remove whole fields
+		Map<String, Object> removeWithBases = remove("remove", "tmp");
+		addSourceBases(removeWithBases, "base");
+		chain = createChain(true, addValue("tmp", "base.tmp", "x"), removeWithBases);
+		Assert.assertEquals(Arrays.asList("tmp", "remove"), getNames(chain.optimize()));
+
+		// case - remove with condition may not be invoked, condition field is read
+		Map<String, Object> conditionalRemove = remove("remove", "tmp");
+		conditionalRemove.put(StructuredContentPreprocessorFactory.CFG_WHEN,
+				PreprocessorChainTest.createMap(PreprocessorCondition.CFG_FIELD, "a"));
+		chain = createChain(false, addValue("tmp", "tmp", "x"), conditionalRemove);
+		Assert.assertEquals(Arrays.asList("tmp", "remove"), getNames(chain.optimize()));
+		Map<String, Object> conditionalAdd = addValue("add", "b", "x");
+		conditionalAdd.put(StructuredContentPreprocessorFactory.CFG_WHEN,
+				PreprocessorChainTest.createMap(PreprocessorCondition.CFG_FIELD, "tmp"));
+		chain = createChain(false, addValue("tmp", "tmp", "x"), conditionalAdd, remove("remove", "tmp"));
+		PreprocessorChain optimized = chain.optimize();
+		Assert.assertEquals(Arrays.asList("tmp", "add", "remove"), getNames(optimized));
+		Assert.assertEquals(1, optimized.getSkippedCounts().size());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void hoistValidators() {
+		PreprocessorChain chain = createChain(true, stripHtml("strip", "html", "text"), trim("trim", "title", "title"),
+				required("required html", "html"), required("required title", "title"),
+				required("required text", "text.value"), createConfig("mock", StructuredContentPreprocessorMock.class),
+				required("required after mock", "html"));
+		PreprocessorChain optimized = chain.optimize();
+		Assert.assertEquals(Arrays.asList("required html", "strip", "trim", "required title", "required text", "mock",
+				"required after mock"), getNames(optimized));
+		Assert.assertEquals(chain.getMetrics().keySet(), optimized.getMetrics().keySet());
+
+		// invalid data are rejected before other preprocessors
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("title", " title ");
+		PreprocessChainContextImpl context = new PreprocessChainContextImpl();
+		List<Map<String, Object>> ret = optimized.processBatch(Arrays.asList(data), Arrays.asList(context));
+		Assert.assertNull(ret.get(0));
+		Assert.assertEquals(" title ", data.get("title"));
+		Assert.assertEquals(1, context.getWarnings().size());
+		Assert.assertEquals("required html", context.getWarnings().get(0).getPreprocessorName());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void mergeSourceBasesTraversals() {
+		PreprocessorChain chain = createChain(false, trim("trim", "title", "title", "a", "b"),
+				stripHtml("strip", "html", "text", "a", "b"), trim("trim2", "text", "text", "a", "b"),
+				stripHtml("strip other", "html", "text", "a"), trim("trim other", "title", "title", "a"),
+				trim("trim no bases", "title", "title"), trim("trim no bases 2", "title", "title"));
+		PreprocessorChain optimized = chain.optimize();
+		Assert.assertEquals(Arrays.asList("trim, strip, trim2", "strip other, trim other", "trim no bases",
+				"trim no bases 2"), getNames(optimized));
+		Assert.assertTrue(optimized.getPreprocessors().get(0) instanceof SourceBasesGroupPreprocessor);
+		Assert.assertEquals(3, ((SourceBasesGroupPreprocessor) optimized.getPreprocessors().get(0)).getPreprocessors()
+				.size());
+		try {
+			optimized.getPreprocessors().get(0).init("group", null, new HashMap<String, Object>());
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		Assert.assertEquals(chain.getAccessedFields(), optimized.getAccessedFields());
+
+		// same result as not optimized chain, also warnings
+		Assert.assertEquals(chain.preprocessData(createBasesData(), null), optimized.preprocessData(createBasesData(),
+				null));
+		PreprocessChainContextImpl context = new PreprocessChainContextImpl();
+		PreprocessChainContextImpl optimizedContext = new PreprocessChainContextImpl();
+		Map<String, Object> data = createBasesData();
+		data.put("b", "invalid");
+		chain.preprocessData(data, context);
+		optimized.preprocessData(data, optimizedContext);
+		Assert.assertEquals(3, optimizedContext.getWarnings().size());
+		Assert.assertEquals(context.getWarnings().size(), optimizedContext.getWarnings().size());
+
+		// case - preprocessors with condition are not merged
+		Map<String, Object> conditionalStrip = stripHtml("strip", "html", "text", "a");
+		conditionalStrip.put(StructuredContentPreprocessorFactory.CFG_WHEN,
+				PreprocessorChainTest.createMap(PreprocessorCondition.CFG_FIELD, "a"));
+		chain = createChain(false, trim("trim", "title", "title", "a"), conditionalStrip);
+		Assert.assertEquals(Arrays.asList("trim", "strip"), getNames(chain.optimize()));
+
+		// case - instrumented preprocessors are not merged
+		chain = createChain(true, trim("trim", "title", "title", "a"), stripHtml("strip", "html", "text", "a"));
+		Assert.assertEquals(Arrays.asList("trim", "strip"), getNames(chain.optimize()));
+
+		// case - parallel processing of optimized chain
+		chain = createChain(false, trim("trim", "title", "title", "a"), stripHtml("strip", "html", "text", "a"),
+				createConfig("thread checker", PreprocessorChainTest.ThreadCheckingPreprocessor.class));
+		optimized = chain.optimize();
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			optimized.setExecutor(pool);
+			optimized.setMinChunkSize(1);
+			List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+			for (int i = 0; i < 20; i++)
+				batch.add(createBasesData());
+			for (Map<String, Object> r : optimized.processBatch(batch)) {
+				Assert.assertEquals(chain.preprocessData(createBasesData(), null), r);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static Map<String, Object> createBasesData() {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("a", createBaseValue(" Title of A ", "<b>A</b> html "));
+		List<Object> b = new ArrayList<Object>();
+		b.add(createBaseValue("B1", "<i>B1</i>"));
+		b.add("not map");
+		b.add(createBaseValue(" B2 title", null));
+		data.put("b", b);
+		return data;
+	}
+
+	private static Map<String, Object> createBaseValue(String title, String html) {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("title", title);
+		if (html != null)
+			ret.put("html", html);
+		return ret;
+	}
+
+	@Test
+	public void overlaps() {
+		Assert.assertTrue(PreprocessorChainOptimizer.overlaps("a", "a"));
+		Assert.assertTrue(PreprocessorChainOptimizer.overlaps("a", "a.b"));
+		Assert.assertTrue(PreprocessorChainOptimizer.overlaps("a.b.c", "a.b"));
+		Assert.assertFalse(PreprocessorChainOptimizer.overlaps("a", "ab"));
+		Assert.assertFalse(PreprocessorChainOptimizer.overlaps("a.b", "a.c"));
+		Assert.assertFalse(PreprocessorChainOptimizer.overlaps("ab.c", "a"));
+	}
+
+}
@@ -0,0 +1,630 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.util.concurrent.ListenableFuture;
+import org.elasticsearch.common.util.concurrent.SettableFuture;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test for {@link PreprocessorChain}.
+ */
+public class PreprocessorChainTest {
+
+	@Test
+	public void constructor() {
+		PreprocessorChain tested = new PreprocessorChain(null);
+		Assert.assertTrue(tested.getPreprocessors().isEmpty());
+
+		List<StructuredContentPreprocessor> preprocs = new ArrayList<StructuredContentPreprocessor>();
+		preprocs.add(createAddValuePreprocessor("a", "1"));
+		preprocs.add(Mockito.mock(StructuredContentPreprocessor.class));
+		tested = new PreprocessorChain(preprocs);
+		Assert.assertEquals(2, tested.getPreprocessors().size());
+		Assert.assertNotNull(tested.batchStages[0]);
+		Assert.assertNull(tested.batchStages[1]);
+
+		// case - chain is not affected by later changes of list
+		preprocs.clear();
+		Assert.assertEquals(2, tested.getPreprocessors().size());
+	}
+
+	@Test
+	public void preprocessData() {
+		List<StructuredContentPreprocessor> preprocs = new ArrayList<StructuredContentPreprocessor>();
+		preprocs.add(createAddValuePreprocessor("a", "1"));
+		preprocs.add(createAddValuePreprocessor("b", "{a}2"));
+		PreprocessorChain tested = new PreprocessorChain(preprocs);
+
+		Map<String, Object> data = new HashMap<String, Object>();
+		Assert.assertSame(data, tested.preprocessData(data, null));
+		Assert.assertEquals("1", data.get("a"));
+		Assert.assertEquals("12", data.get("b"));
+
+		// case - empty chain
+		tested = new PreprocessorChain(null);
+		Assert.assertSame(data, tested.preprocessData(data, null));
+	}
+
+	@Test(expected = InvalidDataException.class)
+	public void preprocessData_invalid() {
+		List<StructuredContentPreprocessor> preprocs = new ArrayList<StructuredContentPreprocessor>();
+		preprocs.add(createRequiredValidatorPreprocessor("a"));
+		PreprocessorChain tested = new PreprocessorChain(preprocs);
+		tested.preprocessData(new HashMap<String, Object>(), null);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void processBatch() {
+		StructuredContentPreprocessor nonBatchMock = Mockito.mock(StructuredContentPreprocessor.class);
+		Mockito.when(nonBatchMock.getName()).thenReturn("mock");
+		Mockito.when(nonBatchMock.preprocessData(Mockito.anyMap(), Mockito.any(PreprocessChainContext.class)))
+				.thenAnswer(new Answer<Map<String, Object>>() {
+					@Override
+					public Map<String, Object> answer(InvocationOnMock invocation) throws Throwable {
+						Map<String, Object> data = (Map<String, Object>) invocation.getArguments()[0];
+						data.put("c", "3");
+						return data;
+					}
+				});
+
+		List<StructuredContentPreprocessor> preprocs = new ArrayList<StructuredContentPreprocessor>();
+		preprocs.add(createAddValuePreprocessor("a", "{v}"));
+		preprocs.add(createRequiredValidatorPreprocessor("v"));
+		preprocs.add(nonBatchMock);
+		preprocs.add(createAddValuePreprocessor("b", "{a}2"));
+		PreprocessorChain tested = new PreprocessorChain(preprocs);
+
+		// case - null and empty batch
+		Assert.assertNull(tested.processBatch(null));
+		Assert.assertTrue(tested.processBatch(new ArrayList<Map<String, Object>>()).isEmpty());
+
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+		List<PreprocessChainContextImpl> contexts = new ArrayList<PreprocessChainContextImpl>();
+		for (int i = 0; i < 4; i++) {
+			Map<String, Object> data = new HashMap<String, Object>();
+			if (i != 1)
+				data.put("v", "v" + i);
+			batch.add(data);
+			contexts.add(new PreprocessChainContextImpl());
+		}
+		batch.add(null);
+		contexts.add(new PreprocessChainContextImpl());
+
+		List<Map<String, Object>> ret = tested.processBatch(batch, contexts);
+		Assert.assertNotSame(batch, ret);
+		Assert.assertEquals(5, ret.size());
+		Assert.assertNotNull(batch.get(1));
+
+		// case - valid items processed by all preprocessors in order
+		for (int i : new int[] { 0, 2, 3 }) {
+			Assert.assertSame(batch.get(i), ret.get(i));
+			Assert.assertEquals("v" + i, ret.get(i).get("a"));
+			Assert.assertEquals("3", ret.get(i).get("c"));
+			Assert.assertEquals("v" + i + "2", ret.get(i).get("b"));
+			Assert.assertFalse(contexts.get(i).isWarning());
+		}
+
+		// case - invalid item is rejected and not processed by next preprocessors
+		Assert.assertNull(ret.get(1));
+		Assert.assertFalse(batch.get(1).containsKey("c"));
+		Assert.assertEquals(1, contexts.get(1).getWarnings().size());
+		Assert.assertEquals("required v", contexts.get(1).getWarnings().get(0).getPreprocessorName());
+		Assert.assertEquals("Field v is required", contexts.get(1).getWarnings().get(0).getWarningMessage());
+
+		// case - null item is skipped
+		Assert.assertNull(ret.get(4));
+
+		// case - no contexts
+		batch.set(1, new HashMap<String, Object>());
+		ret = tested.processBatch(batch);
+		Assert.assertNull(ret.get(1));
+		Assert.assertNotNull(ret.get(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void processBatch_contextsSizeMismatch() {
+		PreprocessorChain tested = new PreprocessorChain(null);
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+		batch.add(new HashMap<String, Object>());
+		tested.processBatch(batch, new ArrayList<PreprocessChainContext>());
+	}
+
+	@Test
+	public void processBatch_parallel() {
+		List<Map<String, Object>> configs = new ArrayList<Map<String, Object>>();
+		configs.add(createConfig("add", AddValuePreprocessor.class, AddValuePreprocessor.CFG_FIELD, "a",
+				AddValuePreprocessor.CFG_VALUE, "{v}"));
+		configs.add(createConfig("thread checker", ThreadCheckingPreprocessor.class));
+		configs.add(createConfig("required", RequiredValidatorPreprocessor.class, RequiredValidatorPreprocessor.CFG_FIELD,
+				"v"));
+		PreprocessorChain tested = StructuredContentPreprocessorFactory.createPreprocessorChain(configs, null);
+		Assert.assertNull(tested.getExecutor());
+		Assert.assertEquals(PreprocessorChain.DEFAULT_MIN_CHUNK_SIZE, tested.getMinChunkSize());
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			tested.setExecutor(pool);
+			tested.setMinChunkSize(3);
+			ThreadCheckingPreprocessor.instances.set(0);
+
+			List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+			List<PreprocessChainContextImpl> contexts = new ArrayList<PreprocessChainContextImpl>();
+			for (int i = 0; i < 200; i++) {
+				Map<String, Object> data = new HashMap<String, Object>();
+				if (i % 10 != 5)
+					data.put("v", "v" + i);
+				batch.add(data);
+				contexts.add(new PreprocessChainContextImpl());
+			}
+
+			for (int round = 0; round < 5; round++) {
+				List<Map<String, Object>> ret = tested.processBatch(batch, contexts);
+				Assert.assertEquals(200, ret.size());
+				for (int i = 0; i < 200; i++) {
+					if (i % 10 != 5) {
+						Assert.assertSame(batch.get(i), ret.get(i));
+						Assert.assertEquals("v" + i, ret.get(i).get("a"));
+					} else {
+						Assert.assertNull(ret.get(i));
+						Assert.assertTrue(contexts.get(i).isWarning());
+					}
+				}
+			}
+			// thread unsafe preprocessor is created for each thread
+			Assert.assertTrue(ThreadCheckingPreprocessor.instances.get() > 0);
+			Assert.assertTrue(ThreadCheckingPreprocessor.instances.get() <= 4);
+
+			// case - small batch is processed by calling thread
+			ThreadCheckingPreprocessor.instances.set(0);
+			tested.setMinChunkSize(PreprocessorChain.DEFAULT_MIN_CHUNK_SIZE);
+			List<Map<String, Object>> ret = tested.processBatch(batch.subList(0, 5));
+			Assert.assertEquals(5, ret.size());
+			Assert.assertEquals(0, ThreadCheckingPreprocessor.instances.get());
+
+			// case - configuration is unknown so calls of thread unsafe preprocessor are serialized
+			tested = new PreprocessorChain(tested.getPreprocessors());
+			tested.setExecutor(pool);
+			tested.setMinChunkSize(1);
+			ret = tested.processBatch(batch);
+			Assert.assertEquals(200, ret.size());
+			Assert.assertEquals(0, ThreadCheckingPreprocessor.instances.get());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void metrics() throws Exception {
+		List<Map<String, Object>> configs = new ArrayList<Map<String, Object>>();
+		configs.add(createConfig("add", AddValuePreprocessor.class, AddValuePreprocessor.CFG_FIELD, "a",
+				AddValuePreprocessor.CFG_VALUE, "{v}"));
+		configs.add(createConfig("thread checker", ThreadCheckingPreprocessor.class));
+		configs.add(createConfig("required", RequiredValidatorPreprocessor.class, RequiredValidatorPreprocessor.CFG_FIELD,
+				"v"));
+
+		// case - not instrumented chain
+		Assert.assertTrue(StructuredContentPreprocessorFactory.createPreprocessorChain(configs, null).getMetrics()
+				.isEmpty());
+
+		PreprocessorChain tested = StructuredContentPreprocessorFactory.createPreprocessorChain(configs, null, true);
+		Map<String, PreprocessorMetrics> metrics = tested.getMetrics();
+		Assert.assertEquals(3, metrics.size());
+		Assert.assertEquals("add", metrics.keySet().iterator().next());
+
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("v", "1");
+		tested.preprocessData(data, null);
+		Assert.assertEquals("1", data.get("a"));
+		Assert.assertEquals(1, metrics.get("add").getInvocationCount());
+		Assert.assertEquals(1, metrics.get("required").getInvocationCount());
+
+		// case - parallel batch, metrics of thread unsafe preprocessor are shared by threads
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			tested.setExecutor(pool);
+			tested.setMinChunkSize(5);
+			List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+			List<PreprocessChainContextImpl> contexts = new ArrayList<PreprocessChainContextImpl>();
+			for (int i = 0; i < 100; i++) {
+				Map<String, Object> item = new HashMap<String, Object>();
+				if (i % 10 != 5)
+					item.put("v", "v" + i);
+				batch.add(item);
+				contexts.add(new PreprocessChainContextImpl());
+			}
+			tested.processBatch(batch, contexts);
+		} finally {
+			pool.shutdown();
+		}
+		Assert.assertEquals(101, metrics.get("thread checker").getDocumentCount());
+		Assert.assertEquals(101, metrics.get("required").getDocumentCount());
+		Assert.assertEquals(10, metrics.get("required").getWarningCount());
+		Assert.assertEquals(metrics.get("required").getInvocationCount(), metrics.get("add").getInvocationCount());
+
+		// case - JMX
+		List<ObjectName> names = tested.registerMetricsMBeans("org.jboss.elasticsearch.test");
+		try {
+			Assert.assertEquals(3, names.size());
+			Assert.assertEquals("org.jboss.elasticsearch.test:type=PreprocessorMetrics,name=\"thread checker\"", names
+					.get(1).toString());
+			Assert.assertEquals(101L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+					names.get(1), "DocumentCount"));
+			try {
+				tested.registerMetricsMBeans("org.jboss.elasticsearch.test");
+				Assert.fail("IllegalStateException must be thrown");
+			} catch (IllegalStateException e) {
+				// OK
+			}
+		} finally {
+			tested.unregisterMetricsMBeans();
+		}
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(names.get(0)));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void conditions() {
+		List<Map<String, Object>> configs = new ArrayList<Map<String, Object>>();
+		configs.add(createConfig("add", AddValuePreprocessor.class, AddValuePreprocessor.CFG_FIELD, "a",
+				AddValuePreprocessor.CFG_VALUE, "{v}"));
+		configs.get(0).put(StructuredContentPreprocessorFactory.CFG_WHEN,
+				createMap(PreprocessorCondition.CFG_FIELD, "type", PreprocessorCondition.CFG_VALUE, "bug"));
+		configs.add(createConfig("copy", AddValuePreprocessor.class, AddValuePreprocessor.CFG_FIELD, "c",
+				AddValuePreprocessor.CFG_VALUE, "{v}"));
+		configs.get(1).put(StructuredContentPreprocessorFactory.CFG_WHEN, createMap(PreprocessorCondition.CFG_FIELD, "v"));
+		configs.add(createConfig("required", RequiredValidatorPreprocessor.class, RequiredValidatorPreprocessor.CFG_FIELD,
+				"v"));
+
+		// case - not instrumented chain and one data item
+		PreprocessorChain tested = StructuredContentPreprocessorFactory.createPreprocessorChain(configs, null);
+		Assert.assertEquals(new LinkedHashSet<String>(Arrays.asList("type", "a", "v", "c")), tested.getAccessedFields());
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("v", "1");
+		data.put("type", "task");
+		Assert.assertSame(data, tested.preprocessData(data, null));
+		Assert.assertFalse(data.containsKey("a"));
+		data.put("type", "bug");
+		tested.preprocessData(data, null);
+		Assert.assertEquals("1", data.get("a"));
+		Assert.assertEquals(2, tested.getSkippedCounts().size());
+		Assert.assertEquals(new Long(1), tested.getSkippedCounts().get("add"));
+		Assert.assertEquals(new Long(0), tested.getSkippedCounts().get("copy"));
+
+		// case - parallel batch, skipped items are counted by metrics also
+		tested = StructuredContentPreprocessorFactory.createPreprocessorChain(configs, null, true);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+		List<Map<String, Object>> ret;
+		try {
+			tested.setExecutor(pool);
+			tested.setMinChunkSize(5);
+			for (int i = 0; i < 100; i++) {
+				Map<String, Object> item = new HashMap<String, Object>();
+				if (i % 10 != 5)
+					item.put("v", "v" + i);
+				item.put("type", i % 2 == 0 ? "bug" : "task");
+				batch.add(item);
+			}
+			batch.add(null);
+			ret = tested.processBatch(batch);
+		} finally {
+			pool.shutdown();
+		}
+		for (int i = 0; i < 100; i++) {
+			if (i % 10 == 5) {
+				Assert.assertNull(ret.get(i));
+			} else {
+				Assert.assertSame(batch.get(i), ret.get(i));
+				Assert.assertEquals(i % 2 == 0 ? "v" + i : null, ret.get(i).get("a"));
+			}
+		}
+		Assert.assertNull(ret.get(100));
+		Assert.assertEquals(new Long(50), tested.getSkippedCounts().get("add"));
+		Assert.assertEquals(new Long(10), tested.getSkippedCounts().get("copy"));
+		Map<String, PreprocessorMetrics> metrics = tested.getMetrics();
+		Assert.assertEquals(50, metrics.get("add").getSkippedCount());
+		Assert.assertEquals(50, metrics.get("add").getDocumentCount());
+		Assert.assertEquals(90, metrics.get("copy").getDocumentCount());
+		Assert.assertEquals(0, metrics.get("required").getSkippedCount());
+		Assert.assertEquals(100, metrics.get("required").getDocumentCount());
+
+		// case - invalid condition
+		configs.get(2).put(StructuredContentPreprocessorFactory.CFG_WHEN, "v");
+		try {
+			StructuredContentPreprocessorFactory.createPreprocessorChain(configs, null);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("'when' element must be Map or non empty List of Maps for preprocessor required",
+					e.getMessage());
+		}
+	}
+
+	private static final String STREAMING_DOCUMENT = "{\"id\":1,\"name\":\"Doc\","
+			+ "\"big\":{\"x\":[1,2.5,{\"y\":\"z\"}],\"b\":true},"
+			+ "\"nested\":{\"a\":\"A\",\"html\":\"<b>bold</b> text\",\"remove\":\"r\","
+			+ "\"keep\":{\"k\":[1,null]},\"keep2\":\"v\",\"keep3\":[{\"a\":[]},\"b\"]},"
+			+ "\"meta\":{\"other\":\"o\"},\"list\":[{\"a\":1}],\"empty\":null}";
+
+	private static List<Map<String, Object>> createStreamingChainConfigs() {
+		List<Map<String, Object>> configs = new ArrayList<Map<String, Object>>();
+		configs.add(createConfig("add", AddValuePreprocessor.class, AddValuePreprocessor.CFG_FIELD, "meta.title",
+				AddValuePreprocessor.CFG_VALUE, "{name} - {nested.a}"));
+		configs.add(createConfig("strip", StripHtmlPreprocessor.class, StripHtmlPreprocessor.CFG_SOURCE_FIELD,
+				"nested.html", StripHtmlPreprocessor.CFG_TARGET_FIELD, "nested.text"));
+		configs.add(createConfig("remove", RemoveMultipleFieldsPreprocessor.class,
+				RemoveMultipleFieldsPreprocessor.CFG_FIELDS, "nested.remove"));
+		return configs;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void preprocessDataAsync() throws Exception {
+		final List<SettableFuture<Map<String, Object>>> pending = new ArrayList<SettableFuture<Map<String, Object>>>();
+		AsyncStructuredContentPreprocessor async = Mockito.mock(AsyncStructuredContentPreprocessor.class, Mockito
+				.withSettings().extraInterfaces(ThreadSafePreprocessor.class));
+		Mockito.when(async.getName()).thenReturn("async");
+		Mockito.when(async.preprocessDataAsync(Mockito.anyMap(), Mockito.any(PreprocessChainContext.class))).thenAnswer(
+				new Answer<ListenableFuture<Map<String, Object>>>() {
+					@Override
+					public ListenableFuture<Map<String, Object>> answer(InvocationOnMock invocation) throws Throwable {
+						SettableFuture<Map<String, Object>> ret = SettableFuture.create();
+						pending.add(ret);
+						return ret;
+					}
+				});
+
+		List<StructuredContentPreprocessor> preprocs = new ArrayList<StructuredContentPreprocessor>();
+		preprocs.add(createAddValuePreprocessor("before", "b"));
+		preprocs.add(async);
+		preprocs.add(createAddValuePreprocessor("after", "{before}"));
+		preprocs.add(createRequiredValidatorPreprocessor("valid"));
+		PreprocessorChain tested = new PreprocessorChain(preprocs);
+
+		// case - calling thread returns when async preprocessor is started, chain continues when it is done
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("valid", "v");
+		PreprocessChainContextImpl context = new PreprocessChainContextImpl();
+		ListenableFuture<Map<String, Object>> ret = tested.preprocessDataAsync(data, context);
+		Assert.assertFalse(ret.isDone());
+		Assert.assertEquals("b", data.get("before"));
+		Assert.assertNull(data.get("after"));
+		Assert.assertEquals(1, pending.size());
+		completeFromOtherThread(pending.get(0), data);
+		Assert.assertSame(data, ret.get(10, TimeUnit.SECONDS));
+		Assert.assertEquals("b", data.get("after"));
+
+		// case - chain continues by given executor, never by thread completing the async preprocessor
+		final List<Runnable> continuations = new ArrayList<Runnable>();
+		Executor executor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				continuations.add(command);
+			}
+		};
+		data = new HashMap<String, Object>();
+		data.put("valid", "v");
+		ret = tested.preprocessDataAsync(data, context, executor);
+		completeFromOtherThread(pending.get(1), data);
+		Assert.assertFalse(ret.isDone());
+		Assert.assertNull(data.get("after"));
+		Assert.assertEquals(1, continuations.size());
+		continuations.get(0).run();
+		Assert.assertSame(data, ret.get(10, TimeUnit.SECONDS));
+		Assert.assertEquals("b", data.get("after"));
+
+		// case - rejected continuation fails future
+		ret = tested.preprocessDataAsync(data, context, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException("shutdown");
+			}
+		});
+		completeFromOtherThread(pending.get(2), data);
+		try {
+			ret.get(10, TimeUnit.SECONDS);
+			Assert.fail("ExecutionException must be thrown");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+
+		// case - InvalidDataException from preprocessor after async one fails future
+		data = new HashMap<String, Object>();
+		ret = tested.preprocessDataAsync(data, context);
+		completeFromOtherThread(pending.get(3), data);
+		try {
+			ret.get(10, TimeUnit.SECONDS);
+			Assert.fail("ExecutionException must be thrown");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof InvalidDataException);
+		}
+
+		// case - failure of async preprocessor fails future
+		ret = tested.preprocessDataAsync(data, context);
+		pending.get(4).setException(new InvalidDataException("async failed"));
+		try {
+			ret.get(10, TimeUnit.SECONDS);
+			Assert.fail("ExecutionException must be thrown");
+		} catch (ExecutionException e) {
+			Assert.assertEquals("async failed", e.getCause().getMessage());
+		}
+
+		// case - async preprocessor skipped due condition, so whole chain is done by calling thread
+		List<Map<String, Object>> configs = new ArrayList<Map<String, Object>>();
+		configs.add(createConfig("before", AddValuePreprocessor.class, AddValuePreprocessor.CFG_FIELD, "before",
+				AddValuePreprocessor.CFG_VALUE, "b"));
+		configs.add(createMap(StructuredContentPreprocessorFactory.CFG_NAME, "async"));
+		configs.get(1).put(StructuredContentPreprocessorFactory.CFG_WHEN,
+				createMap(PreprocessorCondition.CFG_FIELD, "lookup"));
+		tested = new PreprocessorChain(Arrays.asList(preprocs.get(0), async), configs, null);
+		data = new HashMap<String, Object>();
+		ret = tested.preprocessDataAsync(data, null);
+		Assert.assertTrue(ret.isDone());
+		Assert.assertEquals("b", ret.get().get("before"));
+		Assert.assertEquals(5, pending.size());
+		Assert.assertEquals(Long.valueOf(1), tested.getSkippedCounts().get("async"));
+	}
+
+	private static void completeFromOtherThread(final SettableFuture<Map<String, Object>> future,
+			final Map<String, Object> data) throws InterruptedException {
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				future.set(data);
+			}
+		};
+		t.start();
+		t.join();
+	}
+
+	@Test
+	public void getAccessedFields() {
+		PreprocessorChain tested = StructuredContentPreprocessorFactory.createPreprocessorChain(
+				createStreamingChainConfigs(), null, true);
+		Assert.assertEquals(new LinkedHashSet<String>(Arrays.asList("meta.title", "name", "nested.a", "nested.html",
+				"nested.text", "nested.remove")), tested.getAccessedFields());
+
+		Assert.assertTrue(new PreprocessorChain(null).getAccessedFields().isEmpty());
+
+		// case - preprocessor which doesn't declare accessed fields
+		List<Map<String, Object>> configs = createStreamingChainConfigs();
+		configs.add(createConfig("mock", StructuredContentPreprocessorMock.class));
+		Assert.assertNull(StructuredContentPreprocessorFactory.createPreprocessorChain(configs, null)
+				.getAccessedFields());
+	}
+
+	@Test
+	public void preprocessData_streaming() throws Exception {
+		List<Map<String, Object>> configs = createStreamingChainConfigs();
+		PreprocessorChain tested = StructuredContentPreprocessorFactory.createPreprocessorChain(configs, null);
+		Map<String, Object> expected = tested.preprocessData(
+				XContentHelper.convertToMap(STREAMING_DOCUMENT.getBytes("UTF-8"), true).v2(), null);
+		Assert.assertEquals("Doc - A", ((Map<?, ?>) expected.get("meta")).get("title"));
+		Assert.assertEquals("bold text", ((Map<?, ?>) expected.get("nested")).get("text"));
+
+		for (XContentType type : new XContentType[] { XContentType.JSON, XContentType.SMILE }) {
+			Assert.assertEquals(type.toString(), expected, preprocessStreaming(tested, type));
+		}
+
+		// case - whole document is materialized if accessed fields are not known
+		configs.add(createConfig("mock", StructuredContentPreprocessorMock.class));
+		tested = StructuredContentPreprocessorFactory.createPreprocessorChain(configs, null);
+		Assert.assertNull(tested.getAccessedFields());
+		Assert.assertEquals(expected, preprocessStreaming(tested, XContentType.JSON));
+
+		// case - document filtered out by chain
+		StructuredContentPreprocessor filter = Mockito.mock(StructuredContentPreprocessor.class);
+		Mockito.when(
+				filter.preprocessData(Mockito.anyMap(), Mockito.any(PreprocessChainContext.class))).thenReturn(null);
+		tested = new PreprocessorChain(Arrays.asList(filter));
+		XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(STREAMING_DOCUMENT);
+		Assert.assertFalse(tested.preprocessData(parser, XContentFactory.jsonBuilder(), null));
+	}
+
+	private static Map<String, Object> preprocessStreaming(PreprocessorChain chain, XContentType type)
+			throws Exception {
+		XContentBuilder input = XContentFactory.contentBuilder(type);
+		input.map(XContentHelper.convertToMap(STREAMING_DOCUMENT.getBytes("UTF-8"), true).v2());
+		XContentParser parser = XContentFactory.xContent(type).createParser(input.bytes());
+		XContentBuilder output = XContentFactory.contentBuilder(type);
+		try {
+			Assert.assertTrue(chain.preprocessData(parser, output, null));
+		} finally {
+			parser.close();
+		}
+		return XContentHelper.convertToMap(output.bytes(), true).v2();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setMinChunkSize_invalid() {
+		new PreprocessorChain(null).setMinChunkSize(0);
+	}
+
+	/**
+	 * Preprocessor which is not thread safe and fails if used by more threads concurrently.
+	 */
+	public static class ThreadCheckingPreprocessor extends StructuredContentPreprocessorBase {
+
+		static final AtomicInteger instances = new AtomicInteger();
+
+		private final AtomicInteger running = new AtomicInteger();
+
+		@Override
+		public void init(Map<String, Object> settings) throws SettingsException {
+			instances.incrementAndGet();
+		}
+
+		@Override
+		public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext chainContext) {
+			if (running.incrementAndGet() != 1)
+				throw new IllegalStateException("Concurrent call");
+			Thread.yield();
+			running.decrementAndGet();
+			return data;
+		}
+	}
+
+	protected static Map<String, Object> createConfig(String name, Class<?> clazz, String... settingsKeyValue) {
+		Map<String, Object> ret = new HashMap<String, Object>();
+		ret.put(StructuredContentPreprocessorFactory.CFG_NAME, name);
+		ret.put(StructuredContentPreprocessorFactory.CFG_CLASS, clazz.getName());
+		ret.put(StructuredContentPreprocessorFactory.CFG_SETTINGS, createMap(settingsKeyValue));
+		return ret;
+	}
+
+	protected static Map<String, Object> createMap(String... keyValue) {
+		Map<String, Object> ret = new HashMap<String, Object>();
+		for (int i = 0; i < keyValue.length; i += 2)
+			ret.put(keyValue[i], keyValue[i + 1]);
+		return ret;
+	}
+
+	protected static AddValuePreprocessor createAddValuePreprocessor(String field, String value) {
+		AddValuePreprocessor ret = new AddValuePreprocessor();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(AddValuePreprocessor.CFG_FIELD, field);
+		settings.put(AddValuePreprocessor.CFG_VALUE, value);
+		ret.init("add " + field, null, settings);
+		return ret;
+	}
+
+	protected static RequiredValidatorPreprocessor createRequiredValidatorPreprocessor(String field) {
+		RequiredValidatorPreprocessor ret = new RequiredValidatorPreprocessor();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(RequiredValidatorPreprocessor.CFG_FIELD, field);
+		ret.init("required " + field, null, settings);
+		return ret;
+	}
+
+}
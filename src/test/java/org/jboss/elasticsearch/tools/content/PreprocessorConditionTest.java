@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link PreprocessorCondition}.
+ */
+public class PreprocessorConditionTest {
+
+	private static Map<String, Object> createItem(String field, String key, Object value) {
+		Map<String, Object> ret = new HashMap<String, Object>();
+		ret.put(PreprocessorCondition.CFG_FIELD, field);
+		if (key != null)
+			ret.put(key, value);
+		return ret;
+	}
+
+	private static void assertCompileFails(Object config) {
+		try {
+			PreprocessorCondition.compile(config);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void compile() {
+		Assert.assertNull(PreprocessorCondition.compile(null));
+
+		PreprocessorCondition tested = PreprocessorCondition.compile(Arrays.asList(createItem("a.b", null, null),
+				createItem("c", PreprocessorCondition.CFG_TYPE, "list")));
+		Assert.assertEquals(new LinkedHashSet<String>(Arrays.asList("a.b", "c")), tested.getFields());
+
+		assertCompileFails("field");
+		assertCompileFails(new ArrayList<Object>());
+		assertCompileFails(Arrays.asList("field"));
+		assertCompileFails(createItem(null, PreprocessorCondition.CFG_EXISTS, true));
+		assertCompileFails(createItem("a", PreprocessorCondition.CFG_EXISTS, "yes"));
+		assertCompileFails(createItem("a", PreprocessorCondition.CFG_VALUES, "a"));
+		assertCompileFails(createItem("a", PreprocessorCondition.CFG_VALUES, Arrays.asList(null, "a")));
+		assertCompileFails(createItem("a", PreprocessorCondition.CFG_TYPE, "date"));
+	}
+
+	@Test
+	public void matches_exists() {
+		PreprocessorCondition tested = PreprocessorCondition.compile(createItem("a.b", null, null));
+		Map<String, Object> data = new HashMap<String, Object>();
+		Assert.assertFalse(tested.matches(null));
+		Assert.assertFalse(tested.matches(data));
+		StructureUtils.putValueIntoMapOfMaps(data, "a.b", null);
+		Assert.assertFalse(tested.matches(data));
+		StructureUtils.putValueIntoMapOfMaps(data, "a.b", "");
+		Assert.assertTrue(tested.matches(data));
+		StructureUtils.putValueIntoMapOfMaps(data, "a.b", new ArrayList<Object>());
+		Assert.assertFalse(tested.matches(data));
+
+		// case - list in path
+		List<Object> list = new ArrayList<Object>();
+		list.add(new HashMap<String, Object>());
+		data.put("a", list);
+		Assert.assertFalse(tested.matches(data));
+		Map<String, Object> item = new HashMap<String, Object>();
+		item.put("b", 1);
+		list.add(item);
+		Assert.assertTrue(tested.matches(data));
+
+		tested = PreprocessorCondition.compile(createItem("a.b", PreprocessorCondition.CFG_EXISTS, false));
+		Assert.assertTrue(tested.matches(null));
+		Assert.assertFalse(tested.matches(data));
+		data.clear();
+		Assert.assertTrue(tested.matches(data));
+	}
+
+	@Test
+	public void matches_value() {
+		PreprocessorCondition tested = PreprocessorCondition.compile(createItem("a", PreprocessorCondition.CFG_VALUE, 10));
+		Map<String, Object> data = new HashMap<String, Object>();
+		Assert.assertFalse(tested.matches(data));
+		data.put("a", 10L);
+		Assert.assertTrue(tested.matches(data));
+		data.put("a", 10.0);
+		Assert.assertTrue(tested.matches(data));
+		data.put("a", "10");
+		Assert.assertFalse(tested.matches(data));
+		data.put("a", Arrays.asList(1, 10));
+		Assert.assertTrue(tested.matches(data));
+
+		tested = PreprocessorCondition.compile(createItem("a", PreprocessorCondition.CFG_VALUES,
+				Arrays.asList("bug", "feature")));
+		data.put("a", "feature");
+		Assert.assertTrue(tested.matches(data));
+		data.put("a", "task");
+		Assert.assertFalse(tested.matches(data));
+		data.put("a", Arrays.asList("task", "bug"));
+		Assert.assertTrue(tested.matches(data));
+	}
+
+	@Test
+	public void matches_type() {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("s", "text");
+		data.put("n", 1.5);
+		data.put("b", false);
+		data.put("o", new HashMap<String, Object>());
+		data.put("l", new ArrayList<Object>());
+		String[] types = { "string", "number", "boolean", "object", "list" };
+		String[] fields = { "s", "n", "b", "o", "l" };
+		for (int t = 0; t < types.length; t++) {
+			for (int f = 0; f < fields.length; f++) {
+				PreprocessorCondition tested = PreprocessorCondition.compile(createItem(fields[f],
+						PreprocessorCondition.CFG_TYPE, types[t]));
+				Assert.assertEquals(types[t] + " " + fields[f], t == f, tested.matches(data));
+			}
+		}
+		Assert.assertFalse(PreprocessorCondition.compile(createItem("x", PreprocessorCondition.CFG_TYPE, "string"))
+				.matches(data));
+	}
+
+	@Test
+	public void matches_all() {
+		Map<String, Object> item = createItem("a", PreprocessorCondition.CFG_TYPE, "string");
+		item.put(PreprocessorCondition.CFG_VALUE, "x");
+		PreprocessorCondition tested = PreprocessorCondition.compile(Arrays.asList(item, createItem("b", null, null)));
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("a", "x");
+		Assert.assertFalse(tested.matches(data));
+		data.put("b", 1);
+		Assert.assertTrue(tested.matches(data));
+		data.put("a", "y");
+		Assert.assertFalse(tested.matches(data));
+	}
+
+}
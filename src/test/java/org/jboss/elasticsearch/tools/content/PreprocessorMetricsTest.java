@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2014 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.tools.content;
+
+import junit.framework.Assert;
+
+import org.jboss.elasticsearch.tools.content.PreprocessorMetrics.Snapshot;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link PreprocessorMetrics}.
+ */
+public class PreprocessorMetricsTest {
+
+	@Test
+	public void buckets() {
+		long[] values = new long[] { 0, 1, 7, 8, 9, 15, 16, 100, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE };
+		int lastIndex = -1;
+		for (long v : values) {
+			int idx = PreprocessorMetrics.bucketIndex(v);
+			Assert.assertTrue("Value " + v, idx >= lastIndex);
+			Assert.assertTrue("Value " + v, v <= PreprocessorMetrics.bucketUpperBound(idx));
+			if (idx > 0)
+				Assert.assertTrue("Value " + v, v > PreprocessorMetrics.bucketUpperBound(idx - 1));
+			// precision 25%
+			Assert.assertTrue("Value " + v, PreprocessorMetrics.bucketUpperBound(idx) - v <= v / 4 + 1);
+			lastIndex = idx;
+		}
+		Assert.assertEquals(Long.MAX_VALUE, PreprocessorMetrics.bucketUpperBound(PreprocessorMetrics
+				.bucketIndex(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void record() {
+		PreprocessorMetrics tested = new PreprocessorMetrics("test");
+		Assert.assertEquals("test", tested.getName());
+
+		Snapshot s = tested.getSnapshot();
+		Assert.assertEquals("test", s.getName());
+		Assert.assertEquals(0, s.getInvocationCount());
+		Assert.assertEquals(0, s.getMeanTimeNanos());
+		Assert.assertEquals(0, s.getPercentileTimeNanos(50));
+
+		for (int i = 1; i <= 100; i++) {
+			tested.recordInvocation(i * 1000, 2);
+		}
+		tested.recordInvocation(-5, 1);
+		tested.recordWarning();
+		tested.recordWarning();
+		tested.recordException();
+
+		s = tested.getSnapshot();
+		Assert.assertEquals(101, s.getInvocationCount());
+		Assert.assertEquals(201, s.getDocumentCount());
+		Assert.assertEquals(2, s.getWarningCount());
+		Assert.assertEquals(1, s.getExceptionCount());
+		Assert.assertEquals(5050000, s.getTotalTimeNanos());
+		Assert.assertEquals(100000, s.getMaxTimeNanos());
+		Assert.assertEquals(50000, s.getMeanTimeNanos());
+		Assert.assertEquals(0, s.getPercentileTimeNanos(0));
+		assertAround(50000, s.getPercentileTimeNanos(50));
+		assertAround(99000, s.getPercentileTimeNanos(99));
+		Assert.assertEquals(100000, s.getPercentileTimeNanos(100));
+
+		// MBean interface
+		Assert.assertEquals(101, tested.getInvocationCount());
+		Assert.assertEquals(201, tested.getDocumentCount());
+		Assert.assertEquals(2, tested.getWarningCount());
+		Assert.assertEquals(1, tested.getExceptionCount());
+		Assert.assertEquals(5.05d, tested.getTotalTimeMillis(), 0.0001d);
+		Assert.assertEquals(0.1d, tested.getMaxTimeMillis(), 0.0001d);
+		Assert.assertEquals(0.05d, tested.getMeanTimeMillis(), 0.0001d);
+		Assert.assertEquals(0.05d, tested.getMedianTimeMillis(), 0.0125d);
+		Assert.assertEquals(0.095d, tested.get95thPercentileTimeMillis(), 0.025d);
+		Assert.assertEquals(0.099d, tested.get99thPercentileTimeMillis(), 0.025d);
+
+		try {
+			s.getPercentileTimeNanos(101);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+
+		// case - reset
+		tested.reset();
+		Assert.assertEquals(0, tested.getInvocationCount());
+		Assert.assertEquals(0, tested.getSnapshot().getMaxTimeNanos());
+		Assert.assertEquals(0, tested.getSnapshot().getPercentileTimeNanos(99));
+		// snapshot taken before is not changed
+		Assert.assertEquals(101, s.getInvocationCount());
+	}
+
+	private static void assertAround(long expected, long actual) {
+		Assert.assertTrue("Expected around " + expected + " but was " + actual, actual >= expected
+				&& actual <= expected * 1.25);
+	}
+
+}
@@ -9,7 +9,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 import junit.framework.Assert;
 
@@ -229,10 +228,11 @@ public class RegExpCapturingGroupPreprocessorTest {
 	public void preprocessData_nobases() {
 
 		RegExpCapturingGroupPreprocessor tested = new RegExpCapturingGroupPreprocessor();
-		tested.name = "mypreproc";
-		tested.fieldSource = "source";
-		tested.resultMapping = RESULT_MAPPING_VALID;
-		tested.patternCompiled = Pattern.compile("num\\s(\\d+)\\sof\\s(.+)");
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(RegExpCapturingGroupPreprocessor.CFG_SOURCE_FIELD, "source");
+		settings.put(RegExpCapturingGroupPreprocessor.CFG_RESULT_MAPPING, RESULT_MAPPING_VALID);
+		settings.put(RegExpCapturingGroupPreprocessor.CFG_PATTERN, "num\\s(\\d+)\\sof\\s(.+)");
+		tested.init("mypreproc", null, settings);
 
 		// case - not NPE
 		tested.preprocessData(null, null);
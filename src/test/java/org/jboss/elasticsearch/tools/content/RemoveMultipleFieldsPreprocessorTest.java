@@ -99,12 +99,15 @@ public class RemoveMultipleFieldsPreprocessorTest {
 	@Test
 	public void preprocessData_nobases() {
 		RemoveMultipleFieldsPreprocessor tested = getTested();
-		tested.fields = new ArrayList<String>();
-		tested.fields.add("removeme_nonexisting");
-		tested.fields.add("removeme_simplevalue");
-		tested.fields.add("removeme_map");
-		tested.fields.add("removeme_list");
-		tested.fields.add("substructure.removeme");
+		List<String> fields = new ArrayList<String>();
+		fields.add("removeme_nonexisting");
+		fields.add("removeme_simplevalue");
+		fields.add("removeme_map");
+		fields.add("removeme_list");
+		fields.add("substructure.removeme");
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(RemoveMultipleFieldsPreprocessor.CFG_FIELDS, fields);
+		tested.init("Test mapper", null, settings);
 
 		Map<String, Object> data = new HashMap<String, Object>();
 		data.put("removeme_simplevalue", "Ahoj");
@@ -129,16 +132,20 @@ public class RemoveMultipleFieldsPreprocessorTest {
 	@Test
 	public void preprocessData_bases() {
 		RemoveMultipleFieldsPreprocessor tested = getTested();
-		tested.fields = new ArrayList<String>();
-		tested.fields.add("removeme_nonexisting");
-		tested.fields.add("removeme_simplevalue");
-		tested.fields.add("removeme_map");
-		tested.fields.add("removeme_list");
-		tested.fields.add("substructure.removeme");
-
-		tested.sourceBases = new ArrayList<String>();
-		tested.sourceBases.add("mybase");
-		tested.sourceBases.add("base2");
+		List<String> fields = new ArrayList<String>();
+		fields.add("removeme_nonexisting");
+		fields.add("removeme_simplevalue");
+		fields.add("removeme_map");
+		fields.add("removeme_list");
+		fields.add("substructure.removeme");
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(RemoveMultipleFieldsPreprocessor.CFG_FIELDS, fields);
+
+		List<String> sourceBases = new ArrayList<String>();
+		sourceBases.add("mybase");
+		sourceBases.add("base2");
+		settings.put(RemoveMultipleFieldsPreprocessor.CFG_source_bases, sourceBases);
+		tested.init("Test mapper", null, settings);
 
 		Map<String, Object> data = new HashMap<String, Object>();
 
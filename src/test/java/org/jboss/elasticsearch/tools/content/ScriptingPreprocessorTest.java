@@ -8,6 +8,7 @@ package org.jboss.elasticsearch.tools.content;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
@@ -80,6 +81,29 @@ public class ScriptingPreprocessorTest {
 
 		Assert.assertEquals("my preprocc", tested.getName());
 		Assert.assertEquals("data.put('v2', data.get('v'))", tested.getScript());
+		Assert.assertEquals(Runtime.getRuntime().availableProcessors(), tested.getEnginePoolSize());
+		Assert.assertEquals(1, tested.getEnginesCreated());
+	}
+
+	@Test
+	public void init_engine_pool_size() {
+		ScriptingPreprocessor tested = new ScriptingPreprocessor();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(ScriptingPreprocessor.CFG_SCRIPT_FIELD, "data.put('v2', data.get('v'))");
+		settings.put(ScriptingPreprocessor.CFG_ENGINE_POOL_SIZE, "3");
+		tested.init("my preprocc", null, settings);
+		Assert.assertEquals(3, tested.getEnginePoolSize());
+
+		for (Object bad : new Object[] { "0", "-1", "bad" }) {
+			settings.put(ScriptingPreprocessor.CFG_ENGINE_POOL_SIZE, bad);
+			try {
+				tested.init("my preprocc", null, settings);
+				Assert.fail("SettingsException must be thrown");
+			} catch (SettingsException e) {
+				Assert.assertEquals("Invalid 'settings/engine_pool_size' configuration value for 'my preprocc' "
+						+ "preprocessor, must be positive number", e.getMessage());
+			}
+		}
 	}
 
 	@Test
@@ -116,6 +140,66 @@ public class ScriptingPreprocessorTest {
 		Assert.assertEquals("val", data.get("v"));
 		Assert.assertEquals("val", data.get("v2"));
 		Assert.assertEquals("con", data.get("c"));
+
+		// case - script is compiled once and engine is reused for next data
+		data = new HashMap<>();
+		data.put("v", "val2");
+		tested.preprocessData(data, context);
+		Assert.assertFalse("no warnings expected but is " + context, context.isWarning());
+		Assert.assertEquals("val2", data.get("v2"));
+		Assert.assertEquals(1, tested.getEnginesCreated());
+	}
+
+	@Test
+	public void preprocessData_globalsNotShared() {
+		ScriptingPreprocessor tested = new ScriptingPreprocessor();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(ScriptingPreprocessor.CFG_SCRIPT_FIELD,
+				"if (typeof counter == 'undefined') counter = 0; counter++; data.put('counter', '' + counter);");
+		settings.put(ScriptingPreprocessor.CFG_ENGINE_POOL_SIZE, 1);
+		tested.init("my preprocc", null, settings);
+
+		for (int i = 0; i < 3; i++) {
+			PreprocessChainContextImpl context = new PreprocessChainContextImpl();
+			Map<String, Object> data = new HashMap<>();
+			tested.preprocessData(data, context);
+			Assert.assertFalse("no warnings expected but is " + context, context.isWarning());
+			Assert.assertEquals("1", data.get("counter"));
+		}
+	}
+
+	@Test
+	public void preprocessData_parallel() throws Exception {
+		final ScriptingPreprocessor tested = new ScriptingPreprocessor();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(ScriptingPreprocessor.CFG_SCRIPT_FIELD, "data.put('v2', data.get('v') + '-' + data.get('v'));");
+		settings.put(ScriptingPreprocessor.CFG_ENGINE_POOL_SIZE, 2);
+		tested.init("my preprocc", null, settings);
+
+		final AtomicInteger errors = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int threadNum = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 50; i++) {
+						Map<String, Object> data = new HashMap<>();
+						String v = threadNum + "_" + i;
+						data.put("v", v);
+						PreprocessChainContextImpl context = new PreprocessChainContextImpl();
+						tested.preprocessData(data, context);
+						if (context.isWarning() || !(v + "-" + v).equals(data.get("v2")))
+							errors.incrementAndGet();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		Assert.assertEquals(0, errors.get());
+		Assert.assertTrue(tested.getEnginesCreated() <= 2);
 	}
 
 }
@@ -5,6 +5,8 @@
  */
 package org.jboss.elasticsearch.tools.content;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -15,7 +17,9 @@ import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.SettingsException;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.jboss.elasticsearch.tools.content.testtools.TestUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 
 /**
@@ -25,6 +29,9 @@ import org.mockito.Mockito;
  */
 public class SimpleValueMapMapperPreprocessorTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void init_settingerrors() {
 		SimpleValueMapMapperPreprocessor tested = new SimpleValueMapMapperPreprocessor();
@@ -99,14 +106,63 @@ public class SimpleValueMapMapperPreprocessorTest {
 		Assert.assertEquals(1, tested.valueMap.size());
 	}
 
+	@Test
+	public void preprocessData_valueMappingFile() throws IOException {
+		Client client = Mockito.mock(Client.class);
+		File file = MappedValueMappingTableTest.writeMappingFile(folder.newFile("mapping.txt"),
+				"orig1\tfile1\norig2\tfile2\n");
+
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_SOURCE_FIELD, "source");
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_TARGET_FIELD, "target");
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_VALUE_DEFAULT, "default");
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_VALUE_MAPPING_FILE, file.getPath());
+		Map<String, String> mapping = new HashMap<String, String>();
+		mapping.put("orig2", "inline2");
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_VALUE_MAPPING, mapping);
+		SimpleValueMapMapperPreprocessor tested = new SimpleValueMapMapperPreprocessor();
+		tested.init("Test mapper", client, settings);
+		Assert.assertEquals(2, tested.getValueMappingTable().size());
+
+		// case - table is shared by preprocessors using the same file
+		SimpleValueMapMapperPreprocessor tested2 = new SimpleValueMapMapperPreprocessor();
+		tested2.init("Test mapper 2", client, settings);
+		Assert.assertSame(tested.getValueMappingTable(), tested2.getValueMappingTable());
+
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("source", "orig1");
+		tested.preprocessData(values, null);
+		Assert.assertEquals("file1", values.get("target"));
+
+		// case - inline mapping has precedence
+		values.put("source", "orig2");
+		tested.preprocessData(values, null);
+		Assert.assertEquals("inline2", values.get("target"));
+
+		values.put("source", "orig3");
+		tested.preprocessData(values, null);
+		Assert.assertEquals("default", values.get("target"));
+
+		// case - invalid file
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_VALUE_MAPPING_FILE, new File(folder.getRoot(), "unknown.txt")
+				.getPath());
+		try {
+			tested.init("Test mapper", client, settings);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertTrue(e.getMessage().startsWith(
+					"Invalid 'settings/value_mapping_file' configuration value for 'Test mapper' preprocessor: "));
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void preprocessData() {
 		Client client = Mockito.mock(Client.class);
 
 		SimpleValueMapMapperPreprocessor tested = new SimpleValueMapMapperPreprocessor();
-		tested
-				.init("Test mapper", client, TestUtils.loadJSONFromClasspathFile("/SimpleValueMapMapper_preprocessData.json"));
+		Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/SimpleValueMapMapper_preprocessData.json");
+		tested.init("Test mapper", client, settings);
 
 		// case - not NPE
 		tested.preprocessData(null, null);
@@ -131,7 +187,8 @@ public class SimpleValueMapMapperPreprocessorTest {
 		}
 
 		// case - correct mapping if input data are in map, dot notation for source field
-		tested.fieldSource = "source.level1";
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_SOURCE_FIELD, "source.level1");
+		tested.init("Test mapper", client, settings);
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
 			Map<String, Object> source = new HashMap<String, Object>();
@@ -147,8 +204,9 @@ public class SimpleValueMapMapperPreprocessorTest {
 		}
 
 		// case - default set to original marker
-		tested.fieldSource = "source";
-		tested.defaultValue = "{" + ValueUtils.PATTERN_KEY_ORIGINAL_VALUE + "}";
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_SOURCE_FIELD, "source");
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_VALUE_DEFAULT, "{" + ValueUtils.PATTERN_KEY_ORIGINAL_VALUE + "}");
+		tested.init("Test mapper", client, settings);
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
 			values.put("source", "unknown");
@@ -157,8 +215,10 @@ public class SimpleValueMapMapperPreprocessorTest {
 		}
 
 		// case - more complicated pattern in default value
-		tested.fieldSource = "source";
-		tested.defaultValue = "I'm {name} and no map value is found for '{" + ValueUtils.PATTERN_KEY_ORIGINAL_VALUE + "}'";
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_SOURCE_FIELD, "source");
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_VALUE_DEFAULT, "I'm {name} and no map value is found for '{"
+				+ ValueUtils.PATTERN_KEY_ORIGINAL_VALUE + "}'");
+		tested.init("Test mapper", client, settings);
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
 			values.put("source", "unknown");
@@ -168,7 +228,8 @@ public class SimpleValueMapMapperPreprocessorTest {
 		}
 
 		// case - default not set so nothing in target field
-		tested.defaultValue = null;
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_VALUE_DEFAULT, null);
+		tested.init("Test mapper", client, settings);
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
 			values.put("source", "unknown");
@@ -177,7 +238,8 @@ public class SimpleValueMapMapperPreprocessorTest {
 		}
 
 		// case - bad value type in source field, so nothing in target, and WARN in log (not asserted)
-		tested.defaultValue = "default";
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_VALUE_DEFAULT, "default");
+		tested.init("Test mapper", client, settings);
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
 			values.put("source", new HashMap<String, Object>());
@@ -198,7 +260,8 @@ public class SimpleValueMapMapperPreprocessorTest {
 		}
 
 		// case - dot notation on target field, map exists on target first level
-		tested.fieldTarget = "target.value";
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_TARGET_FIELD, "target.value");
+		tested.init("Test mapper", client, settings);
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
 			Map<String, Object> target = new HashMap<String, Object>();
@@ -211,14 +274,15 @@ public class SimpleValueMapMapperPreprocessorTest {
 		}
 
 		// case - dot notation on target field, map do not exists on any target level
-		tested.fieldTarget = "target.value.level2.level3";
+		settings.put(SimpleValueMapMapperPreprocessor.CFG_TARGET_FIELD, "target.value.level2.level3");
+		tested.init("Test mapper", client, settings);
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
 			values.put("source", "orig1");
 
 			tested.preprocessData(values, null);
 			Assert.assertNotNull(values.get("target"));
-			Assert.assertEquals("new1", XContentMapValues.extractValue(tested.fieldTarget, values));
+			Assert.assertEquals("new1", XContentMapValues.extractValue("target.value.level2.level3", values));
 		}
 
 	}
@@ -81,6 +81,18 @@ public class StripHtmlPreprocessorTest {
 							e.getMessage());
 		}
 
+		// case - invalid mode
+		settings.put(StripHtmlPreprocessor.CFG_TARGET_FIELD, "tf");
+		settings.put(StripHtmlPreprocessor.CFG_MODE, "sax");
+		try {
+			tested.init("Test mapper", null, settings);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			Assert.assertEquals(
+					"Invalid 'settings/mode' configuration value for 'Test mapper' preprocessor, must be 'dom' or 'streaming'",
+					e.getMessage());
+		}
+
 	}
 
 	@Test
@@ -102,6 +114,21 @@ public class StripHtmlPreprocessorTest {
 			Assert.assertEquals("sf", tested.getFieldSource());
 			Assert.assertEquals("tf", tested.getFieldTarget());
 			Assert.assertEquals(sb, tested.getSourceBases());
+			Assert.assertFalse(tested.isStreaming());
+		}
+
+		// case - streaming mode
+		{
+			Map<String, Object> settings = new HashMap<String, Object>();
+			settings.put(StripHtmlPreprocessor.CFG_SOURCE_FIELD, "sf");
+			settings.put(StripHtmlPreprocessor.CFG_TARGET_FIELD, "tf");
+			settings.put(StripHtmlPreprocessor.CFG_MODE, "streaming");
+			tested.init("Test mapper", client, settings);
+			Assert.assertTrue(tested.isStreaming());
+
+			settings.put(StripHtmlPreprocessor.CFG_MODE, "dom");
+			tested.init("Test mapper", client, settings);
+			Assert.assertFalse(tested.isStreaming());
 		}
 
 	}
@@ -110,9 +137,10 @@ public class StripHtmlPreprocessorTest {
 	public void preprocessData_nobases() {
 
 		StripHtmlPreprocessor tested = new StripHtmlPreprocessor();
-		tested.name = "Test";
-		tested.fieldSource = "source";
-		tested.fieldTarget = "target";
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(StripHtmlPreprocessor.CFG_SOURCE_FIELD, "source");
+		settings.put(StripHtmlPreprocessor.CFG_TARGET_FIELD, "target");
+		tested.init("Test", null, settings);
 
 		// case - not NPE
 		tested.preprocessData(null, null);
@@ -169,8 +197,9 @@ public class StripHtmlPreprocessorTest {
 
 		// case - process HTML - dot notation for source and target
 		{
-			tested.fieldSource = "values2.source";
-			tested.fieldTarget = "values2.target";
+			settings.put(StripHtmlPreprocessor.CFG_SOURCE_FIELD, "values2.source");
+			settings.put(StripHtmlPreprocessor.CFG_TARGET_FIELD, "values2.target");
+			tested.init("Test", null, settings);
 			Map<String, Object> values = new HashMap<String, Object>();
 			Map<String, Object> values2 = new HashMap<String, Object>();
 			values.put("values2", values2);
@@ -181,16 +210,31 @@ public class StripHtmlPreprocessorTest {
 			Assert.assertEquals("aa bb cdgh < text in div & then invalid paragraph test pre &",
 					(String) values2.get("target"));
 		}
+
+		// case - process HTML - streaming mode
+		{
+			tested.streaming = true;
+			Map<String, Object> values = new HashMap<String, Object>();
+			Map<String, Object> values2 = new HashMap<String, Object>();
+			values.put("values2", values2);
+			values2.put("source", "<b>aa<b>bb<br>cdgh &lt;<div>text in div</div>\n &amp; then\n invalid <p> paragraph "
+					+ "<pre>test\npre &amp;</pre>");
+			tested.preprocessData(values, null);
+			Assert.assertEquals("aa bb cdgh < text in div & then invalid paragraph test pre &",
+					(String) values2.get("target"));
+		}
 	}
 
 	@Test
 	public void preprocessData_bases() {
 
 		StripHtmlPreprocessor tested = new StripHtmlPreprocessor();
-		tested.name = "Test";
-		tested.fieldSource = "source";
-		tested.fieldTarget = "target";
-		tested.sourceBases = Arrays.asList(new String[] { "author", "editor", "comments" });
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(StripHtmlPreprocessor.CFG_SOURCE_FIELD, "source");
+		settings.put(StripHtmlPreprocessor.CFG_TARGET_FIELD, "target");
+		settings.put(StripHtmlPreprocessor.CFG_source_bases,
+				Arrays.asList(new String[] { "author", "editor", "comments" }));
+		tested.init("Test", null, settings);
 
 		// case - test it
 		{
@@ -131,4 +131,22 @@ public class StructuredContentPreprocessorFactoryTest {
 				((StructuredContentPreprocessorMock) preprocs.get(1)).settings.get("some_setting_2_2"));
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void createPreprocessorChain() {
+		Client clientMock = mock(Client.class);
+
+		List<Map<String, Object>> preprocessorConfig = (List<Map<String, Object>>) (TestUtils
+				.loadJSONFromClasspathFile("/StructuredContentPreprocessorFactory.json")).get("preprocessors");
+		PreprocessorChain chain = StructuredContentPreprocessorFactory.createPreprocessorChain(preprocessorConfig,
+				clientMock);
+		Assert.assertEquals(2, chain.getPreprocessors().size());
+		Assert.assertEquals("Status Normalizer", chain.getPreprocessors().get(0).getName());
+		Assert.assertEquals("Issue type Normalizer", chain.getPreprocessors().get(1).getName());
+
+		// case - no configuration means empty chain
+		chain = StructuredContentPreprocessorFactory.createPreprocessorChain(null, clientMock);
+		Assert.assertTrue(chain.getPreprocessors().isEmpty());
+	}
+
 }
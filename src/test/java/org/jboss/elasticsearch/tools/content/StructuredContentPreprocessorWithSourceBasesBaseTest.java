@@ -84,6 +84,8 @@ public class StructuredContentPreprocessorWithSourceBasesBaseTest {
 				.mock(StructuredContentPreprocessorWithSourceBasesBase.class);
 		Mockito.doCallRealMethod().when(tested).init(Mockito.anyMap());
 		Mockito.doCallRealMethod().when(tested).preprocessData(Mockito.anyMap(), Mockito.any(PreprocessChainContext.class));
+		Mockito.doCallRealMethod().when(tested)
+				.preprocessData(Mockito.anyMap(), Mockito.any(), Mockito.any(PreprocessChainContext.class));
 		Mockito.doCallRealMethod().when(tested).getSourceBases();
 		Map<String, Object> settings = new HashMap<String, Object>();
 		tested.init(settings);
@@ -93,6 +95,7 @@ public class StructuredContentPreprocessorWithSourceBasesBaseTest {
 
 		Mockito.verify(tested).init(settings);
 		Mockito.verify(tested).preprocessData(data, null);
+		Mockito.verify(tested).preprocessData(data, null, null);
 		Mockito.verify(tested).processOneSourceValue(data, null, null, null);
 		Mockito.verify(tested, Mockito.times(0)).createContext(Mockito.anyMap());
 		Mockito.verifyNoMoreInteractions(tested);
@@ -106,7 +109,10 @@ public class StructuredContentPreprocessorWithSourceBasesBaseTest {
 		tested.name = "mypreproc";
 		Mockito.doCallRealMethod().when(tested).init(Mockito.anyMap());
 		Mockito.doCallRealMethod().when(tested).preprocessData(Mockito.anyMap(), Mockito.any(PreprocessChainContext.class));
+		Mockito.doCallRealMethod().when(tested)
+				.preprocessData(Mockito.anyMap(), Mockito.any(), Mockito.any(PreprocessChainContext.class));
 		Mockito.doCallRealMethod().when(tested).getSourceBases();
+		Mockito.doCallRealMethod().when(tested).getSourceBasesPaths();
 		Mockito.doCallRealMethod().when(tested)
 				.addDataWarning(Mockito.any(PreprocessChainContext.class), Mockito.anyString());
 		tested.logger = Mockito.mock(ESLogger.class);
@@ -142,6 +148,8 @@ public class StructuredContentPreprocessorWithSourceBasesBaseTest {
 
 		Mockito.verify(tested).init(settings);
 		Mockito.verify(tested).preprocessData(data, chainContext);
+		Mockito.verify(tested).preprocessData(data, mockContext, chainContext);
+		Mockito.verify(tested).getSourceBasesPaths();
 		Mockito.verify(tested).processOneSourceValue(authorMock, mockContext, "author", chainContext);
 		Mockito.verify(tested, Mockito.times(1)).processOneSourceValue(Mockito.eq(author2Mock), Mockito.eq(mockContext),
 				Mockito.eq("comments.author"), Mockito.eq(chainContext));
@@ -178,10 +178,11 @@ public class TrimStringValuePreprocessorTest {
 	public void preprocessData_nobases() {
 
 		TrimStringValuePreprocessor tested = new TrimStringValuePreprocessor();
-		tested.name = "mypreproc";
-		tested.fieldSource = "source";
-		tested.fieldTarget = "target";
-		tested.maxSize = 5;
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(TrimStringValuePreprocessor.CFG_SOURCE_FIELD, "source");
+		settings.put(TrimStringValuePreprocessor.CFG_TARGET_FIELD, "target");
+		settings.put(TrimStringValuePreprocessor.CFG_MAX_SIZE, 5);
+		tested.init("mypreproc", null, settings);
 
 		// case - not NPE
 		tested.preprocessData(null, null);
@@ -234,7 +235,8 @@ public class TrimStringValuePreprocessorTest {
 			Assert.assertEquals("aabbc", values.get(tested.fieldTarget));
 		}
 
-		tested.maxSize = 2;
+		settings.put(TrimStringValuePreprocessor.CFG_MAX_SIZE, 2);
+		tested.init("mypreproc", null, settings);
 		// case - shorten short value
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
@@ -243,7 +245,8 @@ public class TrimStringValuePreprocessorTest {
 			Assert.assertEquals("ab", values.get(tested.fieldTarget));
 		}
 
-		tested.maxSize = 5;
+		settings.put(TrimStringValuePreprocessor.CFG_MAX_SIZE, 5);
+		tested.init("mypreproc", null, settings);
 		// case - shorten value
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
@@ -261,7 +264,8 @@ public class TrimStringValuePreprocessorTest {
 		}
 
 		// case - trim value whitespaces and shorten it
-		tested.maxSize = 8;
+		settings.put(TrimStringValuePreprocessor.CFG_MAX_SIZE, 8);
+		tested.init("mypreproc", null, settings);
 		{
 			Map<String, Object> values = new HashMap<String, Object>();
 			values.put(tested.fieldSource, " too long value  ");
@@ -271,9 +275,10 @@ public class TrimStringValuePreprocessorTest {
 
 		// case - dot notation
 		{
-			tested.fieldSource = "my_field.level1.level2";
-			tested.fieldTarget = "my_field.level21.level22";
-			tested.maxSize = 3;
+			settings.put(TrimStringValuePreprocessor.CFG_SOURCE_FIELD, "my_field.level1.level2");
+			settings.put(TrimStringValuePreprocessor.CFG_TARGET_FIELD, "my_field.level21.level22");
+			settings.put(TrimStringValuePreprocessor.CFG_MAX_SIZE, 3);
+			tested.init("mypreproc", null, settings);
 			Map<String, Object> values = new HashMap<String, Object>();
 			StructureUtils.putValueIntoMapOfMaps(values, tested.fieldSource, "   Value   ");
 			tested.preprocessData(values, null);
@@ -285,11 +290,13 @@ public class TrimStringValuePreprocessorTest {
 	public void preprocessData_bases() {
 
 		TrimStringValuePreprocessor tested = new TrimStringValuePreprocessor();
-		tested.name = "Test";
-		tested.fieldSource = "source";
-		tested.fieldTarget = "target";
-		tested.maxSize = 3;
-		tested.sourceBases = Arrays.asList(new String[] { "author", "editor", "comments" });
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(TrimStringValuePreprocessor.CFG_SOURCE_FIELD, "source");
+		settings.put(TrimStringValuePreprocessor.CFG_TARGET_FIELD, "target");
+		settings.put(TrimStringValuePreprocessor.CFG_source_bases,
+				Arrays.asList(new String[] { "author", "editor", "comments" }));
+		settings.put(TrimStringValuePreprocessor.CFG_MAX_SIZE, 3);
+		tested.init("Test", null, settings);
 
 		// case - test it
 		{
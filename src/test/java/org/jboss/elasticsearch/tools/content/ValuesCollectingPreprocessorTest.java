@@ -166,7 +166,9 @@ public class ValuesCollectingPreprocessorTest {
 			commentsList.add(newMapWithFiled("authors", al2));
 			al2.add(newMapWithFiled("id", "ca2"));
 
-			tested.fieldTarget = "target.level1";
+			Map<String, Object> settings = TestUtils.loadJSONFromClasspathFile("/ValuesCollecting_preprocessData.json");
+			settings.put(ValuesCollectingPreprocessor.CFG_TARGET_FIELD, "target.level1");
+			tested.init("Test mapper", null, settings);
 
 			tested.preprocessData(values, null);
 			List<Object> vals = (List<Object>) XContentMapValues.extractValue(tested.fieldTarget, values);